@@ -0,0 +1,96 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.benchmarks;
+
+import com.androidmapsextensions.dendrogram.ClusterGroupBuilder;
+import com.androidmapsextensions.dendrogram.Dendrogram;
+import com.androidmapsextensions.dendrogram.DendrogramBuilder;
+import com.androidmapsextensions.dendrogram.EquirectangularDissimilarityMeasure;
+import com.androidmapsextensions.dendrogram.HierarchicalAgglomerativeClusterer;
+import com.androidmapsextensions.dendrogram.ObservationStore;
+import com.androidmapsextensions.dendrogram.SingleLinkageClusterer;
+import com.androidmapsextensions.greedy.GreedyClusterIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Full clustering of one cluster group, as done by HierarchicalClusteringStrategy and GreedyClusteringStrategy for every rebuilt group.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 3 )
+@Fork( 1 )
+public class ClustererBenchmark {
+
+	@Param( { "1000", "10000", "100000" } )
+	public int size;
+
+	@Param( { "UNIFORM", "GAUSSIAN", "DUPLICATES" } )
+	public Datasets.Distribution distribution;
+
+	private ObservationStore observations;
+	private int[] selected;
+
+	@Setup
+	public void setUp() {
+		observations = Datasets.create( distribution, size );
+		selected = Datasets.all( observations );
+	}
+
+	@Benchmark
+	public Dendrogram agglomerative() {
+		DendrogramBuilder builder = new DendrogramBuilder( observations );
+		new HierarchicalAgglomerativeClusterer( observations, EquirectangularDissimilarityMeasure.INSTANCE ).cluster( builder, selected, size );
+		return builder.getDendrogram();
+	}
+
+	// As with ClusteringSettings.approximation( 0.5 )
+	@Benchmark
+	public Dendrogram approximateAgglomerative() {
+		DendrogramBuilder builder = new DendrogramBuilder( observations );
+		new HierarchicalAgglomerativeClusterer( observations, EquirectangularDissimilarityMeasure.INSTANCE, 0.5 ).cluster( builder, selected, size );
+		return builder.getDendrogram();
+	}
+
+	// As with ClusteringSettings.lazyRefinementZoom( 12 ), clusters split above zoom 12 are not built
+	@Benchmark
+	public Dendrogram coarseAgglomerative() {
+		return new ClusterGroupBuilder( observations, EquirectangularDissimilarityMeasure.INSTANCE, false ).buildCoarse( selected, 12f );
+	}
+
+	@Benchmark
+	public Dendrogram singleLinkage() {
+		DendrogramBuilder builder = new DendrogramBuilder( observations );
+		new SingleLinkageClusterer( observations, EquirectangularDissimilarityMeasure.INSTANCE ).cluster( builder, selected, size );
+		return builder.getDendrogram();
+	}
+
+	// Zoom levels 0 to 20 and the default cluster size, as GreedyClusteringStrategy builds them
+	@Benchmark
+	public GreedyClusterIndex greedy() {
+		return GreedyClusterIndex.build( observations, selected, 180.0, 20, true );
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.benchmarks;
+
+import com.androidmapsextensions.dendrogram.ObservationStore;
+
+import java.util.Random;
+
+
+/**
+ * Reproducible marker sets in a region of about 70 by 45 miles, all in cluster group 0.
+ */
+public final class Datasets {
+
+	public enum Distribution {
+		UNIFORM,    // Spread evenly
+		GAUSSIAN,   // Dense around a few town centers
+		DUPLICATES, // Few distinct positions, e.g. geocoded to the same addresses
+	}
+
+	public static final double MIN_LATITUDE  = 50.0;
+	public static final double MIN_LONGITUDE = 19.0;
+	public static final double SPAN = 1.0;
+
+	private static final int CENTERS = 50;
+	private static final double CENTER_SIGMA = 0.01;
+	private static final int MARKERS_PER_POSITION = 20; // On average
+
+	private Datasets() {
+	}
+
+	public static ObservationStore create( Distribution distribution, int size ) {
+		Random random = new Random( 42 );
+		ObservationStore store = new ObservationStore( size );
+		switch ( distribution ) {
+			case UNIFORM:
+				for ( int i = 0; i < size; ++i ) {
+					store.set( i, MIN_LATITUDE + SPAN * random.nextDouble(), MIN_LONGITUDE + SPAN * random.nextDouble(), 0 );
+				}
+				break;
+			case GAUSSIAN:
+				double[][] centers = uniform( random, CENTERS );
+				for ( int i = 0; i < size; ++i ) {
+					double[] center = centers[ random.nextInt( CENTERS ) ];
+					store.set( i, center[0] + CENTER_SIGMA * random.nextGaussian(), center[1] + CENTER_SIGMA * random.nextGaussian(), 0 );
+				}
+				break;
+			case DUPLICATES:
+				double[][] positions = uniform( random, Math.max( 1, size / MARKERS_PER_POSITION ) );
+				for ( int i = 0; i < size; ++i ) {
+					double[] position = positions[ random.nextInt( positions.length ) ];
+					store.set( i, position[0], position[1], 0 );
+				}
+				break;
+		}
+		return store;
+	}
+
+	static int[] all( ObservationStore store ) {
+		int[] observations = new int[ store.getNumberOfObservations() ];
+		for ( int i = 0; i < observations.length; ++i ) {
+			observations[ i ] = i;
+		}
+		return observations;
+	}
+
+	static double[][] positions( ObservationStore store ) {
+		double[][] positions = new double[ store.getNumberOfObservations() ][];
+		for ( int i = 0; i < positions.length; ++i ) {
+			positions[ i ] = store.getPosition( i );
+		}
+		return positions;
+	}
+
+	private static double[][] uniform( Random random, int count ) {
+		double[][] positions = new double[ count ][];
+		for ( int i = 0; i < count; ++i ) {
+			positions[ i ] = new double[]{ MIN_LATITUDE + SPAN * random.nextDouble(), MIN_LONGITUDE + SPAN * random.nextDouble() };
+		}
+		return positions;
+	}
+}
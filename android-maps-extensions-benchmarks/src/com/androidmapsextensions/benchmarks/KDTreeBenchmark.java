@@ -0,0 +1,185 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.benchmarks;
+
+import com.androidmapsextensions.kdtree.KDTree;
+import com.androidmapsextensions.kdtree.KDTree2D;
+import com.androidmapsextensions.kdtree.ResultHeap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * KDTree operations as used by the clusterer (nearest neighbors, delete and add of merged clusters)
+ * and by the strategy (range queries over the visible region).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class KDTreeBenchmark {
+
+	private static final int QUERIES = 1024;
+	private static final double VIEWPORT_SPAN = 0.1; // About a city district
+
+	@Param( { "1000", "10000", "100000" } )
+	public int size;
+
+	@Param( { "UNIFORM", "GAUSSIAN", "DUPLICATES" } )
+	public Datasets.Distribution distribution;
+
+	private double[][] positions;
+	private List<Integer> observations;
+	private KDTree<Integer> tree;
+	private KDTree2D tree2D;
+	private double[][] lows;
+	private double[][] highs;
+	private double[][] queryPoints;
+	private int query;
+	private int observation;
+	private final ResultHeap<Integer> heap = new ResultHeap<Integer>( 2 );
+	private final CountingVisitor visitor = new CountingVisitor();
+	private final CountingVisitor2D visitor2D = new CountingVisitor2D();
+
+	private static final class CountingVisitor implements KDTree.Visitor<Integer> {
+		int count;
+
+		@Override
+		public void visit( double[] key, Integer val ) {
+			++count;
+		}
+	}
+
+	private static final class CountingVisitor2D implements KDTree2D.Visitor {
+		int count;
+
+		@Override
+		public void visit( double x, double y, int value ) {
+			++count;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		positions = Datasets.positions( Datasets.create( distribution, size ) );
+		observations = new ArrayList<Integer>( size );
+		for ( int i = 0; i < size; ++i ) {
+			observations.add( i );
+		}
+		tree = build();
+		double[] xs = new double[ size ];
+		double[] ys = new double[ size ];
+		int[] values = new int[ size ];
+		for ( int i = 0; i < size; ++i ) {
+			xs[ i ] = positions[ i ][ 0 ];
+			ys[ i ] = positions[ i ][ 1 ];
+			values[ i ] = i;
+		}
+		tree2D = new KDTree2D( xs, ys, values );
+
+		Random random = new Random( 7 );
+		lows  = new double[ QUERIES ][];
+		highs = new double[ QUERIES ][];
+		queryPoints = new double[ QUERIES ][];
+		for ( int i = 0; i < QUERIES; ++i ) {
+			double latitude  = Datasets.MIN_LATITUDE  + ( Datasets.SPAN - VIEWPORT_SPAN ) * random.nextDouble();
+			double longitude = Datasets.MIN_LONGITUDE + ( Datasets.SPAN - VIEWPORT_SPAN ) * random.nextDouble();
+			lows[ i ]  = new double[]{ latitude, longitude };
+			highs[ i ] = new double[]{ latitude + VIEWPORT_SPAN, longitude + VIEWPORT_SPAN };
+			queryPoints[ i ] = positions[ random.nextInt( size ) ];
+		}
+	}
+
+	private KDTree<Integer> build() {
+		KDTree<Integer> tree = new KDTree<Integer>( 2 );
+		for ( int i = 0; i < positions.length; ++i ) {
+			tree.add( positions[ i ], i );
+		}
+		return tree;
+	}
+
+	@Benchmark
+	@OutputTimeUnit( TimeUnit.MILLISECONDS )
+	public KDTree<Integer> add() {
+		return build();
+	}
+
+	@Benchmark
+	@OutputTimeUnit( TimeUnit.MILLISECONDS )
+	public KDTree<Integer> bulkLoad() {
+		return new KDTree<Integer>( 2, positions, observations );
+	}
+
+	@Benchmark
+	public List<Integer> getRange() {
+		int i = query++ & ( QUERIES - 1 );
+		return tree.getRange( lows[ i ], highs[ i ] );
+	}
+
+	@Benchmark
+	public int range() {
+		int i = query++ & ( QUERIES - 1 );
+		visitor.count = 0;
+		tree.range( lows[ i ], highs[ i ], visitor );
+		return visitor.count;
+	}
+
+	// The clusterer asks for two, the first is the query point itself
+	@Benchmark
+	public ResultHeap<Integer> getNearestNeighbors() {
+		return tree.getNearestNeighbors( queryPoints[ query++ & ( QUERIES - 1 ) ], 2 );
+	}
+
+	@Benchmark
+	public ResultHeap<Integer> nearest() {
+		return tree.nearest( queryPoints[ query++ & ( QUERIES - 1 ) ], 2, heap );
+	}
+
+	@Benchmark
+	public int range2D() {
+		int i = query++ & ( QUERIES - 1 );
+		visitor2D.count = 0;
+		tree2D.range( lows[ i ][ 0 ], lows[ i ][ 1 ], highs[ i ][ 0 ], highs[ i ][ 1 ], visitor2D );
+		return visitor2D.count;
+	}
+
+	// As the clusterer asks, for the nearest other entry
+	@Benchmark
+	public int nearest2D() {
+		int i = observation++ % size;
+		return tree2D.nearest( positions[ i ][ 0 ], positions[ i ][ 1 ], i );
+	}
+
+	// Leaves the tree's content unchanged, deleted entries accumulate until their subtree is rebuilt
+	@Benchmark
+	public void deleteAndAdd() {
+		int i = observation++ % size;
+		tree.delete( positions[ i ], i );
+		tree.add( positions[ i ], i );
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+
+/**
+ * Builds the dendrogram of a cluster group from scratch, including the render zoom levels of its nodes
+ * (see RenderedZoomLevels), and the helper structures kept for each cluster group while it is rendered.
+ * Cluster groups of the same ObservationStore may be built concurrently, the store must not change meanwhile.
+ *
+ * <pre>
+ * ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+ * Dendrogram dendrogram = builder.build( store.partitionByClusterGroup( groups ).get( group ), true );
+ * </pre>
+ */
+public final class ClusterGroupBuilder {
+
+	private final ObservationStore observations;
+	private final DissimilarityMeasure dissimilarityMeasure;
+	private final boolean singleLinkage;
+	private final double approximation;
+	private final double collapseGrid;
+
+	public ClusterGroupBuilder( ObservationStore observations, DissimilarityMeasure dissimilarityMeasure, boolean singleLinkage ) {
+		this( observations, dissimilarityMeasure, singleLinkage, 0.0, 0.0 );
+	}
+
+	public ClusterGroupBuilder( ObservationStore observations, DissimilarityMeasure dissimilarityMeasure, boolean singleLinkage, double approximation ) {
+		this( observations, dissimilarityMeasure, singleLinkage, approximation, 0.0 );
+	}
+
+	/**
+	 * @param approximation epsilon of the approximate nearest neighbors of the agglomerative clusterer, 0 for exact ones.
+	 *            Single linkage is always exact.
+	 * @param collapseGrid cell size in degrees of the grid whose cells are collapsed into one node before agglomerative clustering,
+	 *            see HierarchicalAgglomerativeClusterer.setCollapseGrid(). 0 collapses identical positions only.
+	 */
+	public ClusterGroupBuilder( ObservationStore observations, DissimilarityMeasure dissimilarityMeasure, boolean singleLinkage,
+			double approximation, double collapseGrid ) {
+		this.observations = observations;
+		this.dissimilarityMeasure = dissimilarityMeasure;
+		this.singleLinkage = singleLinkage;
+		this.approximation = approximation;
+		this.collapseGrid = collapseGrid;
+	}
+
+	/**
+	 * @param clustered false for markers which are never clustered, their MergeNodes are never rendered
+	 */
+	public Dendrogram build( int[] selected, boolean clustered ) {
+		DendrogramBuilder dendrogramBuilder = new DendrogramBuilder( observations );
+		if ( singleLinkage ) {
+			new SingleLinkageClusterer( observations, dissimilarityMeasure ).cluster( dendrogramBuilder, selected, selected.length );
+		}
+		else {
+			createClusterer().cluster( dendrogramBuilder, selected, selected.length );
+		}
+		return finish( dendrogramBuilder, clustered );
+	}
+
+	/**
+	 * Like build(), but the merges go straight into the columns of a CompactDendrogram, see CompactDendrogramBuilder.
+	 * For dendrograms which are only read afterwards, e.g. those of ClusteredTile or DendrogramFile.
+	 */
+	public CompactDendrogram buildCompact( int[] selected, boolean clustered ) {
+		CompactDendrogramBuilder compactBuilder = new CompactDendrogramBuilder( observations, selected.length );
+		if ( singleLinkage ) {
+			new SingleLinkageClusterer( observations, dissimilarityMeasure ).cluster( compactBuilder, selected, selected.length );
+		}
+		else {
+			createClusterer().cluster( compactBuilder, selected, selected.length );
+		}
+		CompactDendrogram dendrogram = compactBuilder.getDendrogram();
+		dendrogram.computeZoomLevels( clustered );
+		return dendrogram;
+	}
+
+	/**
+	 * Clusters spatial partitions concurrently, see HierarchicalAgglomerativeClusterer.clusterParallel().
+	 * Single linkage is exact and fast enough without partitions, it is built on the calling thread.
+	 * Must not be called from a thread of executor.
+	 */
+	public Dendrogram buildParallel( int[] selected, boolean clustered, ExecutorService executor, int nPartitions, double maxPartitionDissimilarity ) {
+		if ( singleLinkage ) {
+			return build( selected, clustered );
+		}
+		DendrogramBuilder dendrogramBuilder = new DendrogramBuilder( observations );
+		createClusterer().clusterParallel( dendrogramBuilder, selected, selected.length,
+				executor, nPartitions, maxPartitionDissimilarity );
+		return finish( dendrogramBuilder, clustered );
+	}
+
+	/**
+	 * Builds the dendrogram only for the clusters rendered below refinementZoom, see HierarchicalAgglomerativeClusterer.clusterCoarse().
+	 * Smaller clusters are LazyNodes, which are clustered by refine(), or buildRefinement() or buildRefinementOfCopy() and splice(), once the camera zooms in to them.
+	 * Always uses agglomerative clustering, the observations must be clustered.
+	 */
+	public Dendrogram buildCoarse( int[] selected, float refinementZoom ) {
+		// Cells whose diagonal at the equator is the dissimilarity first split at refinementZoom, the measure is linear at this scale
+		double maxDissimilarity = RenderedZoomLevels.zoomToThreshold( refinementZoom );
+		double cellSize = maxDissimilarity / dissimilarityMeasure.computeDissimilarity( observations, new double[]{ 0, 0 }, new double[]{ 1, 1 } );
+		DendrogramBuilder dendrogramBuilder = new DendrogramBuilder( observations );
+		createClusterer().clusterCoarse( dendrogramBuilder, selected, selected.length, cellSize );
+		return finish( dendrogramBuilder, true );
+	}
+
+	/**
+	 * Replaces a LazyNode of the dendrogram by the sub-dendrogram of its observations, with rendered zoom ranges.
+	 * Same as splice( dendrogram, node, buildRefinement( node ) ).
+	 *
+	 * @return the root of the sub-dendrogram, at the position of the LazyNode
+	 */
+	public DendrogramNode refine( Dendrogram dendrogram, LazyNode node ) {
+		DendrogramNode root = buildRefinement( node );
+		splice( dendrogram, node, root );
+		return root;
+	}
+
+	/**
+	 * Clusters the observations of a LazyNode into a sub-dendrogram with rendered zoom ranges, which is not attached yet.
+	 * Reads only the observations and the LazyNode's observation list, so it may run on another thread than the one
+	 * owning the dendrogram, given its own copy of the observations.
+	 */
+	public DendrogramNode buildRefinement( LazyNode node ) {
+		DendrogramBuilder dendrogramBuilder = new DendrogramBuilder( observations );
+		int[] selected = node.getObservations();
+		createClusterer().cluster( dendrogramBuilder, selected, selected.length );
+		DendrogramNode root = dendrogramBuilder.getDendrogram().getRoot();
+		RenderedZoomLevels.compute( root, true );
+		return root;
+	}
+
+	/**
+	 * Same as buildRefinement(), for a builder given only the observations of the node, copied with
+	 * ObservationStore.copy( node.getObservations() ): observation i of the copy is the i-th observation of the node.
+	 * The leaves of the sub-dendrogram are numbered back to the node's observations.
+	 */
+	public DendrogramNode buildRefinementOfCopy( LazyNode node ) {
+		DendrogramBuilder dendrogramBuilder = new DendrogramBuilder( observations );
+		int[] selected = node.getObservations();
+		createClusterer().cluster( dendrogramBuilder, range( selected.length ), selected.length );
+		DendrogramNode root = renumberLeaves( dendrogramBuilder.getDendrogram().getRoot(), selected );
+		RenderedZoomLevels.compute( root, true );
+		return root;
+	}
+
+	// Replaces every leaf by one of observations[ leaf's observation ], iterative as chained clusters are deep
+	private static DendrogramNode renumberLeaves( DendrogramNode root, int[] observations ) {
+		if ( root instanceof ObservationNode ) {
+			return renumber( (ObservationNode) root, observations );
+		}
+		List<DendrogramNode> stack = new ArrayList<DendrogramNode>();
+		stack.add( root );
+		while ( ! stack.isEmpty() ) {
+			MergeNode node = (MergeNode) stack.remove( stack.size() - 1 );
+			for ( DendrogramNode child : new DendrogramNode[]{ node.getLeft(), node.getRight() } ) {
+				if ( child instanceof ObservationNode ) {
+					node.replaceChild( child, renumber( (ObservationNode) child, observations ) );
+				}
+				else {
+					stack.add( child );
+				}
+			}
+		}
+		return root;
+	}
+
+	private static ObservationNode renumber( ObservationNode leaf, int[] observations ) {
+		return new ObservationNode( observations[ leaf.getObservation() ], leaf.getPosition() );
+	}
+
+	private static int[] range( int n ) {
+		int[] selected = new int[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			selected[ i ] = i;
+		}
+		return selected;
+	}
+
+	/**
+	 * Replaces a LazyNode of the dendrogram by its sub-dendrogram from buildRefinement() or buildRefinementOfCopy().
+	 */
+	public static void splice( Dendrogram dendrogram, LazyNode node, DendrogramNode root ) {
+		MergeNode parent = node.getParent();
+		node.setParent( null );
+		if ( parent == null ) {
+			dendrogram.setRoot( root );
+		}
+		else {
+			parent.replaceChild( node, root );
+		}
+		// Only the root's range depends on its parent
+		RenderedZoomLevels.update( root, true );
+	}
+
+	private HierarchicalAgglomerativeClusterer createClusterer() {
+		HierarchicalAgglomerativeClusterer clusterer = new HierarchicalAgglomerativeClusterer( observations, dissimilarityMeasure, approximation );
+		clusterer.setCollapseGrid( collapseGrid );
+		return clusterer;
+	}
+
+	private static Dendrogram finish( DendrogramBuilder dendrogramBuilder, boolean clustered ) {
+		Dendrogram dendrogram = dendrogramBuilder.getDendrogram();
+		RenderedZoomLevels.compute( dendrogram.getRoot(), clustered );
+		return dendrogram;
+	}
+
+	/**
+	 * Stores each ObservationNode of the dendrogram at the index of its observation.
+	 */
+	public static void addLeaves( Dendrogram dendrogram, ObservationNode[] leafForObservation ) {
+		for ( DendrogramNode node : nodes( dendrogram.getRoot() ) ) {
+			if ( node instanceof ObservationNode ) {
+				leafForObservation[ ((ObservationNode) node).getObservation() ] = (ObservationNode) node;
+			}
+		}
+	}
+
+	/**
+	 * Stores each LazyNode of a coarse dendrogram at the indices of its observations.
+	 */
+	public static void addLazyNodes( Dendrogram dendrogram, LazyNode[] lazyNodeForObservation ) {
+		for ( DendrogramNode node : nodes( dendrogram.getRoot() ) ) {
+			if ( node instanceof LazyNode ) {
+				for ( int observation : ((LazyNode) node).getObservations() ) {
+					lazyNodeForObservation[ observation ] = (LazyNode) node;
+				}
+			}
+		}
+	}
+
+	// Pre-order, iterative as dendrograms of chained clusters can be as deep as they are large
+	private static List<DendrogramNode> nodes( DendrogramNode root ) {
+		List<DendrogramNode> nodes = new ArrayList<DendrogramNode>();
+		if ( root == null ) {
+			return nodes;
+		}
+		List<DendrogramNode> stack = new ArrayList<DendrogramNode>();
+		stack.add( root );
+		while ( ! stack.isEmpty() ) {
+			DendrogramNode node = stack.remove( stack.size() - 1 );
+			nodes.add( node );
+			if ( node instanceof MergeNode ) {
+				stack.add( node.getRight() );
+				stack.add( node.getLeft() );
+			}
+		}
+		return nodes;
+	}
+}
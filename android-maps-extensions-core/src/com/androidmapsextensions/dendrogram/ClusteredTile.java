@@ -0,0 +1,170 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import java.util.Arrays;
+
+
+/**
+ * The clusters of the observations within one tile at one zoom level, for clustering only around the visible region.
+ * Tiles of a level are squares of 360 / 2^level degrees, starting at latitude -90 and longitude -180.
+ *
+ * The observations are clustered hierarchically (see ClusterGroupBuilder) and the dendrogram is cut at the level:
+ * the clusters are the nodes rendered at that zoom (see RenderedZoomLevels). Clusters never cross tile borders.
+ * The tile keeps its dendrogram as a CompactDendrogram built straight from the merges, a cluster is a range of its nodes.
+ *
+ * <pre>
+ * ClusteredTile tile = ClusteredTile.build( storeOfTheTile, level, true, 0.0, 0.0 );
+ * for ( int cluster = 0; cluster < tile.getClusterCount(); ++cluster ) {
+ *     draw( tile.getLatitude( cluster ), tile.getLongitude( cluster ), tile.getObservations( cluster ) );
+ * }
+ * </pre>
+ */
+public final class ClusteredTile {
+
+	private final CompactDendrogram dendrogram; // Kept for the tile's lifetime, null when not clustered
+	private final int[] clusterNodes;           // By cluster, the node cut at the level or the observation when not clustered
+	private final int[] leafForObservation;
+	private final double[] latitudes;           // By observation, only when not clustered
+	private final double[] longitudes;
+
+	private ClusteredTile( CompactDendrogram dendrogram, int[] clusterNodes, int[] leafForObservation, double[] latitudes, double[] longitudes ) {
+		this.dendrogram = dendrogram;
+		this.clusterNodes = clusterNodes;
+		this.leafForObservation = leafForObservation;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+	}
+
+	/**
+	 * Clusters all observations of the store, which should be those of one tile.
+	 *
+	 * @param clustered false for markers which are never clustered, every observation is a cluster of its own
+	 * @param approximation see ClusterGroupBuilder
+	 * @param collapseGrid see ClusterGroupBuilder
+	 */
+	public static ClusteredTile build( ObservationStore store, int level, boolean clustered, double approximation, double collapseGrid ) {
+		int n = store.getNumberOfObservations();
+		if ( ! clustered ) {
+			int[] clusterNodes = new int[ n ];
+			double[] latitudes = new double[ n ];
+			double[] longitudes = new double[ n ];
+			for ( int i = 0; i < n; ++i ) {
+				clusterNodes[ i ] = i;
+				latitudes[ i ] = store.getLatitude( i );
+				longitudes[ i ] = store.getLongitude( i );
+			}
+			return new ClusteredTile( null, clusterNodes, null, latitudes, longitudes );
+		}
+
+		int[] all = new int[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			all[ i ] = i;
+		}
+		CompactDendrogram dendrogram = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false, approximation, collapseGrid )
+				.buildCompact( all, true );
+
+		int[] leafForObservation = new int[ n ];
+		for ( int node = 0; node < dendrogram.getNodeCount(); ++node ) {
+			if ( dendrogram.isLeaf( node ) ) {
+				leafForObservation[ dendrogram.getObservation( node ) ] = node;
+			}
+		}
+
+		// Iterative, dendrograms of chained clusters can be as deep as they are large
+		int nClusters = 0;
+		int[] clusterNodes = new int[ n ];
+		int[] stack = new int[ Math.max( 1, n ) ];
+		int top = 0;
+		if ( dendrogram.getRoot() >= 0 ) {
+			stack[ top++ ] = dendrogram.getRoot();
+		}
+		while ( top > 0 ) {
+			int node = stack[ --top ];
+			if ( level >= dendrogram.getMaxZoomRendered( node ) ) {
+				// Split at this level
+				stack[ top++ ] = dendrogram.getLeft( node );
+				stack[ top++ ] = dendrogram.getRight( node );
+				continue;
+			}
+			clusterNodes[ nClusters++ ] = node;
+		}
+		return new ClusteredTile( dendrogram, Arrays.copyOf( clusterNodes, nClusters ), leafForObservation, null, null );
+	}
+
+	/**
+	 * The tile's dendrogram, e.g. to cut it at another zoom. Null for markers which are never clustered.
+	 */
+	public CompactDendrogram getDendrogram() {
+		return dendrogram;
+	}
+
+	public int getClusterCount() {
+		return clusterNodes.length;
+	}
+
+	public double getLatitude( int cluster ) {
+		return dendrogram != null ? dendrogram.getLatitude( clusterNodes[ cluster ] ) : latitudes[ cluster ];
+	}
+
+	public double getLongitude( int cluster ) {
+		return dendrogram != null ? dendrogram.getLongitude( clusterNodes[ cluster ] ) : longitudes[ cluster ];
+	}
+
+	public int[] getObservations( int cluster ) {
+		if ( dendrogram == null ) {
+			return new int[]{ clusterNodes[ cluster ] };
+		}
+		int node = clusterNodes[ cluster ];
+		int[] observations = new int[ dendrogram.getObservationCount( node ) ];
+		int nObservations = 0;
+		// The subtree is a contiguous range of nodes
+		for ( int member = dendrogram.getFirstDescendant( node ); member <= node; ++member ) {
+			if ( dendrogram.isLeaf( member ) ) {
+				observations[ nObservations++ ] = dendrogram.getObservation( member );
+			}
+		}
+		return observations;
+	}
+
+	/**
+	 * The zoom from which the observation is not clustered with others of this tile.
+	 */
+	public float getMinZoomLevelNotClustered( int observation ) {
+		if ( dendrogram == null ) {
+			return 0.0f;
+		}
+		int parent = dendrogram.getParent( leafForObservation[ observation ] );
+		return parent < 0 ? 0.0f : RenderedZoomLevels.thresholdToZoom( dendrogram.getDissimilarity( parent ) );
+	}
+
+	public static double getTileSize( int level ) {
+		return 360.0 / ( 1 << level );
+	}
+
+	public static int getColumnCount( int level ) {
+		return 1 << level;
+	}
+
+	public static int getRowCount( int level ) {
+		return Math.max( 1, ( 1 << level ) / 2 );
+	}
+
+	public static int getColumn( int level, double longitude ) {
+		int column = (int) Math.floor( ( longitude + 180.0 ) / getTileSize( level ) );
+		return Math.max( 0, Math.min( getColumnCount( level ) - 1, column ) );
+	}
+
+	public static int getRow( int level, double latitude ) {
+		int row = (int) Math.floor( ( latitude + 90.0 ) / getTileSize( level ) );
+		return Math.max( 0, Math.min( getRowCount( level ) - 1, row ) );
+	}
+}
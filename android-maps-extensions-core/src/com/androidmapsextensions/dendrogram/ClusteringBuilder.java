@@ -28,4 +28,10 @@ public interface ClusteringBuilder {
      */
     public MergeNode merge(DendrogramNode i, DendrogramNode j, double dist);
 
+    /**
+     * Called instead of merge() when there is nothing to merge, e.g. only one observation was clustered.
+     * @param node the root of the dendrogram
+     */
+    public void setRoot(DendrogramNode node);
+
 }
@@ -0,0 +1,336 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Array-backed form of a complete Dendrogram, one column per attribute instead of one object per node.
+ * Takes about half the memory of the MergeNode / ObservationNode graph and is what DendrogramFile stores.
+ * Built from a Dendrogram by of(), or straight from a clusterer's merges by CompactDendrogramBuilder,
+ * see ClusterGroupBuilder.buildCompact().
+ *
+ * Nodes are numbered in post-order: children come before their parent, the root is the last node, and the subtree
+ * of a node is the contiguous range from getFirstDescendant( node ) to node. Walking the nodes in index order is
+ * a bottom-up traversal, walking a range visits a whole cluster without a stack.
+ *
+ * The zoom ranges are copied from the nodes and can be recomputed with computeZoomLevels().
+ * Marker state is not kept here, the clustering strategy keeps it by node index.
+ */
+public final class CompactDendrogram {
+
+	private static final int NONE = -1;
+
+	private final int[] left;        // NONE for leaves
+	private final int[] right;
+	private final int[] parent;      // NONE for the root
+	private final int[] observation; // NONE for merges
+	private final int[] count;
+	private final double[] latitude;
+	private final double[] longitude;
+	private final double[] dissimilarity;
+	private final float[] minZoom;
+	private final float[] maxZoom;
+
+	private CompactDendrogram( int nodeCount ) {
+		left          = new int[ nodeCount ];
+		right         = new int[ nodeCount ];
+		parent        = new int[ nodeCount ];
+		observation   = new int[ nodeCount ];
+		count         = new int[ nodeCount ];
+		latitude      = new double[ nodeCount ];
+		longitude     = new double[ nodeCount ];
+		dissimilarity = new double[ nodeCount ];
+		minZoom       = new float[ nodeCount ];
+		maxZoom       = new float[ nodeCount ];
+	}
+
+	/**
+	 * Copies a dendrogram without LazyNodes, see ClusterGroupBuilder.buildCoarse().
+	 */
+	public static CompactDendrogram of( Dendrogram dendrogram ) {
+		List<DendrogramNode> nodes = postOrder( dendrogram.getRoot() );
+		int nodeCount = nodes.size();
+		CompactDendrogram compact = new CompactDendrogram( nodeCount );
+		// Children are numbered before their parent, their indices are on the stack when it is reached
+		int[] stack = new int[ nodeCount ];
+		int top = 0;
+		for ( int i = 0; i < nodeCount; ++i ) {
+			DendrogramNode node = nodes.get( i );
+			if ( node instanceof LazyNode ) {
+				throw new IllegalArgumentException( "Coarse dendrograms cannot be made compact, see ClusterGroupBuilder.buildCoarse()" );
+			}
+			if ( node instanceof ObservationNode ) {
+				compact.setLeaf( i, ((ObservationNode) node).getObservation() );
+			}
+			else {
+				int r = stack[ --top ];
+				int l = stack[ --top ];
+				compact.setMerge( i, l, r, ((MergeNode) node).getDissimilarity() );
+			}
+			compact.latitude[ i ]  = node.getPosition()[ 0 ];
+			compact.longitude[ i ] = node.getPosition()[ 1 ];
+			compact.minZoom[ i ]   = node.getMinZoomRendered();
+			compact.maxZoom[ i ]   = node.getMaxZoomRendered();
+			stack[ top++ ] = i;
+		}
+		return compact;
+	}
+
+	/**
+	 * Reads the columns in the order DendrogramFile stores them, the nodes in post-order.
+	 *
+	 * @throws IllegalArgumentException if the columns are not a single tree in post-order
+	 */
+	static CompactDendrogram fromColumns( int[] observations, double[] latitudes, double[] longitudes, double[] dissimilarities,
+			float[] minZooms, float[] maxZooms ) {
+		int nodeCount = observations.length;
+		CompactDendrogram compact = new CompactDendrogram( nodeCount );
+		int[] stack = new int[ nodeCount ];
+		int top = 0;
+		for ( int i = 0; i < nodeCount; ++i ) {
+			if ( observations[ i ] >= 0 ) {
+				compact.setLeaf( i, observations[ i ] );
+			}
+			else {
+				if ( top < 2 ) {
+					throw new IllegalArgumentException( "Merge without two children at node " + i );
+				}
+				int r = stack[ --top ];
+				int l = stack[ --top ];
+				compact.setMerge( i, l, r, dissimilarities[ i ] );
+			}
+			compact.latitude[ i ]  = latitudes[ i ];
+			compact.longitude[ i ] = longitudes[ i ];
+			compact.minZoom[ i ]   = minZooms[ i ];
+			compact.maxZoom[ i ]   = maxZooms[ i ];
+			stack[ top++ ] = i;
+		}
+		if ( top > 1 ) {
+			throw new IllegalArgumentException( top + " roots" );
+		}
+		return compact;
+	}
+
+	/**
+	 * Lays out the merge sequence recorded by CompactDendrogramBuilder in post-order, the zoom ranges are left at 0.
+	 * A child is a merge by its index in the sequence or an observation by -1 - observation, root is given the same way.
+	 */
+	static CompactDendrogram fromMerges( Experiment experiment, int[] mergeLeft, int[] mergeRight, double[] mergeDissimilarity,
+			double[] mergeLatitude, double[] mergeLongitude, int nMerges, int root ) {
+		int nodeCount = 2 * nMerges + 1;
+		CompactDendrogram compact = new CompactDendrogram( nodeCount );
+		// Filled from the back in the order node, right subtree, left subtree, which is post-order read from the front.
+		// Iterative, dendrograms of chained clusters can be as deep as they are large.
+		int[] stack = new int[ nMerges + 1 ];
+		int[] parentOnStack = new int[ nMerges + 1 ];
+		int top = 0;
+		stack[ top ] = root;
+		parentOnStack[ top++ ] = NONE;
+		for ( int i = nodeCount - 1; i >= 0; --i ) {
+			int merge = stack[ --top ];
+			int p = parentOnStack[ top ];
+			compact.left[ i ]   = NONE;
+			compact.right[ i ]  = NONE;
+			compact.parent[ i ] = p;
+			if ( p != NONE ) {
+				// The right child is popped right after its parent
+				if ( compact.right[ p ] == NONE ) {
+					compact.right[ p ] = i;
+				}
+				else {
+					compact.left[ p ] = i;
+				}
+			}
+			if ( merge < 0 ) {
+				int obs = -1 - merge;
+				double[] position = experiment.getPosition( obs );
+				compact.observation[ i ] = obs;
+				compact.latitude[ i ]    = position[ 0 ];
+				compact.longitude[ i ]   = position[ 1 ];
+			}
+			else {
+				compact.observation[ i ]   = NONE;
+				compact.dissimilarity[ i ] = mergeDissimilarity[ merge ];
+				compact.latitude[ i ]      = mergeLatitude[ merge ];
+				compact.longitude[ i ]     = mergeLongitude[ merge ];
+				stack[ top ] = mergeLeft[ merge ];
+				parentOnStack[ top++ ] = i;
+				stack[ top ] = mergeRight[ merge ];
+				parentOnStack[ top++ ] = i;
+			}
+		}
+		// Children come first
+		for ( int i = 0; i < nodeCount; ++i ) {
+			compact.count[ i ] = compact.isLeaf( i ) ? 1 : compact.count[ compact.left[ i ] ] + compact.count[ compact.right[ i ] ];
+		}
+		return compact;
+	}
+
+	private void setLeaf( int node, int obs ) {
+		left[ node ]        = NONE;
+		right[ node ]       = NONE;
+		parent[ node ]      = NONE;
+		observation[ node ] = obs;
+		count[ node ]       = 1;
+	}
+
+	private void setMerge( int node, int l, int r, double d ) {
+		left[ node ]          = l;
+		right[ node ]         = r;
+		parent[ node ]        = NONE;
+		parent[ l ]           = node;
+		parent[ r ]           = node;
+		observation[ node ]   = NONE;
+		count[ node ]         = count[ l ] + count[ r ];
+		dissimilarity[ node ] = d;
+	}
+
+	/**
+	 * Builds the node graph again, e.g. for HierarchicalClusteringStrategy which edits it as markers change.
+	 */
+	public Dendrogram toDendrogram() {
+		int nodeCount = getNodeCount();
+		DendrogramNode[] nodes = new DendrogramNode[ nodeCount ];
+		for ( int i = 0; i < nodeCount; ++i ) {
+			double[] position = new double[]{ latitude[ i ], longitude[ i ] };
+			DendrogramNode node;
+			if ( isLeaf( i ) ) {
+				node = new ObservationNode( observation[ i ], position );
+			}
+			else {
+				MergeNode merge = new MergeNode( nodes[ left[ i ] ], nodes[ right[ i ] ], dissimilarity[ i ] );
+				nodes[ left[ i ] ].setParent( merge );
+				nodes[ right[ i ] ].setParent( merge );
+				// Keep the stored position, recomputing it from the children may differ in the last bits
+				merge.setPosition( position );
+				node = merge;
+			}
+			node.setMinZoomRendered( minZoom[ i ] );
+			node.setMaxZoomRendered( maxZoom[ i ] );
+			nodes[ i ] = node;
+		}
+		return new Dendrogram( nodeCount > 0 ? nodes[ nodeCount - 1 ] : null );
+	}
+
+	/**
+	 * Like RenderedZoomLevels.compute() for the root.
+	 */
+	public void computeZoomLevels( boolean clustered ) {
+		for ( int i = 0; i < getNodeCount(); ++i ) {
+			if ( ! clustered ) {
+				minZoom[ i ] = isLeaf( i ) ? 0 : Float.MAX_VALUE;
+				maxZoom[ i ] = Float.MAX_VALUE;
+				continue;
+			}
+			minZoom[ i ] = parent[ i ] == NONE ? 0 : RenderedZoomLevels.thresholdToZoom( dissimilarity[ parent[ i ] ] );
+			maxZoom[ i ] = isLeaf( i ) ? Float.MAX_VALUE : RenderedZoomLevels.thresholdToZoom( dissimilarity[ i ] );
+		}
+	}
+
+	public int getNodeCount() {
+		return left.length;
+	}
+
+	/**
+	 * The root's index, -1 for an empty dendrogram.
+	 */
+	public int getRoot() {
+		return getNodeCount() - 1;
+	}
+
+	public boolean isLeaf( int node ) {
+		return left[ node ] == NONE;
+	}
+
+	public int getLeft( int node ) {
+		return left[ node ];
+	}
+
+	public int getRight( int node ) {
+		return right[ node ];
+	}
+
+	/**
+	 * -1 for the root.
+	 */
+	public int getParent( int node ) {
+		return parent[ node ];
+	}
+
+	/**
+	 * -1 for merges.
+	 */
+	public int getObservation( int node ) {
+		return observation[ node ];
+	}
+
+	public int getObservationCount( int node ) {
+		return count[ node ];
+	}
+
+	/**
+	 * The lowest index within the subtree of node, a subtree of n observations spans 2n - 1 nodes.
+	 */
+	public int getFirstDescendant( int node ) {
+		return node - 2 * count[ node ] + 2;
+	}
+
+	public double getLatitude( int node ) {
+		return latitude[ node ];
+	}
+
+	public double getLongitude( int node ) {
+		return longitude[ node ];
+	}
+
+	/**
+	 * 0 for leaves.
+	 */
+	public double getDissimilarity( int node ) {
+		return dissimilarity[ node ];
+	}
+
+	public float getMinZoomRendered( int node ) {
+		return minZoom[ node ];
+	}
+
+	public float getMaxZoomRendered( int node ) {
+		return maxZoom[ node ];
+	}
+
+	// Iterative, dendrograms of chained clusters can be as deep as they are large
+	static List<DendrogramNode> postOrder( DendrogramNode root ) {
+		List<DendrogramNode> nodes = new ArrayList<DendrogramNode>();
+		if ( root == null ) {
+			return nodes;
+		}
+		List<DendrogramNode> stack = new ArrayList<DendrogramNode>();
+		stack.add( root );
+		while ( ! stack.isEmpty() ) {
+			DendrogramNode node = stack.remove( stack.size() - 1 );
+			nodes.add( node );
+			if ( node instanceof MergeNode ) {
+				stack.add( node.getLeft() );
+				stack.add( node.getRight() );
+			}
+		}
+		// Reverse of (node, right subtree, left subtree) is (left subtree, right subtree, node)
+		for ( int i = 0, j = nodes.size() - 1; i < j; ++i, --j ) {
+			DendrogramNode t = nodes.get( i );
+			nodes.set( i, nodes.get( j ) );
+			nodes.set( j, t );
+		}
+		return nodes;
+	}
+}
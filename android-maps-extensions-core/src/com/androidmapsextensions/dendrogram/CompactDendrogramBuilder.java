@@ -0,0 +1,99 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * A CompactDendrogramBuilder records the merges of a clusterer as columns and lays them out as a CompactDendrogram,
+ * without a Dendrogram in between. For dendrograms which are only read once clustered, e.g. those of ClusteredTile.
+ * The clusterer still creates its MergeNodes, but they are garbage as soon as it returns.
+ *
+ * <pre>
+ * CompactDendrogramBuilder compactBuilder = new CompactDendrogramBuilder( store, selected.length );
+ * clusterer.cluster( compactBuilder, selected, selected.length );
+ * CompactDendrogram dendrogram = compactBuilder.getDendrogram();
+ * </pre>
+ */
+public final class CompactDendrogramBuilder implements ClusteringBuilder {
+
+	private static final int NO_ROOT = Integer.MIN_VALUE;
+
+	private final Experiment experiment;
+	// By merge in the order of the merge sequence. A child is a merge by its index or an observation by -1 - observation
+	private final int[] mergeLeft;
+	private final int[] mergeRight;
+	private final double[] mergeDissimilarity;
+	private final double[] mergeLatitude;
+	private final double[] mergeLongitude;
+	// The clusterer's MergeNodes by their index in the merge sequence, until they are merged themselves
+	private final Map<DendrogramNode, Integer> mergeIndexForNode = new IdentityHashMap<DendrogramNode, Integer>();
+	private int nMerges;
+	private int root = NO_ROOT;
+
+	/**
+	 * @param nObservations the number of observations which will be clustered, there are one less merges
+	 */
+	public CompactDendrogramBuilder( Experiment experiment, int nObservations ) {
+		this.experiment = experiment;
+		int capacity = Math.max( 0, nObservations - 1 );
+		mergeLeft          = new int[ capacity ];
+		mergeRight         = new int[ capacity ];
+		mergeDissimilarity = new double[ capacity ];
+		mergeLatitude      = new double[ capacity ];
+		mergeLongitude     = new double[ capacity ];
+	}
+
+	@Override
+	public MergeNode merge( DendrogramNode i, DendrogramNode j, double dist ) {
+		// No parent links, nothing reads them before the columns are laid out
+		MergeNode node = new MergeNode( i, j, dist );
+		mergeLeft[ nMerges ]          = childOf( i );
+		mergeRight[ nMerges ]         = childOf( j );
+		mergeDissimilarity[ nMerges ] = dist;
+		mergeLatitude[ nMerges ]      = node.getPosition()[ 0 ];
+		mergeLongitude[ nMerges ]     = node.getPosition()[ 1 ];
+		mergeIndexForNode.put( node, nMerges );
+		// The last merge is the root unless setRoot() says otherwise
+		root = nMerges++;
+		return node;
+	}
+
+	@Override
+	public void setRoot( DendrogramNode node ) {
+		root = childOf( node );
+	}
+
+	private int childOf( DendrogramNode node ) {
+		if ( node instanceof ObservationNode ) {
+			return -1 - ((ObservationNode) node).getObservation();
+		}
+		if ( node instanceof MergeNode ) {
+			// Each node is merged once, or is the root
+			return mergeIndexForNode.remove( node );
+		}
+		throw new IllegalArgumentException( "Coarse dendrograms cannot be made compact, see ClusterGroupBuilder.buildCoarse()" );
+	}
+
+	/**
+	 * The nodes in post-order, with zoom ranges still to be computed, see CompactDendrogram.computeZoomLevels().
+	 */
+	public CompactDendrogram getDendrogram() {
+		if ( root == NO_ROOT ) {
+			// Nothing was clustered
+			return CompactDendrogram.of( new Dendrogram( null ) );
+		}
+		return CompactDendrogram.fromMerges( experiment, mergeLeft, mergeRight, mergeDissimilarity, mergeLatitude, mergeLongitude,
+				nMerges, root );
+	}
+}
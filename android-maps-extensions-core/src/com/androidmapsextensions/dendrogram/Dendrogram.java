@@ -19,7 +19,7 @@ package com.androidmapsextensions.dendrogram;
  */
 public final class Dendrogram {
 
-    private final DendrogramNode root;
+    private DendrogramNode root;
 
 
     public Dendrogram(final DendrogramNode root) {
@@ -30,6 +30,13 @@ public final class Dendrogram {
         return root;
     }
 
+    void setRoot(final DendrogramNode root) {
+        this.root = root;
+        if (root != null) {
+            root.setParent(null);
+        }
+    }
+
     public void dump() {
         dumpNode("  ", root);
     }
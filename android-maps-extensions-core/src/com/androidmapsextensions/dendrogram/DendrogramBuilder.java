@@ -21,6 +21,7 @@ package com.androidmapsextensions.dendrogram;
 public final class DendrogramBuilder implements ClusteringBuilder {
 	
     private MergeNode lastMergeNode;
+    private DendrogramNode singleRoot;
     private Experiment experiment;
     
     public DendrogramBuilder( Experiment experiment ) {
@@ -34,9 +35,13 @@ public final class DendrogramBuilder implements ClusteringBuilder {
         return node;
     }
 
+    public final void setRoot( DendrogramNode node ) {
+        singleRoot = node;
+    }
+
     public final Dendrogram getDendrogram() {
-        if ( experiment.getNumberOfObservations() == 1 ) {
-            return new Dendrogram( new ObservationNode(0, experiment.getPosition( 0 ) ) );
+        if ( lastMergeNode == null ) {
+            return new Dendrogram( singleRoot );
         } else {
             return new Dendrogram( lastMergeNode );
         }
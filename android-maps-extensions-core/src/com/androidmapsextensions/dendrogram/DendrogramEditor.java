@@ -0,0 +1,170 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+
+/**
+ * A DendrogramEditor modifies an existing Dendrogram in place, so that adding or removing observations
+ * does not require clustering all observations again.
+ * Only the MergeNodes on the path from the modified node to the root are updated.
+ *
+ * <pre>
+ * DendrogramEditor editor = new DendrogramEditor(experiment, dissimilarityMeasure, listener);
+ * editor.insert(dendrogram, new ObservationNode(observation, position));
+ * editor.remove(dendrogram, observationNode);
+ * </pre>
+ */
+public final class DendrogramEditor {
+
+	/**
+	 * Notified about every node whose position or parent changes.
+	 * onNodeRemoved() is called before the node is modified or dropped from the dendrogram,
+	 * onNodeAdded() after the node was attached or modified.
+	 */
+	public interface Listener {
+		void onNodeRemoved( DendrogramNode node );
+		void onNodeAdded( DendrogramNode node );
+	}
+
+	private final Experiment           mExperiment;
+	private final DissimilarityMeasure mDissimilarityMeasure;
+	private final Listener             mListener;
+
+	public DendrogramEditor( final Experiment experiment, final DissimilarityMeasure dissimilarityMeasure, final Listener listener ) {
+		this.mExperiment = experiment;
+		this.mDissimilarityMeasure = dissimilarityMeasure;
+		this.mListener = listener;
+	}
+
+	/**
+	 * Splice a node (an ObservationNode or the root of a sub-dendrogram) into the dendrogram as a whole.
+	 */
+	public void insert( final Dendrogram dendrogram, final DendrogramNode node ) {
+		if ( dendrogram.getRoot() == null ) {
+			dendrogram.setRoot( node );
+			notifyAdded( node );
+			return;
+		}
+		DendrogramNode target = findInsertionTarget( dendrogram.getRoot(), node.getPosition() );
+		wrap( dendrogram, target, node );
+	}
+
+	/**
+	 * Merge all observations of another dendrogram into this one.
+	 * Subtrees of the other dendrogram which are tighter than their distance to the insertion target are spliced in as a whole,
+	 * the others are split up and their children merged one by one.
+	 */
+	public void merge( final Dendrogram dendrogram, final Dendrogram other ) {
+		if ( other.getRoot() != null ) {
+			mergeNode( dendrogram, other.getRoot() );
+		}
+	}
+
+	private void mergeNode( final Dendrogram dendrogram, final DendrogramNode node ) {
+		if ( dendrogram.getRoot() == null ) {
+			dendrogram.setRoot( node );
+			notifyAdded( node );
+			return;
+		}
+		DendrogramNode target = findInsertionTarget( dendrogram.getRoot(), node.getPosition() );
+		double dist = mDissimilarityMeasure.computeDissimilarity( mExperiment, node.getPosition(), target.getPosition() );
+		if ( node instanceof ObservationNode  ||  MergeNode.dissimilarityOf( node ) <= dist ) {
+			wrap( dendrogram, target, node );
+		}
+		else {
+			// Do not keep the old MergeNode, its children are merged separately
+			mergeNode( dendrogram, node.getLeft() );
+			mergeNode( dendrogram, node.getRight() );
+		}
+	}
+
+	/**
+	 * Detach an ObservationNode from the dendrogram. Its parent MergeNode is replaced by the sibling.
+	 */
+	public void remove( final Dendrogram dendrogram, final ObservationNode node ) {
+		MergeNode parent = node.getParent();
+		mListener.onNodeRemoved( node );
+		node.setParent( null );
+		if ( parent == null ) {
+			dendrogram.setRoot( null );
+			return;
+		}
+
+		DendrogramNode sibling = parent.getLeft() == node ? parent.getRight() : parent.getLeft();
+		MergeNode grandParent = parent.getParent();
+		mListener.onNodeRemoved( parent );
+		if ( grandParent == null ) {
+			// The sibling becomes the root, its zoom range changes
+			mListener.onNodeRemoved( sibling );
+			dendrogram.setRoot( sibling );
+			mListener.onNodeAdded( sibling );
+		}
+		else {
+			grandParent.replaceChild( parent, sibling );
+		}
+
+		updateAncestors( grandParent );
+	}
+
+	// Walk down from the root while the position lies within the node's cluster
+	private DendrogramNode findInsertionTarget( DendrogramNode node, final double[] position ) {
+		while ( node instanceof MergeNode ) {
+			MergeNode merge = (MergeNode) node;
+			double dist = mDissimilarityMeasure.computeDissimilarity( mExperiment, position, merge.getPosition() );
+			if ( dist > merge.getDissimilarity() ) {
+				break;
+			}
+			double distLeft  = mDissimilarityMeasure.computeDissimilarity( mExperiment, position, merge.getLeft().getPosition() );
+			double distRight = mDissimilarityMeasure.computeDissimilarity( mExperiment, position, merge.getRight().getPosition() );
+			node = distLeft <= distRight ? merge.getLeft() : merge.getRight();
+		}
+		return node;
+	}
+
+	// Replace target with a new MergeNode( target, node ) and update all ancestors
+	private void wrap( final Dendrogram dendrogram, final DendrogramNode target, final DendrogramNode node ) {
+		MergeNode parent = target.getParent();
+		double dist = mDissimilarityMeasure.computeDissimilarity( mExperiment, target.getPosition(), node.getPosition() );
+		dist = Math.max( dist, Math.max( MergeNode.dissimilarityOf( target ), MergeNode.dissimilarityOf( node ) ) );
+
+		notifyAdded( node );
+		MergeNode merge = new MergeNode( target, node, dist );
+		target.setParent( merge );
+		node.setParent( merge );
+		if ( parent == null ) {
+			dendrogram.setRoot( merge );
+		}
+		else {
+			parent.replaceChild( target, merge );
+		}
+		mListener.onNodeAdded( merge );
+
+		updateAncestors( parent );
+	}
+
+	private void updateAncestors( MergeNode node ) {
+		while ( node != null ) {
+			mListener.onNodeRemoved( node );
+			node.update( mDissimilarityMeasure, mExperiment );
+			mListener.onNodeAdded( node );
+			node = node.getParent();
+		}
+	}
+
+	private void notifyAdded( final DendrogramNode node ) {
+		if ( node == null ) {
+			return;
+		}
+		mListener.onNodeAdded( node );
+		notifyAdded( node.getLeft() );
+		notifyAdded( node.getRight() );
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Compact binary format for the dendrograms of all cluster groups, so static marker sets need to be clustered only once.
+ * A file is tied to a content hash of the clustered observations (see ObservationStore.contentHash()) and is only
+ * read back when the hash matches. Observation indices in the file refer to the same ObservationStore order.
+ *
+ * <pre>
+ * int magic, int version, long contentHash, int groupCount
+ * per group: int clusterGroup, int nodeCount, then one column per attribute over the nodes in post-order:
+ *   int observation (-1 for MergeNodes), double latitude, double longitude, double dissimilarity,
+ *   float minZoomRendered, float maxZoomRendered
+ * </pre>
+ *
+ * Files are written with write() and read with read(File), which maps the file, or read(InputStream), e.g. for assets.
+ * Reading checks the file against the number of observations it is read for, a damaged file fails with an IOException.
+ * The columns are those of CompactDendrogram, writeCompact() and readCompact() store and load them without the node graphs.
+ * The helper KD-trees are not stored, they are rebuilt from the node positions.
+ */
+public final class DendrogramFile {
+
+	private static final int MAGIC   = 0x414d4544; // "AMED"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+	private static final int GROUP_HEADER_SIZE = 4 + 4;
+	private static final int NODE_SIZE = 4 + 8 + 8 + 8 + 4 + 4;
+
+	private DendrogramFile() {
+	}
+
+	/**
+	 * The hash files for these observations are written and read with.
+	 * Clustering the same observations with single linkage gives a different hash.
+	 */
+	public static long contentHash( ObservationStore observations, boolean singleLinkage ) {
+		return 31 * observations.contentHash() + ( singleLinkage ? 1 : 0 );
+	}
+
+	/**
+	 * Like contentHash( observations, singleLinkage ), different for each approximation but 0, see ClusterGroupBuilder.
+	 */
+	public static long contentHash( ObservationStore observations, boolean singleLinkage, double approximation ) {
+		return contentHash( observations, singleLinkage, approximation, 0.0 );
+	}
+
+	/**
+	 * Like contentHash( observations, singleLinkage, approximation ), different for each collapseGrid but 0.
+	 */
+	public static long contentHash( ObservationStore observations, boolean singleLinkage, double approximation, double collapseGrid ) {
+		long hash = contentHash( observations, singleLinkage );
+		if ( approximation != 0.0 ) {
+			hash = 31 * hash + Double.doubleToLongBits( approximation );
+		}
+		if ( collapseGrid != 0.0 ) {
+			hash = 37 * hash + Double.doubleToLongBits( collapseGrid );
+		}
+		return hash;
+	}
+
+	public static void write( File file, long contentHash, Map<Integer, Dendrogram> dendrogramForClusterGroup ) throws IOException {
+		Map<Integer, CompactDendrogram> compactForClusterGroup = new HashMap<Integer, CompactDendrogram>();
+		for ( Map.Entry<Integer, Dendrogram> entry : dendrogramForClusterGroup.entrySet() ) {
+			compactForClusterGroup.put( entry.getKey(), CompactDendrogram.of( entry.getValue() ) );
+		}
+		writeCompact( file, contentHash, compactForClusterGroup );
+	}
+
+	/**
+	 * Like write(), the columns of compact dendrograms are stored as they are.
+	 */
+	public static void writeCompact( File file, long contentHash, Map<Integer, CompactDendrogram> dendrogramForClusterGroup ) throws IOException {
+		int size = HEADER_SIZE;
+		for ( CompactDendrogram dendrogram : dendrogramForClusterGroup.values() ) {
+			size += GROUP_HEADER_SIZE + dendrogram.getNodeCount() * NODE_SIZE;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate( size );
+		buffer.putInt( MAGIC ).putInt( VERSION ).putLong( contentHash ).putInt( dendrogramForClusterGroup.size() );
+		for ( Map.Entry<Integer, CompactDendrogram> entry : dendrogramForClusterGroup.entrySet() ) {
+			CompactDendrogram dendrogram = entry.getValue();
+			int nodeCount = dendrogram.getNodeCount();
+			buffer.putInt( entry.getKey() ).putInt( nodeCount );
+			for ( int i = 0; i < nodeCount; ++i ) {
+				buffer.putInt( dendrogram.getObservation( i ) );
+			}
+			for ( int i = 0; i < nodeCount; ++i ) {
+				buffer.putDouble( dendrogram.getLatitude( i ) );
+			}
+			for ( int i = 0; i < nodeCount; ++i ) {
+				buffer.putDouble( dendrogram.getLongitude( i ) );
+			}
+			for ( int i = 0; i < nodeCount; ++i ) {
+				buffer.putDouble( dendrogram.getDissimilarity( i ) );
+			}
+			for ( int i = 0; i < nodeCount; ++i ) {
+				buffer.putFloat( dendrogram.getMinZoomRendered( i ) );
+			}
+			for ( int i = 0; i < nodeCount; ++i ) {
+				buffer.putFloat( dendrogram.getMaxZoomRendered( i ) );
+			}
+		}
+		buffer.flip();
+
+		// Write to a temporary file first, a reader never sees a partially written file
+		File temporary = new File( file.getPath() + ".tmp" );
+		FileOutputStream out = new FileOutputStream( temporary );
+		try {
+			FileChannel channel = out.getChannel();
+			while ( buffer.hasRemaining() ) {
+				channel.write( buffer );
+			}
+		}
+		finally {
+			out.close();
+		}
+		if ( ! temporary.renameTo( file ) ) {
+			file.delete();
+			if ( ! temporary.renameTo( file ) ) {
+				throw new IOException( "Cannot rename " + temporary + " to " + file );
+			}
+		}
+	}
+
+	/**
+	 * Returns null when the file does not exist or was written for other content.
+	 *
+	 * @param observationCount size of the ObservationStore the hash was computed for, stored observation indices must be below it
+	 * @throws IOException if the file cannot be read or is damaged
+	 */
+	public static Map<Integer, Dendrogram> read( File file, long contentHash, int observationCount ) throws IOException {
+		return toDendrograms( readCompact( file, contentHash, observationCount ) );
+	}
+
+	/**
+	 * Returns null when the stream was written for other content.
+	 *
+	 * @see #read(File, long, int)
+	 */
+	public static Map<Integer, Dendrogram> read( InputStream in, long contentHash, int observationCount ) throws IOException {
+		return toDendrograms( readCompact( in, contentHash, observationCount ) );
+	}
+
+	/**
+	 * Like read( file, contentHash, observationCount ), without building the node graphs.
+	 */
+	public static Map<Integer, CompactDendrogram> readCompact( File file, long contentHash, int observationCount ) throws IOException {
+		if ( ! file.exists() ) {
+			return null;
+		}
+		FileInputStream in = new FileInputStream( file );
+		try {
+			FileChannel channel = in.getChannel();
+			return read( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ), contentHash, observationCount );
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Like read( in, contentHash, observationCount ), without building the node graphs.
+	 */
+	public static Map<Integer, CompactDendrogram> readCompact( InputStream in, long contentHash, int observationCount ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[ 8192 ];
+		int n;
+		while ( ( n = in.read( chunk ) ) > 0 ) {
+			bytes.write( chunk, 0, n );
+		}
+		return read( ByteBuffer.wrap( bytes.toByteArray() ), contentHash, observationCount );
+	}
+
+	private static Map<Integer, Dendrogram> toDendrograms( Map<Integer, CompactDendrogram> compactForClusterGroup ) {
+		if ( compactForClusterGroup == null ) {
+			return null;
+		}
+		Map<Integer, Dendrogram> dendrogramForClusterGroup = new HashMap<Integer, Dendrogram>();
+		for ( Map.Entry<Integer, CompactDendrogram> entry : compactForClusterGroup.entrySet() ) {
+			dendrogramForClusterGroup.put( entry.getKey(), entry.getValue().toDendrogram() );
+		}
+		return dendrogramForClusterGroup;
+	}
+
+	// Everything read from the buffer is checked before it is used, a damaged file must not throw anything but IOException
+	private static Map<Integer, CompactDendrogram> read( ByteBuffer buffer, long contentHash, int observationCount ) throws IOException {
+		if ( buffer.remaining() < HEADER_SIZE  ||  buffer.getInt() != MAGIC ) {
+			throw new IOException( "Not a dendrogram file" );
+		}
+		if ( buffer.getInt() != VERSION  ||  buffer.getLong() != contentHash ) {
+			return null;
+		}
+		int groupCount = buffer.getInt();
+		if ( groupCount < 0 ) {
+			throw new IOException( "Corrupt dendrogram file, " + groupCount + " groups" );
+		}
+		// Each observation is a leaf of exactly one group
+		boolean[] stored = new boolean[ observationCount ];
+		Map<Integer, CompactDendrogram> dendrogramForClusterGroup = new HashMap<Integer, CompactDendrogram>();
+		for ( int g = 0; g < groupCount; ++g ) {
+			if ( buffer.remaining() < GROUP_HEADER_SIZE ) {
+				throw new IOException( "Truncated dendrogram file" );
+			}
+			int clusterGroup = buffer.getInt();
+			int nodeCount = buffer.getInt();
+			if ( nodeCount < 0 ) {
+				throw new IOException( "Corrupt dendrogram file, " + nodeCount + " nodes" );
+			}
+			if ( buffer.remaining() < (long) nodeCount * NODE_SIZE ) {
+				throw new IOException( "Truncated dendrogram file" );
+			}
+			if ( dendrogramForClusterGroup.containsKey( clusterGroup ) ) {
+				throw new IOException( "Corrupt dendrogram file, cluster group " + clusterGroup + " stored twice" );
+			}
+			dendrogramForClusterGroup.put( clusterGroup, readNodes( buffer, nodeCount, stored ) );
+		}
+		return dendrogramForClusterGroup;
+	}
+
+	private static CompactDendrogram readNodes( ByteBuffer buffer, int nodeCount, boolean[] stored ) throws IOException {
+		int[] observations = new int[ nodeCount ];
+		double[] latitudes = new double[ nodeCount ];
+		double[] longitudes = new double[ nodeCount ];
+		double[] dissimilarities = new double[ nodeCount ];
+		float[] minZooms = new float[ nodeCount ];
+		float[] maxZooms = new float[ nodeCount ];
+		buffer.asIntBuffer().get( observations );
+		buffer.position( buffer.position() + 4 * nodeCount );
+		buffer.asDoubleBuffer().get( latitudes );
+		buffer.position( buffer.position() + 8 * nodeCount );
+		buffer.asDoubleBuffer().get( longitudes );
+		buffer.position( buffer.position() + 8 * nodeCount );
+		buffer.asDoubleBuffer().get( dissimilarities );
+		buffer.position( buffer.position() + 8 * nodeCount );
+		buffer.asFloatBuffer().get( minZooms );
+		buffer.position( buffer.position() + 4 * nodeCount );
+		buffer.asFloatBuffer().get( maxZooms );
+		buffer.position( buffer.position() + 4 * nodeCount );
+		for ( int observation : observations ) {
+			if ( observation < -1  ||  observation >= stored.length ) {
+				throw new IOException( "Corrupt dendrogram file, observation " + observation + " of " + stored.length );
+			}
+			if ( observation >= 0 ) {
+				if ( stored[ observation ] ) {
+					throw new IOException( "Corrupt dendrogram file, observation " + observation + " stored twice" );
+				}
+				stored[ observation ] = true;
+			}
+		}
+		try {
+			return CompactDendrogram.fromColumns( observations, latitudes, longitudes, dissimilarities, minZooms, maxZooms );
+		}
+		catch ( IllegalArgumentException e ) {
+			throw new IOException( "Corrupt dendrogram file" );
+		}
+	}
+}
@@ -10,9 +10,6 @@
  */
 package com.androidmapsextensions.dendrogram;
 
-import com.androidmapsextensions.impl.ClusterMarker;
-import com.google.android.gms.maps.model.LatLng;
-
 
 /**
  * A DendrogramNode is a node in a Dendrogram.
@@ -30,7 +27,9 @@ public abstract class DendrogramNode {
 
 	private MergeNode parent;
 	protected double[] position;	
-	private ClusterMarker clusterMarker;
+
+	// Slot of the node in the HierarchicalAgglomerativeClusterer's arrays, only meaningful while clustering
+	int clusterIndex;
 
 	public final MergeNode getParent() {
 		return parent;
@@ -48,18 +47,6 @@ public abstract class DendrogramNode {
 		this.position = position;
 	}
 	
-	public LatLng getLatLng() {
-		return new LatLng( position[0], position[1] );
-	}
-
-	public ClusterMarker getClusterMarker() {
-		return clusterMarker;
-	}
-
-	public void setClusterMarker( ClusterMarker clusterMarker ) {
-		this.clusterMarker = clusterMarker;
-	}
-
 	// When the camera zoom level is between min (inclusive) and max (exclusive) this node will be rendered
 	private float minZoomRendered;
 	private float maxZoomRendered;
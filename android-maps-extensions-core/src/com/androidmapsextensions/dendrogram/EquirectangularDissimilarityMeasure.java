@@ -0,0 +1,58 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+// Distance in miles between two latitude/longitude positions.
+// Approximation for small distances, but good enough for government work
+public final class EquirectangularDissimilarityMeasure implements DissimilarityMeasure {
+
+	private static final double EARTH_RADIUS_MILES = 3958.76;
+
+	public static final EquirectangularDissimilarityMeasure INSTANCE = new EquirectangularDissimilarityMeasure();
+
+	private EquirectangularDissimilarityMeasure() {
+	}
+
+	@Override
+	public double computeDissimilarity( Experiment experiment, int observation1, int observation2 ) {
+		if ( experiment instanceof ObservationStore ) {
+			ObservationStore store = (ObservationStore) experiment;
+			return distanceRadians( store.getLatitudeRadians( observation1 ), store.getLongitudeRadians( observation1 ),
+					store.getLatitudeRadians( observation2 ), store.getLongitudeRadians( observation2 ) );
+		}
+		return computeDissimilarity( experiment, experiment.getPosition( observation1 ), experiment.getPosition( observation2 ) );
+	}
+
+	@Override
+	public double computeDissimilarity( Experiment experiment, int observation1, double[] pos2 ) {
+		if ( experiment instanceof ObservationStore ) {
+			ObservationStore store = (ObservationStore) experiment;
+			return distanceRadians( store.getLatitudeRadians( observation1 ), store.getLongitudeRadians( observation1 ),
+					Math.toRadians( pos2[0] ), Math.toRadians( pos2[1] ) );
+		}
+		return computeDissimilarity( experiment, experiment.getPosition( observation1 ), pos2 );
+	}
+
+	@Override
+	public double computeDissimilarity( Experiment experiment, double[] pos1, double[] pos2 ) {
+		return distance( pos1[0], pos1[1], pos2[0], pos2[1] );
+	}
+
+	static double distance( double lat1, double lon1, double lat2, double lon2 ) {
+		return distanceRadians( Math.toRadians( lat1 ), Math.toRadians( lon1 ), Math.toRadians( lat2 ), Math.toRadians( lon2 ) );
+	}
+
+	static double distanceRadians( double lat1, double lon1, double lat2, double lon2 ) {
+		double dx = ( lon2 - lon1 ) * Math.cos( ( lat1 + lat2 ) / 2 );
+		double dy = lat2 - lat1;
+		return EARTH_RADIUS_MILES * Math.sqrt( dx*dx + dy*dy );
+	}
+}
@@ -0,0 +1,520 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License. 
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ * 
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import com.androidmapsextensions.kdtree.KDTree2D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * The HierarchicalAgglomerativeClusterer creates a hierarchical agglomerative clustering.
+ * 
+ * <pre>
+ * Experiment experiment = ...;
+ * DissimilarityMeasure dissimilarityMeasure = ...;
+ * AgglomerationMethod agglomerationMethod = ...;
+ * DendrogramBuilder dendrogramBuilder = new DendrogramBuilder(experiment.getNumberOfObservations());
+ * HierarchicalAgglomerativeClusterer clusterer = new HierarchicalAgglomerativeClusterer(experiment, dissimilarityMeasure, agglomerationMethod);
+ * clusterer.cluster(dendrogramBuilder);
+ * Dendrogram dendrogram = dendrogramBuilder.getDendrogram();
+ * </pre>
+ * 
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class HierarchicalAgglomerativeClusterer {
+
+    private Experiment           mExperiment;
+    private DissimilarityMeasure mDissimilarityMeasure;    
+    private final double         mApproximation;
+    private double               mCollapseGrid;
+        
+    public HierarchicalAgglomerativeClusterer( final Experiment experiment, final DissimilarityMeasure dissimilarityMeasure ) {
+        this( experiment, dissimilarityMeasure, 0.0 );
+    }
+    
+    // With approximation > 0 a node is merged with a neighbour at most (1 + approximation) times as far away
+    // as its nearest one, see KDTree2D.nearest(). Much faster for huge numbers of observations, hardly visible on the map.
+    public HierarchicalAgglomerativeClusterer( final Experiment experiment, final DissimilarityMeasure dissimilarityMeasure, final double approximation ) {
+        this.mExperiment = experiment;
+        this.mDissimilarityMeasure = dissimilarityMeasure;
+        this.mApproximation = approximation;
+    }
+    
+    public void setExperiment( final Experiment experiment ) {
+        this.mExperiment = experiment;
+    }
+    
+    public Experiment getExperiment() {
+        return mExperiment;
+    }
+    
+    public void setDissimilarityMeasure( final DissimilarityMeasure dissimilarityMeasure ) {
+        this.mDissimilarityMeasure = dissimilarityMeasure;
+    }
+
+    public DissimilarityMeasure getDissimilarityMeasure() {
+        return mDissimilarityMeasure;
+    }
+    
+    // Observations in the same cell of a grid with this size (in degrees) are merged at dissimilarity 0 before clustering,
+    // 0 merges only observations at identical positions. See collapse().
+    public void setCollapseGrid( final double collapseGrid ) {
+        this.mCollapseGrid = collapseGrid;
+    }
+    
+    public double getCollapseGrid() {
+        return mCollapseGrid;
+    }
+    
+    // Live nodes by their slot, see agglomerate()
+    private KDTree2D kd;
+    private DendrogramNode[] nodes;
+    
+    // Implementation of fast clustering algorithm from:
+    // https://engineering.purdue.edu/~milind/docs/rt08.pdf
+    // Duplicate keys (markers with identical position) are allowed, they are collapsed into one node first.
+    public void cluster( ClusteringBuilder clusteringBuilder, int clusterGroup ) {
+    	cluster( clusteringBuilder, clusterGroup, 0, mExperiment.getNumberOfObservations() );
+    }
+    
+    // Clusters only observations fromObservation (inclusive) to toObservation (exclusive).
+    // Used to build a sub-dendrogram of newly added observations, which is then merged into an existing one.
+    public void cluster( ClusteringBuilder clusteringBuilder, int clusterGroup, int fromObservation, int toObservation ) {
+    	
+    	int nObservations = 0;
+    	int[] selected = new int[ toObservation - fromObservation ];
+    	for ( int i = fromObservation; i < toObservation; ++i ) {
+    		if ( mExperiment.getClusterGroup( i ) == clusterGroup ) {
+    			selected[ nObservations++ ] = i;
+    		}
+    	}
+    	cluster( clusteringBuilder, selected, nObservations );
+    }
+    
+    // Clusters the first nObservations observations listed in selected, regardless of their cluster group.
+    // Callers which cluster every group partition the observations once, see ObservationStore.partitionByClusterGroup().
+    public void cluster( ClusteringBuilder clusteringBuilder, int[] selected, int nObservations ) {
+    	
+    	if ( nObservations == 0 ) {
+    		return;
+    	}
+    	DendrogramNode[] leaves = collapse( clusteringBuilder, createLeaves( selected, 0, nObservations ) );
+    	if ( leaves.length == 1 ) {
+    		clusteringBuilder.setRoot( leaves[ 0 ] );
+    		return;
+    	}
+    	agglomerate( clusteringBuilder, leaves, Double.POSITIVE_INFINITY );
+    }
+    
+    // Clusters the first nObservations observations listed in selected only down to the cells of a grid with cellSize (in degrees).
+    // The observations of each cell become a LazyNode, which is clustered once needed, see ClusterGroupBuilder.buildRefinement() and splice().
+    // Merges above a LazyNode are recorded with at least its maximum dissimilarity, so refining it keeps the rendered zoom ranges nested.
+    public void clusterCoarse( final DendrogramBuilder clusteringBuilder, int[] selected, int nObservations, double cellSize ) {
+    	
+    	if ( nObservations == 0 ) {
+    		return;
+    	}
+    	int[] order = Arrays.copyOf( selected, nObservations );
+    	double[][] cells = new double[ 2 ][ nObservations ];
+    	for ( int i = 0; i < nObservations; ++i ) {
+    		double[] position = mExperiment.getPosition( order[ i ] );
+    		cells[ 0 ][ i ] = Math.floor( position[ 0 ] / cellSize );
+    		cells[ 1 ][ i ] = Math.floor( position[ 1 ] / cellSize );
+    	}
+    	sort( order, cells, 0, nObservations - 1 );
+    	
+    	// Centroids within a cell are at most its diagonal apart, which is longest at the equator
+    	double maxDissimilarity = mDissimilarityMeasure.computeDissimilarity( mExperiment, new double[]{ 0, 0 }, new double[]{ cellSize, cellSize } );
+    	List<DendrogramNode> initial = new ArrayList<DendrogramNode>();
+    	int to;
+    	for ( int from = 0; from < nObservations; from = to ) {
+    		to = from + 1;
+    		while ( to < nObservations  &&  cells[ 0 ][ to ] == cells[ 0 ][ from ]  &&  cells[ 1 ][ to ] == cells[ 1 ][ from ] ) {
+    			++to;
+    		}
+    		if ( to - from == 1 ) {
+    			initial.add( new ObservationNode( order[ from ], mExperiment.getPosition( order[ from ] ) ) );
+    			continue;
+    		}
+    		double latitude = 0, longitude = 0;
+    		for ( int i = from; i < to; ++i ) {
+    			double[] position = mExperiment.getPosition( order[ i ] );
+    			latitude  += position[ 0 ];
+    			longitude += position[ 1 ];
+    		}
+    		double[] centroid = new double[]{ latitude / ( to - from ), longitude / ( to - from ) };
+    		initial.add( new LazyNode( Arrays.copyOfRange( order, from, to ), centroid, maxDissimilarity ) );
+    	}
+    	
+    	if ( initial.size() == 1 ) {
+    		clusteringBuilder.setRoot( initial.get( 0 ) );
+    		return;
+    	}
+    	agglomerate( new ClusteringBuilder() {
+			@Override
+			public MergeNode merge( DendrogramNode i, DendrogramNode j, double dist ) {
+				dist = Math.max( dist, Math.max( MergeNode.dissimilarityOf( i ), MergeNode.dissimilarityOf( j ) ) );
+				return clusteringBuilder.merge( i, j, dist );
+			}
+			@Override
+			public void setRoot( DendrogramNode node ) {
+				clusteringBuilder.setRoot( node );
+			}
+		}, initial.toArray( new DendrogramNode[ initial.size() ] ), Double.POSITIVE_INFINITY );
+    }
+    
+    // Divide and conquer variant of cluster() for very large cluster groups.
+    // The observations are split into spatially compact partitions by median cuts along the wider axis,
+    // each partition is clustered concurrently until its closest pair is further apart than maxPartitionDissimilarity,
+    // then the roots of all partitions are clustered together into the final dendrogram.
+    // A partition does not see the observations across its cuts, so close to the cuts it merges other pairs than cluster() does.
+    // Centroid linkage is not reducible: merges built on top of those, also above maxPartitionDissimilarity, may differ as well.
+    // The result is a dendrogram of the same observations. It equals the one of cluster() when no partition has a pair
+    // within maxPartitionDissimilarity, and finds the same well separated clusters (e.g. cities) far above that bound.
+    // Must not be called from a thread of executor, it waits for the partitions.
+    public void clusterParallel( DendrogramBuilder clusteringBuilder, int[] selected, int nObservations,
+    		ExecutorService executor, int nPartitions, double maxPartitionDissimilarity ) {
+    	
+    	if ( nPartitions < 2  ||  nObservations < 2 * nPartitions ) {
+    		cluster( clusteringBuilder, selected, nObservations );
+    		return;
+    	}
+    	
+    	final int[] order = Arrays.copyOf( selected, nObservations );
+    	final double[][] positions = new double[ 2 ][ nObservations ];
+    	for ( int i = 0; i < nObservations; ++i ) {
+    		double[] position = mExperiment.getPosition( order[ i ] );
+    		positions[ 0 ][ i ] = position[ 0 ];
+    		positions[ 1 ][ i ] = position[ 1 ];
+    	}
+    	int[] bounds = new int[ nPartitions + 1 ];
+    	bounds[ nPartitions ] = nObservations;
+    	split( order, positions, 0, nObservations, bounds, 0, nPartitions );
+    	
+    	List<Callable<List<DendrogramNode>>> tasks = new ArrayList<Callable<List<DendrogramNode>>>();
+    	for ( int p = 0; p < nPartitions; ++p ) {
+    		final int from = bounds[ p ];
+    		final int to   = bounds[ p + 1 ];
+    		final double maxDissimilarity = maxPartitionDissimilarity;
+    		tasks.add( new Callable<List<DendrogramNode>>() {
+				@Override
+				public List<DendrogramNode> call() {
+					// A clusterer per partition, each one owns its KD-tree
+					HierarchicalAgglomerativeClusterer partition = new HierarchicalAgglomerativeClusterer( mExperiment, mDissimilarityMeasure, mApproximation );
+					partition.setCollapseGrid( mCollapseGrid );
+					DendrogramBuilder partitionBuilder = new DendrogramBuilder( mExperiment );
+					DendrogramNode[] leaves = partition.collapse( partitionBuilder, partition.createLeaves( order, from, to ) );
+					return partition.agglomerate( partitionBuilder, leaves, maxDissimilarity );
+				}
+			} );
+    	}
+    	
+    	List<DendrogramNode> roots = new ArrayList<DendrogramNode>();
+    	try {
+    		for ( Future<List<DendrogramNode>> result : executor.invokeAll( tasks ) ) {
+    			roots.addAll( result.get() );
+    		}
+    	}
+    	catch ( InterruptedException e ) {
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException( e );
+    	}
+    	catch ( ExecutionException e ) {
+    		throw new RuntimeException( e.getCause() );
+    	}
+    	
+    	// Stitch the partitions together
+    	if ( roots.size() == 1 ) {
+    		clusteringBuilder.setRoot( roots.get( 0 ) );
+    		return;
+    	}
+    	agglomerate( clusteringBuilder, roots.toArray( new DendrogramNode[ roots.size() ] ), Double.POSITIVE_INFINITY );
+    }
+    
+    // Reorder order[from, to) so that it consists of nPartitions spatially compact runs of equal size, their starts go to bounds
+    private static void split( int[] order, double[][] positions, int from, int to, int[] bounds, int firstPartition, int nPartitions ) {
+    	bounds[ firstPartition ] = from;
+    	if ( nPartitions == 1 ) {
+    		return;
+    	}
+    	double[] extent = new double[ 2 ];
+    	for ( int d = 0; d < 2; ++d ) {
+    		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+    		for ( int i = from; i < to; ++i ) {
+    			min = Math.min( min, positions[ d ][ i ] );
+    			max = Math.max( max, positions[ d ][ i ] );
+    		}
+    		extent[ d ] = max - min;
+    	}
+    	int dimension = extent[ 0 ] >= extent[ 1 ] ? 0 : 1;
+    	int leftPartitions = nPartitions / 2;
+    	int mid = from + (int) ( (long) ( to - from ) * leftPartitions / nPartitions );
+    	select( order, positions, dimension, from, to - 1, mid );
+    	split( order, positions, from, mid, bounds, firstPartition, leftPartitions );
+    	split( order, positions, mid, to, bounds, firstPartition + leftPartitions, nPartitions - leftPartitions );
+    }
+    
+    // Quickselect: afterwards the element at k is in sorted position along dimension, smaller ones before it, larger ones after it
+    private static void select( int[] order, double[][] positions, int dimension, int left, int right, int k ) {
+    	double[] keys = positions[ dimension ];
+    	while ( left < right ) {
+    		double pivot = keys[ ( left + right ) >>> 1 ];
+    		int i = left, j = right;
+    		while ( i <= j ) {
+    			while ( keys[ i ] < pivot ) ++i;
+    			while ( keys[ j ] > pivot ) --j;
+    			if ( i <= j ) {
+    				swap( order, positions, i++, j-- );
+    			}
+    		}
+    		if ( k <= j ) {
+    			right = j;
+    		}
+    		else
+    		if ( k >= i ) {
+    			left = i;
+    		}
+    		else {
+    			return;
+    		}
+    	}
+    }
+    
+    private static void swap( int[] order, double[][] positions, int i, int j ) {
+    	int o = order[ i ];
+    	order[ i ] = order[ j ];
+    	order[ j ] = o;
+    	for ( double[] keys : positions ) {
+    		double t = keys[ i ];
+    		keys[ i ] = keys[ j ];
+    		keys[ j ] = t;
+    	}
+    }
+    
+    private DendrogramNode[] createLeaves( int[] selected, int from, int to ) {
+    	DendrogramNode[] leaves = new DendrogramNode[ to - from ];
+    	for ( int n = from; n < to; ++n ) {
+    		int i = selected[ n ];
+    		leaves[ n - from ] = new ObservationNode( i, mExperiment.getPosition( i ) );
+    	}
+    	return leaves;
+    }
+    
+    // Replace the leaves in each cell of the collapse grid by a single subtree merged at dissimilarity 0,
+    // so the KD-tree and the heap hold one node per distinct location instead of one per observation.
+    // Such a stack is rendered as a cluster at every zoom level (thresholdToZoom( 0 ) is infinite), its markers are never shown apart.
+    // Every observation keeps its own ObservationNode, the leaves of the stack are its members. There is no weighted leaf node,
+    // so the incremental editing, the compact form and the file format need no special case for collapsed locations.
+    private DendrogramNode[] collapse( ClusteringBuilder clusteringBuilder, DendrogramNode[] leaves ) {
+    	int nLeaves = leaves.length;
+    	if ( nLeaves < 2 ) {
+    		return leaves;
+    	}
+    	int[] order = new int[ nLeaves ];
+    	double[][] cells = new double[ 2 ][ nLeaves ];
+    	for ( int i = 0; i < nLeaves; ++i ) {
+    		double[] position = leaves[ i ].getPosition();
+    		order[ i ] = i;
+    		cells[ 0 ][ i ] = mCollapseGrid > 0 ? Math.floor( position[ 0 ] / mCollapseGrid ) : position[ 0 ];
+    		cells[ 1 ][ i ] = mCollapseGrid > 0 ? Math.floor( position[ 1 ] / mCollapseGrid ) : position[ 1 ];
+    	}
+    	sort( order, cells, 0, nLeaves - 1 );
+    	
+    	DendrogramNode[] collapsed = new DendrogramNode[ nLeaves ];
+    	DendrogramNode[] stack = new DendrogramNode[ nLeaves ];
+    	int nCollapsed = 0;
+    	int to;
+    	for ( int from = 0; from < nLeaves; from = to ) {
+    		to = from + 1;
+    		while ( to < nLeaves  &&  cells[ 0 ][ to ] == cells[ 0 ][ from ]  &&  cells[ 1 ][ to ] == cells[ 1 ][ from ] ) {
+    			++to;
+    		}
+    		for ( int i = from; i < to; ++i ) {
+    			stack[ i - from ] = leaves[ order[ i ] ];
+    		}
+    		collapsed[ nCollapsed++ ] = mergeStack( clusteringBuilder, stack, to - from );
+    	}
+    	return nCollapsed == nLeaves ? leaves : Arrays.copyOf( collapsed, nCollapsed );
+    }
+    
+    // Merge the first size nodes pairwise at dissimilarity 0, balanced so the subtree is only log( size ) deep.
+    // The root is merged last.
+    private static DendrogramNode mergeStack( ClusteringBuilder clusteringBuilder, DendrogramNode[] stack, int size ) {
+    	while ( size > 1 ) {
+    		int merged = 0;
+    		for ( int i = 0; i + 1 < size; i += 2 ) {
+    			stack[ merged++ ] = clusteringBuilder.merge( stack[ i ], stack[ i + 1 ], 0 );
+    		}
+    		if ( size % 2 == 1 ) {
+    			stack[ merged++ ] = stack[ size - 1 ];
+    		}
+    		size = merged;
+    	}
+    	return stack[ 0 ];
+    }
+    
+    // Three-way quicksort of order[left, right] by the keys, lexicographically. Runs of equal keys are cheap.
+    private static void sort( int[] order, double[][] keys, int left, int right ) {
+    	while ( left < right ) {
+    		int mid = ( left + right ) >>> 1;
+    		double pivotX = keys[ 0 ][ mid ];
+    		double pivotY = keys[ 1 ][ mid ];
+    		int lt = left, i = left, gt = right;
+    		while ( i <= gt ) {
+    			int c = compare( keys, i, pivotX, pivotY );
+    			if ( c < 0 ) {
+    				swap( order, keys, lt++, i++ );
+    			}
+    			else
+    			if ( c > 0 ) {
+    				swap( order, keys, i, gt-- );
+    			}
+    			else {
+    				++i;
+    			}
+    		}
+    		// Recurse into the smaller part, so the stack stays logarithmic
+    		if ( lt - left < right - gt ) {
+    			sort( order, keys, left, lt - 1 );
+    			left = gt + 1;
+    		}
+    		else {
+    			sort( order, keys, gt + 1, right );
+    			right = lt - 1;
+    		}
+    	}
+    }
+    
+    private static int compare( double[][] keys, int i, double x, double y ) {
+    	if ( keys[ 0 ][ i ] != x ) {
+    		return keys[ 0 ][ i ] < x ? -1 : 1;
+    	}
+    	if ( keys[ 1 ][ i ] != y ) {
+    		return keys[ 1 ][ i ] < y ? -1 : 1;
+    	}
+    	return 0;
+    }
+    
+    // Merge the closest pair of nodes until a single node is left or the closest pair is further apart than maxDissimilarity.
+    // The initial nodes are observations or roots of already clustered subtrees. Returns the roots which were left.
+    private List<DendrogramNode> agglomerate( ClusteringBuilder clusteringBuilder, DendrogramNode[] initial, double maxDissimilarity ) {
+    	int nInitial = initial.length;
+    	
+    	// Every node gets a slot: initial nodes first, then one per MergeNode in creation order
+    	int nNodes = 2 * nInitial - 1;
+    	nodes = new DendrogramNode[ nNodes ];
+    	boolean[] deleted = new boolean[ nNodes ];
+    	int[] nearestOf = new int[ nNodes ];
+    	
+    	// Initialize the KD-tree of slots, bulk loaded so it is balanced
+    	double[] xs = new double[ nInitial ];
+    	double[] ys = new double[ nInitial ];
+    	int[] slots = new int[ nInitial ];
+    	int nextIndex = 0;
+    	for ( DendrogramNode node : initial ) {
+    		xs[ nextIndex ] = node.getPosition()[ 0 ];
+    		ys[ nextIndex ] = node.getPosition()[ 1 ];
+    		slots[ nextIndex ] = nextIndex;
+    		node.clusterIndex = nextIndex;
+    		nodes[ nextIndex++ ] = node;
+    	}
+    	kd = new KDTree2D( xs, ys, slots );
+    	
+    	// Initialize the min-heap, one entry per live node keyed by the distance to its nearest neighbour
+    	IndexedMinHeap minHeap = new IndexedMinHeap( nNodes );
+    	if ( nInitial > 1 ) {
+    		for ( int i = 0; i < nInitial; ++i ) {
+    			offerNearest( nodes[ i ], minHeap, nearestOf );
+    		}
+    	}
+    	
+    	int live = nInitial;
+    	while ( live > 1  &&  minHeap.peekKey() <= maxDissimilarity ) {
+    		double dist = minHeap.peekKey();
+    		int index1 = minHeap.poll();
+    		int index2 = nearestOf[ index1 ];
+    		DendrogramNode node1 = nodes[ index1 ];
+    		DendrogramNode node2 = nodes[ index2 ];
+    		
+    		if ( deleted[ index2 ] ) {
+    			// B was already clustered with somebody, find new best match for A
+    			offerNearest( node1, minHeap, nearestOf );
+    			continue;
+    		}
+    		
+    		MergeNode cluster = clusteringBuilder.merge( node1, node2, dist );
+    		--live;
+    		
+    		kd.delete( node1.getPosition()[ 0 ], node1.getPosition()[ 1 ], index1 );
+    		kd.delete( node2.getPosition()[ 0 ], node2.getPosition()[ 1 ], index2 );
+    		deleted[ index1 ] = true;
+    		deleted[ index2 ] = true;
+    		minHeap.remove( index2 );
+    		
+    		cluster.clusterIndex = nextIndex;
+    		nodes[ nextIndex++ ] = cluster;
+    		if ( live == 1 ) {
+    			break;
+    		}
+    		kd.add( cluster.getPosition()[ 0 ], cluster.getPosition()[ 1 ], cluster.clusterIndex );
+    		
+    		int nearest = offerNearest( cluster, minHeap, nearestOf );
+    		// The new cluster may also be closer to its neighbour than the neighbour's current candidate
+    		double dist2 = minHeap.getKey( cluster.clusterIndex );
+    		if ( minHeap.contains( nearest )  &&  dist2 < minHeap.getKey( nearest ) ) {
+    			nearestOf[ nearest ] = cluster.clusterIndex;
+    			minHeap.put( nearest, dist2 );
+    		}
+    	}
+    	
+    	List<DendrogramNode> roots = new ArrayList<DendrogramNode>( live );
+    	for ( int i = 0; i < nextIndex; ++i ) {
+    		if ( ! deleted[ i ] ) {
+    			roots.add( nodes[ i ] );
+    		}
+    	}
+    	return roots;
+    }
+    
+    // Put the node into the heap with the distance to its nearest neighbour, returns the slot of the neighbour.
+    // With duplicate positions any other node at distance 0 will do, the tree skips previously deleted nodes.
+    private int offerNearest( DendrogramNode node, IndexedMinHeap minHeap, int[] nearestOf ) {
+    	double[] position = node.getPosition();
+    	int nearest = kd.nearest( position[ 0 ], position[ 1 ], node.clusterIndex, mApproximation );
+    	double dist = dissimilarity( node, nodes[ nearest ] );
+    	nearestOf[ node.clusterIndex ] = nearest;
+    	minHeap.put( node.clusterIndex, dist );
+    	return nearest;
+    }
+    
+    // Leaves are passed by observation, so the measure can use what the experiment caches per observation,
+    // e.g. the radians of ObservationStore. Only MergeNodes are passed by position.
+    private double dissimilarity( DendrogramNode node1, DendrogramNode node2 ) {
+    	if ( node1 instanceof ObservationNode ) {
+    		int observation1 = ((ObservationNode) node1).getObservation();
+    		if ( node2 instanceof ObservationNode ) {
+    			return mDissimilarityMeasure.computeDissimilarity( mExperiment, observation1, ((ObservationNode) node2).getObservation() );
+    		}
+    		return mDissimilarityMeasure.computeDissimilarity( mExperiment, observation1, node2.getPosition() );
+    	}
+    	if ( node2 instanceof ObservationNode ) {
+    		return mDissimilarityMeasure.computeDissimilarity( mExperiment, ((ObservationNode) node2).getObservation(), node1.getPosition() );
+    	}
+    	return mDissimilarityMeasure.computeDissimilarity( mExperiment, node1.getPosition(), node2.getPosition() );
+    }
+}
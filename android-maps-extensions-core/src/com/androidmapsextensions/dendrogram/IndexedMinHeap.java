@@ -0,0 +1,150 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import java.util.Arrays;
+
+
+/**
+ * A binary min-heap of int handles keyed by primitive doubles.
+ * Each handle (0 &lt;= handle &lt; capacity) is in the heap at most once, put() changes the key of a handle already in the heap.
+ * Equal keys are allowed, no entry is ever overwritten by another handle.
+ */
+final class IndexedMinHeap {
+
+	private final double[] keys;      // By heap position
+	private final int[]    handles;   // By heap position
+	private final int[]    positions; // By handle, -1 when not in the heap
+	private int size;
+
+	IndexedMinHeap( int capacity ) {
+		keys      = new double[ capacity ];
+		handles   = new int[ capacity ];
+		positions = new int[ capacity ];
+		Arrays.fill( positions, -1 );
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains( int handle ) {
+		return positions[ handle ] >= 0;
+	}
+
+	double getKey( int handle ) {
+		return keys[ positions[ handle ] ];
+	}
+
+	// Insert the handle, or move it up or down if it is already in the heap
+	void put( int handle, double key ) {
+		int i = positions[ handle ];
+		if ( i < 0 ) {
+			i = size++;
+			handles[ i ]   = handle;
+			positions[ handle ] = i;
+			keys[ i ] = key;
+			siftUp( i );
+		}
+		else {
+			double oldKey = keys[ i ];
+			keys[ i ] = key;
+			if ( key < oldKey ) {
+				siftUp( i );
+			}
+			else {
+				siftDown( i );
+			}
+		}
+	}
+
+	int peek() {
+		return handles[ 0 ];
+	}
+
+	double peekKey() {
+		return keys[ 0 ];
+	}
+
+	int poll() {
+		int handle = handles[ 0 ];
+		removeAt( 0 );
+		return handle;
+	}
+
+	void remove( int handle ) {
+		int i = positions[ handle ];
+		if ( i >= 0 ) {
+			removeAt( i );
+		}
+	}
+
+	private void removeAt( int i ) {
+		positions[ handles[ i ] ] = -1;
+		--size;
+		if ( i == size ) {
+			return;
+		}
+		double key = keys[ size ];
+		keys[ i ]    = key;
+		handles[ i ] = handles[ size ];
+		positions[ handles[ i ] ] = i;
+		siftDown( i );
+		siftUp( i );
+	}
+
+	private void siftUp( int i ) {
+		double key = keys[ i ];
+		int handle = handles[ i ];
+		while ( i > 0 ) {
+			int parent = ( i - 1 ) >>> 1;
+			if ( keys[ parent ] <= key ) {
+				break;
+			}
+			move( parent, i );
+			i = parent;
+		}
+		keys[ i ] = key;
+		handles[ i ] = handle;
+		positions[ handle ] = i;
+	}
+
+	private void siftDown( int i ) {
+		double key = keys[ i ];
+		int handle = handles[ i ];
+		int half = size >>> 1;
+		while ( i < half ) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if ( right < size  &&  keys[ right ] < keys[ child ] ) {
+				child = right;
+			}
+			if ( key <= keys[ child ] ) {
+				break;
+			}
+			move( child, i );
+			i = child;
+		}
+		keys[ i ] = key;
+		handles[ i ] = handle;
+		positions[ handle ] = i;
+	}
+
+	private void move( int from, int to ) {
+		keys[ to ]    = keys[ from ];
+		handles[ to ] = handles[ from ];
+		positions[ handles[ to ] ] = to;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+
+/**
+ * A leaf of a coarse dendrogram standing for observations which are not clustered yet, see ClusterGroupBuilder.buildCoarse().
+ * It is rendered as a single cluster until it is replaced by the sub-dendrogram of its observations with ClusterGroupBuilder.buildRefinement() and splice().
+ *
+ * All merges within the sub-dendrogram are at most getMaxDissimilarity(), all merges above the node at least that much,
+ * so the rendered zoom ranges stay nested when the node is refined.
+ */
+public final class LazyNode extends DendrogramNode {
+
+	private final int[] observations;
+	private final double maxDissimilarity;
+
+	LazyNode( final int[] observations, final double[] position, final double maxDissimilarity ) {
+		this.observations = observations;
+		this.position = position;
+		this.maxDissimilarity = maxDissimilarity;
+	}
+
+	@Override
+	public final DendrogramNode getLeft() {
+		return null;
+	}
+
+	@Override
+	public final DendrogramNode getRight() {
+		return null;
+	}
+
+	@Override
+	public int getObservationCount() {
+		return observations.length;
+	}
+
+	/**
+	 * The observations of this node, must not be modified.
+	 */
+	public final int[] getObservations() {
+		return observations;
+	}
+
+	public final double getMaxDissimilarity() {
+		return maxDissimilarity;
+	}
+
+	/**
+	 * The zoom level from which the node must be refined, its clusters start to split there.
+	 */
+	public final float getRefinementZoom() {
+		return RenderedZoomLevels.thresholdToZoom( maxDissimilarity );
+	}
+}
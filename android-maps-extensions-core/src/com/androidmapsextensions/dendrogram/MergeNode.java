@@ -10,9 +10,6 @@
  */
 package com.androidmapsextensions.dendrogram;
 
-import com.androidmapsextensions.impl.ClusterMarker;
-import com.google.android.gms.maps.model.LatLng;
-
 
 /**
  * A MergeNode represents an interior node in a Dendrogram.
@@ -22,15 +19,21 @@ import com.google.android.gms.maps.model.LatLng;
  */
 public final class MergeNode extends DendrogramNode {
 	
-	private final DendrogramNode left;
-	private final DendrogramNode right;
-	private final double dissimilarity;
-	private final int observationCount;
+	private DendrogramNode left;
+	private DendrogramNode right;
+	private double dissimilarity;
+	private int observationCount;
 		
 	public MergeNode( final DendrogramNode left, final DendrogramNode right, double dissimilarity ) {
 		
 		this.left   = left;
 		this.right  = right;
+		this.dissimilarity = dissimilarity;
+		updatePosition();
+	}
+	
+	// Recompute the observation count and the weighted centroid from the two children
+	private void updatePosition() {
 		observationCount = left.getObservationCount() + right.getObservationCount();
 		
 		double[] leftPos  = left.getPosition();
@@ -41,7 +44,39 @@ public final class MergeNode extends DendrogramNode {
 		double newLon = ( leftPos[1]  * left.getObservationCount() +
 			      		  rightPos[1] * right.getObservationCount() ) / observationCount; 
 		this.position = new double[]{ newLat, newLon };
-		this.dissimilarity = dissimilarity;
+	}
+	
+	// Used by DendrogramEditor to splice nodes in and out of an existing dendrogram.
+	// The dissimilarity never drops below that of the children, so render zoom ranges stay nested.
+	final void update( final DissimilarityMeasure dissimilarityMeasure, final Experiment experiment ) {
+		updatePosition();
+		double dist = dissimilarityMeasure.computeDissimilarity( experiment, left.getPosition(), right.getPosition() );
+		dissimilarity = Math.max( dist, Math.max( dissimilarityOf( left ), dissimilarityOf( right ) ) );
+	}
+	
+	final void replaceChild( final DendrogramNode oldChild, final DendrogramNode newChild ) {
+		if ( left == oldChild ) {
+			left = newChild;
+		}
+		else
+		if ( right == oldChild ) {
+			right = newChild;
+		}
+		else {
+			throw new IllegalArgumentException();
+		}
+		newChild.setParent( this );
+	}
+	
+	static double dissimilarityOf( final DendrogramNode node ) {
+		if ( node instanceof MergeNode ) {
+			return ((MergeNode) node).getDissimilarity();
+		}
+		if ( node instanceof LazyNode ) {
+			// Not clustered yet, its merges will be up to this
+			return ((LazyNode) node).getMaxDissimilarity();
+		}
+		return 0;
 	}
 	
 	@Override
@@ -10,9 +10,6 @@
  */
 package com.androidmapsextensions.dendrogram;
 
-import com.androidmapsextensions.impl.ClusterMarker;
-import com.google.android.gms.maps.model.LatLng;
-
 
 /**
  * An ObservationNode represents a leaf node in a Dendrogram.
@@ -0,0 +1,198 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * An Experiment which keeps its observations in parallel primitive arrays (one column per attribute),
+ * so that reading a coordinate in a distance computation does not allocate.
+ * Positions are latitude and longitude in degrees, their values in radians are cached for distance computations.
+ *
+ * <pre>
+ * ObservationStore store = new ObservationStore(markers.size());
+ * store.set(0, latitude, longitude, clusterGroup);
+ * </pre>
+ */
+public final class ObservationStore implements Experiment {
+
+	private double[] latitudes;
+	private double[] longitudes;
+	private double[] latitudesRadians;
+	private double[] longitudesRadians;
+	private int[]    clusterGroups;
+	private int      size;
+
+	public ObservationStore( int capacity ) {
+		capacity = Math.max( capacity, 16 );
+		latitudes         = new double[ capacity ];
+		longitudes        = new double[ capacity ];
+		latitudesRadians  = new double[ capacity ];
+		longitudesRadians = new double[ capacity ];
+		clusterGroups     = new int[ capacity ];
+	}
+
+	private ObservationStore( ObservationStore other ) {
+		latitudes         = Arrays.copyOf( other.latitudes, other.size );
+		longitudes        = Arrays.copyOf( other.longitudes, other.size );
+		latitudesRadians  = Arrays.copyOf( other.latitudesRadians, other.size );
+		longitudesRadians = Arrays.copyOf( other.longitudesRadians, other.size );
+		clusterGroups     = Arrays.copyOf( other.clusterGroups, other.size );
+		size = other.size;
+	}
+
+	/**
+	 * Returns a copy which is not affected by later changes, e.g. to hand it over to another thread.
+	 */
+	public ObservationStore copy() {
+		return new ObservationStore( this );
+	}
+
+	/**
+	 * Returns a copy of only the given observations, the i-th of them is observation i of the copy.
+	 */
+	public ObservationStore copy( int[] observations ) {
+		ObservationStore copy = new ObservationStore( observations.length );
+		for ( int i = 0; i < observations.length; ++i ) {
+			int observation = observations[ i ];
+			copy.latitudes[ i ]         = latitudes[ observation ];
+			copy.longitudes[ i ]        = longitudes[ observation ];
+			copy.latitudesRadians[ i ]  = latitudesRadians[ observation ];
+			copy.longitudesRadians[ i ] = longitudesRadians[ observation ];
+			copy.clusterGroups[ i ]     = clusterGroups[ observation ];
+		}
+		copy.size = observations.length;
+		return copy;
+	}
+
+	/**
+	 * Sets all attributes of an observation. The store grows when observation is equal to its size.
+	 */
+	public void set( int observation, double latitude, double longitude, int clusterGroup ) {
+		if ( observation >= size ) {
+			ensureCapacity( observation + 1 );
+			size = observation + 1;
+		}
+		latitudes[ observation ]         = latitude;
+		longitudes[ observation ]        = longitude;
+		latitudesRadians[ observation ]  = Math.toRadians( latitude );
+		longitudesRadians[ observation ] = Math.toRadians( longitude );
+		clusterGroups[ observation ]     = clusterGroup;
+	}
+
+	public void setClusterGroup( int observation, int clusterGroup ) {
+		clusterGroups[ observation ] = clusterGroup;
+	}
+
+	/**
+	 * Lists the observations of each of the given cluster groups.
+	 * The store is scanned twice (count, then fill) however many groups are requested,
+	 * the arrays are exactly sized and observations of other cluster groups are skipped.
+	 */
+	public Map<Integer, int[]> partitionByClusterGroup( Collection<Integer> groups ) {
+		Map<Integer, int[]> partition = new HashMap<Integer, int[]>();
+		Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+		for ( Integer group : groups ) {
+			counts.put( group, new int[ 1 ] );
+		}
+		for ( int i = 0; i < size; ++i ) {
+			int[] count = counts.get( clusterGroups[ i ] );
+			if ( count != null ) {
+				++count[ 0 ];
+			}
+		}
+		for ( Map.Entry<Integer, int[]> entry : counts.entrySet() ) {
+			partition.put( entry.getKey(), new int[ entry.getValue()[ 0 ] ] );
+			entry.getValue()[ 0 ] = 0;
+		}
+		for ( int i = 0; i < size; ++i ) {
+			int[] count = counts.get( clusterGroups[ i ] );
+			if ( count != null ) {
+				partition.get( clusterGroups[ i ] )[ count[ 0 ]++ ] = i;
+			}
+		}
+		return partition;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash over positions and cluster groups of all observations in order,
+	 * used to tell whether a persisted clustering (see DendrogramFile) still matches the observations.
+	 */
+	public long contentHash() {
+		long hash = 0xcbf29ce484222325L;
+		for ( int i = 0; i < size; ++i ) {
+			hash = fnv( hash, Double.doubleToLongBits( latitudes[ i ] ) );
+			hash = fnv( hash, Double.doubleToLongBits( longitudes[ i ] ) );
+			hash = fnv( hash, clusterGroups[ i ] );
+		}
+		return fnv( hash, size );
+	}
+
+	private static long fnv( long hash, long value ) {
+		for ( int shift = 0; shift < 64; shift += 8 ) {
+			hash ^= ( value >>> shift ) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	private void ensureCapacity( int capacity ) {
+		if ( capacity <= latitudes.length ) {
+			return;
+		}
+		int newCapacity = Math.max( capacity, latitudes.length * 2 );
+		latitudes         = Arrays.copyOf( latitudes, newCapacity );
+		longitudes        = Arrays.copyOf( longitudes, newCapacity );
+		latitudesRadians  = Arrays.copyOf( latitudesRadians, newCapacity );
+		longitudesRadians = Arrays.copyOf( longitudesRadians, newCapacity );
+		clusterGroups     = Arrays.copyOf( clusterGroups, newCapacity );
+	}
+
+	@Override
+	public int getNumberOfObservations() {
+		return size;
+	}
+
+	// Allocates, only used when a node for the observation is created
+	@Override
+	public double[] getPosition( int observation ) {
+		return new double[]{ latitudes[ observation ], longitudes[ observation ] };
+	}
+
+	@Override
+	public int getClusterGroup( int observation ) {
+		return clusterGroups[ observation ];
+	}
+
+	public double getLatitude( int observation ) {
+		return latitudes[ observation ];
+	}
+
+	public double getLongitude( int observation ) {
+		return longitudes[ observation ];
+	}
+
+	public double getLatitudeRadians( int observation ) {
+		return latitudesRadians[ observation ];
+	}
+
+	public double getLongitudeRadians( int observation ) {
+		return longitudesRadians[ observation ];
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import com.androidmapsextensions.kdtree.KDTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+
+/**
+ * Spatial index over the nodes of a Dendrogram by the zoom levels they are rendered at (see RenderedZoomLevels).
+ *
+ * There is a KDTree for every integer zoom band [ z, z + 1 ), the last band is open-ended. Each node is in one band only,
+ * the band of its minimum rendered zoom, nodes which are never rendered are not indexed. A range query at zoom visits the bands
+ * up to the camera's and filters by the zoom range. It visits the nodes rendered anywhere within the camera's band and their
+ * ancestors, fewer than them in a binary tree, instead of all 2n - 1 nodes of the dendrogram.
+ *
+ * The zoom range of a node must not change while it is in the index. Remove it before updating the range and add it again after.
+ * Queries reuse one visitor, the index must only be queried from one thread at a time.
+ */
+public final class RenderedNodeIndex {
+
+	// Google Maps zooms in up to 21, all nodes rendered from above share the last band
+	private static final int MAX_BAND = 21;
+	// Smaller bands are loaded faster than tasks are handed over
+	private static final int PARALLEL_LOAD_MIN_NODES = 50000;
+
+	private final List<KDTree<DendrogramNode>> bands;
+	private final ZoomFilter filter = new ZoomFilter();
+
+	// Passes on the nodes of a band which are rendered at zoom, reused by every query
+	private static final class ZoomFilter implements KDTree.Visitor<DendrogramNode> {
+		float zoom;
+		KDTree.Visitor<? super DendrogramNode> visitor;
+
+		@Override
+		public void visit( double[] key, DendrogramNode node ) {
+			if ( node.getMinZoomRendered() <= zoom  &&  zoom < node.getMaxZoomRendered() ) {
+				visitor.visit( key, node );
+			}
+		}
+	}
+
+	public RenderedNodeIndex() {
+		bands = new ArrayList<KDTree<DendrogramNode>>( MAX_BAND + 1 );
+		for ( int band = 0; band <= MAX_BAND; ++band ) {
+			bands.add( new KDTree<DendrogramNode>( 2 ) );
+		}
+	}
+
+	private RenderedNodeIndex( List<KDTree<DendrogramNode>> bands ) {
+		this.bands = bands;
+	}
+
+	/**
+	 * Index of all nodes of a dendrogram whose zoom ranges are computed. The bands are bulk loaded.
+	 */
+	public static RenderedNodeIndex create( Dendrogram dendrogram ) {
+		return create( dendrogram, null, 1 );
+	}
+
+	/**
+	 * Like create( dendrogram ), bands of large dendrograms are loaded by up to nTasks concurrent tasks of executor,
+	 * see KDTree( dims, keys, values, executor, nTasks ). Must not be called from a thread of executor.
+	 */
+	public static RenderedNodeIndex create( Dendrogram dendrogram, ExecutorService executor, int nTasks ) {
+		List<List<DendrogramNode>> nodesForBand = new ArrayList<List<DendrogramNode>>( MAX_BAND + 1 );
+		for ( int band = 0; band <= MAX_BAND; ++band ) {
+			nodesForBand.add( new ArrayList<DendrogramNode>() );
+		}
+		DendrogramNode root = dendrogram.getRoot();
+		if ( root != null ) {
+			// Iterative, dendrograms of chained clusters can be as deep as they are large
+			List<DendrogramNode> stack = new ArrayList<DendrogramNode>();
+			stack.add( root );
+			while ( ! stack.isEmpty() ) {
+				DendrogramNode node = stack.remove( stack.size() - 1 );
+				if ( isRendered( node ) ) {
+					nodesForBand.get( band( node ) ).add( node );
+				}
+				if ( node instanceof MergeNode ) {
+					stack.add( node.getLeft() );
+					stack.add( node.getRight() );
+				}
+			}
+		}
+		List<KDTree<DendrogramNode>> bands = new ArrayList<KDTree<DendrogramNode>>( MAX_BAND + 1 );
+		for ( List<DendrogramNode> nodes : nodesForBand ) {
+			double[][] positions = new double[ nodes.size() ][];
+			for ( int i = 0; i < positions.length; ++i ) {
+				positions[ i ] = nodes.get( i ).getPosition();
+			}
+			if ( executor != null  &&  nTasks > 1  &&  nodes.size() >= PARALLEL_LOAD_MIN_NODES ) {
+				bands.add( new KDTree<DendrogramNode>( 2, positions, nodes, executor, nTasks ) );
+			}
+			else {
+				bands.add( new KDTree<DendrogramNode>( 2, positions, nodes ) );
+			}
+		}
+		return new RenderedNodeIndex( bands );
+	}
+
+	public void add( DendrogramNode node ) {
+		if ( isRendered( node ) ) {
+			bands.get( band( node ) ).add( node.getPosition(), node );
+		}
+	}
+
+	/**
+	 * Removes a node added with its current position and zoom range, does nothing for nodes not in the index.
+	 */
+	public void remove( DendrogramNode node ) {
+		if ( isRendered( node ) ) {
+			bands.get( band( node ) ).delete( node.getPosition(), node );
+		}
+	}
+
+	/**
+	 * All nodes within the bounds which are rendered at zoom.
+	 *
+	 * @param low
+	 *            - lower bounds, latitude and longitude
+	 * @param high
+	 *            - upper bounds, latitude and longitude
+	 */
+	public List<DendrogramNode> getRange( double[] low, double[] high, float zoom ) {
+		final List<DendrogramNode> nodes = new ArrayList<DendrogramNode>();
+		range( low, high, zoom, new KDTree.Visitor<DendrogramNode>() {
+			@Override
+			public void visit( double[] key, DendrogramNode node ) {
+				nodes.add( node );
+			}
+		} );
+		return nodes;
+	}
+
+	/**
+	 * Passes all nodes within the bounds which are rendered at zoom to the visitor, see KDTree.range().
+	 * The visitor must not query or modify the index.
+	 */
+	public void range( double[] low, double[] high, float zoom, KDTree.Visitor<? super DendrogramNode> visitor ) {
+		int last = Math.max( 0, Math.min( MAX_BAND, (int) Math.floor( zoom ) ) );
+		filter.zoom = zoom;
+		filter.visitor = visitor;
+		try {
+			for ( int band = 0; band <= last; ++band ) {
+				bands.get( band ).range( low, high, filter );
+			}
+		}
+		finally {
+			filter.visitor = null;
+		}
+	}
+
+	private static int band( DendrogramNode node ) {
+		float min = node.getMinZoomRendered();
+		if ( min >= MAX_BAND ) {
+			return MAX_BAND;
+		}
+		return Math.max( 0, (int) Math.floor( min ) );
+	}
+
+	private static boolean isRendered( DendrogramNode node ) {
+		float max = node.getMaxZoomRendered();
+		return node.getMinZoomRendered() < max  &&  max > 0;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Computes the camera zoom levels between which each node of a Dendrogram is rendered, from the node's
+ * and its parent's dissimilarity. A node is rendered from the zoom its parent splits up (inclusive)
+ * to the zoom it splits up itself (exclusive).
+ * Dissimilarities are in miles (see EquirectangularDissimilarityMeasure), a dissimilarity of 2500 maps to zoom 0
+ * and every zoom level halves it.
+ *
+ * Markers of a cluster group which is not clustered are always rendered, its MergeNodes never are.
+ */
+public final class RenderedZoomLevels {
+
+	private RenderedZoomLevels() {
+	}
+
+	// TODO - parameterize with user selected cluster size
+	public static float thresholdToZoom( double dissimilarity ) {
+		return (float) (Math.log( 2500.0 / dissimilarity ) / Math.log( 2 ));
+	}
+
+	// Inverse of thresholdToZoom()
+	public static double zoomToThreshold( float zoom ) {
+		return 2500.0 / Math.pow( 2, zoom );
+	}
+
+	/**
+	 * Updates all nodes below and including root. Iterative, dendrograms of chained clusters can be as deep as they are large.
+	 */
+	public static void compute( DendrogramNode root, boolean clustered ) {
+		if ( root == null ) {
+			return;
+		}
+		List<DendrogramNode> stack = new ArrayList<DendrogramNode>();
+		stack.add( root );
+		while ( ! stack.isEmpty() ) {
+			DendrogramNode node = stack.remove( stack.size() - 1 );
+			update( node, clustered );
+			if ( node instanceof MergeNode ) {
+				stack.add( node.getLeft() );
+				stack.add( node.getRight() );
+			}
+		}
+	}
+
+	/**
+	 * Updates a single node, e.g. after it was spliced into the dendrogram.
+	 */
+	public static void update( DendrogramNode node, boolean clustered ) {
+		if ( ! clustered ) {
+			// Always show final markers, never show clusters
+			node.setMinZoomRendered( node instanceof ObservationNode ? 0 : Float.MAX_VALUE );
+			node.setMaxZoomRendered( Float.MAX_VALUE );
+			return;
+		}
+
+		// The minimum zoom this node will be rendered is equal to the zoom when this node merges with it's sibling
+		MergeNode parent = node.getParent();
+		if ( parent == null ) {
+			node.setMinZoomRendered( 0 );
+		}
+		else {
+			node.setMinZoomRendered( thresholdToZoom( parent.getDissimilarity() ) );
+		}
+
+		// The maximum zoom this node will be rendered is equal to the zoom which produces a threshold
+		// equal to this dissimilarity
+		if ( node instanceof MergeNode ) {
+			node.setMaxZoomRendered( thresholdToZoom( ((MergeNode) node).getDissimilarity() ) );
+		}
+		else {
+			node.setMaxZoomRendered( Float.MAX_VALUE );
+		}
+	}
+}
@@ -0,0 +1,364 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+
+/**
+ * The SingleLinkageClusterer creates a single-linkage hierarchical clustering from a minimum spanning tree,
+ * as an alternative to the HierarchicalAgglomerativeClusterer.
+ * The spanning tree is computed with Boruvka's algorithm: every round each component looks up its closest
+ * point of another component in a static KD-tree, whose nodes are labeled with their component to skip
+ * subtrees of the querying component. There are at most log(n) rounds.
+ * The merges are then replayed in order of the spanning tree's edge lengths.
+ * Two clusters merge at the distance of their closest pair of observations instead of the distance of their centroids.
+ * The spanning tree is built with the distance of EquirectangularDissimilarityMeasure, on latitudes and longitudes in radians,
+ * so it is the minimum spanning tree of the measure used for clustering. The merges are measured with the given measure.
+ *
+ * <pre>
+ * DendrogramBuilder dendrogramBuilder = new DendrogramBuilder(experiment);
+ * SingleLinkageClusterer clusterer = new SingleLinkageClusterer(experiment, dissimilarityMeasure);
+ * clusterer.cluster(dendrogramBuilder, observations, observations.length);
+ * Dendrogram dendrogram = dendrogramBuilder.getDendrogram();
+ * </pre>
+ */
+public final class SingleLinkageClusterer {
+
+	private static final int LEAF_SIZE = 8;
+	private static final int MIXED = -1;
+
+	private final Experiment           mExperiment;
+	private final DissimilarityMeasure mDissimilarityMeasure;
+
+	// Points in radians, latitude and longitude, by slot in the KD-tree order
+	private double[] xs;
+	private double[] ys;
+	private double[] halfCos; // cos( latitude / 2 ) and sin( latitude / 2 ), for the cosine of the mean latitude of two points
+	private double[] halfSin;
+	private double[] cos;     // cos( latitude )
+	private int[]    observations;
+
+	// KD-tree nodes, by node index. Leaves have left == -1 and cover slots from (inclusive) to (exclusive)
+	private int[]    nodeLeft;
+	private int[]    nodeRight;
+	private int[]    nodeFrom;
+	private int[]    nodeTo;
+	private double[] nodeMinX, nodeMaxX, nodeMinY, nodeMaxY;
+	private double[] nodeMinCos; // Of the latitude furthest from the equator
+	private int[]    nodeComponent; // The component of all points below, or MIXED
+	private int      nodeCount;
+
+	private int[] componentOf; // Union-find parent, by slot
+
+	// Best edge out of each component found in the current round, by component root slot
+	private double[] bestDist;
+	private int[]    bestFrom;
+	private int[]    bestTo;
+
+	public SingleLinkageClusterer( final Experiment experiment, final DissimilarityMeasure dissimilarityMeasure ) {
+		this.mExperiment = experiment;
+		this.mDissimilarityMeasure = dissimilarityMeasure;
+	}
+
+	public void cluster( ClusteringBuilder clusteringBuilder, int[] selected, int nObservations ) {
+		if ( nObservations == 0 ) {
+			return;
+		}
+		xs = new double[ nObservations ];
+		ys = new double[ nObservations ];
+		observations = new int[ nObservations ];
+		ObservationStore store = mExperiment instanceof ObservationStore ? (ObservationStore) mExperiment : null;
+		for ( int i = 0; i < nObservations; ++i ) {
+			if ( store != null ) {
+				xs[ i ] = store.getLatitudeRadians( selected[ i ] );
+				ys[ i ] = store.getLongitudeRadians( selected[ i ] );
+			}
+			else {
+				double[] position = mExperiment.getPosition( selected[ i ] );
+				xs[ i ] = Math.toRadians( position[ 0 ] );
+				ys[ i ] = Math.toRadians( position[ 1 ] );
+			}
+			observations[ i ] = selected[ i ];
+		}
+
+		if ( nObservations == 1 ) {
+			clusteringBuilder.setRoot( new ObservationNode( observations[ 0 ], mExperiment.getPosition( observations[ 0 ] ) ) );
+			return;
+		}
+
+		// Building the tree reorders the slots
+		buildTree( nObservations );
+		halfCos = new double[ nObservations ];
+		halfSin = new double[ nObservations ];
+		cos     = new double[ nObservations ];
+		for ( int i = 0; i < nObservations; ++i ) {
+			halfCos[ i ] = Math.cos( xs[ i ] / 2 );
+			halfSin[ i ] = Math.sin( xs[ i ] / 2 );
+			cos[ i ]     = Math.cos( xs[ i ] );
+		}
+		DendrogramNode[] clusterOf = new DendrogramNode[ nObservations ];
+		for ( int i = 0; i < nObservations; ++i ) {
+			clusterOf[ i ] = new ObservationNode( observations[ i ], mExperiment.getPosition( observations[ i ] ) );
+		}
+		int[] edgeFrom = new int[ nObservations - 1 ];
+		int[] edgeTo   = new int[ nObservations - 1 ];
+		double[] edgeLength = new double[ nObservations - 1 ];
+		spanningTree( nObservations, edgeFrom, edgeTo );
+
+		for ( int e = 0; e < nObservations - 1; ++e ) {
+			edgeLength[ e ] = mDissimilarityMeasure.computeDissimilarity( mExperiment, observations[ edgeFrom[ e ] ], observations[ edgeTo[ e ] ] );
+		}
+		// Kruskal's order on the spanning tree gives the single-linkage merges, each one at least as high as those below it
+		int[] order = new int[ nObservations - 1 ];
+		for ( int i = 0; i < order.length; ++i ) {
+			order[ i ] = i;
+		}
+		sort( edgeLength, order, 0, order.length - 1 );
+		int[] parent = new int[ nObservations ];
+		for ( int i = 0; i < nObservations; ++i ) {
+			parent[ i ] = i;
+		}
+		for ( int e : order ) {
+			int a = find( parent, edgeFrom[ e ] );
+			int b = find( parent, edgeTo[ e ] );
+			DendrogramNode left  = clusterOf[ a ];
+			DendrogramNode right = clusterOf[ b ];
+			MergeNode merge = clusteringBuilder.merge( left, right, edgeLength[ e ] );
+			parent[ b ] = a;
+			clusterOf[ a ] = merge;
+			clusterOf[ b ] = null;
+		}
+	}
+
+	// Boruvka's algorithm, fills the n - 1 edges of a minimum spanning tree over the slots
+	private void spanningTree( int n, int[] edgeFrom, int[] edgeTo ) {
+		componentOf = new int[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			componentOf[ i ] = i;
+		}
+		bestDist = new double[ n ];
+		bestFrom = new int[ n ];
+		bestTo   = new int[ n ];
+
+		int[] roots = new int[ n ];
+		int edges = 0;
+		while ( edges < n - 1 ) {
+			labelComponents( 0 );
+			for ( int i = 0; i < n; ++i ) {
+				bestDist[ i ] = Double.POSITIVE_INFINITY;
+			}
+			for ( int i = 0; i < n; ++i ) {
+				int component = find( componentOf, i );
+				nearestOutside( 0, i, component );
+			}
+			// The cheapest edge of every component is taken, so collect the components before any of them is joined
+			int nRoots = 0;
+			for ( int c = 0; c < n; ++c ) {
+				if ( componentOf[ c ] == c  &&  bestDist[ c ] != Double.POSITIVE_INFINITY ) {
+					roots[ nRoots++ ] = c;
+				}
+			}
+			for ( int r = 0; r < nRoots; ++r ) {
+				int c = roots[ r ];
+				int a = find( componentOf, bestFrom[ c ] );
+				int b = find( componentOf, bestTo[ c ] );
+				if ( a == b ) {
+					// Already joined this round through the other component's edge
+					continue;
+				}
+				componentOf[ b ] = a;
+				edgeFrom[ edges ]   = bestFrom[ c ];
+				edgeTo[ edges ]     = bestTo[ c ];
+				++edges;
+			}
+		}
+	}
+
+	// Closest point to slot p outside of component, updates the component's best edge
+	private void nearestOutside( int node, int p, int component ) {
+		if ( nodeComponent[ node ] == component ) {
+			return;
+		}
+		if ( regionDistSq( node, p ) >= bestDist[ component ] ) {
+			return;
+		}
+		if ( nodeLeft[ node ] < 0 ) {
+			for ( int q = nodeFrom[ node ]; q < nodeTo[ node ]; ++q ) {
+				double d = distSq( p, q );
+				if ( d < bestDist[ component ]  &&  find( componentOf, q ) != component ) {
+					bestDist[ component ] = d;
+					bestFrom[ component ] = p;
+					bestTo[ component ]   = q;
+				}
+			}
+			return;
+		}
+		// Closer child first, the other one is often pruned
+		int left = nodeLeft[ node ], right = nodeRight[ node ];
+		if ( regionDistSq( left, p ) <= regionDistSq( right, p ) ) {
+			nearestOutside( left,  p, component );
+			nearestOutside( right, p, component );
+		}
+		else {
+			nearestOutside( right, p, component );
+			nearestOutside( left,  p, component );
+		}
+	}
+
+	private int labelComponents( int node ) {
+		int component;
+		if ( nodeLeft[ node ] < 0 ) {
+			component = find( componentOf, nodeFrom[ node ] );
+			for ( int q = nodeFrom[ node ] + 1; q < nodeTo[ node ]  &&  component != MIXED; ++q ) {
+				if ( find( componentOf, q ) != component ) {
+					component = MIXED;
+				}
+			}
+		}
+		else {
+			int left  = labelComponents( nodeLeft[ node ] );
+			int right = labelComponents( nodeRight[ node ] );
+			component = left == right ? left : MIXED;
+		}
+		nodeComponent[ node ] = component;
+		return component;
+	}
+
+	private void buildTree( int n ) {
+		int capacity = 2 * ( n / LEAF_SIZE + 1 ) * 2;
+		nodeLeft  = new int[ capacity ];
+		nodeRight = new int[ capacity ];
+		nodeFrom  = new int[ capacity ];
+		nodeTo    = new int[ capacity ];
+		nodeMinX  = new double[ capacity ];
+		nodeMaxX  = new double[ capacity ];
+		nodeMinY  = new double[ capacity ];
+		nodeMaxY  = new double[ capacity ];
+		nodeMinCos = new double[ capacity ];
+		nodeComponent = new int[ capacity ];
+		nodeCount = 0;
+		buildNode( 0, n );
+	}
+
+	private int buildNode( int from, int to ) {
+		int node = nodeCount++;
+		nodeFrom[ node ] = from;
+		nodeTo[ node ]   = to;
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for ( int i = from; i < to; ++i ) {
+			minX = Math.min( minX, xs[ i ] );
+			maxX = Math.max( maxX, xs[ i ] );
+			minY = Math.min( minY, ys[ i ] );
+			maxY = Math.max( maxY, ys[ i ] );
+		}
+		nodeMinX[ node ] = minX;
+		nodeMaxX[ node ] = maxX;
+		nodeMinY[ node ] = minY;
+		nodeMaxY[ node ] = maxY;
+		nodeMinCos[ node ] = Math.cos( Math.max( Math.abs( minX ), Math.abs( maxX ) ) );
+		if ( to - from <= LEAF_SIZE ) {
+			nodeLeft[ node ] = nodeRight[ node ] = -1;
+			return node;
+		}
+		int mid = ( from + to ) >>> 1;
+		select( maxX - minX >= maxY - minY ? xs : ys, from, to - 1, mid );
+		// Children are created after the parent's slot is taken, assign after the recursion
+		int left  = buildNode( from, mid );
+		int right = buildNode( mid, to );
+		nodeLeft[ node ]  = left;
+		nodeRight[ node ] = right;
+		return node;
+	}
+
+	// Quickselect on slots, moving points along. Afterwards keys[k] is in sorted position.
+	private void select( double[] keys, int left, int right, int k ) {
+		while ( left < right ) {
+			double pivot = keys[ ( left + right ) >>> 1 ];
+			int i = left, j = right;
+			while ( i <= j ) {
+				while ( keys[ i ] < pivot ) ++i;
+				while ( keys[ j ] > pivot ) --j;
+				if ( i <= j ) {
+					swap( i++, j-- );
+				}
+			}
+			if ( k <= j ) {
+				right = j;
+			}
+			else
+			if ( k >= i ) {
+				left = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private void swap( int i, int j ) {
+		double x = xs[ i ]; xs[ i ] = xs[ j ]; xs[ j ] = x;
+		double y = ys[ i ]; ys[ i ] = ys[ j ]; ys[ j ] = y;
+		int o = observations[ i ]; observations[ i ] = observations[ j ]; observations[ j ] = o;
+	}
+
+	// Squared equirectangular distance in radians, cos( (a + b) / 2 ) expanded into the halves
+	private double distSq( int p, int q ) {
+		double dx = ( ys[ q ] - ys[ p ] ) * ( halfCos[ p ] * halfCos[ q ] - halfSin[ p ] * halfSin[ q ] );
+		double dy = xs[ q ] - xs[ p ];
+		return dx*dx + dy*dy;
+	}
+
+	// No point of the node is closer to slot p than this. The longitude difference counts least where the mean latitude
+	// is furthest from the equator, which is not further than the point or the node's latitude furthest from it.
+	private double regionDistSq( int node, int p ) {
+		double x = xs[ p ], y = ys[ p ];
+		double dx = 0, dy = 0;
+		if ( x < nodeMinX[ node ] ) dx = nodeMinX[ node ] - x;
+		else if ( x > nodeMaxX[ node ] ) dx = x - nodeMaxX[ node ];
+		if ( y < nodeMinY[ node ] ) dy = nodeMinY[ node ] - y;
+		else if ( y > nodeMaxY[ node ] ) dy = y - nodeMaxY[ node ];
+		dy *= Math.min( cos[ p ], nodeMinCos[ node ] );
+		return dx*dx + dy*dy;
+	}
+
+	// Union-find root with path halving
+	private static int find( int[] parent, int i ) {
+		while ( parent[ i ] != i ) {
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	// Sort index by keys[index], ascending
+	private static void sort( double[] keys, int[] index, int left, int right ) {
+		while ( left < right ) {
+			double pivot = keys[ index[ ( left + right ) >>> 1 ] ];
+			int i = left, j = right;
+			while ( i <= j ) {
+				while ( keys[ index[ i ] ] < pivot ) ++i;
+				while ( keys[ index[ j ] ] > pivot ) --j;
+				if ( i <= j ) {
+					int t = index[ i ]; index[ i++ ] = index[ j ]; index[ j-- ] = t;
+				}
+			}
+			// Recurse into the smaller half, loop on the larger one
+			if ( j - left < right - i ) {
+				sort( keys, index, left, j );
+				left = i;
+			}
+			else {
+				sort( keys, index, i, right );
+				right = j;
+			}
+		}
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.greedy;
+
+import com.androidmapsextensions.dendrogram.ObservationStore;
+import com.androidmapsextensions.kdtree.KDTree2D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Clusters of observations for every integer zoom level, each level with its own spatial index.
+ *
+ * Levels are built bottom-up from the observations at maxZoom + 1. The points of level zoom + 1 are clustered greedily:
+ * the first point not taken yet takes all other free points within a radius of half the cell size (clusterSize / 2^zoom)
+ * and they become one point of level zoom, at their weighted center. Building is linear in the number of observations
+ * times the number of levels, rendering a viewport is one range query on the level of the camera's zoom.
+ *
+ * Positions are Spherical Mercator degrees in [0, 360) (longitude + 180 and Mercator latitude + 180), like clusterSize.
+ * Points of the bottom level are indices into the observations the index was built from.
+ */
+public final class GreedyClusterIndex {
+
+	private static final double MAX_LATITUDE = 85.0511287798;
+
+	private final int maxZoom;
+	private final int[] observations;
+	private final Level[] levels; // By zoom, levels[ maxZoom + 1 ] holds the observations
+
+	private static final class Level {
+		final double[] x;
+		final double[] y;
+		final int[] count;
+		final KDTree2D tree;
+		int[] parent;     // Point of the level above containing this one
+		int[] childStart; // Points of the level below are children[ childStart[ i ] ] until children[ childStart[ i + 1 ] ]
+		int[] children;
+
+		Level( double[] x, double[] y, int[] count ) {
+			this.x = x;
+			this.y = y;
+			this.count = count;
+			int[] points = new int[ x.length ];
+			for ( int i = 0; i < x.length; ++i ) {
+				points[ i ] = i;
+			}
+			this.tree = new KDTree2D( x, y, points );
+		}
+
+		int size() {
+			return x.length;
+		}
+	}
+
+	private GreedyClusterIndex( int maxZoom, int[] observations, Level[] levels ) {
+		this.maxZoom = maxZoom;
+		this.observations = observations;
+		this.levels = levels;
+	}
+
+	/**
+	 * @param clusterSize cluster size in degrees of longitude on zoom level 0
+	 * @param clustered false for a cluster group which is not clustered, there is only the level of the observations then
+	 */
+	public static GreedyClusterIndex build( ObservationStore store, int[] observations, double clusterSize, int maxZoom, boolean clustered ) {
+		if ( ! clustered ) {
+			maxZoom = -1;
+		}
+		int n = observations.length;
+		double[] x = new double[ n ];
+		double[] y = new double[ n ];
+		int[] count = new int[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			x[ i ] = scaleLongitude( store.getLongitude( observations[ i ] ) );
+			y[ i ] = scaleLatitude( store.getLatitude( observations[ i ] ) );
+			count[ i ] = 1;
+		}
+		Level[] levels = new Level[ maxZoom + 2 ];
+		levels[ maxZoom + 1 ] = new Level( x, y, count );
+		for ( int zoom = maxZoom; zoom >= 0; --zoom ) {
+			levels[ zoom ] = cluster( levels[ zoom + 1 ], clusterSize / Math.pow( 2, zoom ) / 2 );
+		}
+		return new GreedyClusterIndex( maxZoom, observations.clone(), levels );
+	}
+
+	private static Level cluster( Level below, double radius ) {
+		int n = below.size();
+		int[] parent = new int[ n ];
+		Arrays.fill( parent, -1 );
+		int[] childStart = new int[ n + 1 ];
+		double[] x = new double[ n ];
+		double[] y = new double[ n ];
+		int[] count = new int[ n ];
+		NeighborCollector collector = new NeighborCollector( below, parent, radius );
+		int clusters = 0;
+		for ( int i = 0; i < n; ++i ) {
+			if ( parent[ i ] != -1 ) {
+				continue;
+			}
+			int cluster = clusters++;
+			childStart[ cluster ] = collector.taken;
+			collector.start( cluster, i );
+			below.tree.range( below.x[ i ] - radius, below.y[ i ] - radius, below.x[ i ] + radius, below.y[ i ] + radius, collector );
+			x[ cluster ] = collector.weightedX / collector.weight;
+			y[ cluster ] = collector.weightedY / collector.weight;
+			count[ cluster ] = collector.weight;
+		}
+		childStart[ clusters ] = collector.taken;
+		below.parent = parent;
+		Level level = new Level( Arrays.copyOf( x, clusters ), Arrays.copyOf( y, clusters ), Arrays.copyOf( count, clusters ) );
+		level.childStart = Arrays.copyOf( childStart, clusters + 1 );
+		level.children = collector.children;
+		return level;
+	}
+
+	// Takes the free points within the radius of a cluster's first point into the cluster, one instance per level
+	private static final class NeighborCollector implements KDTree2D.Visitor {
+		final Level below;
+		final int[] parent;
+		final int[] children;
+		final double radiusSquared;
+		int taken;
+		int cluster;
+		int first;
+		double weightedX;
+		double weightedY;
+		int weight;
+
+		NeighborCollector( Level below, int[] parent, double radius ) {
+			this.below = below;
+			this.parent = parent;
+			this.children = new int[ below.size() ];
+			this.radiusSquared = radius * radius;
+		}
+
+		void start( int cluster, int first ) {
+			this.cluster = cluster;
+			this.first = first;
+			weightedX = 0;
+			weightedY = 0;
+			weight = 0;
+			take( first );
+		}
+
+		@Override
+		public void visit( double x, double y, int j ) {
+			if ( parent[ j ] != -1 ) {
+				return;
+			}
+			double dx = below.x[ j ] - below.x[ first ];
+			double dy = below.y[ j ] - below.y[ first ];
+			if ( dx * dx + dy * dy > radiusSquared ) {
+				return;
+			}
+			take( j );
+		}
+
+		private void take( int j ) {
+			parent[ j ] = cluster;
+			children[ taken++ ] = j;
+			weightedX += below.x[ j ] * below.count[ j ];
+			weightedY += below.y[ j ] * below.count[ j ];
+			weight += below.count[ j ];
+		}
+	}
+
+	public int getMaxZoom() {
+		return maxZoom;
+	}
+
+	public int getNumberOfObservations() {
+		return observations.length;
+	}
+
+	/**
+	 * The level rendered at a camera zoom, from 0 to maxZoom + 1 where every observation is a point of its own.
+	 */
+	public int getLevel( float zoom ) {
+		return Math.max( 0, Math.min( maxZoom + 1, (int) Math.floor( zoom ) ) );
+	}
+
+	public int getNumberOfPoints( int level ) {
+		return levels[ level ].size();
+	}
+
+	/**
+	 * Points of a level inside the bounds. West may be greater than east for bounds across the 180th meridian.
+	 */
+	public List<Integer> getRange( int level, double south, double west, double north, double east ) {
+		KDTree2D tree = levels[ level ].tree;
+		double low = scaleLatitude( south );
+		double high = scaleLatitude( north );
+		final List<Integer> points = new ArrayList<Integer>();
+		KDTree2D.Visitor collector = new KDTree2D.Visitor() {
+			@Override
+			public void visit( double x, double y, int point ) {
+				points.add( point );
+			}
+		};
+		if ( west <= east ) {
+			tree.range( scaleLongitude( west ), low, scaleLongitude( east ), high, collector );
+		}
+		else {
+			tree.range( scaleLongitude( west ), low, 360.0, high, collector );
+			tree.range( 0.0, low, scaleLongitude( east ), high, collector );
+		}
+		return points;
+	}
+
+	public int getCount( int level, int point ) {
+		return levels[ level ].count[ point ];
+	}
+
+	public double getLatitude( int level, int point ) {
+		double radians = Math.atan( Math.exp( Math.toRadians( levels[ level ].y[ point ] - 180.0 ) ) );
+		return Math.toDegrees( 2 * radians ) - 90;
+	}
+
+	public double getLongitude( int level, int point ) {
+		return levels[ level ].x[ point ] - 180.0;
+	}
+
+	/**
+	 * The observations in a point of a level.
+	 */
+	public int[] getObservations( int level, int point ) {
+		int[] result = new int[ levels[ level ].count[ point ] ];
+		int size = 0;
+		// Points still to expand and their levels
+		int[] points = new int[ 16 ];
+		int[] pointLevels = new int[ 16 ];
+		int stack = 0;
+		points[ stack ] = point;
+		pointLevels[ stack++ ] = level;
+		while ( stack > 0 ) {
+			int current = points[ --stack ];
+			int currentLevel = pointLevels[ stack ];
+			if ( currentLevel == maxZoom + 1 ) {
+				result[ size++ ] = observations[ current ];
+				continue;
+			}
+			Level l = levels[ currentLevel ];
+			for ( int c = l.childStart[ current ]; c < l.childStart[ current + 1 ]; ++c ) {
+				if ( stack == points.length ) {
+					points = Arrays.copyOf( points, 2 * stack );
+					pointLevels = Arrays.copyOf( pointLevels, 2 * stack );
+				}
+				points[ stack ] = l.children[ c ];
+				pointLevels[ stack++ ] = currentLevel + 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The point of a level which contains an observation, given by its index in the observations the index was built from.
+	 */
+	public int getPoint( int level, int observationIndex ) {
+		int point = observationIndex;
+		for ( int l = maxZoom + 1; l > level; --l ) {
+			point = levels[ l ].parent[ point ];
+		}
+		return point;
+	}
+
+	/**
+	 * The lowest level from which on an observation, given by its index, is a point of its own.
+	 */
+	public int getMinLevelNotClustered( int observationIndex ) {
+		int point = observationIndex;
+		int minLevel = maxZoom + 1;
+		for ( int l = maxZoom + 1; l > 0; --l ) {
+			point = levels[ l ].parent[ point ];
+			if ( levels[ l - 1 ].count[ point ] > 1 ) {
+				break;
+			}
+			minLevel = l - 1;
+		}
+		return minLevel;
+	}
+
+	private static double scaleLongitude( double longitude ) {
+		return longitude + 180.0;
+	}
+
+	private static double scaleLatitude( double latitude ) {
+		latitude = Math.max( -MAX_LATITUDE, Math.min( MAX_LATITUDE, latitude ) );
+		double radians = Math.toRadians( latitude + 90 ) / 2;
+		return Math.toDegrees( Math.log( Math.tan( radians ) ) ) + 180.0;
+	}
+}
@@ -0,0 +1,701 @@
+/* 
+ * Based on Chase's KDTree-C 
+ * Copyright (c) 2012 Chase
+ *
+ * This software is provided 'as-is', without any express or implied
+ * warranty. In no event will the authors be held liable for any damages
+ * arising from the use of this software.
+ *
+ * Permission is granted to anyone to use this software for any purpose,
+ * including commercial applications, and to alter it and redistribute it
+ * freely, subject to the following restrictions:
+ *
+ * 1. The origin of this software must not be misrepresented; you must not
+ * claim that you wrote the original software. If you use this software
+ * in a product, an acknowledgment in the product documentation would be
+ * appreciated but is not required.
+ * 
+ * 2. Altered source versions must be plainly marked as such, and must not be
+ * misrepresented as being the original software.
+ *
+ * 3. This notice may not be removed or altered from any source
+ * distribution.
+ */
+package com.androidmapsextensions.kdtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+ 
+/**
+ * This is a KD Bucket Tree, for fast sorting and searching of K dimensional
+ * data.
+ * 
+ * @author Chase
+ * 
+ */
+public class KDTree<T> {
+	protected static final int defaultBucketSize = 48;
+	// A subtree is rebuilt from its live entries once more than this share of its entries are deleted
+	protected static final double maxDeletedRatio = 0.5;
+	// Subtrees smaller than this are not worth a task of their own when bulk loading in parallel
+	protected static final int minParallelSize = 8192;
+ 
+	private final int dimensions;
+	private final int bucketSize;
+	private NodeKD root;
+ 
+	/**
+	 * Constructor with value for dimensions.
+	 * 
+	 * @param dims - Number of dimensions
+	 */
+	public KDTree( int dims ) {
+		this.dimensions = dims;
+		this.bucketSize = defaultBucketSize;
+		this.root = new NodeKD();
+	}
+ 
+	/**
+	 * Constructor with value for dimensions and bucket size.
+	 * 
+	 * @param dims
+	 *            - Number of dimensions
+	 * @param bucket
+	 *            - Size of the buckets.
+	 */
+	public KDTree( int dims, int bucket ) {
+		this.dimensions = dims;
+		this.bucketSize = bucket;
+		this.root = new NodeKD();
+	}
+
+	/**
+	 * Constructor bulk loading all keys at once. Every branch splits its entries at the median
+	 * along its widest dimension, so the tree is balanced whatever the order of the keys.
+	 * O(n log n), the same as adding them one by one, but the tree is better balanced.
+	 * 
+	 * @param dims
+	 *            - Number of dimensions
+	 * @param keys
+	 *            - Keys to add, the arrays are not copied
+	 * @param values
+	 *            - objects to add, one per key
+	 */
+	public KDTree( int dims, double[][] keys, List<? extends T> values ) {
+		this( dims );
+		root.load( keys.clone(), values.toArray(), 0, keys.length );
+	}
+
+	/**
+	 * Constructor bulk loading all keys at once, like KDTree( dims, keys, values ).
+	 * The upper levels are split on the calling thread, the subtrees below them are loaded
+	 * by up to nTasks concurrent tasks of executor. Must not be called from a thread of executor, it waits for the tasks.
+	 * 
+	 * @param dims
+	 *            - Number of dimensions
+	 * @param keys
+	 *            - Keys to add, the arrays are not copied
+	 * @param values
+	 *            - objects to add, one per key
+	 * @param executor
+	 *            - runs the tasks
+	 * @param nTasks
+	 *            - number of tasks to split the work into, e.g. the number of processors
+	 */
+	public KDTree( int dims, double[][] keys, List<? extends T> values, ExecutorService executor, int nTasks ) {
+		this( dims );
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		int depth = 0;
+		while ( ( 1 << depth ) < nTasks ) {
+			++depth;
+		}
+		root.loadParallel( keys.clone(), values.toArray(), 0, keys.length, depth, tasks );
+		try {
+			for ( Future<Void> result : executor.invokeAll( tasks ) ) {
+				result.get();
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException( e );
+		}
+		catch ( ExecutionException e ) {
+			throw new RuntimeException( e.getCause() );
+		}
+	}
+ 
+	/**
+	 * Add a key and its associated value to the tree.
+	 * 
+	 * @param key
+	 *            - Key to add
+	 * @param val
+	 *            - object to add
+	 */
+	public void add( double[] key, T val ) {
+		root.addPoint( key, val );
+	}
+	
+	/**
+	 * Removes a key and its associated value from the tree. Entries are only marked as deleted,
+	 * subtrees are rebuilt from their live entries once too many of them are deleted (see maxDeletedRatio),
+	 * which also shrinks the bounds and rebalances the subtree. Amortized, deleting stays logarithmic.
+	 * 
+	 * @param key
+	 *            - Key to remove
+	 * @param val
+	 *            - object to remove
+	 */
+	public void delete( double[] key, T val ) {
+		root.deletePoint( key, val );
+	}
+
+	/**
+	 * @return number of entries in the tree, not counting deleted ones
+	 */
+	public int size() {
+		return root.live;
+	}
+	 
+	/**
+	 * Receives the entries found by a query, in no particular order.
+	 */
+	public interface Visitor<T> {
+		void visit( double[] key, T val );
+	}
+
+	/**
+	 * Returns all PointKD within a certain range defined by an upper and lower
+	 * PointKD.
+	 * 
+	 * @param low
+	 *            - lower bounds of area
+	 * @param high
+	 *            - upper bounds of area
+	 * @return - All PointKD between low and high.
+	 */
+	public List<T> getRange( double[] low, double[] high ) {
+		final ArrayList<T> range = new ArrayList<T>();
+		range( low, high, new Visitor<T>() {
+			@Override
+			public void visit( double[] key, T val ) {
+				range.add( val );
+			}
+		} );
+		return range;
+	}
+
+	/**
+	 * Passes all entries within a certain range defined by an upper and lower
+	 * PointKD to the visitor. Allocates nothing, the visitor may be reused across queries.
+	 * The tree must not be modified by the visitor.
+	 * 
+	 * @param low
+	 *            - lower bounds of area
+	 * @param high
+	 *            - upper bounds of area
+	 * @param visitor
+	 *            - receives each entry
+	 */
+	public void range( double[] low, double[] high, Visitor<? super T> visitor ) {
+		root.range( high, low, visitor );
+	}
+ 
+	/**
+	 * Gets the N nearest neighbors to the given key.
+	 * 
+	 * @param key
+	 *            - Key
+	 * @param num
+	 *            - Number of results
+	 * @return Array of Item Objects, distances within the items are the square
+	 *         of the actual distance between them and the key
+	 */
+	public ResultHeap<T> getNearestNeighbors(double[] key, int num) {
+		return nearest( key, num, new ResultHeap<T>( num ) );
+	}
+
+	/**
+	 * Gets the N nearest neighbors to the given key into a heap which is cleared first,
+	 * so one heap can be reused for all queries without allocating.
+	 * 
+	 * @param key
+	 *            - Key
+	 * @param num
+	 *            - Number of results, at most the heap's capacity
+	 * @param heap
+	 *            - Receives the results, distances are squared as in getNearestNeighbors
+	 * @return heap
+	 */
+	public ResultHeap<T> nearest( double[] key, int num, ResultHeap<T> heap ) {
+		heap.clear( num );
+		root.nearest( heap, key );
+		return heap;
+	}
+ 
+ 
+	// Internal tree node
+	private class NodeKD {
+		private NodeKD left, right;
+		private double[] maxBounds, minBounds;
+		private Object[] bucketValues;
+		private double[][] bucketKeys;
+		private boolean[] isDeleted;
+		private boolean isLeaf;
+		private int current, sliceDimension;
+		private double slice;
+		// Entries in this subtree, live and marked as deleted
+		private int live, deleted;
+ 
+		private NodeKD() {
+			bucketValues = new Object[bucketSize];
+			bucketKeys = new double[bucketSize][];
+			isDeleted = new boolean[bucketSize];
+			Arrays.fill( isDeleted, false );
+			
+			left = right = null;
+			maxBounds = minBounds = null;
+			
+			isLeaf = true;
+			
+			current = 0;
+		}
+		
+		// What it says on the tin
+		private void addPoint(double[] key, Object val) {
+			if( isLeaf ) {
+				addLeafPoint( key,val );
+			} else {
+				++live;
+				extendBounds( key );
+				if ( key[sliceDimension] > slice ) {
+					right.addPoint( key, val );
+				} else {
+					left.addPoint( key, val );
+				}
+			}
+		}
+		
+		// Returns the number of entries deleted
+		private int deletePoint( double[] key, Object val ) {
+			int n;
+			if( isLeaf ) {
+				n = deleteLeafPoint( key, val );
+			} else {
+				if ( key[sliceDimension] > slice ) {
+					n = right.deletePoint(key, val);
+				} else {
+					n = left.deletePoint(key, val);
+				}
+			}
+			if ( n == 0 ) {
+				return 0;
+			}
+			if ( isLeaf ) {
+				live    -= n;
+				deleted += n;
+			} else {
+				// Children may have been rebuilt, dropping their deleted entries
+				live    = left.live + right.live;
+				deleted = left.deleted + right.deleted;
+			}
+			if ( deleted > maxDeletedRatio * ( live + deleted ) ) {
+				rebuild();
+			}
+			else if ( ! isLeaf ) {
+				// A child may have been rebuilt with smaller bounds
+				tightenBounds();
+			}
+			return n;
+		}
+		
+		private void addLeafPoint( double[] key, Object val ) {
+			extendBounds( key );
+			if ( current + 1 > bucketKeys.length ) {
+				if ( Arrays.equals( minBounds, maxBounds ) ) {
+					// All keys are equal, no slice can separate them. Grow the bucket instead of splitting forever.
+					bucketKeys   = Arrays.copyOf( bucketKeys, 2 * bucketKeys.length );
+					bucketValues = Arrays.copyOf( bucketValues, 2 * bucketValues.length );
+					isDeleted    = Arrays.copyOf( isDeleted, 2 * isDeleted.length );
+				}
+				else {
+					splitLeaf();
+					addPoint( key, val );
+					return;
+				}
+			}
+			bucketKeys[current] = key;
+			bucketValues[current] = val;
+			++current;
+			++live;
+		}
+		
+		private int deleteLeafPoint( double[] key, Object val ) {
+			int n = 0;
+			for ( int i = 0; i < current; ++i ) {
+				if ( isDeleted[i] == false  &&  Arrays.equals( bucketKeys[i], key )  &&  bucketValues[i].equals( val ) ) {
+					isDeleted[i] = true;
+					bucketValues[i] = null;
+					++n;
+				}
+			}
+			return n;
+		}
+
+		// Replaces this subtree by a new one holding only its live entries, with tight bounds
+		private void rebuild() {
+			if ( isLeaf ) {
+				compactLeaf();
+				return;
+			}
+			double[][] keys = new double[live][];
+			Object[] values = new Object[live];
+			collect( keys, values, 0 );
+			load( keys, values, 0, keys.length );
+		}
+
+		// Replaces this subtree by a balanced one holding keys[from, to), which are reordered
+		private void load( double[][] keys, Object[] values, int from, int to ) {
+			if ( prepareLoad( keys, values, from, to ) ) {
+				int split = partition( keys, values, from, to );
+				left.load( keys, values, from, split );
+				right.load( keys, values, split, to );
+			}
+		}
+
+		// Like load(), but leaves the subtrees depth levels down to tasks
+		private void loadParallel( final double[][] keys, final Object[] values, final int from, final int to, int depth, List<Callable<Void>> tasks ) {
+			if ( depth == 0  ||  to - from < minParallelSize ) {
+				tasks.add( new Callable<Void>() {
+					@Override
+					public Void call() {
+						load( keys, values, from, to );
+						return null;
+					}
+				} );
+				return;
+			}
+			if ( prepareLoad( keys, values, from, to ) ) {
+				int split = partition( keys, values, from, to );
+				left.loadParallel( keys, values, from, split, depth - 1, tasks );
+				right.loadParallel( keys, values, split, to, depth - 1, tasks );
+			}
+		}
+
+		// Resets this node to hold keys[from, to). Returns false if it is a leaf holding them,
+		// true if it became a branch whose children are still to be loaded.
+		private boolean prepareLoad( double[][] keys, Object[] values, int from, int to ) {
+			int n = to - from;
+			left = right = null;
+			maxBounds = minBounds = null;
+			for ( int i = from; i < to; ++i ) {
+				extendBounds( keys[i] );
+			}
+			current = 0;
+			live = n;
+			deleted = 0;
+			if ( n <= bucketSize  ||  Arrays.equals( minBounds, maxBounds ) ) {
+				// All keys equal end up in one bucket, as in addLeafPoint()
+				int capacity = Math.max( bucketSize, n );
+				bucketKeys   = new double[capacity][];
+				bucketValues = new Object[capacity];
+				isDeleted    = new boolean[capacity];
+				System.arraycopy( keys, from, bucketKeys, 0, n );
+				System.arraycopy( values, from, bucketValues, 0, n );
+				current = n;
+				isLeaf = true;
+				return false;
+			}
+			bucketKeys   = null;
+			bucketValues = null;
+			isDeleted    = null;
+			isLeaf = false;
+			left  = new NodeKD();
+			right = new NodeKD();
+			return true;
+		}
+
+		// Splits keys[from, to) at the median of the widest dimension, sets the slice and returns the start of the right part
+		private int partition( double[][] keys, Object[] values, int from, int to ) {
+			double bestRange = -1;
+			for ( int i = 0; i < dimensions; ++i ) {
+				double range = maxBounds[i] - minBounds[i];
+				if ( range > bestRange ) {
+					sliceDimension = i;
+					bestRange = range;
+				}
+			}
+			int mid = ( from + to ) >>> 1;
+			select( keys, values, sliceDimension, from, to - 1, mid );
+			slice = keys[mid][sliceDimension];
+			// Keys equal to the median belong to the left part
+			int split = mid + 1;
+			for ( int i = mid + 1; i < to; ++i ) {
+				if ( keys[i][sliceDimension] <= slice ) {
+					swap( keys, values, i, split++ );
+				}
+			}
+			if ( split == to ) {
+				// The median is the maximum, split off the keys at the maximum instead
+				double max = maxBounds[sliceDimension];
+				slice = minBounds[sliceDimension];
+				split = from;
+				for ( int i = from; i < to; ++i ) {
+					if ( keys[i][sliceDimension] < max ) {
+						slice = Math.max( slice, keys[i][sliceDimension] );
+						swap( keys, values, i, split++ );
+					}
+				}
+			}
+			return split;
+		}
+
+		// Moves the live entries to the front of the bucket, in place
+		private void compactLeaf() {
+			int n = 0;
+			for ( int i = 0; i < current; ++i ) {
+				if ( ! isDeleted[i] ) {
+					bucketKeys[n]   = bucketKeys[i];
+					bucketValues[n] = bucketValues[i];
+					++n;
+				}
+			}
+			Arrays.fill( bucketKeys, n, current, null );
+			Arrays.fill( bucketValues, n, current, null );
+			Arrays.fill( isDeleted, 0, current, false );
+			current = n;
+			deleted = 0;
+			if ( n == 0 ) {
+				maxBounds = minBounds = null;
+				return;
+			}
+			System.arraycopy( bucketKeys[0], 0, maxBounds, 0, dimensions );
+			System.arraycopy( bucketKeys[0], 0, minBounds, 0, dimensions );
+			for ( int i = 1; i < n; ++i ) {
+				extendBounds( bucketKeys[i] );
+			}
+		}
+
+		// Copies the live entries of this subtree into keys and values from index n on, returns the next index
+		private int collect( double[][] keys, Object[] values, int n ) {
+			if ( isLeaf ) {
+				for ( int i = 0; i < current; ++i ) {
+					if ( ! isDeleted[i] ) {
+						keys[n]   = bucketKeys[i];
+						values[n] = bucketValues[i];
+						++n;
+					}
+				}
+				return n;
+			}
+			n = left.collect( keys, values, n );
+			return right.collect( keys, values, n );
+		}
+
+		private void tightenBounds() {
+			if ( left.live == 0  ||  right.live == 0 ) {
+				NodeKD child = left.live == 0 ? right : left;
+				if ( child.live == 0 ) {
+					return;
+				}
+				System.arraycopy( child.maxBounds, 0, maxBounds, 0, dimensions );
+				System.arraycopy( child.minBounds, 0, minBounds, 0, dimensions );
+				return;
+			}
+			for ( int i = 0; i < dimensions; ++i ) {
+				maxBounds[i] = Math.max( left.maxBounds[i], right.maxBounds[i] );
+				minBounds[i] = Math.min( left.minBounds[i], right.minBounds[i] );
+			}
+		}
+		
+		/**
+		 * Find the nearest neighbor recursively.
+		 */
+		@SuppressWarnings("unchecked")
+		private void nearest( ResultHeap<T> heap, double[] data ) {
+			if ( live == 0 )
+				return;
+			if ( isLeaf ) {
+				//IS LEAF
+				for ( int i = 0; i < current; ++i ) {
+					if ( isDeleted[i] ) {
+						continue;
+					}
+					double dist = pointDistSq( bucketKeys[i], data );
+					heap.offer( dist, (T) bucketValues[i] );
+				}
+			} 
+			else {
+				//IS BRANCH
+				if ( data[sliceDimension] > slice ) {
+					right.nearest( heap, data );
+					if ( left.live == 0 )
+						return;
+					if ( ! heap.isFull()  ||  regionDistSq(data,left.minBounds,left.maxBounds) < heap.getMaxKey() ) {
+						left.nearest( heap, data );
+					}
+				} 
+				else {
+					left.nearest( heap, data );
+					if ( right.live == 0 )
+						return;
+					if ( ! heap.isFull()  ||  regionDistSq(data,right.minBounds,right.maxBounds) < heap.getMaxKey() ) {
+						right.nearest( heap, data );
+					}
+				}
+			}
+		}
+		
+		// Passes all items from within a range to the visitor
+		@SuppressWarnings("unchecked")
+		private void range( double[] upper, double[] lower, Visitor<? super T> visitor ) {
+			if ( bucketValues == null ) {
+				// Branch
+				if ( left.live > 0  &&  intersects(upper, lower, left.maxBounds, left.minBounds) ) {
+					left.range( upper, lower, visitor );
+				}
+				if ( right.live > 0  &&  intersects(upper, lower, right.maxBounds, right.minBounds) ) {
+					right.range( upper, lower, visitor );
+				}
+				return;
+			}
+			// Leaf
+			for( int i = 0; i < current; ++i ) {
+				if ( ! isDeleted[i]  &&  contains(upper, lower, bucketKeys[i]) ) {
+					visitor.visit( bucketKeys[i], (T) bucketValues[i] );
+				}
+			}
+		}
+ 
+		// These are helper functions from here down
+		// Check if this hyper rectangle contains a give hyper-point
+		public boolean contains( double[] upper, double[] lower, double[] point ) {
+			if ( current == 0 ) return false;
+			for ( int i = 0; i < point.length; ++i ) {
+				if ( point[i] > upper[i]  ||  point[i] < lower[i] ) return false;
+			}
+			return true;
+		}
+ 
+		// Checks if two hyper-rectangles intersect
+		public boolean intersects( double[] up0, double[] low0, double[] up1, double[] low1 ) {
+			for ( int i = 0; i < up0.length; ++i ) {
+				if ( up1[i] < low0[i]  ||  low1[i] > up0[i] ) return false;
+			}
+			return true;
+		}
+
+		// VH - Ignore any previously deleted points 
+		private void splitLeaf() {
+			double bestRange = 0;
+			for ( int i = 0; i < dimensions; ++i ) {
+				double range = maxBounds[i] - minBounds[i];
+				if ( range > bestRange ) {
+					sliceDimension = i;
+					bestRange = range;
+				}
+			}
+			
+			left  = new NodeKD();
+			right = new NodeKD();
+			
+			slice = ( maxBounds[sliceDimension] + minBounds[sliceDimension] ) * 0.5;
+			
+			for ( int i = 0; i < current; ++i ) {
+				if ( isDeleted[i] ) {
+					continue;
+				}
+				// A child may have to split in turn when the live keys all lie on one side
+				if ( bucketKeys[i][sliceDimension] > slice ) {
+					right.addPoint( bucketKeys[i], bucketValues[i] );
+				} 
+				else {
+					left.addPoint( bucketKeys[i], bucketValues[i] );
+				}
+			}
+			live = left.live + right.live;
+			deleted = 0;
+			bucketKeys   = null;
+			bucketValues = null;
+			isDeleted    = null;
+			isLeaf = false;
+		}
+		
+		// Expands this hyper rectangle
+		private void extendBounds( double[] key ) {
+			if ( maxBounds == null ) {
+				maxBounds = Arrays.copyOf( key, dimensions );
+				minBounds = Arrays.copyOf( key, dimensions );
+				return;
+			}
+			for ( int i = 0; i < key.length; ++i ) {
+				if ( maxBounds[i] < key[i] ) maxBounds[i] = key[i];
+				if ( minBounds[i] > key[i] ) minBounds[i] = key[i];
+			}
+		}
+	}
+ 
+	// Quickselect: afterwards the key at k is in sorted position along dimension, smaller ones before it, larger ones after it
+	private static void select( double[][] keys, Object[] values, int dimension, int left, int right, int k ) {
+		while ( left < right ) {
+			double pivot = keys[( left + right ) >>> 1][dimension];
+			int i = left, j = right;
+			while ( i <= j ) {
+				while ( keys[i][dimension] < pivot ) ++i;
+				while ( keys[j][dimension] > pivot ) --j;
+				if ( i <= j ) {
+					swap( keys, values, i++, j-- );
+				}
+			}
+			if ( k <= j ) {
+				right = j;
+			}
+			else
+			if ( k >= i ) {
+				left = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private static void swap( double[][] keys, Object[] values, int i, int j ) {
+		double[] key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		Object value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	/* I may have borrowed these from an early version of Red's tree. I however forget. */
+	private static final double pointDistSq(double[] p1, double[] p2) {
+        double d = 0;
+        double q = 0;
+        for (int i = 0; i < p1.length; ++i) {
+            d += (q=(p1[i] - p2[i]))*q;
+        }
+        return d;
+    }
+ 
+    private static final double regionDistSq( double[] point, double[] min, double[] max ) {
+        double d = 0;
+        double q = 0;
+        for ( int i = 0; i < point.length; ++i ) {
+            if ( point[i] > max[i] ) {
+            	d += (q = (point[i] - max[i]))*q;
+            } 
+            else 
+            if ( point[i] < min[i] ) {
+                d += (q = (point[i] - min[i]))*q;
+            }
+        }
+        return d;
+    }
+}
\ No newline at end of file
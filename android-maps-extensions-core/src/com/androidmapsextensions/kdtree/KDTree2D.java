@@ -0,0 +1,445 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.kdtree;
+
+import java.util.Arrays;
+
+
+/**
+ * KD bucket tree like KDTree, specialized for 2-D keys and int values, e.g. indices into an array of the actual objects.
+ * Keys and values of all buckets are packed into flat primitive arrays, and the nodes are array slots as well,
+ * instead of an object per node, an array per key and a reference per value. That takes a fraction of the memory
+ * and nearest neighbor searches touch far fewer cache lines.
+ *
+ * Deleted entries are only marked. Once most of the slots are deleted or were left behind by split buckets,
+ * the whole tree is bulk loaded again from its live entries, so everything is amortized logarithmic.
+ * Not thread safe, queries included.
+ */
+public final class KDTree2D {
+
+	/**
+	 * Receives the entries found by range(), in no particular order.
+	 */
+	public interface Visitor {
+		void visit( double x, double y, int value );
+	}
+
+	private static final int BUCKET_SIZE = 32;
+
+	// Nodes, the children of a branch are the adjacent nodes firstChild and firstChild + 1, leaves have firstChild -1
+	private int nodeCount;
+	private int[] firstChild;
+	private boolean[] sliceOnY;
+	private double[] slice;
+	private double[] bounds; // minX, minY, maxX, maxY per node
+	private int[] live;      // Live entries in the subtree
+	private int[] start;     // Slots of a leaf are start until start + count, there is room up to start + capacity
+	private int[] count;
+	private int[] capacity;
+
+	// Slots, x and y interleaved in coordinates
+	private int slotCount;
+	private double[] coordinates;
+	private int[] values;
+	private boolean[] deleted;
+
+	private int size;
+
+	// State of the current nearest() search
+	private double queryX, queryY, bestDistance, pruneFactor;
+	private int excluded, bestValue;
+
+	public KDTree2D() {
+		this( new double[0], new double[0], new int[0] );
+	}
+
+	/**
+	 * Bulk loads the entries, splitting at medians like KDTree( dims, keys, values ). The arrays are not modified.
+	 */
+	public KDTree2D( double[] xs, double[] ys, int[] values ) {
+		load( xs.clone(), ys.clone(), values.clone(), values.length );
+	}
+
+	/**
+	 * @return number of entries in the tree, not counting deleted ones
+	 */
+	public int size() {
+		return size;
+	}
+
+	public void add( double x, double y, int value ) {
+		int node = 0;
+		while ( firstChild[node] >= 0 ) {
+			++live[node];
+			extendBounds( node, x, y );
+			node = firstChild[node] + ( ( sliceOnY[node] ? y : x ) > slice[node] ? 1 : 0 );
+		}
+		addToLeaf( node, x, y, value );
+		++size;
+		rebuildIfWasteful();
+	}
+
+	/**
+	 * Removes one entry with this key and value.
+	 *
+	 * @return false if there is none
+	 */
+	public boolean delete( double x, double y, int value ) {
+		if ( ! delete( 0, x, y, value ) ) {
+			return false;
+		}
+		--size;
+		rebuildIfWasteful();
+		return true;
+	}
+
+	/**
+	 * Passes all entries with lowX <= x <= highX and lowY <= y <= highY to the visitor. Allocates nothing.
+	 */
+	public void range( double lowX, double lowY, double highX, double highY, Visitor visitor ) {
+		range( 0, lowX, lowY, highX, highY, visitor );
+	}
+
+	/**
+	 * The value of the entry nearest to x, y, not counting entries with value excluded.
+	 * Of several entries at the same distance any one is returned. Allocates nothing.
+	 *
+	 * @return -1 if there is no other entry
+	 */
+	public int nearest( double x, double y, int excluded ) {
+		return nearest( x, y, excluded, 0.0 );
+	}
+
+	/**
+	 * Approximate nearest(): the entry returned is at most (1 + epsilon) times as far away as the nearest one.
+	 * Subtrees which cannot hold an entry that much closer than the best one found so far are skipped,
+	 * so larger values visit fewer buckets.
+	 *
+	 * @param epsilon 0 for the exact nearest entry
+	 */
+	public int nearest( double x, double y, int excluded, double epsilon ) {
+		this.queryX = x;
+		this.queryY = y;
+		this.excluded = excluded;
+		pruneFactor = ( 1 + epsilon ) * ( 1 + epsilon );
+		bestDistance = Double.POSITIVE_INFINITY;
+		bestValue = -1;
+		if ( size > 0 ) {
+			nearest( 0 );
+		}
+		return bestValue;
+	}
+
+	private void load( double[] xs, double[] ys, int[] vals, int n ) {
+		int nodes = 4 * ( n / BUCKET_SIZE ) + 1;
+		firstChild = new int[nodes];
+		sliceOnY   = new boolean[nodes];
+		slice      = new double[nodes];
+		bounds     = new double[4 * nodes];
+		live       = new int[nodes];
+		start      = new int[nodes];
+		count      = new int[nodes];
+		capacity   = new int[nodes];
+		int slots = Math.max( BUCKET_SIZE, 2 * n );
+		coordinates = new double[2 * slots];
+		values      = new int[slots];
+		deleted     = new boolean[slots];
+		nodeCount = 0;
+		slotCount = 0;
+		size = n;
+		loadNode( newNodes( 1 ), xs, ys, vals, 0, n );
+	}
+
+	// Turns node into the root of a balanced subtree holding the entries from until to, which are reordered
+	private void loadNode( int node, double[] xs, double[] ys, int[] vals, int from, int to ) {
+		int n = to - from;
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for ( int i = from; i < to; ++i ) {
+			minX = Math.min( minX, xs[i] );
+			minY = Math.min( minY, ys[i] );
+			maxX = Math.max( maxX, xs[i] );
+			maxY = Math.max( maxY, ys[i] );
+		}
+		bounds[4 * node]     = minX;
+		bounds[4 * node + 1] = minY;
+		bounds[4 * node + 2] = maxX;
+		bounds[4 * node + 3] = maxY;
+		live[node] = n;
+		if ( n <= BUCKET_SIZE  ||  ( minX == maxX  &&  minY == maxY ) ) {
+			// All keys equal end up in one bucket
+			firstChild[node] = -1;
+			allocateSlots( node, Math.max( BUCKET_SIZE, n ) );
+			for ( int i = from; i < to; ++i ) {
+				putSlot( node, xs[i], ys[i], vals[i] );
+			}
+			return;
+		}
+		boolean onY = maxY - minY > maxX - minX;
+		double[] keys = onY ? ys : xs;
+		int mid = ( from + to ) >>> 1;
+		select( xs, ys, vals, keys, from, to - 1, mid );
+		double s = keys[mid];
+		// Keys equal to the median belong to the left part
+		int split = mid + 1;
+		for ( int i = mid + 1; i < to; ++i ) {
+			if ( keys[i] <= s ) {
+				swap( xs, ys, vals, i, split++ );
+			}
+		}
+		if ( split == to ) {
+			// The median is the maximum, split off the keys at the maximum instead
+			double max = onY ? maxY : maxX;
+			s = onY ? minY : minX;
+			split = from;
+			for ( int i = from; i < to; ++i ) {
+				if ( keys[i] < max ) {
+					s = Math.max( s, keys[i] );
+					swap( xs, ys, vals, i, split++ );
+				}
+			}
+		}
+		int child = newNodes( 2 );
+		firstChild[node] = child;
+		sliceOnY[node] = onY;
+		slice[node] = s;
+		loadNode( child, xs, ys, vals, from, split );
+		loadNode( child + 1, xs, ys, vals, split, to );
+	}
+
+	private void addToLeaf( int node, double x, double y, int value ) {
+		extendBounds( node, x, y );
+		++live[node];
+		if ( count[node] == capacity[node] ) {
+			int n = live[node] - 1;
+			double[] xs = new double[n + 1];
+			double[] ys = new double[n + 1];
+			int[] vals = new int[n + 1];
+			int j = 0;
+			for ( int i = start[node]; i < start[node] + count[node]; ++i ) {
+				if ( ! deleted[i] ) {
+					xs[j] = coordinates[2 * i];
+					ys[j] = coordinates[2 * i + 1];
+					vals[j++] = values[i];
+				}
+			}
+			xs[n] = x;
+			ys[n] = y;
+			vals[n] = value;
+			if ( n < capacity[node] ) {
+				// Deleted entries make room, compact in place
+				count[node] = 0;
+				for ( int i = 0; i <= n; ++i ) {
+					putSlot( node, xs[i], ys[i], vals[i] );
+				}
+			}
+			else {
+				// Split, or grow a bucket of equal keys. The old slots are left behind until the next rebuild.
+				loadNode( node, xs, ys, vals, 0, n + 1 );
+				if ( firstChild[node] < 0  &&  capacity[node] == n + 1 ) {
+					grow( node );
+				}
+			}
+			return;
+		}
+		putSlot( node, x, y, value );
+	}
+
+	// Leaves room in a bucket of equal keys which is full
+	private void grow( int node ) {
+		int from = start[node];
+		int n = count[node];
+		allocateSlots( node, 2 * n );
+		System.arraycopy( coordinates, 2 * from, coordinates, 2 * start[node], 2 * n );
+		System.arraycopy( values, from, values, start[node], n );
+		count[node] = n;
+	}
+
+	private boolean delete( int node, double x, double y, int value ) {
+		if ( firstChild[node] < 0 ) {
+			for ( int i = start[node]; i < start[node] + count[node]; ++i ) {
+				if ( ! deleted[i]  &&  values[i] == value  &&  coordinates[2 * i] == x  &&  coordinates[2 * i + 1] == y ) {
+					deleted[i] = true;
+					--live[node];
+					return true;
+				}
+			}
+			return false;
+		}
+		int child = firstChild[node] + ( ( sliceOnY[node] ? y : x ) > slice[node] ? 1 : 0 );
+		if ( delete( child, x, y, value ) ) {
+			--live[node];
+			return true;
+		}
+		return false;
+	}
+
+	private void rebuildIfWasteful() {
+		if ( slotCount > 4 * size + 4 * BUCKET_SIZE ) {
+			double[] xs = new double[size];
+			double[] ys = new double[size];
+			int[] vals = new int[size];
+			int j = 0;
+			// Nodes are never dropped, but slots of split buckets are, collect from the leaves
+			for ( int node = 0; node < nodeCount; ++node ) {
+				if ( firstChild[node] >= 0 ) {
+					continue;
+				}
+				for ( int i = start[node]; i < start[node] + count[node]; ++i ) {
+					if ( ! deleted[i] ) {
+						xs[j] = coordinates[2 * i];
+						ys[j] = coordinates[2 * i + 1];
+						vals[j++] = values[i];
+					}
+				}
+			}
+			load( xs, ys, vals, size );
+		}
+	}
+
+	private void range( int node, double lowX, double lowY, double highX, double highY, Visitor visitor ) {
+		if ( firstChild[node] < 0 ) {
+			for ( int i = start[node]; i < start[node] + count[node]; ++i ) {
+				double x = coordinates[2 * i];
+				double y = coordinates[2 * i + 1];
+				if ( ! deleted[i]  &&  lowX <= x  &&  x <= highX  &&  lowY <= y  &&  y <= highY ) {
+					visitor.visit( x, y, values[i] );
+				}
+			}
+			return;
+		}
+		for ( int child = firstChild[node]; child <= firstChild[node] + 1; ++child ) {
+			int b = 4 * child;
+			if ( live[child] > 0  &&  bounds[b] <= highX  &&  lowX <= bounds[b + 2]  &&  bounds[b + 1] <= highY  &&  lowY <= bounds[b + 3] ) {
+				range( child, lowX, lowY, highX, highY, visitor );
+			}
+		}
+	}
+
+	private void nearest( int node ) {
+		if ( firstChild[node] < 0 ) {
+			for ( int i = start[node]; i < start[node] + count[node]; ++i ) {
+				if ( deleted[i]  ||  values[i] == excluded ) {
+					continue;
+				}
+				double dx = coordinates[2 * i] - queryX;
+				double dy = coordinates[2 * i + 1] - queryY;
+				double distance = dx * dx + dy * dy;
+				if ( distance < bestDistance ) {
+					bestDistance = distance;
+					bestValue = values[i];
+				}
+			}
+			return;
+		}
+		int near = firstChild[node] + ( ( sliceOnY[node] ? queryY : queryX ) > slice[node] ? 1 : 0 );
+		int far = 2 * firstChild[node] + 1 - near;
+		if ( live[near] > 0  &&  regionDistance( near ) * pruneFactor < bestDistance ) {
+			nearest( near );
+		}
+		if ( live[far] > 0  &&  regionDistance( far ) * pruneFactor < bestDistance ) {
+			nearest( far );
+		}
+	}
+
+	// Squared distance from the query to the bounds of node
+	private double regionDistance( int node ) {
+		int b = 4 * node;
+		double dx = queryX < bounds[b] ? bounds[b] - queryX : ( queryX > bounds[b + 2] ? queryX - bounds[b + 2] : 0 );
+		double dy = queryY < bounds[b + 1] ? bounds[b + 1] - queryY : ( queryY > bounds[b + 3] ? queryY - bounds[b + 3] : 0 );
+		return dx * dx + dy * dy;
+	}
+
+	private void extendBounds( int node, double x, double y ) {
+		int b = 4 * node;
+		if ( x < bounds[b] )     bounds[b] = x;
+		if ( y < bounds[b + 1] ) bounds[b + 1] = y;
+		if ( x > bounds[b + 2] ) bounds[b + 2] = x;
+		if ( y > bounds[b + 3] ) bounds[b + 3] = y;
+	}
+
+	// Returns the first of n new adjacent nodes
+	private int newNodes( int n ) {
+		if ( nodeCount + n > firstChild.length ) {
+			int length = Math.max( nodeCount + n, 2 * firstChild.length );
+			firstChild = Arrays.copyOf( firstChild, length );
+			sliceOnY   = Arrays.copyOf( sliceOnY, length );
+			slice      = Arrays.copyOf( slice, length );
+			bounds     = Arrays.copyOf( bounds, 4 * length );
+			live       = Arrays.copyOf( live, length );
+			start      = Arrays.copyOf( start, length );
+			count      = Arrays.copyOf( count, length );
+			capacity   = Arrays.copyOf( capacity, length );
+		}
+		int first = nodeCount;
+		nodeCount += n;
+		return first;
+	}
+
+	// Gives the leaf n empty slots of its own
+	private void allocateSlots( int node, int n ) {
+		if ( slotCount + n > values.length ) {
+			int length = Math.max( slotCount + n, 2 * values.length );
+			coordinates = Arrays.copyOf( coordinates, 2 * length );
+			values      = Arrays.copyOf( values, length );
+			deleted     = Arrays.copyOf( deleted, length );
+		}
+		start[node] = slotCount;
+		count[node] = 0;
+		capacity[node] = n;
+		slotCount += n;
+	}
+
+	private void putSlot( int node, double x, double y, int value ) {
+		int i = start[node] + count[node]++;
+		coordinates[2 * i]     = x;
+		coordinates[2 * i + 1] = y;
+		values[i]  = value;
+		deleted[i] = false;
+	}
+
+	// Quickselect: afterwards the entry at k is in sorted position by keys, smaller ones before it, larger ones after it
+	private static void select( double[] xs, double[] ys, int[] vals, double[] keys, int left, int right, int k ) {
+		while ( left < right ) {
+			double pivot = keys[( left + right ) >>> 1];
+			int i = left, j = right;
+			while ( i <= j ) {
+				while ( keys[i] < pivot ) ++i;
+				while ( keys[j] > pivot ) --j;
+				if ( i <= j ) {
+					swap( xs, ys, vals, i++, j-- );
+				}
+			}
+			if ( k <= j ) {
+				right = j;
+			}
+			else
+			if ( k >= i ) {
+				left = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private static void swap( double[] xs, double[] ys, int[] vals, int i, int j ) {
+		double x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		double y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+		int v = vals[i];
+		vals[i] = vals[j];
+		vals[j] = v;
+	}
+}
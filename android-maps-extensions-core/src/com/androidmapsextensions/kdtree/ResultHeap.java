@@ -23,6 +23,8 @@
  */
 package com.androidmapsextensions.kdtree;
 
+import java.util.Arrays;
+
 /**
  * @author Chase
  * 
@@ -34,7 +36,7 @@ public class ResultHeap<T> {
 	private int capacity;
 	private int size;
  
-	protected ResultHeap(int capacity) {
+	public ResultHeap(int capacity) {
 		this.data = new Object[capacity];
 		this.keys = new double[capacity];
 		this.capacity = capacity;
@@ -53,6 +55,21 @@ public class ResultHeap<T> {
 		data[i] = value;
 	}
  
+	/**
+	 * Empties the heap for a query of up to capacity results, growing it if needed.
+	 */
+	public void clear(int capacity) {
+		if ( capacity > data.length ) {
+			data = new Object[capacity];
+			keys = new double[capacity];
+		}
+		else {
+			Arrays.fill(data, 0, this.capacity, null);
+		}
+		this.capacity = capacity;
+		this.size = 0;
+	}
+ 
 	public double getMaxKey() {
 		return keys[size - 1];
 	}
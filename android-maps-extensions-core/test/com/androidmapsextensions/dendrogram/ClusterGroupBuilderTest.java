@@ -0,0 +1,102 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class ClusterGroupBuilderTest {
+
+	private static final int N = 2000;
+
+	@Test
+	public void refinementBuiltOnCopyEqualsRefine() {
+		ObservationStore store = TestObservations.gaussian( N, 71 );
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+		Dendrogram refined = builder.buildCoarse( TestObservations.range( 0, N ), 10.0f );
+		Dendrogram spliced = builder.buildCoarse( TestObservations.range( 0, N ), 10.0f );
+		List<LazyNode> refinedLazyNodes = lazyNodes( refined );
+		List<LazyNode> splicedLazyNodes = lazyNodes( spliced );
+		Assert.assertFalse( refinedLazyNodes.isEmpty() );
+		Assert.assertEquals( refinedLazyNodes.size(), splicedLazyNodes.size() );
+
+		ClusterGroupBuilder copyBuilder = new ClusterGroupBuilder( store.copy(), EquirectangularDissimilarityMeasure.INSTANCE, false );
+		for ( int i = 0; i < refinedLazyNodes.size(); ++i ) {
+			DendrogramNode root = builder.refine( refined, refinedLazyNodes.get( i ) );
+			DendrogramNode built = copyBuilder.buildRefinement( splicedLazyNodes.get( i ) );
+			Assert.assertNull( built.getParent() );
+			ClusterGroupBuilder.splice( spliced, splicedLazyNodes.get( i ), built );
+			Assert.assertEquals( root.getMinZoomRendered(), built.getMinZoomRendered(), 0.0f );
+			Assert.assertEquals( root.getMaxZoomRendered(), built.getMaxZoomRendered(), 0.0f );
+		}
+
+		Assert.assertTrue( lazyNodes( spliced ).isEmpty() );
+		TestObservations.assertValid( spliced );
+		Assert.assertEquals( TestObservations.set( TestObservations.range( 0, N ) ), TestObservations.leaves( spliced ) );
+		List<DendrogramNode> expected = TestObservations.nodes( refined );
+		List<DendrogramNode> actual = TestObservations.nodes( spliced );
+		Assert.assertEquals( expected.size(), actual.size() );
+		for ( int i = 0; i < expected.size(); ++i ) {
+			Assert.assertArrayEquals( expected.get( i ).getPosition(), actual.get( i ).getPosition(), 0.0 );
+			Assert.assertEquals( expected.get( i ).getMinZoomRendered(), actual.get( i ).getMinZoomRendered(), 0.0f );
+			Assert.assertEquals( expected.get( i ).getMaxZoomRendered(), actual.get( i ).getMaxZoomRendered(), 0.0f );
+		}
+	}
+
+	@Test
+	public void refinementBuiltOnCopyOfTheNodeEqualsRefine() {
+		ObservationStore store = TestObservations.gaussian( N, 72 );
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+		Dendrogram refined = builder.buildCoarse( TestObservations.range( 0, N ), 10.0f );
+		Dendrogram spliced = builder.buildCoarse( TestObservations.range( 0, N ), 10.0f );
+		List<LazyNode> refinedLazyNodes = lazyNodes( refined );
+		List<LazyNode> splicedLazyNodes = lazyNodes( spliced );
+		Assert.assertFalse( refinedLazyNodes.isEmpty() );
+
+		for ( int i = 0; i < refinedLazyNodes.size(); ++i ) {
+			LazyNode node = splicedLazyNodes.get( i );
+			ObservationStore copy = store.copy( node.getObservations() );
+			Assert.assertEquals( node.getObservations().length, copy.getNumberOfObservations() );
+			DendrogramNode root = builder.refine( refined, refinedLazyNodes.get( i ) );
+			DendrogramNode built = new ClusterGroupBuilder( copy, EquirectangularDissimilarityMeasure.INSTANCE, false ).buildRefinementOfCopy( node );
+			Assert.assertNull( built.getParent() );
+			ClusterGroupBuilder.splice( spliced, node, built );
+			Assert.assertEquals( root.getMinZoomRendered(), built.getMinZoomRendered(), 0.0f );
+			Assert.assertEquals( root.getMaxZoomRendered(), built.getMaxZoomRendered(), 0.0f );
+		}
+
+		Assert.assertTrue( lazyNodes( spliced ).isEmpty() );
+		TestObservations.assertValid( spliced );
+		List<DendrogramNode> expected = TestObservations.nodes( refined );
+		List<DendrogramNode> actual = TestObservations.nodes( spliced );
+		Assert.assertEquals( expected.size(), actual.size() );
+		for ( int i = 0; i < expected.size(); ++i ) {
+			Assert.assertArrayEquals( expected.get( i ).getPosition(), actual.get( i ).getPosition(), 1e-9 );
+			if ( expected.get( i ) instanceof ObservationNode ) {
+				Assert.assertEquals( ((ObservationNode) expected.get( i )).getObservation(), ((ObservationNode) actual.get( i )).getObservation() );
+			}
+		}
+	}
+
+	private static List<LazyNode> lazyNodes( Dendrogram dendrogram ) {
+		List<LazyNode> lazyNodes = new ArrayList<LazyNode>();
+		for ( DendrogramNode node : TestObservations.nodes( dendrogram ) ) {
+			if ( node instanceof LazyNode ) {
+				lazyNodes.add( (LazyNode) node );
+			}
+		}
+		return lazyNodes;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+
+public class ClusteredTileTest {
+
+	private static final int N = 1000;
+	private static final int MAX_LEVEL = 22;
+
+	@Test
+	public void everyLevelPartitionsTheObservations() {
+		ObservationStore store = TestObservations.gaussian( N, 101 );
+		for ( int level = 0; level <= MAX_LEVEL; ++level ) {
+			ClusteredTile tile = ClusteredTile.build( store, level, true, 0.0, 0.0 );
+			Set<Integer> seen = new HashSet<Integer>();
+			for ( int cluster = 0; cluster < tile.getClusterCount(); ++cluster ) {
+				int[] observations = tile.getObservations( cluster );
+				Assert.assertTrue( "empty cluster", observations.length > 0 );
+				for ( int observation : observations ) {
+					Assert.assertTrue( "observation in two clusters", seen.add( observation ) );
+				}
+			}
+			Assert.assertEquals( TestObservations.set( TestObservations.range( 0, N ) ), seen );
+		}
+	}
+
+	@Test
+	public void clusterCountNeverDecreasesAsTheLevelRises() {
+		ObservationStore store = TestObservations.uniform( N, 102 );
+		int previousCount = 0;
+		for ( int level = 0; level <= MAX_LEVEL; ++level ) {
+			int count = ClusteredTile.build( store, level, true, 0.0, 0.0 ).getClusterCount();
+			Assert.assertTrue( "fewer clusters at level " + level, count >= previousCount );
+			previousCount = count;
+		}
+		Assert.assertTrue( "nothing clustered", ClusteredTile.build( store, 0, true, 0.0, 0.0 ).getClusterCount() < N );
+		Assert.assertEquals( N, previousCount );
+	}
+
+	@Test
+	public void emptyTileHasNoClusters() {
+		ObservationStore store = new ObservationStore( 0 );
+		Assert.assertEquals( 0, ClusteredTile.build( store, 10, true, 0.0, 0.0 ).getClusterCount() );
+		Assert.assertEquals( 0, ClusteredTile.build( store, 10, false, 0.0, 0.0 ).getClusterCount() );
+	}
+
+	@Test
+	public void oneMarkerTileHasOneCluster() {
+		ObservationStore store = new ObservationStore( 1 );
+		store.set( 0, 51.5, 19.5, 0 );
+		for ( int level = 0; level <= MAX_LEVEL; ++level ) {
+			ClusteredTile tile = ClusteredTile.build( store, level, true, 0.0, 0.0 );
+			Assert.assertEquals( 1, tile.getClusterCount() );
+			Assert.assertArrayEquals( new int[]{ 0 }, tile.getObservations( 0 ) );
+			Assert.assertEquals( 51.5, tile.getLatitude( 0 ), 1e-9 );
+			Assert.assertEquals( 19.5, tile.getLongitude( 0 ), 1e-9 );
+			Assert.assertEquals( 0.0f, tile.getMinZoomLevelNotClustered( 0 ), 0.0f );
+		}
+	}
+
+	@Test
+	public void notClusteredHasAClusterForEveryObservation() {
+		ObservationStore store = TestObservations.gaussian( N, 103 );
+		ClusteredTile tile = ClusteredTile.build( store, 0, false, 0.0, 0.0 );
+		Assert.assertNull( tile.getDendrogram() );
+		Assert.assertEquals( N, tile.getClusterCount() );
+		for ( int i = 0; i < N; ++i ) {
+			Assert.assertArrayEquals( new int[]{ i }, tile.getObservations( i ) );
+			Assert.assertEquals( store.getLatitude( i ), tile.getLatitude( i ), 1e-9 );
+		}
+	}
+}
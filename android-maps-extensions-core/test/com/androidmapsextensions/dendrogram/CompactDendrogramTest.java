@@ -0,0 +1,164 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class CompactDendrogramTest {
+
+	private static final int N = 2000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void toDendrogramReturnsCopiedDendrogram() {
+		Dendrogram dendrogram = build( TestObservations.gaussian( N, 81 ), false, 0.0, 0.0 );
+		Dendrogram copy = CompactDendrogram.of( dendrogram ).toDendrogram();
+		TestObservations.assertSameNodes( dendrogram, copy );
+		TestObservations.assertValid( copy );
+	}
+
+	@Test
+	public void builderEqualsCopiedDendrogram() {
+		ObservationStore store = TestObservations.gaussian( N, 82 );
+		assertSameColumns( CompactDendrogram.of( build( store, false, 0.0, 0.0 ) ), buildCompact( store, false, 0.0, 0.0 ) );
+		assertSameColumns( CompactDendrogram.of( build( store, true, 0.0, 0.0 ) ), buildCompact( store, true, 0.0, 0.0 ) );
+		assertSameColumns( CompactDendrogram.of( build( store, false, 0.5, 0.0 ) ), buildCompact( store, false, 0.5, 0.0 ) );
+		// Collapsed cells are merged before they are agglomerated
+		assertSameColumns( CompactDendrogram.of( build( store, false, 0.0, 0.01 ) ), buildCompact( store, false, 0.0, 0.01 ) );
+	}
+
+	@Test
+	public void builderOfFewObservations() {
+		ObservationStore store = TestObservations.uniform( 3, 83 );
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+
+		Assert.assertEquals( 0, builder.buildCompact( new int[ 0 ], true ).getNodeCount() );
+		Assert.assertEquals( -1, builder.buildCompact( new int[ 0 ], true ).getRoot() );
+
+		CompactDendrogram single = builder.buildCompact( new int[]{ 2 }, true );
+		Assert.assertEquals( 1, single.getNodeCount() );
+		Assert.assertEquals( 2, single.getObservation( 0 ) );
+		Assert.assertEquals( store.getLatitude( 2 ), single.getLatitude( 0 ), 0.0 );
+
+		// All at one position, only merged by the collapse, the root is given by setRoot()
+		for ( int i = 0; i < 3; ++i ) {
+			store.set( i, 50.0, 19.0, 0 );
+		}
+		CompactDendrogram collapsed = builder.buildCompact( TestObservations.range( 0, 3 ), true );
+		assertSameColumns( CompactDendrogram.of( builder.build( TestObservations.range( 0, 3 ), true ) ), collapsed );
+		Assert.assertEquals( 3, collapsed.getObservationCount( collapsed.getRoot() ) );
+	}
+
+	@Test
+	public void firstDescendantSpansSubtree() {
+		CompactDendrogram compact = buildCompact( TestObservations.uniform( N, 84 ), false, 0.0, 0.0 );
+		Assert.assertEquals( 2 * N - 1, compact.getNodeCount() );
+		Assert.assertEquals( -1, compact.getParent( compact.getRoot() ) );
+		Assert.assertEquals( 0, compact.getFirstDescendant( compact.getRoot() ) );
+		for ( int node = 0; node < compact.getNodeCount(); ++node ) {
+			int leaves = 0;
+			for ( int member = compact.getFirstDescendant( node ); member <= node; ++member ) {
+				int ancestor = member;
+				while ( ancestor != node ) {
+					ancestor = compact.getParent( ancestor );
+					Assert.assertTrue( "outside the subtree", ancestor >= 0  &&  ancestor <= node );
+				}
+				if ( compact.isLeaf( member ) ) {
+					++leaves;
+				}
+			}
+			Assert.assertEquals( compact.getObservationCount( node ), leaves );
+			if ( ! compact.isLeaf( node ) ) {
+				Assert.assertEquals( node, compact.getParent( compact.getLeft( node ) ) );
+				Assert.assertEquals( node, compact.getParent( compact.getRight( node ) ) );
+				Assert.assertEquals( node - 1, compact.getRight( node ) );
+			}
+		}
+	}
+
+	@Test
+	public void computeZoomLevelsEqualsRenderedZoomLevels() {
+		ObservationStore store = TestObservations.gaussian( N, 85 );
+		for ( boolean clustered : new boolean[]{ true, false } ) {
+			Dendrogram dendrogram = build( store, false, 0.0, 0.0 );
+			RenderedZoomLevels.compute( dendrogram.getRoot(), clustered );
+			CompactDendrogram compact = CompactDendrogram.of( dendrogram );
+			compact.computeZoomLevels( ! clustered );
+			compact.computeZoomLevels( clustered );
+			assertSameColumns( CompactDendrogram.of( dendrogram ), compact );
+		}
+	}
+
+	@Test
+	public void readCompactReturnsWrittenColumns() throws IOException {
+		ObservationStore store = TestObservations.uniform( N, 86 );
+		for ( int i = 0; i < N; ++i ) {
+			store.setClusterGroup( i, i % 4 == 0 ? -1 : 3 );
+		}
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+		Map<Integer, CompactDendrogram> written = new HashMap<Integer, CompactDendrogram>();
+		for ( Map.Entry<Integer, int[]> entry : store.partitionByClusterGroup( Arrays.asList( -1, 3 ) ).entrySet() ) {
+			written.put( entry.getKey(), builder.buildCompact( entry.getValue(), entry.getKey() != -1 ) );
+		}
+		long hash = DendrogramFile.contentHash( store, false );
+		File file = folder.newFile();
+		DendrogramFile.writeCompact( file, hash, written );
+
+		Map<Integer, CompactDendrogram> read = DendrogramFile.readCompact( file, hash, N );
+		Assert.assertEquals( written.keySet(), read.keySet() );
+		for ( Integer clusterGroup : written.keySet() ) {
+			assertSameColumns( written.get( clusterGroup ), read.get( clusterGroup ) );
+		}
+		// The node graph read from the same file
+		Map<Integer, Dendrogram> dendrograms = DendrogramFile.read( file, hash, N );
+		for ( Integer clusterGroup : written.keySet() ) {
+			TestObservations.assertSameNodes( written.get( clusterGroup ).toDendrogram(), dendrograms.get( clusterGroup ) );
+		}
+	}
+
+	private static Dendrogram build( ObservationStore store, boolean singleLinkage, double approximation, double collapseGrid ) {
+		return new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, singleLinkage, approximation, collapseGrid )
+				.build( TestObservations.range( 0, store.getNumberOfObservations() ), true );
+	}
+
+	private static CompactDendrogram buildCompact( ObservationStore store, boolean singleLinkage, double approximation, double collapseGrid ) {
+		return new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, singleLinkage, approximation, collapseGrid )
+				.buildCompact( TestObservations.range( 0, store.getNumberOfObservations() ), true );
+	}
+
+	private static void assertSameColumns( CompactDendrogram expected, CompactDendrogram actual ) {
+		Assert.assertEquals( expected.getNodeCount(), actual.getNodeCount() );
+		for ( int i = 0; i < expected.getNodeCount(); ++i ) {
+			Assert.assertEquals( expected.getLeft( i ), actual.getLeft( i ) );
+			Assert.assertEquals( expected.getRight( i ), actual.getRight( i ) );
+			Assert.assertEquals( expected.getParent( i ), actual.getParent( i ) );
+			Assert.assertEquals( expected.getObservation( i ), actual.getObservation( i ) );
+			Assert.assertEquals( expected.getObservationCount( i ), actual.getObservationCount( i ) );
+			Assert.assertEquals( expected.getLatitude( i ), actual.getLatitude( i ), 0.0 );
+			Assert.assertEquals( expected.getLongitude( i ), actual.getLongitude( i ), 0.0 );
+			Assert.assertEquals( expected.getDissimilarity( i ), actual.getDissimilarity( i ), 0.0 );
+			Assert.assertEquals( expected.getMinZoomRendered( i ), actual.getMinZoomRendered( i ), 0.0f );
+			Assert.assertEquals( expected.getMaxZoomRendered( i ), actual.getMaxZoomRendered( i ), 0.0f );
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DendrogramEditorTest {
+
+	private static final int N = 2000;
+
+	private static final DendrogramEditor.Listener NO_LISTENER = new DendrogramEditor.Listener() {
+		@Override
+		public void onNodeRemoved( DendrogramNode node ) {
+		}
+
+		@Override
+		public void onNodeAdded( DendrogramNode node ) {
+		}
+	};
+
+	@Test
+	public void insertKeepsInvariantsOfFullRebuild() {
+		assertInsertMatchesRebuild( TestObservations.uniform( N, 1 ) );
+		assertInsertMatchesRebuild( TestObservations.gaussian( N, 2 ) );
+	}
+
+	@Test
+	public void mergeKeepsInvariantsOfFullRebuild() {
+		ObservationStore store = TestObservations.gaussian( N, 3 );
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+		Dendrogram dendrogram = builder.build( TestObservations.range( 0, N / 2 ), true );
+		Dendrogram added = builder.build( TestObservations.range( N / 2, N ), true );
+
+		ObservationNode[] leafForObservation = new ObservationNode[ N ];
+		ClusterGroupBuilder.addLeaves( added, leafForObservation );
+		new DendrogramEditor( store, EquirectangularDissimilarityMeasure.INSTANCE, NO_LISTENER ).merge( dendrogram, added );
+
+		for ( int i = N / 2; i < N; ++i ) {
+			Assert.assertNotNull( leafForObservation[ i ].getParent() );
+		}
+
+		assertSameAsRebuild( store, dendrogram, TestObservations.range( 0, N ) );
+	}
+
+	@Test
+	public void insertIntoEmptyDendrogram() {
+		ObservationStore store = TestObservations.uniform( 2, 4 );
+		Dendrogram dendrogram = new Dendrogram( null );
+		DendrogramEditor editor = new DendrogramEditor( store, EquirectangularDissimilarityMeasure.INSTANCE, NO_LISTENER );
+
+		editor.insert( dendrogram, new ObservationNode( 0, store.getPosition( 0 ) ) );
+		Assert.assertTrue( dendrogram.getRoot() instanceof ObservationNode );
+		editor.insert( dendrogram, new ObservationNode( 1, store.getPosition( 1 ) ) );
+
+		Assert.assertTrue( dendrogram.getRoot() instanceof MergeNode );
+		Assert.assertEquals( 2, dendrogram.getRoot().getObservationCount() );
+		TestObservations.assertValid( dendrogram );
+	}
+
+	@Test
+	public void removeKeepsInvariantsOfFullRebuild() {
+		assertRemoveMatchesRebuild( TestObservations.uniform( N, 5 ) );
+		assertRemoveMatchesRebuild( TestObservations.gaussian( N, 6 ) );
+	}
+
+	@Test
+	public void removeAllLeavesEmptyDendrogram() {
+		ObservationStore store = TestObservations.uniform( 10, 7 );
+		Dendrogram dendrogram = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false )
+				.build( TestObservations.range( 0, 10 ), true );
+		ObservationNode[] leafForObservation = new ObservationNode[ 10 ];
+		ClusterGroupBuilder.addLeaves( dendrogram, leafForObservation );
+		DendrogramEditor editor = new DendrogramEditor( store, EquirectangularDissimilarityMeasure.INSTANCE, NO_LISTENER );
+		for ( ObservationNode leaf : leafForObservation ) {
+			editor.remove( dendrogram, leaf );
+			TestObservations.assertValid( dendrogram );
+		}
+		Assert.assertNull( dendrogram.getRoot() );
+	}
+
+	private static void assertRemoveMatchesRebuild( ObservationStore store ) {
+		Dendrogram dendrogram = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false )
+				.build( TestObservations.range( 0, N ), true );
+		ObservationNode[] leafForObservation = new ObservationNode[ N ];
+		ClusterGroupBuilder.addLeaves( dendrogram, leafForObservation );
+		DendrogramEditor editor = new DendrogramEditor( store, EquirectangularDissimilarityMeasure.INSTANCE, NO_LISTENER );
+		// Every other observation, from all over the dendrogram
+		int[] kept = new int[ N / 2 ];
+		for ( int i = 0; i < N; ++i ) {
+			if ( i % 2 == 0 ) {
+				kept[ i / 2 ] = i;
+				continue;
+			}
+			MergeNode parent = leafForObservation[ i ].getParent();
+			DendrogramNode sibling = parent.getLeft() == leafForObservation[ i ] ? parent.getRight() : parent.getLeft();
+			editor.remove( dendrogram, leafForObservation[ i ] );
+			Assert.assertNull( leafForObservation[ i ].getParent() );
+			TestObservations.assertNestedToRoot( sibling );
+		}
+		assertSameAsRebuild( store, dendrogram, kept );
+	}
+
+	private static void assertInsertMatchesRebuild( ObservationStore store ) {
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+		Dendrogram dendrogram = builder.build( TestObservations.range( 0, N / 2 ), true );
+		DendrogramEditor editor = new DendrogramEditor( store, EquirectangularDissimilarityMeasure.INSTANCE, NO_LISTENER );
+		for ( int i = N / 2; i < N; ++i ) {
+			ObservationNode leaf = new ObservationNode( i, store.getPosition( i ) );
+			editor.insert( dendrogram, leaf );
+			TestObservations.assertNestedToRoot( leaf );
+		}
+		assertSameAsRebuild( store, dendrogram, TestObservations.range( 0, N ) );
+	}
+
+	// Edited dendrograms differ from rebuilt ones in shape, but hold the same observations with the same centroid
+	static void assertSameAsRebuild( ObservationStore store, Dendrogram dendrogram, int[] observations ) {
+		TestObservations.assertValid( dendrogram );
+		Dendrogram rebuilt = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false ).build( observations, true );
+		Assert.assertEquals( TestObservations.leaves( rebuilt ), TestObservations.leaves( dendrogram ) );
+		if ( observations.length == 0 ) {
+			Assert.assertNull( dendrogram.getRoot() );
+			return;
+		}
+		Assert.assertEquals( rebuilt.getRoot().getObservationCount(), dendrogram.getRoot().getObservationCount() );
+		Assert.assertEquals( rebuilt.getRoot().getPosition()[ 0 ], dendrogram.getRoot().getPosition()[ 0 ], 1e-9 );
+		Assert.assertEquals( rebuilt.getRoot().getPosition()[ 1 ], dendrogram.getRoot().getPosition()[ 1 ], 1e-9 );
+	}
+}
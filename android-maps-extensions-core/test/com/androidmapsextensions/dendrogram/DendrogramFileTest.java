@@ -0,0 +1,192 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+public class DendrogramFileTest {
+
+	private static final int N = 500;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readReturnsWrittenDendrograms() throws IOException {
+		ObservationStore store = TestObservations.gaussian( N, 31 );
+		Map<Integer, Dendrogram> written = buildGroups( store );
+		long hash = DendrogramFile.contentHash( store, false );
+		File file = folder.newFile();
+		DendrogramFile.write( file, hash, written );
+
+		Map<Integer, Dendrogram> read = DendrogramFile.read( file, hash, N );
+
+		Assert.assertEquals( written.keySet(), read.keySet() );
+		for ( Integer clusterGroup : written.keySet() ) {
+			TestObservations.assertSameNodes( written.get( clusterGroup ), read.get( clusterGroup ) );
+			TestObservations.assertValid( read.get( clusterGroup ) );
+		}
+	}
+
+	@Test
+	public void readFromStreamEqualsReadFromFile() throws IOException {
+		ObservationStore store = TestObservations.uniform( N, 32 );
+		long hash = DendrogramFile.contentHash( store, true );
+		File file = folder.newFile();
+		DendrogramFile.write( file, hash, buildGroups( store ) );
+
+		Map<Integer, Dendrogram> fromFile = DendrogramFile.read( file, hash, N );
+		Map<Integer, Dendrogram> fromStream = DendrogramFile.read( new FileInputStream( file ), hash, N );
+
+		Assert.assertEquals( fromFile.keySet(), fromStream.keySet() );
+		for ( Integer clusterGroup : fromFile.keySet() ) {
+			TestObservations.assertSameNodes( fromFile.get( clusterGroup ), fromStream.get( clusterGroup ) );
+		}
+	}
+
+	@Test
+	public void otherContentReadsNull() throws IOException {
+		ObservationStore store = TestObservations.uniform( N, 33 );
+		long hash = DendrogramFile.contentHash( store, false );
+		File file = folder.newFile();
+		DendrogramFile.write( file, hash, buildGroups( store ) );
+
+		Assert.assertNull( DendrogramFile.read( file, hash + 1, N ) );
+		Assert.assertNull( DendrogramFile.read( new File( folder.getRoot(), "missing" ), hash, N ) );
+
+		store.set( 7, store.getLatitude( 7 ) + 1e-9, store.getLongitude( 7 ), store.getClusterGroup( 7 ) );
+		Assert.assertNull( DendrogramFile.read( file, DendrogramFile.contentHash( store, false ), N ) );
+	}
+
+	@Test
+	public void clusteringSettingsChangeHash() {
+		ObservationStore store = TestObservations.uniform( N, 34 );
+		long hash = DendrogramFile.contentHash( store, false );
+		Assert.assertEquals( hash, DendrogramFile.contentHash( store, false, 0.0, 0.0 ) );
+		Assert.assertTrue( hash != DendrogramFile.contentHash( store, true ) );
+		Assert.assertTrue( hash != DendrogramFile.contentHash( store, false, 0.5 ) );
+		Assert.assertTrue( hash != DendrogramFile.contentHash( store, false, 0.0, 1e-4 ) );
+	}
+
+	@Test
+	public void truncatedFileThrowsIOException() throws IOException {
+		ObservationStore store = TestObservations.uniform( 20, 35 );
+		long hash = DendrogramFile.contentHash( store, false );
+		byte[] bytes = writeBytes( buildGroups( store ), hash );
+		for ( int length = 0; length < bytes.length; ++length ) {
+			byte[] truncated = new byte[ length ];
+			System.arraycopy( bytes, 0, truncated, 0, length );
+			assertIOException( truncated, hash, 20 );
+		}
+	}
+
+	@Test
+	public void negativeCountsThrowIOException() throws IOException {
+		ObservationStore store = TestObservations.uniform( 20, 36 );
+		long hash = DendrogramFile.contentHash( store, false );
+		byte[] bytes = writeBytes( buildGroups( store ), hash );
+
+		byte[] groupCount = bytes.clone();
+		ByteBuffer.wrap( groupCount ).putInt( 16, -1 );
+		assertIOException( groupCount, hash, 20 );
+
+		byte[] nodeCount = bytes.clone();
+		ByteBuffer.wrap( nodeCount ).putInt( 24, -1 );
+		assertIOException( nodeCount, hash, 20 );
+	}
+
+	@Test
+	public void observationOutsideStoreThrowsIOException() throws IOException {
+		ObservationStore store = TestObservations.uniform( 20, 37 );
+		long hash = DendrogramFile.contentHash( store, false );
+		byte[] bytes = writeBytes( buildGroups( store ), hash );
+
+		// Same hash, but read for fewer observations than were written
+		assertIOException( bytes, hash, 19 );
+
+		// First leaf of the first group points past the store
+		byte[] pastStore = bytes.clone();
+		ByteBuffer.wrap( pastStore ).putInt( 28, 20 );
+		assertIOException( pastStore, hash, 20 );
+	}
+
+	@Test
+	public void corruptBytesThrowOnlyIOException() throws IOException {
+		ObservationStore store = TestObservations.uniform( 20, 38 );
+		long hash = DendrogramFile.contentHash( store, false );
+		byte[] bytes = writeBytes( buildGroups( store ), hash );
+		Random random = new Random( 39 );
+		for ( int i = 0; i < 2000; ++i ) {
+			byte[] corrupt = bytes.clone();
+			// Past the header, a changed hash only makes the file not match
+			corrupt[ 16 + random.nextInt( corrupt.length - 16 ) ] = (byte) random.nextInt();
+			try {
+				DendrogramFile.read( new ByteArrayInputStream( corrupt ), hash, 20 );
+			}
+			catch ( IOException e ) {
+				// Expected for most changes outside the positions
+			}
+		}
+	}
+
+	// Two cluster groups, the second one not clustered
+	private static Map<Integer, Dendrogram> buildGroups( ObservationStore store ) {
+		int n = store.getNumberOfObservations();
+		for ( int i = 0; i < n; ++i ) {
+			store.setClusterGroup( i, i % 3 == 0 ? -1 : 0 );
+		}
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+		Map<Integer, Dendrogram> dendrogramForClusterGroup = new HashMap<Integer, Dendrogram>();
+		for ( Map.Entry<Integer, int[]> entry : store.partitionByClusterGroup( Arrays.asList( -1, 0 ) ).entrySet() ) {
+			dendrogramForClusterGroup.put( entry.getKey(), builder.build( entry.getValue(), entry.getKey() != -1 ) );
+		}
+		return dendrogramForClusterGroup;
+	}
+
+	private byte[] writeBytes( Map<Integer, Dendrogram> dendrogramForClusterGroup, long hash ) throws IOException {
+		File file = folder.newFile();
+		DendrogramFile.write( file, hash, dendrogramForClusterGroup );
+		byte[] bytes = new byte[ (int) file.length() ];
+		DataInputStream in = new DataInputStream( new FileInputStream( file ) );
+		try {
+			in.readFully( bytes );
+		}
+		finally {
+			in.close();
+		}
+		return bytes;
+	}
+
+	private static void assertIOException( byte[] bytes, long hash, int observationCount ) {
+		try {
+			DendrogramFile.read( new ByteArrayInputStream( bytes ), hash, observationCount );
+			Assert.fail( "Read " + bytes.length + " damaged bytes" );
+		}
+		catch ( IOException e ) {
+			// Expected
+		}
+	}
+}
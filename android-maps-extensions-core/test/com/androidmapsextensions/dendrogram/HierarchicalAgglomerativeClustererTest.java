@@ -0,0 +1,125 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+public class HierarchicalAgglomerativeClustererTest {
+
+	private static final int N = 20000;
+	private static final int PARTITIONS = 4;
+
+	private final ExecutorService executor = Executors.newFixedThreadPool( PARTITIONS );
+
+	@After
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void parallelClustersSameObservations() {
+		assertSameObservations( TestObservations.uniform( N, 11 ), 1.0 );
+		assertSameObservations( TestObservations.gaussian( N, 12 ), 1.0 );
+	}
+
+	@Test
+	public void parallelEqualsSequentialWhenPartitionsMergeNothing() {
+		// No two observations are this close, the partitions only pass their leaves on to the stitching
+		double maxPartitionDissimilarity = 1e-9;
+		for ( ObservationStore store : new ObservationStore[]{ TestObservations.uniform( N, 13 ), TestObservations.gaussian( N, 14 ) } ) {
+			Dendrogram sequential = sequential( store );
+			Dendrogram parallel = parallel( store, maxPartitionDissimilarity );
+			Assert.assertEquals( merges( sequential ), merges( parallel ) );
+		}
+	}
+
+	@Test
+	public void parallelFindsSameClustersAboveBound() {
+		// Cities are far apart compared to the merges left out at partition borders, they are found alike
+		ObservationStore store = TestObservations.gaussian( N, 12 );
+		double maxPartitionDissimilarity = 1.0;
+		Dendrogram sequential = sequential( store );
+		Dendrogram parallel = parallel( store, maxPartitionDissimilarity );
+		for ( double threshold = 16 * maxPartitionDissimilarity; threshold < 1000; threshold *= 2 ) {
+			Assert.assertArrayEquals( "cut at " + threshold, cut( sequential, threshold ), cut( parallel, threshold ) );
+		}
+	}
+
+	private void assertSameObservations( ObservationStore store, double maxPartitionDissimilarity ) {
+		Dendrogram sequential = sequential( store );
+		Dendrogram parallel = parallel( store, maxPartitionDissimilarity );
+		TestObservations.assertValid( parallel );
+		Assert.assertEquals( TestObservations.leaves( sequential ), TestObservations.leaves( parallel ) );
+		Assert.assertEquals( sequential.getRoot().getPosition()[ 0 ], parallel.getRoot().getPosition()[ 0 ], 1e-9 );
+		Assert.assertEquals( sequential.getRoot().getPosition()[ 1 ], parallel.getRoot().getPosition()[ 1 ], 1e-9 );
+	}
+
+	private static Dendrogram sequential( ObservationStore store ) {
+		DendrogramBuilder builder = new DendrogramBuilder( store );
+		new HierarchicalAgglomerativeClusterer( store, EquirectangularDissimilarityMeasure.INSTANCE ).cluster( builder, TestObservations.range( 0, N ), N );
+		return builder.getDendrogram();
+	}
+
+	private Dendrogram parallel( ObservationStore store, double maxPartitionDissimilarity ) {
+		DendrogramBuilder builder = new DendrogramBuilder( store );
+		new HierarchicalAgglomerativeClusterer( store, EquirectangularDissimilarityMeasure.INSTANCE )
+				.clusterParallel( builder, TestObservations.range( 0, N ), N, executor, PARTITIONS, maxPartitionDissimilarity );
+		return builder.getDendrogram();
+	}
+
+	// Each merge by the smallest observations of its children, with its dissimilarity
+	private static Map<String, Double> merges( Dendrogram dendrogram ) {
+		Map<String, Double> merges = new HashMap<String, Double>();
+		Map<DendrogramNode, Integer> smallest = new HashMap<DendrogramNode, Integer>();
+		List<DendrogramNode> nodes = CompactDendrogram.postOrder( dendrogram.getRoot() );
+		for ( DendrogramNode node : nodes ) {
+			if ( node instanceof ObservationNode ) {
+				smallest.put( node, ((ObservationNode) node).getObservation() );
+				continue;
+			}
+			int left = smallest.get( node.getLeft() );
+			int right = smallest.get( node.getRight() );
+			smallest.put( node, Math.min( left, right ) );
+			merges.put( Math.min( left, right ) + ":" + Math.max( left, right ), ((MergeNode) node).getDissimilarity() );
+		}
+		return merges;
+	}
+
+	// The clusters below threshold, each observation labeled with the smallest observation of its cluster
+	private static int[] cut( Dendrogram dendrogram, double threshold ) {
+		int[] labels = new int[ N ];
+		Map<DendrogramNode, Integer> smallest = new HashMap<DendrogramNode, Integer>();
+		for ( DendrogramNode node : CompactDendrogram.postOrder( dendrogram.getRoot() ) ) {
+			smallest.put( node, node instanceof ObservationNode ? ((ObservationNode) node).getObservation()
+					: Math.min( smallest.get( node.getLeft() ), smallest.get( node.getRight() ) ) );
+		}
+		for ( DendrogramNode node : TestObservations.nodes( dendrogram ) ) {
+			if ( node instanceof ObservationNode ) {
+				// The highest ancestor merged below threshold
+				DendrogramNode cluster = node;
+				while ( cluster.getParent() != null  &&  cluster.getParent().getDissimilarity() <= threshold ) {
+					cluster = cluster.getParent();
+				}
+				labels[ ((ObservationNode) node).getObservation() ] = smallest.get( cluster );
+			}
+		}
+		return labels;
+	}
+}
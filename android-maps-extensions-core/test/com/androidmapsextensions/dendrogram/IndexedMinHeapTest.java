@@ -0,0 +1,125 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class IndexedMinHeapTest {
+
+	@Test
+	public void pollsInKeyOrder() {
+		IndexedMinHeap heap = new IndexedMinHeap( 5 );
+		heap.put( 0, 3.0 );
+		heap.put( 1, 1.0 );
+		heap.put( 2, 4.0 );
+		heap.put( 3, 1.5 );
+		heap.put( 4, 0.5 );
+
+		Assert.assertEquals( 4, heap.poll() );
+		Assert.assertEquals( 1, heap.poll() );
+		Assert.assertEquals( 3, heap.poll() );
+		Assert.assertEquals( 0, heap.poll() );
+		Assert.assertEquals( 2, heap.poll() );
+		Assert.assertTrue( heap.isEmpty() );
+	}
+
+	@Test
+	public void putChangesKeyOfHandleInHeap() {
+		IndexedMinHeap heap = new IndexedMinHeap( 3 );
+		heap.put( 0, 1.0 );
+		heap.put( 1, 2.0 );
+		heap.put( 2, 3.0 );
+
+		heap.put( 0, 5.0 );
+		heap.put( 2, 0.5 );
+
+		Assert.assertEquals( 3, heap.size() );
+		Assert.assertEquals( 5.0, heap.getKey( 0 ), 0.0 );
+		Assert.assertEquals( 2, heap.poll() );
+		Assert.assertEquals( 1, heap.poll() );
+		Assert.assertEquals( 0, heap.poll() );
+	}
+
+	@Test
+	public void equalKeysKeepAllHandles() {
+		IndexedMinHeap heap = new IndexedMinHeap( 10 );
+		for ( int handle = 0; handle < 10; ++handle ) {
+			heap.put( handle, 0.0 );
+		}
+		boolean[] polled = new boolean[ 10 ];
+		while ( ! heap.isEmpty() ) {
+			int handle = heap.poll();
+			Assert.assertFalse( polled[ handle ] );
+			polled[ handle ] = true;
+		}
+		for ( boolean p : polled ) {
+			Assert.assertTrue( p );
+		}
+	}
+
+	@Test
+	public void matchesBruteForceUnderRandomOperations() {
+		int capacity = 200;
+		Random random = new Random( 42 );
+		IndexedMinHeap heap = new IndexedMinHeap( capacity );
+		// NaN for handles not in the heap
+		double[] expected = new double[ capacity ];
+		Arrays.fill( expected, Double.NaN );
+		int expectedSize = 0;
+
+		for ( int step = 0; step < 20000; ++step ) {
+			int handle = random.nextInt( capacity );
+			int operation = random.nextInt( 4 );
+			if ( operation <= 1 ) {
+				// Few distinct keys, so there are many ties
+				double key = random.nextInt( 50 );
+				if ( Double.isNaN( expected[ handle ] ) ) {
+					++expectedSize;
+				}
+				expected[ handle ] = key;
+				heap.put( handle, key );
+			}
+			else
+			if ( operation == 2 ) {
+				if ( ! Double.isNaN( expected[ handle ] ) ) {
+					--expectedSize;
+				}
+				expected[ handle ] = Double.NaN;
+				heap.remove( handle );
+			}
+			else
+			if ( expectedSize > 0 ) {
+				double min = Double.POSITIVE_INFINITY;
+				for ( double key : expected ) {
+					if ( key < min ) {
+						min = key;
+					}
+				}
+				Assert.assertEquals( min, heap.peekKey(), 0.0 );
+				int polled = heap.poll();
+				Assert.assertEquals( min, expected[ polled ], 0.0 );
+				expected[ polled ] = Double.NaN;
+				--expectedSize;
+			}
+
+			Assert.assertEquals( expectedSize, heap.size() );
+			Assert.assertEquals( ! Double.isNaN( expected[ handle ] ), heap.contains( handle ) );
+			if ( heap.contains( handle ) ) {
+				Assert.assertEquals( expected[ handle ], heap.getKey( handle ), 0.0 );
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+
+public class RenderedNodeIndexTest {
+
+	private static final int N = 3000;
+
+	@Test
+	public void createFindsNodesRenderedAtZoom() {
+		Dendrogram dendrogram = build( TestObservations.gaussian( N, 41 ) );
+		assertSameAsBruteForce( RenderedNodeIndex.create( dendrogram ), TestObservations.nodes( dendrogram ), new Random( 42 ) );
+	}
+
+	@Test
+	public void addAndRemoveFindNodesRenderedAtZoom() {
+		Dendrogram dendrogram = build( TestObservations.uniform( N, 43 ) );
+		List<DendrogramNode> nodes = TestObservations.nodes( dendrogram );
+		RenderedNodeIndex index = new RenderedNodeIndex();
+		for ( DendrogramNode node : nodes ) {
+			index.add( node );
+		}
+		assertSameAsBruteForce( index, nodes, new Random( 44 ) );
+
+		Set<DendrogramNode> removed = new HashSet<DendrogramNode>();
+		for ( int i = 0; i < nodes.size(); i += 2 ) {
+			index.remove( nodes.get( i ) );
+			removed.add( nodes.get( i ) );
+		}
+		nodes.removeAll( removed );
+		assertSameAsBruteForce( index, nodes, new Random( 45 ) );
+	}
+
+	@Test
+	public void eachVisibleLeafIsFoundOnceAtHighZoom() {
+		Dendrogram dendrogram = build( TestObservations.uniform( N, 46 ) );
+		RenderedNodeIndex index = RenderedNodeIndex.create( dendrogram );
+		List<DendrogramNode> found = index.getRange( new double[]{ 49, 18 }, new double[]{ 54, 23 }, 25.0f );
+		Assert.assertEquals( N, found.size() );
+		Assert.assertEquals( N, new HashSet<DendrogramNode>( found ).size() );
+	}
+
+	private static Dendrogram build( ObservationStore store ) {
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( store, EquirectangularDissimilarityMeasure.INSTANCE, false );
+		return builder.build( TestObservations.range( 0, store.getNumberOfObservations() ), true );
+	}
+
+	private static void assertSameAsBruteForce( RenderedNodeIndex index, List<DendrogramNode> nodes, Random random ) {
+		for ( int i = 0; i < 300; ++i ) {
+			double lat = 49.5 + 4 * random.nextDouble();
+			double lng = 18.5 + 4 * random.nextDouble();
+			double[] low = { lat, lng };
+			double[] high = { lat + 2 * random.nextDouble(), lng + 2 * random.nextDouble() };
+			float zoom = -1 + 25 * random.nextFloat();
+
+			Set<DendrogramNode> expected = new HashSet<DendrogramNode>();
+			for ( DendrogramNode node : nodes ) {
+				double[] position = node.getPosition();
+				if ( node.getMinZoomRendered() <= zoom  &&  zoom < node.getMaxZoomRendered()
+						&&  low[ 0 ] <= position[ 0 ]  &&  position[ 0 ] <= high[ 0 ]
+						&&  low[ 1 ] <= position[ 1 ]  &&  position[ 1 ] <= high[ 1 ] ) {
+					expected.add( node );
+				}
+			}
+			List<DendrogramNode> found = index.getRange( low, high, zoom );
+			Assert.assertEquals( expected.size(), found.size() );
+			Assert.assertEquals( expected, new HashSet<DendrogramNode>( found ) );
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+public class SingleLinkageClustererTest {
+
+	private static final int N = 600;
+
+	@Test
+	public void mergesAreEdgesOfMinimumSpanningTree() {
+		assertMergesAreMinimumSpanningTree( TestObservations.uniform( N, 21 ) );
+		assertMergesAreMinimumSpanningTree( TestObservations.gaussian( N, 22 ) );
+	}
+
+	@Test
+	public void mergesAreEdgesOfMinimumSpanningTreeFarFromEquator() {
+		// A degree of longitude is half as long as one of latitude here
+		Random random = new Random( 24 );
+		ObservationStore store = new ObservationStore( N );
+		for ( int i = 0; i < N; ++i ) {
+			store.set( i, 60.0 + 2.0 * random.nextDouble(), 19.0 + 4.0 * random.nextDouble(), 0 );
+		}
+		assertMergesAreMinimumSpanningTree( store );
+
+		for ( int i = 0; i < N; ++i ) {
+			store.set( i, -80.0 + 20.0 * random.nextDouble(), -170.0 + 340.0 * random.nextDouble(), 0 );
+		}
+		assertMergesAreMinimumSpanningTree( store );
+	}
+
+	@Test
+	public void duplicatePositionsMergeAtZero() {
+		ObservationStore store = new ObservationStore( 4 );
+		store.set( 0, 50.0, 19.0, 0 );
+		store.set( 1, 50.0, 19.0, 0 );
+		store.set( 2, 50.0, 19.0, 0 );
+		store.set( 3, 51.0, 19.0, 0 );
+
+		Dendrogram dendrogram = cluster( store, 4 );
+
+		Assert.assertEquals( TestObservations.set( TestObservations.range( 0, 4 ) ), TestObservations.leaves( dendrogram ) );
+		double apart = EquirectangularDissimilarityMeasure.INSTANCE.computeDissimilarity( store, 2, 3 );
+		Assert.assertArrayEquals( new double[]{ 0.0, 0.0, apart }, mergeDissimilarities( dendrogram ), 1e-12 );
+	}
+
+	@Test
+	public void singleObservationIsRoot() {
+		ObservationStore store = TestObservations.uniform( 1, 23 );
+		Dendrogram dendrogram = cluster( store, 1 );
+		Assert.assertTrue( dendrogram.getRoot() instanceof ObservationNode );
+	}
+
+	private static void assertMergesAreMinimumSpanningTree( ObservationStore store ) {
+		Dendrogram dendrogram = cluster( store, N );
+		TestObservations.assertValid( dendrogram );
+		Assert.assertEquals( TestObservations.set( TestObservations.range( 0, N ) ), TestObservations.leaves( dendrogram ) );
+		Assert.assertArrayEquals( primEdgeLengths( store ), mergeDissimilarities( dendrogram ), 1e-9 );
+	}
+
+	private static Dendrogram cluster( ObservationStore store, int n ) {
+		DendrogramBuilder builder = new DendrogramBuilder( store );
+		new SingleLinkageClusterer( store, EquirectangularDissimilarityMeasure.INSTANCE ).cluster( builder, TestObservations.range( 0, n ), n );
+		return builder.getDendrogram();
+	}
+
+	private static double[] mergeDissimilarities( Dendrogram dendrogram ) {
+		List<Double> dissimilarities = new ArrayList<Double>();
+		for ( DendrogramNode node : TestObservations.nodes( dendrogram ) ) {
+			if ( node instanceof MergeNode ) {
+				dissimilarities.add( ((MergeNode) node).getDissimilarity() );
+			}
+		}
+		double[] sorted = new double[ dissimilarities.size() ];
+		for ( int i = 0; i < sorted.length; ++i ) {
+			sorted[ i ] = dissimilarities.get( i );
+		}
+		Arrays.sort( sorted );
+		return sorted;
+	}
+
+	// Brute force O(n^2) Prim with the measure used for clustering, the sorted lengths of the tree's edges
+	private static double[] primEdgeLengths( ObservationStore store ) {
+		int n = store.getNumberOfObservations();
+		boolean[] inTree = new boolean[ n ];
+		double[] distanceToTree = new double[ n ];
+		Arrays.fill( distanceToTree, Double.POSITIVE_INFINITY );
+		distanceToTree[ 0 ] = 0;
+		double[] lengths = new double[ n - 1 ];
+		for ( int added = 0; added < n; ++added ) {
+			int next = -1;
+			for ( int i = 0; i < n; ++i ) {
+				if ( ! inTree[ i ]  &&  ( next < 0  ||  distanceToTree[ i ] < distanceToTree[ next ] ) ) {
+					next = i;
+				}
+			}
+			if ( added > 0 ) {
+				lengths[ added - 1 ] = distanceToTree[ next ];
+			}
+			inTree[ next ] = true;
+			for ( int i = 0; i < n; ++i ) {
+				if ( ! inTree[ i ] ) {
+					distanceToTree[ i ] = Math.min( distanceToTree[ i ],
+							EquirectangularDissimilarityMeasure.INSTANCE.computeDissimilarity( store, next, i ) );
+				}
+			}
+		}
+		Arrays.sort( lengths );
+		return lengths;
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.dendrogram;
+
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+
+// Seeded datasets and structural checks of dendrograms shared by the tests of this package
+final class TestObservations {
+
+	private TestObservations() {
+	}
+
+	// Uniform over about 200 x 130 miles
+	static ObservationStore uniform( int n, long seed ) {
+		Random random = new Random( seed );
+		ObservationStore store = new ObservationStore( n );
+		for ( int i = 0; i < n; ++i ) {
+			store.set( i, 50.0 + 3.0 * random.nextDouble(), 19.0 + 3.0 * random.nextDouble(), 0 );
+		}
+		return store;
+	}
+
+	// Dense blobs around a few centers, as markers of cities
+	static ObservationStore gaussian( int n, long seed ) {
+		Random random = new Random( seed );
+		double[][] centers = new double[ 8 ][];
+		for ( int c = 0; c < centers.length; ++c ) {
+			centers[ c ] = new double[]{ 50.0 + 3.0 * random.nextDouble(), 19.0 + 3.0 * random.nextDouble() };
+		}
+		ObservationStore store = new ObservationStore( n );
+		for ( int i = 0; i < n; ++i ) {
+			double[] center = centers[ random.nextInt( centers.length ) ];
+			store.set( i, center[ 0 ] + 0.05 * random.nextGaussian(), center[ 1 ] + 0.05 * random.nextGaussian(), 0 );
+		}
+		return store;
+	}
+
+	static int[] range( int from, int to ) {
+		int[] selected = new int[ to - from ];
+		for ( int i = from; i < to; ++i ) {
+			selected[ i - from ] = i;
+		}
+		return selected;
+	}
+
+	static Set<Integer> set( int[] observations ) {
+		Set<Integer> set = new HashSet<Integer>();
+		for ( int observation : observations ) {
+			set.add( observation );
+		}
+		return set;
+	}
+
+	static List<DendrogramNode> nodes( Dendrogram dendrogram ) {
+		List<DendrogramNode> nodes = new ArrayList<DendrogramNode>();
+		List<DendrogramNode> stack = new ArrayList<DendrogramNode>();
+		if ( dendrogram.getRoot() != null ) {
+			stack.add( dendrogram.getRoot() );
+		}
+		while ( ! stack.isEmpty() ) {
+			DendrogramNode node = stack.remove( stack.size() - 1 );
+			nodes.add( node );
+			if ( node instanceof MergeNode ) {
+				stack.add( node.getLeft() );
+				stack.add( node.getRight() );
+			}
+		}
+		return nodes;
+	}
+
+	static Set<Integer> leaves( Dendrogram dendrogram ) {
+		Set<Integer> leaves = new HashSet<Integer>();
+		for ( DendrogramNode node : nodes( dendrogram ) ) {
+			if ( node instanceof ObservationNode ) {
+				Assert.assertTrue( "observation twice", leaves.add( ((ObservationNode) node).getObservation() ) );
+			}
+		}
+		return leaves;
+	}
+
+	/**
+	 * Parent links, observation counts and centroids are consistent.
+	 * Merges may be tighter than the merges below them, centroid linkage is not monotone.
+	 */
+	static void assertValid( Dendrogram dendrogram ) {
+		DendrogramNode root = dendrogram.getRoot();
+		if ( root == null ) {
+			return;
+		}
+		Assert.assertNull( root.getParent() );
+		for ( DendrogramNode node : nodes( dendrogram ) ) {
+			if ( ! ( node instanceof MergeNode ) ) {
+				continue;
+			}
+			MergeNode merge = (MergeNode) node;
+			DendrogramNode left = merge.getLeft();
+			DendrogramNode right = merge.getRight();
+			Assert.assertSame( merge, left.getParent() );
+			Assert.assertSame( merge, right.getParent() );
+			Assert.assertEquals( left.getObservationCount() + right.getObservationCount(), merge.getObservationCount() );
+			for ( int d = 0; d < 2; ++d ) {
+				double centroid = ( left.getPosition()[ d ] * left.getObservationCount() + right.getPosition()[ d ] * right.getObservationCount() )
+						/ merge.getObservationCount();
+				Assert.assertEquals( centroid, merge.getPosition()[ d ], 1e-9 );
+			}
+		}
+	}
+
+	/**
+	 * No merge from node up to the root is tighter than its children, as left behind by DendrogramEditor.
+	 */
+	static void assertNestedToRoot( DendrogramNode node ) {
+		for ( MergeNode merge = node.getParent(); merge != null; merge = merge.getParent() ) {
+			Assert.assertTrue( merge.getDissimilarity() >= MergeNode.dissimilarityOf( merge.getLeft() ) );
+			Assert.assertTrue( merge.getDissimilarity() >= MergeNode.dissimilarityOf( merge.getRight() ) );
+		}
+	}
+
+	// Same shape, observations, positions, dissimilarities and zoom ranges, node by node in post-order
+	static void assertSameNodes( Dendrogram expected, Dendrogram actual ) {
+		List<DendrogramNode> expectedNodes = CompactDendrogram.postOrder( expected.getRoot() );
+		List<DendrogramNode> actualNodes = CompactDendrogram.postOrder( actual.getRoot() );
+		Assert.assertEquals( expectedNodes.size(), actualNodes.size() );
+		for ( int i = 0; i < expectedNodes.size(); ++i ) {
+			DendrogramNode e = expectedNodes.get( i );
+			DendrogramNode a = actualNodes.get( i );
+			Assert.assertEquals( e.getClass(), a.getClass() );
+			if ( e instanceof ObservationNode ) {
+				Assert.assertEquals( ((ObservationNode) e).getObservation(), ((ObservationNode) a).getObservation() );
+			}
+			else {
+				Assert.assertEquals( ((MergeNode) e).getDissimilarity(), ((MergeNode) a).getDissimilarity(), 0.0 );
+			}
+			Assert.assertArrayEquals( e.getPosition(), a.getPosition(), 0.0 );
+			Assert.assertEquals( e.getMinZoomRendered(), a.getMinZoomRendered(), 0.0f );
+			Assert.assertEquals( e.getMaxZoomRendered(), a.getMaxZoomRendered(), 0.0f );
+		}
+	}
+}
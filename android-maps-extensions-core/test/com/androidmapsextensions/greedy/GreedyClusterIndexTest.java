@@ -0,0 +1,178 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.greedy;
+
+import com.androidmapsextensions.dendrogram.ObservationStore;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+
+public class GreedyClusterIndexTest {
+
+	private static final int N = 3000;
+	private static final double CLUSTER_SIZE = 180.0;
+	private static final int MAX_ZOOM = 20;
+
+	@Test
+	public void everyLevelPartitionsTheObservations() {
+		ObservationStore store = gaussian( 2 * N, 91 );
+		// Every other observation, so indices and observations differ
+		int[] observations = new int[ N ];
+		for ( int i = 0; i < N; ++i ) {
+			observations[ i ] = 2 * i + 1;
+		}
+		GreedyClusterIndex index = GreedyClusterIndex.build( store, observations, CLUSTER_SIZE, MAX_ZOOM, true );
+		Assert.assertEquals( N, index.getNumberOfObservations() );
+		Assert.assertEquals( N, index.getNumberOfPoints( MAX_ZOOM + 1 ) );
+
+		int previousPoints = 0;
+		for ( int level = 0; level <= MAX_ZOOM + 1; ++level ) {
+			Set<Integer> seen = new HashSet<Integer>();
+			int total = 0;
+			for ( int point = 0; point < index.getNumberOfPoints( level ); ++point ) {
+				int[] members = index.getObservations( level, point );
+				Assert.assertEquals( index.getCount( level, point ), members.length );
+				total += index.getCount( level, point );
+				for ( int observation : members ) {
+					Assert.assertTrue( "observation in two points", seen.add( observation ) );
+				}
+			}
+			Assert.assertEquals( N, total );
+			Assert.assertEquals( set( observations ), seen );
+			// Points only split as the level rises
+			Assert.assertTrue( index.getNumberOfPoints( level ) >= previousPoints );
+			previousPoints = index.getNumberOfPoints( level );
+
+			for ( int i = 0; i < N; ++i ) {
+				int point = index.getPoint( level, i );
+				Assert.assertTrue( set( index.getObservations( level, point ) ).contains( observations[ i ] ) );
+			}
+		}
+		Assert.assertTrue( "nothing clustered", index.getNumberOfPoints( 0 ) < N );
+	}
+
+	@Test
+	public void pointsOfTheBottomLevelAreTheObservations() {
+		ObservationStore store = gaussian( N, 92 );
+		GreedyClusterIndex index = GreedyClusterIndex.build( store, range( N ), CLUSTER_SIZE, MAX_ZOOM, true );
+		for ( int i = 0; i < N; ++i ) {
+			Assert.assertEquals( i, index.getPoint( MAX_ZOOM + 1, i ) );
+			Assert.assertEquals( store.getLatitude( i ), index.getLatitude( MAX_ZOOM + 1, i ), 1e-9 );
+			Assert.assertEquals( store.getLongitude( i ), index.getLongitude( MAX_ZOOM + 1, i ), 1e-9 );
+		}
+	}
+
+	@Test
+	public void minLevelNotClusteredIsWhereTheObservationIsAlone() {
+		ObservationStore store = gaussian( N, 93 );
+		// Two at the same position are clustered on every level
+		store.set( 7, store.getLatitude( 3 ), store.getLongitude( 3 ), 0 );
+		GreedyClusterIndex index = GreedyClusterIndex.build( store, range( N ), CLUSTER_SIZE, MAX_ZOOM, true );
+		for ( int i = 0; i < N; ++i ) {
+			int minLevel = index.getMinLevelNotClustered( i );
+			for ( int level = minLevel; level <= MAX_ZOOM + 1; ++level ) {
+				Assert.assertEquals( 1, index.getCount( level, index.getPoint( level, i ) ) );
+			}
+			if ( minLevel > 0 ) {
+				Assert.assertTrue( index.getCount( minLevel - 1, index.getPoint( minLevel - 1, i ) ) > 1 );
+			}
+		}
+		Assert.assertEquals( MAX_ZOOM + 1, index.getMinLevelNotClustered( 3 ) );
+		Assert.assertEquals( MAX_ZOOM + 1, index.getMinLevelNotClustered( 7 ) );
+	}
+
+	@Test
+	public void notClusteredHasOnlyTheLevelOfTheObservations() {
+		ObservationStore store = gaussian( N, 94 );
+		GreedyClusterIndex index = GreedyClusterIndex.build( store, range( N ), CLUSTER_SIZE, MAX_ZOOM, false );
+		Assert.assertEquals( 0, index.getLevel( 0.0f ) );
+		Assert.assertEquals( 0, index.getLevel( 21.0f ) );
+		Assert.assertEquals( N, index.getNumberOfPoints( 0 ) );
+		Assert.assertEquals( 0, index.getMinLevelNotClustered( 5 ) );
+	}
+
+	@Test
+	public void rangeEqualsBruteForceAcrossTheAntimeridian() {
+		// Around the 180th meridian, on both sides of it
+		Random random = new Random( 95 );
+		ObservationStore store = new ObservationStore( N );
+		for ( int i = 0; i < N; ++i ) {
+			double longitude = 176.0 + 8.0 * random.nextDouble();
+			store.set( i, -20.0 + 10.0 * random.nextDouble(), longitude > 180.0 ? longitude - 360.0 : longitude, 0 );
+		}
+		GreedyClusterIndex index = GreedyClusterIndex.build( store, range( N ), CLUSTER_SIZE, MAX_ZOOM, true );
+
+		for ( int query = 0; query < 200; ++query ) {
+			int level = random.nextInt( MAX_ZOOM + 2 );
+			double south = -22.0 + 12.0 * random.nextDouble();
+			double north = south + 6.0 * random.nextDouble();
+			double west = 175.0 + 5.0 * random.nextDouble();
+			double east = -180.0 + 5.0 * random.nextDouble();
+			if ( query % 4 == 0 ) {
+				// Not across
+				west = 176.0 + 2.0 * random.nextDouble();
+				east = west + 1.5;
+			}
+			List<Integer> expected = new ArrayList<Integer>();
+			for ( int point = 0; point < index.getNumberOfPoints( level ); ++point ) {
+				double latitude = index.getLatitude( level, point );
+				double longitude = index.getLongitude( level, point );
+				boolean inLongitude = west <= east
+						? west <= longitude  &&  longitude <= east
+						: west <= longitude  ||  longitude <= east;
+				if ( inLongitude  &&  south <= latitude  &&  latitude <= north ) {
+					expected.add( point );
+				}
+			}
+			List<Integer> actual = index.getRange( level, south, west, north, east );
+			Assert.assertEquals( expected.size(), actual.size() );
+			Assert.assertEquals( new HashSet<Integer>( expected ), new HashSet<Integer>( actual ) );
+		}
+	}
+
+	// Dense blobs around a few centers, as markers of cities
+	private static ObservationStore gaussian( int n, long seed ) {
+		Random random = new Random( seed );
+		double[][] centers = new double[ 8 ][];
+		for ( int c = 0; c < centers.length; ++c ) {
+			centers[ c ] = new double[]{ 50.0 + 3.0 * random.nextDouble(), 19.0 + 3.0 * random.nextDouble() };
+		}
+		ObservationStore store = new ObservationStore( n );
+		for ( int i = 0; i < n; ++i ) {
+			double[] center = centers[ random.nextInt( centers.length ) ];
+			store.set( i, center[ 0 ] + 0.05 * random.nextGaussian(), center[ 1 ] + 0.05 * random.nextGaussian(), 0 );
+		}
+		return store;
+	}
+
+	private static int[] range( int n ) {
+		int[] observations = new int[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			observations[ i ] = i;
+		}
+		return observations;
+	}
+
+	private static Set<Integer> set( int[] observations ) {
+		Set<Integer> set = new HashSet<Integer>();
+		for ( int observation : observations ) {
+			set.add( observation );
+		}
+		return set;
+	}
+}
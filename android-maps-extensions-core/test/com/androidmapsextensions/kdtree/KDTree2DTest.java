@@ -0,0 +1,151 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.kdtree;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+
+public class KDTree2DTest {
+
+	private static final int N = 5000;
+	private static final int QUERIES = 500;
+
+	private final double[] xs = new double[ N ];
+	private final double[] ys = new double[ N ];
+	private final int[] values = new int[ N ];
+	private final boolean[] deleted = new boolean[ N ];
+
+	public KDTree2DTest() {
+		Random random = new Random( 51 );
+		for ( int i = 0; i < N; ++i ) {
+			if ( i % 7 == 0  &&  i > 0 ) {
+				// Duplicates, more of them than fit in a bucket
+				xs[ i ] = xs[ 7 ];
+				ys[ i ] = ys[ 7 ];
+			}
+			else {
+				xs[ i ] = random.nextDouble();
+				ys[ i ] = random.nextDouble();
+			}
+			values[ i ] = i;
+		}
+	}
+
+	@Test
+	public void nearestEqualsBruteForce() {
+		assertNearestWithin( new KDTree2D( xs, ys, values ), 0.0, new Random( 52 ) );
+		assertNearestWithin( addedOneByOne(), 0.0, new Random( 53 ) );
+	}
+
+	@Test
+	public void nearestEqualsBruteForceAfterDeletes() {
+		KDTree2D tree = new KDTree2D( xs, ys, values );
+		for ( int i = 0; i < N; i += 3 ) {
+			Assert.assertTrue( tree.delete( xs[ i ], ys[ i ], i ) );
+			deleted[ i ] = true;
+		}
+		Assert.assertFalse( tree.delete( xs[ 0 ], ys[ 0 ], 0 ) );
+		Assert.assertEquals( N - ( N + 2 ) / 3, tree.size() );
+		assertNearestWithin( tree, 0.0, new Random( 54 ) );
+		assertRangeEqualsBruteForce( tree, new Random( 55 ) );
+	}
+
+	@Test
+	public void approximateNearestIsWithinEpsilon() {
+		KDTree2D tree = new KDTree2D( xs, ys, values );
+		assertNearestWithin( tree, 0.1, new Random( 56 ) );
+		assertNearestWithin( tree, 0.5, new Random( 57 ) );
+		assertNearestWithin( tree, 2.0, new Random( 58 ) );
+	}
+
+	@Test
+	public void rangeEqualsBruteForce() {
+		assertRangeEqualsBruteForce( new KDTree2D( xs, ys, values ), new Random( 59 ) );
+		assertRangeEqualsBruteForce( addedOneByOne(), new Random( 60 ) );
+	}
+
+	@Test
+	public void nearestWithoutOtherEntryIsNone() {
+		KDTree2D tree = new KDTree2D();
+		Assert.assertEquals( -1, tree.nearest( 0.5, 0.5, -1 ) );
+		tree.add( 0.5, 0.5, 3 );
+		Assert.assertEquals( 3, tree.nearest( 0.0, 0.0, -1 ) );
+		Assert.assertEquals( -1, tree.nearest( 0.0, 0.0, 3 ) );
+	}
+
+	private KDTree2D addedOneByOne() {
+		KDTree2D tree = new KDTree2D();
+		for ( int i = 0; i < N; ++i ) {
+			tree.add( xs[ i ], ys[ i ], values[ i ] );
+		}
+		Assert.assertEquals( N, tree.size() );
+		return tree;
+	}
+
+	// Queries at entries, excluding them as the clusterers do, and at random positions
+	private void assertNearestWithin( KDTree2D tree, double epsilon, Random random ) {
+		for ( int q = 0; q < QUERIES; ++q ) {
+			int excluded = random.nextInt( N );
+			double x = deleted[ excluded ]  ||  q % 2 == 0 ? random.nextDouble() : xs[ excluded ];
+			double y = deleted[ excluded ]  ||  q % 2 == 0 ? random.nextDouble() : ys[ excluded ];
+
+			double nearest = Double.POSITIVE_INFINITY;
+			for ( int i = 0; i < N; ++i ) {
+				if ( i != excluded  &&  ! deleted[ i ] ) {
+					nearest = Math.min( nearest, distance( x, y, i ) );
+				}
+			}
+			int found = epsilon == 0.0 ? tree.nearest( x, y, excluded ) : tree.nearest( x, y, excluded, epsilon );
+			Assert.assertTrue( found >= 0  &&  found != excluded  &&  ! deleted[ found ] );
+			if ( epsilon == 0.0 ) {
+				Assert.assertEquals( nearest, distance( x, y, found ), 0.0 );
+			}
+			else {
+				Assert.assertTrue( distance( x, y, found ) <= ( 1 + epsilon ) * nearest * ( 1 + 1e-12 ) );
+			}
+		}
+	}
+
+	private void assertRangeEqualsBruteForce( KDTree2D tree, Random random ) {
+		for ( int q = 0; q < QUERIES; ++q ) {
+			final double lowX = random.nextDouble() - 0.1;
+			final double lowY = random.nextDouble() - 0.1;
+			final double highX = lowX + 0.3 * random.nextDouble();
+			final double highY = lowY + 0.3 * random.nextDouble();
+			Set<Integer> expected = new HashSet<Integer>();
+			for ( int i = 0; i < N; ++i ) {
+				if ( ! deleted[ i ]  &&  lowX <= xs[ i ]  &&  xs[ i ] <= highX  &&  lowY <= ys[ i ]  &&  ys[ i ] <= highY ) {
+					expected.add( i );
+				}
+			}
+			final Set<Integer> found = new HashSet<Integer>();
+			tree.range( lowX, lowY, highX, highY, new KDTree2D.Visitor() {
+				@Override
+				public void visit( double x, double y, int value ) {
+					Assert.assertTrue( "visited twice", found.add( value ) );
+					Assert.assertTrue( lowX <= x  &&  x <= highX  &&  lowY <= y  &&  y <= highY );
+				}
+			} );
+			Assert.assertEquals( expected, found );
+		}
+	}
+
+	private double distance( double x, double y, int i ) {
+		double dx = xs[ i ] - x;
+		double dy = ys[ i ] - y;
+		return Math.sqrt( dx * dx + dy * dy );
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.kdtree;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+public class KDTreeTest {
+
+	private static final int BUCKET_SIZE = 4;
+
+	private final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+	@After
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void equalKeysBeyondBucketSizeAreAllStored() {
+		KDTree<Integer> tree = new KDTree<Integer>( 2, BUCKET_SIZE );
+		double[] key = { 50.0, 19.0 };
+		int n = 100 * BUCKET_SIZE;
+		for ( int i = 0; i < n; ++i ) {
+			tree.add( key.clone(), i );
+		}
+
+		Assert.assertEquals( n, tree.size() );
+		Assert.assertEquals( range( 0, n ), sorted( tree.getRange( key, key ) ) );
+		Assert.assertEquals( 10, tree.getNearestNeighbors( new double[]{ 50.1, 19.1 }, 10 ).size() );
+
+		for ( int i = 0; i < n; i += 2 ) {
+			tree.delete( key, i );
+		}
+		Assert.assertEquals( n / 2, tree.size() );
+		for ( Integer value : tree.getRange( key, key ) ) {
+			Assert.assertTrue( value % 2 == 1 );
+		}
+	}
+
+	@Test
+	public void equalKeysAmongDistinctKeysAreAllStored() {
+		KDTree<Integer> tree = new KDTree<Integer>( 2, BUCKET_SIZE );
+		Random random = new Random( 12 );
+		double[] duplicate = { 50.5, 19.5 };
+		List<double[]> keys = new ArrayList<double[]>();
+		for ( int i = 0; i < 2000; ++i ) {
+			double[] key = i % 3 == 0 ? duplicate.clone() : new double[]{ 50 + random.nextDouble(), 19 + random.nextDouble() };
+			keys.add( key );
+			tree.add( key, i );
+		}
+
+		Assert.assertEquals( keys.size(), tree.size() );
+		Assert.assertEquals( range( 0, keys.size() ), sorted( tree.getRange( new double[]{ 50, 19 }, new double[]{ 51, 20 } ) ) );
+		List<Integer> expected = new ArrayList<Integer>();
+		for ( int i = 0; i < keys.size(); i += 3 ) {
+			expected.add( i );
+		}
+		Assert.assertEquals( expected, sorted( tree.getRange( duplicate, duplicate ) ) );
+	}
+
+	@Test
+	public void bulkLoadedEqualKeysAreAllStored() {
+		int n = 100 * BUCKET_SIZE;
+		double[][] keys = new double[ n ][];
+		for ( int i = 0; i < n; ++i ) {
+			keys[ i ] = new double[]{ 50.0, 19.0 };
+		}
+		KDTree<Integer> tree = new KDTree<Integer>( 2, keys, range( 0, n ) );
+
+		Assert.assertEquals( n, tree.size() );
+		Assert.assertEquals( range( 0, n ), sorted( tree.getRange( keys[ 0 ], keys[ 0 ] ) ) );
+	}
+
+	@Test
+	public void parallelBulkLoadEqualsSequential() {
+		// Large enough to be split into tasks, with duplicates
+		int n = 100000;
+		Random random = new Random( 13 );
+		double[][] keys = new double[ n ][];
+		for ( int i = 0; i < n; ++i ) {
+			keys[ i ] = i % 10 == 0  &&  i > 0 ? keys[ i - 1 ] : new double[]{ 50 + random.nextDouble(), 19 + random.nextDouble() };
+		}
+		KDTree<Integer> sequential = new KDTree<Integer>( 2, keys, range( 0, n ) );
+		KDTree<Integer> parallel = new KDTree<Integer>( 2, keys, range( 0, n ), executor, 4 );
+
+		Assert.assertEquals( n, parallel.size() );
+		for ( int i = 0; i < 200; ++i ) {
+			double lat = 50 + random.nextDouble();
+			double lng = 19 + random.nextDouble();
+			double[] low = { lat, lng };
+			double[] high = { lat + 0.1 * random.nextDouble(), lng + 0.1 * random.nextDouble() };
+			// Both trees have the same shape, so they visit the entries in the same order
+			Assert.assertEquals( sequential.getRange( low, high ), parallel.getRange( low, high ) );
+
+			ResultHeap<Integer> expected = sequential.getNearestNeighbors( low, 8 );
+			ResultHeap<Integer> actual = parallel.getNearestNeighbors( low, 8 );
+			while ( ! expected.isEmpty() ) {
+				Assert.assertEquals( expected.getMaxKey(), actual.getMaxKey(), 0.0 );
+				Assert.assertEquals( expected.removeMax(), actual.removeMax() );
+			}
+			Assert.assertTrue( actual.isEmpty() );
+		}
+		Assert.assertEquals( range( 0, n ), sorted( parallel.getRange( new double[]{ 50, 19 }, new double[]{ 51, 20 } ) ) );
+	}
+
+	@Test
+	public void randomAddsAndDeletesWithDuplicatesEqualBruteForce() {
+		KDTree<Integer> tree = new KDTree<Integer>( 2, BUCKET_SIZE );
+		Random random = new Random( 14 );
+		// Live entries by value, keys on a coarse grid so many are equal
+		Map<Integer, double[]> live = new HashMap<Integer, double[]>();
+		int nextValue = 0;
+		for ( int round = 0; round < 40; ++round ) {
+			int nAdded = 200 + random.nextInt( 800 );
+			for ( int i = 0; i < nAdded; ++i ) {
+				double[] key = new double[]{ 50 + random.nextInt( 40 ) / 40.0, 19 + random.nextInt( 40 ) / 40.0 };
+				tree.add( key, nextValue );
+				live.put( nextValue++, key );
+			}
+			assertEqualsBruteForce( tree, live, random );
+
+			// More than half of the entries (see KDTree.maxDeletedRatio), so at least the root is rebuilt every round
+			List<Integer> values = new ArrayList<Integer>( live.keySet() );
+			Collections.shuffle( values, random );
+			int nDeleted = (int) ( values.size() * ( 0.55 + 0.4 * random.nextDouble() ) );
+			for ( int i = 0; i < nDeleted; ++i ) {
+				// A copy of the key, as callers only keep the position
+				tree.delete( live.remove( values.get( i ) ).clone(), values.get( i ) );
+				if ( i % 97 == 0 ) {
+					Assert.assertEquals( live.size(), tree.size() );
+				}
+			}
+			// Deleting an entry twice or one which was never added changes nothing
+			tree.delete( new double[]{ 50.0, 19.0 }, -1 );
+			tree.delete( new double[]{ 50.0, 19.0 }, values.get( 0 ) );
+			assertEqualsBruteForce( tree, live, random );
+		}
+	}
+
+	@Test
+	public void visitedRangeEqualsGetRange() {
+		KDTree<Integer> tree = randomTree( 5000, 15 );
+		Random random = new Random( 16 );
+		final List<Integer> visited = new ArrayList<Integer>();
+		// One visitor for all queries, as callers reuse theirs
+		KDTree.Visitor<Integer> visitor = new KDTree.Visitor<Integer>() {
+			@Override
+			public void visit( double[] key, Integer val ) {
+				visited.add( val );
+			}
+		};
+		for ( int query = 0; query < 200; ++query ) {
+			double[] low = { 50 + random.nextDouble(), 19 + random.nextDouble() };
+			double[] high = { low[ 0 ] + 0.2 * random.nextDouble(), low[ 1 ] + 0.2 * random.nextDouble() };
+			visited.clear();
+			tree.range( low, high, visitor );
+			Assert.assertEquals( tree.getRange( low, high ), visited );
+		}
+	}
+
+	@Test
+	public void nearestIntoReusedHeapEqualsGetNearestNeighbors() {
+		KDTree<Integer> tree = randomTree( 5000, 17 );
+		Random random = new Random( 18 );
+		// Smaller than most queries, so the heap grows in clear() and later queries use part of it
+		ResultHeap<Integer> heap = new ResultHeap<Integer>( 2 );
+		int[] nums = { 1, 8, 3, 40, 40, 5, 100, 1, 64 };
+		for ( int query = 0; query < 200; ++query ) {
+			double[] key = { 50 + random.nextDouble(), 19 + random.nextDouble() };
+			int num = nums[ query % nums.length ];
+			ResultHeap<Integer> actual = tree.nearest( key, num, heap );
+			Assert.assertSame( heap, actual );
+			Assert.assertEquals( num, heap.capacity() );
+			ResultHeap<Integer> expected = tree.getNearestNeighbors( key, num );
+			Assert.assertEquals( expected.size(), actual.size() );
+			while ( ! expected.isEmpty() ) {
+				Assert.assertEquals( expected.getMaxKey(), actual.getMaxKey(), 0.0 );
+				Assert.assertEquals( expected.removeMax(), actual.removeMax() );
+			}
+			Assert.assertTrue( actual.isEmpty() );
+		}
+	}
+
+	private static KDTree<Integer> randomTree( int n, long seed ) {
+		KDTree<Integer> tree = new KDTree<Integer>( 2, BUCKET_SIZE );
+		Random random = new Random( seed );
+		for ( int i = 0; i < n; ++i ) {
+			tree.add( new double[]{ 50 + random.nextDouble(), 19 + random.nextDouble() }, i );
+		}
+		return tree;
+	}
+
+	private static void assertEqualsBruteForce( KDTree<Integer> tree, Map<Integer, double[]> live, Random random ) {
+		Assert.assertEquals( live.size(), tree.size() );
+		for ( int query = 0; query < 20; ++query ) {
+			double[] low = { 50 + random.nextDouble(), 19 + random.nextDouble() };
+			double[] high = { low[ 0 ] + 0.3 * random.nextDouble(), low[ 1 ] + 0.3 * random.nextDouble() };
+			List<Integer> expected = new ArrayList<Integer>();
+			List<Double> distances = new ArrayList<Double>();
+			for ( Map.Entry<Integer, double[]> entry : live.entrySet() ) {
+				double[] key = entry.getValue();
+				if ( low[ 0 ] <= key[ 0 ]  &&  key[ 0 ] <= high[ 0 ]  &&  low[ 1 ] <= key[ 1 ]  &&  key[ 1 ] <= high[ 1 ] ) {
+					expected.add( entry.getKey() );
+				}
+				distances.add( squaredDistance( low, key ) );
+			}
+			Assert.assertEquals( sorted( expected ), sorted( tree.getRange( low, high ) ) );
+
+			// Values at equal distances may differ, their distances may not
+			Collections.sort( distances );
+			int num = 1 + random.nextInt( 16 );
+			ResultHeap<Integer> nearest = tree.getNearestNeighbors( low, num );
+			Assert.assertEquals( Math.min( num, live.size() ), nearest.size() );
+			for ( int i = nearest.size() - 1; i >= 0; --i ) {
+				double distance = nearest.getMaxKey();
+				Integer value = nearest.removeMax();
+				Assert.assertEquals( distances.get( i ), distance, 0.0 );
+				Assert.assertEquals( distance, squaredDistance( low, live.get( value ) ), 0.0 );
+			}
+		}
+	}
+
+	private static double squaredDistance( double[] a, double[] b ) {
+		double dLat = a[ 0 ] - b[ 0 ];
+		double dLng = a[ 1 ] - b[ 1 ];
+		return dLat * dLat + dLng * dLng;
+	}
+
+	static List<Integer> range( int from, int to ) {
+		List<Integer> values = new ArrayList<Integer>();
+		for ( int i = from; i < to; ++i ) {
+			values.add( i );
+		}
+		return values;
+	}
+
+	static List<Integer> sorted( List<Integer> values ) {
+		List<Integer> copy = new ArrayList<Integer>( values );
+		Collections.sort( copy );
+		return copy;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.tools;
+
+import com.androidmapsextensions.dendrogram.ClusterGroupBuilder;
+import com.androidmapsextensions.dendrogram.CompactDendrogram;
+import com.androidmapsextensions.dendrogram.DendrogramFile;
+import com.androidmapsextensions.dendrogram.EquirectangularDissimilarityMeasure;
+import com.androidmapsextensions.dendrogram.ObservationStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Clusters a marker file offline and writes the dendrograms in the DendrogramFile format,
+ * so apps with a static marker set do not have to cluster it on the device.
+ *
+ * <pre>
+ * dendrogram-tool [--single-linkage] [--approximation=EPSILON] [--collapse-grid=DEGREES] markers.csv|markers.geojson dendrograms.bin
+ * </pre>
+ *
+ * Ship the output e.g. as an asset, copy it to the file passed to ClusteringSettings.dendrogramCacheFile()
+ * and set the same singleLinkage, approximation and collapseGrid, they are part of the content hash in the file.
+ * It is used when the app adds the same markers (position and cluster group) in the same order as they appear
+ * in the marker file with the same settings, otherwise the app clusters them itself.
+ */
+public final class DendrogramTool {
+
+	private static final int NOT_CLUSTERED = -1; // ClusterGroup.NOT_CLUSTERED
+
+	private static final String USAGE = "Usage: dendrogram-tool [--single-linkage] [--approximation=EPSILON] [--collapse-grid=DEGREES]"
+			+ " markers.csv|markers.geojson dendrograms.bin";
+
+	private final boolean singleLinkage;
+	private final double approximation;
+	private final double collapseGrid;
+
+	public DendrogramTool( boolean singleLinkage ) {
+		this( singleLinkage, 0.0, 0.0 );
+	}
+
+	/**
+	 * @param approximation see ClusteringSettings.approximation()
+	 * @param collapseGrid see ClusteringSettings.collapseGrid()
+	 */
+	public DendrogramTool( boolean singleLinkage, double approximation, double collapseGrid ) {
+		this.singleLinkage = singleLinkage;
+		this.approximation = approximation;
+		this.collapseGrid = collapseGrid;
+	}
+
+	public static void main( String[] args ) throws IOException {
+		boolean singleLinkage = false;
+		double approximation = 0.0;
+		double collapseGrid = 0.0;
+		List<String> files = new ArrayList<String>();
+		try {
+			for ( String arg : args ) {
+				if ( "--single-linkage".equals( arg ) ) {
+					singleLinkage = true;
+				}
+				else if ( arg.startsWith( "--approximation=" ) ) {
+					approximation = Double.parseDouble( arg.substring( "--approximation=".length() ) );
+				}
+				else if ( arg.startsWith( "--collapse-grid=" ) ) {
+					collapseGrid = Double.parseDouble( arg.substring( "--collapse-grid=".length() ) );
+				}
+				else {
+					files.add( arg );
+				}
+			}
+		}
+		catch ( NumberFormatException e ) {
+			System.err.println( e.getMessage() );
+			files.clear();
+		}
+		if ( files.size() != 2  ||  approximation < 0.0  ||  collapseGrid < 0.0 ) {
+			System.err.println( USAGE );
+			System.exit( 2 );
+		}
+
+		long start = System.currentTimeMillis();
+		ObservationStore observations = MarkerFileReader.read( new File( files.get( 0 ) ) );
+		DendrogramTool tool = new DendrogramTool( singleLinkage, approximation, collapseGrid );
+		Map<Integer, CompactDendrogram> dendrogramForClusterGroup = tool.cluster( observations );
+		DendrogramFile.writeCompact( new File( files.get( 1 ) ), tool.contentHash( observations ), dendrogramForClusterGroup );
+		System.out.println( "Clustered " + observations.getNumberOfObservations() + " markers in " + dendrogramForClusterGroup.size()
+				+ " cluster groups in " + ( System.currentTimeMillis() - start ) + " ms" );
+	}
+
+	/**
+	 * The hash HierarchicalClusteringStrategy reads the file with when it clusters these observations with the same settings.
+	 */
+	public long contentHash( ObservationStore observations ) {
+		return DendrogramFile.contentHash( observations, singleLinkage, approximation, collapseGrid );
+	}
+
+	/**
+	 * Builds the dendrograms of all cluster groups, including their render zoom levels, the way HierarchicalClusteringStrategy does.
+	 * Cluster groups are clustered in parallel, each one straight into the columns which are written.
+	 */
+	public Map<Integer, CompactDendrogram> cluster( final ObservationStore observations ) {
+		Set<Integer> clusterGroups = new HashSet<Integer>();
+		for ( int i = 0; i < observations.getNumberOfObservations(); ++i ) {
+			clusterGroups.add( observations.getClusterGroup( i ) );
+		}
+		final ClusterGroupBuilder builder = new ClusterGroupBuilder( observations, EquirectangularDissimilarityMeasure.INSTANCE, singleLinkage,
+				approximation, collapseGrid );
+		final Map<Integer, CompactDendrogram> dendrogramForClusterGroup = new HashMap<Integer, CompactDendrogram>();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for ( final Map.Entry<Integer, int[]> entry : observations.partitionByClusterGroup( clusterGroups ).entrySet() ) {
+			tasks.add( new Callable<Void>() {
+				@Override
+				public Void call() {
+					CompactDendrogram dendrogram = builder.buildCompact( entry.getValue(), entry.getKey() != NOT_CLUSTERED );
+					synchronized ( dendrogramForClusterGroup ) {
+						dendrogramForClusterGroup.put( entry.getKey(), dendrogram );
+					}
+					return null;
+				}
+			} );
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		try {
+			for ( Future<Void> result : executor.invokeAll( tasks ) ) {
+				result.get();
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		catch ( ExecutionException e ) {
+			throw new RuntimeException( e.getCause() );
+		}
+		finally {
+			executor.shutdown();
+		}
+		return dendrogramForClusterGroup;
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.tools;
+
+import com.androidmapsextensions.dendrogram.ObservationStore;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Reads marker positions into an ObservationStore, one observation per marker in file order.
+ *
+ * CSV files have one marker per line: latitude,longitude[,clusterGroup]. A header line, empty lines and lines
+ * starting with # are skipped.
+ * GeoJSON files are a FeatureCollection of Point features, the optional cluster group is the feature's
+ * "clusterGroup" property. Other geometries are skipped.
+ *
+ * Positions are normalized the way LatLng does, so the store's content hash is the one the app computes for the same markers.
+ */
+final class MarkerFileReader {
+
+	static final String CLUSTER_GROUP_PROPERTY = "clusterGroup";
+	private static final int DEFAULT_CLUSTER_GROUP = 0; // ClusterGroup.DEFAULT
+
+	private MarkerFileReader() {
+	}
+
+	static ObservationStore read( File file ) throws IOException {
+		Reader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+		try {
+			String name = file.getName().toLowerCase();
+			if ( name.endsWith( ".json" )  ||  name.endsWith( ".geojson" ) ) {
+				return readGeoJson( reader );
+			}
+			return readCsv( (BufferedReader) reader );
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	static ObservationStore readCsv( BufferedReader reader ) throws IOException {
+		ObservationStore store = new ObservationStore( 1024 );
+		String line;
+		int lineNumber = 0;
+		boolean first = true; // Only the first line with content may be a header
+		while ( ( line = reader.readLine() ) != null ) {
+			++lineNumber;
+			line = line.trim();
+			if ( line.length() == 0  ||  line.startsWith( "#" ) ) {
+				continue;
+			}
+			boolean header = first;
+			first = false;
+			String[] fields = line.split( "," );
+			if ( fields.length < 2 ) {
+				if ( header ) {
+					continue;
+				}
+				throw new IOException( "Line " + lineNumber + ": expected latitude,longitude[,clusterGroup]" );
+			}
+			try {
+				double latitude  = Double.parseDouble( fields[0].trim() );
+				double longitude = Double.parseDouble( fields[1].trim() );
+				int clusterGroup = fields.length > 2 ? Integer.parseInt( fields[2].trim() ) : DEFAULT_CLUSTER_GROUP;
+				add( store, latitude, longitude, clusterGroup );
+			}
+			catch ( NumberFormatException e ) {
+				if ( header ) {
+					continue;
+				}
+				throw new IOException( "Line " + lineNumber + ": " + e.getMessage() );
+			}
+		}
+		return store;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	static ObservationStore readGeoJson( Reader reader ) throws IOException {
+		Object root = new JsonParser( reader ).parse();
+		if ( ! ( root instanceof Map )  ||  ! "FeatureCollection".equals( ((Map<String, Object>) root).get( "type" ) ) ) {
+			throw new IOException( "Expected a GeoJSON FeatureCollection" );
+		}
+		Object features = ((Map<String, Object>) root).get( "features" );
+		if ( ! ( features instanceof List ) ) {
+			throw new IOException( "FeatureCollection without features" );
+		}
+		ObservationStore store = new ObservationStore( ((List<Object>) features).size() );
+		for ( Object feature : (List<Object>) features ) {
+			if ( ! ( feature instanceof Map ) ) {
+				continue;
+			}
+			Object geometry = ((Map<String, Object>) feature).get( "geometry" );
+			if ( ! ( geometry instanceof Map )  ||  ! "Point".equals( ((Map<String, Object>) geometry).get( "type" ) ) ) {
+				continue;
+			}
+			Object coordinates = ((Map<String, Object>) geometry).get( "coordinates" );
+			if ( ! ( coordinates instanceof List )  ||  ((List<Object>) coordinates).size() < 2 ) {
+				throw new IOException( "Point without coordinates" );
+			}
+			if ( ! ( ((List<Object>) coordinates).get( 0 ) instanceof Number )  ||  ! ( ((List<Object>) coordinates).get( 1 ) instanceof Number ) ) {
+				throw new IOException( "Point coordinates must be numbers" );
+			}
+			// GeoJSON positions are longitude first
+			double longitude = ((Number) ((List<Object>) coordinates).get( 0 )).doubleValue();
+			double latitude  = ((Number) ((List<Object>) coordinates).get( 1 )).doubleValue();
+			int clusterGroup = DEFAULT_CLUSTER_GROUP;
+			Object properties = ((Map<String, Object>) feature).get( "properties" );
+			if ( properties instanceof Map ) {
+				Object group = ((Map<String, Object>) properties).get( CLUSTER_GROUP_PROPERTY );
+				if ( group instanceof Number ) {
+					clusterGroup = ((Number) group).intValue();
+				}
+			}
+			add( store, latitude, longitude, clusterGroup );
+		}
+		return store;
+	}
+
+	private static void add( ObservationStore store, double latitude, double longitude, int clusterGroup ) {
+		// Same as the LatLng constructor
+		latitude = Math.max( -90.0, Math.min( 90.0, latitude ) );
+		if ( longitude < -180.0  ||  longitude >= 180.0 ) {
+			longitude = ( ( longitude - 180.0 ) % 360.0 + 360.0 ) % 360.0 - 180.0;
+		}
+		store.set( store.getNumberOfObservations(), latitude, longitude, clusterGroup );
+	}
+
+	// Just enough JSON for GeoJSON files: objects become Maps, arrays Lists, numbers Doubles
+	private static final class JsonParser {
+
+		private final Reader reader;
+		private int next;
+
+		JsonParser( Reader reader ) throws IOException {
+			this.reader = reader;
+			this.next = reader.read();
+		}
+
+		Object parse() throws IOException {
+			Object value = parseValue();
+			skipWhitespace();
+			if ( next != -1 ) {
+				throw error( "Unexpected content after JSON value" );
+			}
+			return value;
+		}
+
+		private Object parseValue() throws IOException {
+			skipWhitespace();
+			switch ( next ) {
+				case '{': return parseObject();
+				case '[': return parseArray();
+				case '"': return parseString();
+				case 't': expect( "true" );  return Boolean.TRUE;
+				case 'f': expect( "false" ); return Boolean.FALSE;
+				case 'n': expect( "null" );  return null;
+				default:  return parseNumber();
+			}
+		}
+
+		private Map<String, Object> parseObject() throws IOException {
+			Map<String, Object> object = new HashMap<String, Object>();
+			read();
+			skipWhitespace();
+			if ( next == '}' ) {
+				read();
+				return object;
+			}
+			while ( true ) {
+				skipWhitespace();
+				if ( next != '"' ) {
+					throw error( "Expected a member name" );
+				}
+				String name = parseString();
+				skipWhitespace();
+				consume( ':' );
+				object.put( name, parseValue() );
+				skipWhitespace();
+				if ( next == '}' ) {
+					read();
+					return object;
+				}
+				consume( ',' );
+			}
+		}
+
+		private List<Object> parseArray() throws IOException {
+			List<Object> array = new ArrayList<Object>();
+			read();
+			skipWhitespace();
+			if ( next == ']' ) {
+				read();
+				return array;
+			}
+			while ( true ) {
+				array.add( parseValue() );
+				skipWhitespace();
+				if ( next == ']' ) {
+					read();
+					return array;
+				}
+				consume( ',' );
+			}
+		}
+
+		private String parseString() throws IOException {
+			StringBuilder builder = new StringBuilder();
+			read();
+			while ( next != '"' ) {
+				if ( next == -1 ) {
+					throw error( "Unterminated string" );
+				}
+				if ( next == '\\' ) {
+					read();
+					switch ( next ) {
+						case 'b': builder.append( '\b' ); break;
+						case 'f': builder.append( '\f' ); break;
+						case 'n': builder.append( '\n' ); break;
+						case 'r': builder.append( '\r' ); break;
+						case 't': builder.append( '\t' ); break;
+						case 'u':
+							char[] hex = new char[ 4 ];
+							for ( int i = 0; i < 4; ++i ) {
+								read();
+								hex[ i ] = (char) next;
+							}
+							builder.append( (char) Integer.parseInt( new String( hex ), 16 ) );
+							break;
+						default: builder.append( (char) next );
+					}
+				}
+				else {
+					builder.append( (char) next );
+				}
+				read();
+			}
+			read();
+			return builder.toString();
+		}
+
+		private Double parseNumber() throws IOException {
+			StringBuilder builder = new StringBuilder();
+			while ( next == '-'  ||  next == '+'  ||  next == '.'  ||  next == 'e'  ||  next == 'E'  ||  ( next >= '0'  &&  next <= '9' ) ) {
+				builder.append( (char) next );
+				read();
+			}
+			try {
+				return Double.valueOf( builder.toString() );
+			}
+			catch ( NumberFormatException e ) {
+				throw error( "Unexpected character" );
+			}
+		}
+
+		private void expect( String literal ) throws IOException {
+			for ( int i = 0; i < literal.length(); ++i ) {
+				consume( literal.charAt( i ) );
+			}
+		}
+
+		private void consume( char c ) throws IOException {
+			if ( next != c ) {
+				throw error( "Expected '" + c + "'" );
+			}
+			read();
+		}
+
+		private void skipWhitespace() throws IOException {
+			while ( next == ' '  ||  next == '\t'  ||  next == '\n'  ||  next == '\r' ) {
+				read();
+			}
+		}
+
+		private void read() throws IOException {
+			next = reader.read();
+		}
+
+		private IOException error( String message ) {
+			return new IOException( message + ( next == -1 ? " at end of input" : " at '" + (char) next + "'" ) );
+		}
+	}
+}
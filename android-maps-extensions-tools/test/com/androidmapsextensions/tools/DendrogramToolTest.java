@@ -0,0 +1,80 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.tools;
+
+import com.androidmapsextensions.dendrogram.CompactDendrogram;
+import com.androidmapsextensions.dendrogram.Dendrogram;
+import com.androidmapsextensions.dendrogram.DendrogramFile;
+import com.androidmapsextensions.dendrogram.ObservationStore;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+
+public class DendrogramToolTest {
+
+	private static final int N = 500;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void contentHashOfTheFileEqualsTheAppsForTheSameMarkers() throws IOException {
+		// The app's store, filled from the markers' LatLngs
+		Random random = new Random( 41 );
+		ObservationStore app = new ObservationStore( N );
+		StringBuilder csv = new StringBuilder( "latitude,longitude,clusterGroup\n" );
+		for ( int i = 0; i < N; ++i ) {
+			double latitude = 50.0 + 3.0 * random.nextDouble();
+			double longitude = 19.0 + 3.0 * random.nextDouble();
+			int clusterGroup = random.nextInt( 3 ) - 1;
+			app.set( i, latitude, longitude, clusterGroup );
+			// Written the way Double.toString() does, which reads back exactly
+			csv.append( latitude ).append( ',' ).append( longitude ).append( ',' ).append( clusterGroup ).append( '\n' );
+		}
+		ObservationStore read = MarkerFileReaderTest.readCsv( csv.toString() );
+
+		Assert.assertEquals( DendrogramFile.contentHash( app, false, 0.0, 0.0 ), new DendrogramTool( false ).contentHash( read ) );
+		Assert.assertEquals( DendrogramFile.contentHash( app, true, 0.0, 0.0 ), new DendrogramTool( true ).contentHash( read ) );
+		Assert.assertEquals( DendrogramFile.contentHash( app, false, 0.1, 0.001 ), new DendrogramTool( false, 0.1, 0.001 ).contentHash( read ) );
+	}
+
+	@Test
+	public void writtenFileIsReadByTheAppWithTheSameSettings() throws IOException {
+		Random random = new Random( 42 );
+		StringBuilder csv = new StringBuilder();
+		for ( int i = 0; i < N; ++i ) {
+			csv.append( 50.0 + 3.0 * random.nextDouble() ).append( ',' ).append( 19.0 + 3.0 * random.nextDouble() ).append( ',' ).append( i % 2 ).append( '\n' );
+		}
+		ObservationStore observations = MarkerFileReaderTest.readCsv( csv.toString() );
+		DendrogramTool tool = new DendrogramTool( false, 0.1, 0.0 );
+		Map<Integer, CompactDendrogram> written = tool.cluster( observations );
+		File file = folder.newFile();
+		DendrogramFile.writeCompact( file, tool.contentHash( observations ), written );
+
+		Map<Integer, Dendrogram> read = DendrogramFile.read( file, DendrogramFile.contentHash( observations, false, 0.1, 0.0 ), N );
+		Assert.assertNotNull( read );
+		Assert.assertEquals( written.keySet(), read.keySet() );
+		for ( Integer clusterGroup : written.keySet() ) {
+			Assert.assertEquals( written.get( clusterGroup ).getObservationCount( written.get( clusterGroup ).getRoot() ),
+					read.get( clusterGroup ).getRoot().getObservationCount() );
+		}
+		// Other settings, other hash
+		Assert.assertNull( DendrogramFile.read( file, DendrogramFile.contentHash( observations, true, 0.1, 0.0 ), N ) );
+	}
+}
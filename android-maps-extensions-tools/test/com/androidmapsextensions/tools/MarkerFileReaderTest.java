@@ -0,0 +1,121 @@
+/*
+ * This file is licensed to You under the "Simplified BSD License".
+ * You may not use this software except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * See the COPYRIGHT file distributed with this work for information
+ * regarding copyright ownership.
+ */
+package com.androidmapsextensions.tools;
+
+import com.androidmapsextensions.dendrogram.ObservationStore;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+
+public class MarkerFileReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void csvWithoutHeader() throws IOException {
+		ObservationStore store = readCsv( "50.5,19.5\n\n# comment\n51.25,20.75,3\n" );
+		Assert.assertEquals( 2, store.getNumberOfObservations() );
+		assertObservation( store, 0, 50.5, 19.5, 0 );
+		assertObservation( store, 1, 51.25, 20.75, 3 );
+	}
+
+	@Test
+	public void csvWithHeader() throws IOException {
+		ObservationStore store = readCsv( "latitude,longitude,clusterGroup\n50.5,19.5,1\n 51.25 , 20.75 \n" );
+		Assert.assertEquals( 2, store.getNumberOfObservations() );
+		assertObservation( store, 0, 50.5, 19.5, 1 );
+		assertObservation( store, 1, 51.25, 20.75, 0 );
+	}
+
+	@Test
+	public void csvPositionsAreNormalizedLikeLatLng() throws IOException {
+		ObservationStore store = readCsv( "95.0,190.0\n-91.0,-180.0\n0.0,180.0\n" );
+		assertObservation( store, 0, 90.0, -170.0, 0 );
+		assertObservation( store, 1, -90.0, -180.0, 0 );
+		assertObservation( store, 2, 0.0, -180.0, 0 );
+	}
+
+	@Test( expected = IOException.class )
+	public void csvWithMalformedLineAfterTheFirst() throws IOException {
+		readCsv( "50.5,19.5\n51.0,east\n" );
+	}
+
+	@Test
+	public void geoJson() throws IOException {
+		ObservationStore store = readGeoJson( "{ \"type\": \"FeatureCollection\", \"features\": ["
+				+ " { \"type\": \"Feature\", \"geometry\": { \"type\": \"Point\", \"coordinates\": [ 19.5, 50.5 ] }, \"properties\": null },"
+				+ " { \"type\": \"Feature\", \"geometry\": { \"type\": \"LineString\", \"coordinates\": [ [ 0, 0 ], [ 1, 1 ] ] } },"
+				+ " { \"type\": \"Feature\", \"geometry\": { \"type\": \"Point\", \"coordinates\": [ 2.075e1, -51.25, 300 ] },"
+				+ " \"properties\": { \"name\": \"a \\\"b\\\" \\u0063\", \"clusterGroup\": 4, \"open\": true } }"
+				+ " ] }" );
+		Assert.assertEquals( 2, store.getNumberOfObservations() );
+		assertObservation( store, 0, 50.5, 19.5, 0 );
+		assertObservation( store, 1, -51.25, 20.75, 4 );
+	}
+
+	@Test( expected = IOException.class )
+	public void geoJsonWithNonNumericCoordinates() throws IOException {
+		readGeoJson( "{ \"type\": \"FeatureCollection\", \"features\": ["
+				+ " { \"type\": \"Feature\", \"geometry\": { \"type\": \"Point\", \"coordinates\": [ \"19.5\", 50.5 ] } } ] }" );
+	}
+
+	@Test( expected = IOException.class )
+	public void geoJsonWhichIsNotAFeatureCollection() throws IOException {
+		readGeoJson( "{ \"type\": \"Feature\" }" );
+	}
+
+	@Test
+	public void readChoosesTheFormatByExtension() throws IOException {
+		File csv = write( "markers.csv", "50.5,19.5\n" );
+		File geoJson = write( "markers.geojson", "{ \"type\": \"FeatureCollection\", \"features\": ["
+				+ " { \"type\": \"Feature\", \"geometry\": { \"type\": \"Point\", \"coordinates\": [ 19.5, 50.5 ] } } ] }" );
+		assertObservation( MarkerFileReader.read( csv ), 0, 50.5, 19.5, 0 );
+		assertObservation( MarkerFileReader.read( geoJson ), 0, 50.5, 19.5, 0 );
+	}
+
+	static ObservationStore readCsv( String content ) throws IOException {
+		return MarkerFileReader.readCsv( new BufferedReader( new StringReader( content ) ) );
+	}
+
+	static ObservationStore readGeoJson( String content ) throws IOException {
+		return MarkerFileReader.readGeoJson( new StringReader( content ) );
+	}
+
+	private File write( String name, String content ) throws IOException {
+		File file = folder.newFile( name );
+		Writer writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+		try {
+			writer.write( content );
+		}
+		finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static void assertObservation( ObservationStore store, int observation, double latitude, double longitude, int clusterGroup ) {
+		Assert.assertEquals( latitude, store.getLatitude( observation ), 0.0 );
+		Assert.assertEquals( longitude, store.getLongitude( observation ), 0.0 );
+		Assert.assertEquals( clusterGroup, store.getClusterGroup( observation ) );
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import com.androidmapsextensions.ClusterOptions;
+import com.androidmapsextensions.ClusterOptionsProvider;
+import com.androidmapsextensions.ClusteringSettings;
+import com.androidmapsextensions.Marker;
+import com.androidmapsextensions.benchmarks.Datasets;
+import com.androidmapsextensions.dendrogram.ObservationStore;
+import com.google.android.gms.maps.GoogleMap.OnCameraChangeListener;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays pan and zoom scripts through HierarchicalClusteringStrategy.onCameraChange against a SimulatedGoogleMap.
+ * Animations are finished after every camera change, as if the user waited for them.
+ * Besides the time, the markers added to, removed from and updated on the map per camera change are reported.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CameraChangeBenchmark {
+
+    public enum Script {
+        PAN,  // A quarter viewport east per step at zoom 12 across the markers, then back
+        ZOOM, // A quarter zoom level per step from 8 to 16, then back
+    }
+
+    // Viewport of a typical phone in density independent pixels, as used by the map's projection
+    private static final int VIEWPORT_WIDTH = 411;
+    private static final int VIEWPORT_HEIGHT = 731;
+    private static final float DENSITY = 2.625f;
+    private static final int STEPS = 32;
+
+    // Builds run on the benchmark's thread, the first one is done when the strategy is created
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"UNIFORM", "GAUSSIAN"})
+    public Datasets.Distribution distribution;
+
+    @Param({"PAN", "ZOOM"})
+    public Script script;
+
+    private SimulatedGoogleMap map;
+    private SimulatedMarkerAnimator animator;
+    private CameraPosition[] cameras;
+    private int step;
+
+    // Summed over an iteration, divide by its operations for the calls per camera change
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class MapCalls {
+
+        public long addedMarkers;
+        public long removedMarkers;
+        public long updatedMarkers;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            addedMarkers = 0;
+            removedMarkers = 0;
+            updatedMarkers = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        double latitude = Datasets.MIN_LATITUDE + Datasets.SPAN / 2;
+        cameras = new CameraPosition[2 * STEPS];
+        for (int i = 0; i < STEPS; ++i) {
+            if (script == Script.PAN) {
+                // From the west to the east edge of the markers
+                float zoom = 12;
+                double step = VIEWPORT_WIDTH / 4.0 * 360 / (256 * Math.pow(2, zoom));
+                cameras[i] = new CameraPosition(new LatLng(latitude, Datasets.MIN_LONGITUDE + i * step), zoom, 0, 0);
+            } else {
+                cameras[i] = new CameraPosition(new LatLng(latitude, Datasets.MIN_LONGITUDE + Datasets.SPAN / 2), 8 + i * 8.0f / STEPS, 0, 0);
+            }
+            cameras[2 * STEPS - 1 - i] = cameras[i];
+        }
+
+        map = new SimulatedGoogleMap(VIEWPORT_WIDTH, VIEWPORT_HEIGHT, cameras[0]);
+        animator = new SimulatedMarkerAnimator();
+        DelegatingGoogleMap factory = new DelegatingGoogleMap(map, DENSITY);
+        factory.markerAnimator = animator;
+        ObservationStore observations = Datasets.create(distribution, size);
+        List<DelegatingMarker> markers = new ArrayList<DelegatingMarker>(size);
+        for (int i = 0; i < size; ++i) {
+            double[] position = observations.getPosition(i);
+            markers.add(new SimulatedMarker(map, factory, new LatLng(position[0], position[1]), observations.getClusterGroup(i)));
+        }
+        ClusteringSettings settings = new ClusteringSettings().clusterOptionsProvider(new ClusterOptionsProvider() {
+            @Override
+            public ClusterOptions getClusterOptions(List<Marker> markers) {
+                return new ClusterOptions();
+            }
+        });
+        final HierarchicalClusteringStrategy strategy = new HierarchicalClusteringStrategy(settings, factory, markers, new ClusterRefresher(), DIRECT, DIRECT);
+        map.setOnCameraChangeListener(new OnCameraChangeListener() {
+            @Override
+            public void onCameraChange(CameraPosition cameraPosition) {
+                strategy.onCameraChange(cameraPosition);
+            }
+        });
+        map.moveCamera(cameras[0]);
+        animator.finishAnimations();
+    }
+
+    @Benchmark
+    public int onCameraChange(MapCalls calls) {
+        map.resetCounts();
+        map.moveCamera(cameras[step++ % cameras.length]);
+        animator.finishAnimations();
+        calls.addedMarkers += map.getAddMarkerCount();
+        calls.removedMarkers += map.getRemoveMarkerCount();
+        calls.updatedMarkers += map.getUpdateMarkerCount();
+        return map.getMarkerCount();
+    }
+}
@@ -15,29 +15,96 @@
  */
 package com.androidmapsextensions;
 
+import java.io.File;
+
 public class ClusteringSettings {
 
     public static final double DEFAULT_CLUSTER_SIZE = 180.0;
 
+    public enum Algorithm {
+        /**
+         * Markers merge into clusters by distance, one after another, with animated splits and merges on zoom.
+         * Building the hierarchy is expensive for very large numbers of markers.
+         */
+        HIERARCHICAL,
+        /**
+         * Markers in the same cell of a grid of clusterSize form a cluster.
+         * Linear in the number of markers, recomputed on every change of the integer zoom level.
+         * With addMarkersDynamically only clusters in the visible region are drawn.
+         */
+        GRID,
+        /**
+         * Markers are clustered greedily within clusterSize / 2 for every integer zoom level, from the highest one down.
+         * Linear in the number of markers times the number of zoom levels, built in the background
+         * whenever markers change; a camera change only draws the clusters of the current zoom level in the visible region.
+         */
+        GREEDY,
+        /**
+         * Like HIERARCHICAL, but only the markers in the tiles covering the visible region at the current integer zoom level
+         * are clustered, in the background, without animations. Clustered tiles are cached and reused when the camera returns.
+         * For marker sets far larger than what is ever on screen; clusters do not extend across tile borders.
+         * GoogleMap.getMinZoomLevelNotClustered is computed within the marker's tile at the current integer zoom level,
+         * a tile which is not clustered yet is clustered on the calling thread.
+         */
+        VIEWPORT_HIERARCHICAL,
+    }
+
     private boolean addMarkersDynamically = false;
 
+    private double approximation = 0.0;
+
+    private Algorithm algorithm = Algorithm.HIERARCHICAL;
+
     private ClusterOptionsProvider clusterOptionsProvider = null;
 
     private double clusterSize = DEFAULT_CLUSTER_SIZE;
 
+    private double collapseGrid = 0.0;
+
     private boolean enabled = true;
 
+    private float lazyRefinementZoom = 0.0f;
+
+    private boolean singleLinkage = false;
+
+    private File dendrogramCacheFile = null;
+
     public ClusteringSettings addMarkersDynamically(boolean addMarkersDynamically) {
         this.addMarkersDynamically = addMarkersDynamically;
         return this;
     }
 
+    /**
+     * Trades exactness of Algorithm.HIERARCHICAL and Algorithm.VIEWPORT_HIERARCHICAL for speed when building the cluster hierarchy.
+     * Each cluster is merged with a neighbor at most (1 + approximation) times as far away as its nearest one.
+     * Values around 0.5 cut the build time for hundreds of thousands of markers noticeably,
+     * while the clusters on the map hardly change. Not used with singleLinkage.
+     *
+     * @param approximation 0 for exact nearest neighbors, the default.
+     */
+    public ClusteringSettings approximation(double approximation) {
+        if (approximation < 0.0) {
+            throw new IllegalArgumentException("approximation must not be negative");
+        }
+        this.approximation = approximation;
+        return this;
+    }
+
+    /**
+     * @param algorithm how markers are grouped into clusters, Algorithm.HIERARCHICAL by default.
+     */
+    public ClusteringSettings algorithm(Algorithm algorithm) {
+        this.algorithm = algorithm;
+        return this;
+    }
+
     public ClusteringSettings clusterOptionsProvider(ClusterOptionsProvider clusterOptionsProvider) {
         this.clusterOptionsProvider = clusterOptionsProvider;
         return this;
     }
 
     /**
+     * Used by Algorithm.GRID and Algorithm.GREEDY.
      * Consider using value of 180, 160, 144, 120 or 96 for 8x8, 9x9, 10x10, 12x12 and 15x15 grids respectively on zoom level 2.
      *
      * @param clusterSize cluster size in degrees of longitude on zoom level 0.
@@ -47,11 +114,86 @@ public class ClusteringSettings {
         return this;
     }
 
+    /**
+     * Used by Algorithm.HIERARCHICAL and Algorithm.VIEWPORT_HIERARCHICAL. Markers within the same cell of a latitude/longitude grid are treated as one location
+     * (e.g. several businesses in one building): they are shown as a single cluster at every zoom level,
+     * and building the cluster hierarchy only costs as much as the number of distinct locations.
+     * Markers at identical positions are always collapsed. Not used with singleLinkage.
+     * Collapsed markers can never be separated: they are one cluster even at the highest zoom level
+     * and GoogleMap.getMinZoomLevelNotClustered() returns Float.POSITIVE_INFINITY for them.
+     * Show them e.g. from the cluster's Marker.getMarkers() in its info window.
+     *
+     * @param collapseGrid cell size in degrees, e.g. 0.0001 for roughly 10 meters, or 0 (the default) for identical positions only.
+     */
+    public ClusteringSettings collapseGrid(double collapseGrid) {
+        if (collapseGrid < 0.0) {
+            throw new IllegalArgumentException("collapseGrid must not be negative");
+        }
+        this.collapseGrid = collapseGrid;
+        return this;
+    }
+
     public ClusteringSettings enabled(boolean enabled) {
         this.enabled = enabled;
         return this;
     }
 
+    /**
+     * Used by Algorithm.HIERARCHICAL. Build the cluster hierarchy up front only for the clusters shown below this zoom level.
+     * The markers of each smaller cluster are clustered when the camera first zooms in to this level over it,
+     * so the initial build is much faster and smaller when only a few places are looked at closely.
+     * These markers are clustered in the background, the cluster stays on the map until they are ready to split out of it.
+     * Until then GoogleMap.getMinZoomLevelNotClustered returns Float.POSITIVE_INFINITY for them.
+     * Not used with singleLinkage or dendrogramCacheFile, which store complete hierarchies.
+     *
+     * @param lazyRefinementZoom e.g. 12 or 14, or 0 (the default) to build the complete hierarchy up front.
+     */
+    public ClusteringSettings lazyRefinementZoom(float lazyRefinementZoom) {
+        if (lazyRefinementZoom < 0.0f) {
+            throw new IllegalArgumentException("lazyRefinementZoom must not be negative");
+        }
+        this.lazyRefinementZoom = lazyRefinementZoom;
+        return this;
+    }
+
+    /**
+     * Build the cluster hierarchy with single linkage (clusters merge at the distance of their closest markers)
+     * from a minimum spanning tree, instead of merging the clusters with the closest centers.
+     * Faster for very large numbers of markers, but tends to produce elongated clusters.
+     *
+     * @param singleLinkage true to use single linkage, false by default.
+     */
+    public ClusteringSettings singleLinkage(boolean singleLinkage) {
+        this.singleLinkage = singleLinkage;
+        return this;
+    }
+
+    /**
+     * Store the computed cluster hierarchy in this file and reuse it while the markers do not change,
+     * e.g. on the next start with the same static set of markers.
+     * The file is rewritten when the markers (positions, cluster groups or order) differ,
+     * markers are in the order they were added, so add the same markers in the same order on every start.
+     * The file is only read and written when all markers are clustered at once, i.e. when clustering is enabled
+     * and when bulkAddMarker() re-clusters every cluster group. Markers added one by one with addMarker()
+     * are inserted into the existing hierarchy and never read or write the file.
+     * It may also be precomputed offline with the dendrogram-tool of android-maps-extensions-tools
+     * and copied here, e.g. from assets, before clustering is enabled.
+     *
+     * @param dendrogramCacheFile file in a writable directory, e.g. in Context.getCacheDir(), or null to disable.
+     */
+    public ClusteringSettings dendrogramCacheFile(File dendrogramCacheFile) {
+        this.dendrogramCacheFile = dendrogramCacheFile;
+        return this;
+    }
+
+    public double getApproximation() {
+        return approximation;
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
     public ClusterOptionsProvider getClusterOptionsProvider() {
         return clusterOptionsProvider;
     }
@@ -60,6 +202,14 @@ public class ClusteringSettings {
         return clusterSize;
     }
 
+    public double getCollapseGrid() {
+        return collapseGrid;
+    }
+
+    public float getLazyRefinementZoom() {
+        return lazyRefinementZoom;
+    }
+
     public boolean isAddMarkersDynamically() {
         return addMarkersDynamically;
     }
@@ -68,6 +218,14 @@ public class ClusteringSettings {
         return enabled;
     }
 
+    public boolean isSingleLinkage() {
+        return singleLinkage;
+    }
+
+    public File getDendrogramCacheFile() {
+        return dendrogramCacheFile;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -86,9 +244,27 @@ public class ClusteringSettings {
         if (!enabled && !other.enabled) {
             return true;
         }
+        if (algorithm != other.algorithm) {
+            return false;
+        }
         if (clusterSize != other.clusterSize) {
             return false;
         }
+        if (singleLinkage != other.singleLinkage) {
+            return false;
+        }
+        if (approximation != other.approximation) {
+            return false;
+        }
+        if (collapseGrid != other.collapseGrid) {
+            return false;
+        }
+        if (lazyRefinementZoom != other.lazyRefinementZoom) {
+            return false;
+        }
+        if (!equals(dendrogramCacheFile, other.dendrogramCacheFile)) {
+            return false;
+        }
         if (!equals(clusterOptionsProvider, other.clusterOptionsProvider)) {
             return false;
         }
@@ -21,16 +21,21 @@ import android.view.animation.AccelerateInterpolator;
 import android.view.animation.DecelerateInterpolator;
 
 import com.androidmapsextensions.AnimationSettings;
+import com.androidmapsextensions.ClusterOptions;
+import com.androidmapsextensions.ClusterOptionsProvider;
 import com.androidmapsextensions.Marker;
 import com.androidmapsextensions.dendrogram.DendrogramNode;
 import com.androidmapsextensions.dendrogram.MergeNode;
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.MarkerOptions;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class ClusterMarker implements Marker {
+
+    private static boolean GOOGLE_PLAY_SERVICES_4_0 = true;
 	
 	public boolean isShowing() {
 		int count = markers.size();
@@ -73,6 +78,39 @@ public class ClusterMarker implements Marker {
         this.strategy = strategy;
         this.dendrogramNode = node;
     }
+
+    // For clusters which are not backed by a dendrogram node, see GridClusterMarker
+    ClusterMarker() {
+    }
+
+    // Where the virtual marker of 2 or more markers is drawn
+    LatLng calculatePosition() {
+        return HierarchicalClusteringStrategy.positionOf( dendrogramNode );
+    }
+
+    com.google.android.gms.maps.model.Marker createVirtual() {
+        return strategy.createClusterMarker( new ArrayList<Marker>(markers), calculatePosition() );
+    }
+
+    static com.google.android.gms.maps.model.Marker addVirtual( IGoogleMap map, ClusterOptionsProvider clusterOptionsProvider, List<Marker> markers, LatLng position ) {
+        MarkerOptions markerOptions = new MarkerOptions();
+        markerOptions.position( position );
+        ClusterOptions opts = clusterOptionsProvider.getClusterOptions( markers );
+        markerOptions.icon( opts.getIcon() );
+        if ( GOOGLE_PLAY_SERVICES_4_0 ) {
+            try {
+                markerOptions.alpha( opts.getAlpha() );
+            } catch ( NoSuchMethodError error ) {
+                // not the cutest way to handle backward compatibility
+                GOOGLE_PLAY_SERVICES_4_0 = false;
+            }
+        }
+        markerOptions.anchor( opts.getAnchorU(), opts.getAnchorV() );
+        markerOptions.flat( opts.isFlat() );
+        markerOptions.infoWindowAnchor( opts.getInfoWindowAnchorU(), opts.getInfoWindowAnchorV() );
+        markerOptions.rotation( opts.getRotation() );
+        return map.addMarker( markerOptions );
+    }
     
     com.google.android.gms.maps.model.Marker getVirtual() {
         return virtual;
@@ -92,8 +130,8 @@ public class ClusterMarker implements Marker {
     	if ( count == 1 ) {
     		removeVirtual();
     		DelegatingMarker dm = markers.get(0);
-        	if ( dm.real.getPosition() != dendrogramNode.getLatLng() ) {
-        		dm.animateScreenPosition( dm.real.getPosition(), dendrogramNode.getLatLng(), new AnimationSettings().interpolator( new DecelerateInterpolator() ), new AnimationCallback() {
+        	if ( dm.real.getPosition() != calculatePosition() ) {
+        		dm.animateScreenPosition( dm.real.getPosition(), calculatePosition(), new AnimationSettings().interpolator( new DecelerateInterpolator() ), new AnimationCallback() {
     				@Override
     				public void onFinish( Marker marker ) {
 					}
@@ -105,14 +143,14 @@ public class ClusterMarker implements Marker {
     	}
     	if ( count >= 2 ) {
     		if ( virtual == null ) {
-    			virtual = strategy.createClusterMarker( new ArrayList<Marker>(markers), dendrogramNode.getLatLng() );
+    			virtual = createVirtual();
     			//splitClusterPosition = null; // Not animating
 				//mergeNode = null;
 				Log.e("e","Drawing animateToPlace cluster");
     		}
-    		if ( virtual.getPosition() != dendrogramNode.getLatLng() ) {
+    		if ( virtual.getPosition() != calculatePosition() ) {
     			// It is currently animating something...
-    			animateScreenPosition( virtual.getPosition(), dendrogramNode.getLatLng(), new AnimationSettings().interpolator( new DecelerateInterpolator() ), null );
+    			animateScreenPosition( virtual.getPosition(), calculatePosition(), new AnimationSettings().interpolator( new DecelerateInterpolator() ), null );
     		}
     	}
     }
@@ -152,14 +190,14 @@ public class ClusterMarker implements Marker {
             	dm.changeVisible(true);
         		
         		Log.e("ANIMATING MARKER MERGE", " TO " + mergeNode.getPosition() );
-        		final ClusterMarker mergeClusterMarker = mergeNode.getClusterMarker();
+        		final ClusterMarker mergeClusterMarker = strategy.getClusterMarker( mergeNode );
         		
-        		dm.animateScreenPosition( dm.real.getPosition(), mergeNode.getLatLng(), new AnimationSettings().interpolator( new AccelerateInterpolator() ), new AnimationCallback() {
+        		dm.animateScreenPosition( dm.real.getPosition(), HierarchicalClusteringStrategy.positionOf( mergeNode ), new AnimationSettings().interpolator( new AccelerateInterpolator() ), new AnimationCallback() {
 					@Override
 					public void onFinish( Marker marker ) {
 						dm.changeVisible(false);
 						removeVirtual();
-						dendrogramNode.setClusterMarker( null );
+						strategy.setClusterMarker( dendrogramNode, null );
 						strategy.renderedNodes.remove( dendrogramNode );
 						strategy.pendingRenderNodes.remove( mergeNode );
 						// Render the mergeNode
@@ -171,7 +209,7 @@ public class ClusterMarker implements Marker {
     						strategy.addToCluster(cm, mergeNode);
     						cm.splitClusterPosition = null; // Not animating
     						cm.mergeNode = null;    						
-    						mergeNode.setClusterMarker( cm );
+    						strategy.setClusterMarker( mergeNode, cm );
     						cm.refresh();
     						Log.e("e","Drawing merge cluster");
 						}
@@ -185,7 +223,7 @@ public class ClusterMarker implements Marker {
 						if ( mergeClusterMarker != null ) {
 							mergeClusterMarker.removeVirtual();
 						}
-						mergeNode.setClusterMarker( null );
+						strategy.setClusterMarker( mergeNode, null );
 						*/						
 					}
 				} );        		
@@ -194,14 +232,14 @@ public class ClusterMarker implements Marker {
         	if ( mergeNode != null ) {
         		Log.e("e","Merging real cluster with 2 or more markers " + markers.size() );
         		
-        		final ClusterMarker mergeClusterMarker = mergeNode.getClusterMarker();
+        		final ClusterMarker mergeClusterMarker = strategy.getClusterMarker( mergeNode );
         		
         		animateScreenPosition( virtual.getPosition(), new LatLng( mergeNode.getPosition()[0], mergeNode.getPosition()[1] ), new AnimationSettings().interpolator( new AccelerateInterpolator() ), new AnimationCallback() {
 					@Override
 					public void onFinish( Marker marker ) {
 						Log.e("!!!!!!!!!!!!!!!!!!!","Finished cluster merge, mergeNode=" + mergeNode);
 						removeVirtual();
-						dendrogramNode.setClusterMarker( null );
+						strategy.setClusterMarker( dendrogramNode, null );
 						strategy.renderedNodes.remove( dendrogramNode );
 						strategy.pendingRenderNodes.remove( mergeNode );
 						// Render the mergeNode
@@ -213,7 +251,7 @@ public class ClusterMarker implements Marker {
     						strategy.addToCluster(cm, mergeNode);
     						cm.splitClusterPosition = null; // Not animating
     						cm.mergeNode = null;    						
-    						mergeNode.setClusterMarker( cm );
+    						strategy.setClusterMarker( mergeNode, cm );
     						cm.refresh();
     						Log.e("e","Drawing merge cluster");
 						}
@@ -232,9 +270,9 @@ public class ClusterMarker implements Marker {
         		if ( virtual == null  ||  lastCount != count ) {
         			removeVirtual();
                     lastCount = count;
-                    virtual = strategy.createClusterMarker(new ArrayList<Marker>(markers), dendrogramNode.getLatLng() );
+                    virtual = createVirtual();
         		}
-        		animateScreenPosition( splitClusterPosition, dendrogramNode.getLatLng(), new AnimationSettings().interpolator( new DecelerateInterpolator() ), null );
+        		animateScreenPosition( splitClusterPosition, calculatePosition(), new AnimationSettings().interpolator( new DecelerateInterpolator() ), null );
         		
         		splitClusterPosition = null;
         	}
@@ -244,10 +282,10 @@ public class ClusterMarker implements Marker {
             if ( virtual == null  ||  lastCount != count ) {
                 removeVirtual();
                 lastCount = count;
-                virtual = strategy.createClusterMarker( new ArrayList<Marker>(markers), dendrogramNode.getLatLng() );
+                virtual = createVirtual();
             } 
             else {
-                virtual.setPosition( dendrogramNode.getLatLng() );
+                virtual.setPosition( calculatePosition() );
             }
         }
     }
@@ -298,6 +336,10 @@ public class ClusterMarker implements Marker {
         }
     }
 
+    int getMarkerCount() {
+        return markers.size();
+    }
+
     List<DelegatingMarker> getMarkersInternal() {
         return new ArrayList<DelegatingMarker>(markers);
     }
@@ -356,7 +398,7 @@ public class ClusterMarker implements Marker {
 
     @Override
     public LatLng getPosition() {
-    	return dendrogramNode.getLatLng();
+    	return calculatePosition();
     	/*
         if ( virtual != null ) {
             return virtual.getPosition();
@@ -547,7 +589,7 @@ public class ClusterMarker implements Marker {
 		}
 		else {
 			if ( virtual == null  &&  markers.size() > 1 ) {
-				virtual = strategy.createClusterMarker( new ArrayList<Marker>(markers), dendrogramNode.getLatLng() );
+				virtual = createVirtual();
 			}
 			else
 			if ( markers.size() == 1 ) {
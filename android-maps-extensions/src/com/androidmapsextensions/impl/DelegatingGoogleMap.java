@@ -74,6 +74,12 @@ class DelegatingGoogleMap implements GoogleMap {
         assignMapListeners();
     }
 
+    // Only a factory for the markers of a strategy, which is driven directly, e.g. off-device against a simulated map
+    DelegatingGoogleMap(IGoogleMap real, float density) {
+        this.real = real;
+        this.density = density;
+    }
+
     @Override
     public Circle addCircle(CircleOptions circleOptions) {
         return circleManager.addCircle(circleOptions);
@@ -18,7 +18,6 @@ package com.androidmapsextensions.impl;
 import com.androidmapsextensions.AnimationSettings;
 import com.androidmapsextensions.ClusterGroup;
 import com.androidmapsextensions.Marker;
-import com.androidmapsextensions.dendrogram.MergeNode;
 import com.androidmapsextensions.lazy.LazyMarker;
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.LatLng;
@@ -38,7 +37,6 @@ public class DelegatingMarker implements Marker {
     private LatLng position;
     private boolean visible;
     
-    MergeNode parentNode;
     LatLng splitClusterPosition; // VH - Position of cluster this marker split away from, for animating
     
     DelegatingMarker( LazyMarker real, MarkerManager manager ) {
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import com.androidmapsextensions.ClusterOptionsProvider;
+import com.androidmapsextensions.Marker;
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A point of one of GreedyClusteringStrategy's zoom levels or a cluster of one of ViewportClusteringStrategy's tiles,
+// drawn at its precomputed weighted center
+class GreedyClusterMarker extends ClusterMarker {
+
+    private final IGoogleMap map;
+    private final ClusterOptionsProvider clusterOptionsProvider;
+    private final LatLng position;
+
+    GreedyClusterMarker(IGoogleMap map, ClusterOptionsProvider clusterOptionsProvider, LatLng position) {
+        this.map = map;
+        this.clusterOptionsProvider = clusterOptionsProvider;
+        this.position = position;
+    }
+
+    @Override
+    LatLng calculatePosition() {
+        return position;
+    }
+
+    @Override
+    com.google.android.gms.maps.model.Marker createVirtual() {
+        return ClusterMarker.addVirtual(map, clusterOptionsProvider, new ArrayList<Marker>(getMarkersInternal()), position);
+    }
+
+    @Override
+    void refresh() {
+        // Markers which were shown on their own on the previous zoom level
+        List<DelegatingMarker> markers = getMarkersInternal();
+        if (markers.size() > 1) {
+            for (DelegatingMarker marker : markers) {
+                marker.changeVisible(false);
+            }
+        }
+        super.refresh();
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.androidmapsextensions.ClusterGroup;
+import com.androidmapsextensions.ClusterOptionsProvider;
+import com.androidmapsextensions.ClusteringSettings;
+import com.androidmapsextensions.Marker;
+import com.androidmapsextensions.dendrogram.ObservationStore;
+import com.androidmapsextensions.greedy.GreedyClusterIndex;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Clusters of every integer zoom level are precomputed (see GreedyClusterIndex) on a background thread,
+// a camera change renders the points of the level floor(zoom) in the visible region.
+// Any change of the markers of a cluster group rebuilds the group's index, changes made in the same
+// pass of the UI thread are rebuilt together. One build runs at a time, changes made while it runs are
+// rebuilt by the next one once it is swapped in. Removed markers disappear right away, added ones with the new index.
+class GreedyClusteringStrategy implements ClusteringStrategy {
+
+    // Markers are points of their own from zoom level 21 on, the highest level of the map's camera
+    private static final int MAX_ZOOM = 20;
+
+    private static ExecutorService indexExecutor;
+
+    private final IGoogleMap map;
+    private final ClusterRefresher refresher;
+    private final ClusterOptionsProvider clusterOptionsProvider;
+    private final double clusterSize;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private float zoom;
+    private Map<Integer, Set<DelegatingMarker>> markersForClusterGroup = new HashMap<Integer, Set<DelegatingMarker>>();
+    private Map<DelegatingMarker, Integer> clusterGroupForMarker = new HashMap<DelegatingMarker, Integer>();
+    private Set<Integer> dirtyClusterGroups = new HashSet<Integer>();
+    private Map<Integer, ClusterGroupIndex> indexForClusterGroup = new HashMap<Integer, ClusterGroupIndex>();
+    private volatile int buildGeneration; // Changed by cleanup(), builds started before are dropped
+    private boolean buildScheduled;
+    private boolean buildRunning;
+
+    // The index of a cluster group, the markers it was built from and the clusters rendered from it
+    private static final class ClusterGroupIndex {
+        final GreedyClusterIndex index;
+        final DelegatingMarker[] markers; // By observation, null once removed
+        final Map<DelegatingMarker, Integer> observationForMarker = new HashMap<DelegatingMarker, Integer>();
+        final Map<Integer, GreedyClusterMarker> renderedClusters = new HashMap<Integer, GreedyClusterMarker>(); // By point of renderedLevel
+        int renderedLevel = -1;
+
+        ClusterGroupIndex(GreedyClusterIndex index, DelegatingMarker[] markers) {
+            this.index = index;
+            this.markers = markers;
+            for (int i = 0; i < markers.length; i++) {
+                observationForMarker.put(markers[i], i);
+            }
+        }
+    }
+
+    private final Runnable scheduledBuild = new Runnable() {
+        @Override
+        public void run() {
+            buildScheduled = false;
+            startBuild();
+        }
+    };
+
+    private static synchronized ExecutorService getIndexExecutor() {
+        if (indexExecutor == null) {
+            indexExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "GreedyClustering");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return indexExecutor;
+    }
+
+    public GreedyClusteringStrategy(ClusteringSettings settings, IGoogleMap map, List<DelegatingMarker> markers, ClusterRefresher refresher) {
+        this.map = map;
+        this.refresher = refresher;
+        this.clusterOptionsProvider = settings.getClusterOptionsProvider();
+        this.clusterSize = settings.getClusterSize();
+        this.zoom = map.getCameraPosition().zoom;
+        for (DelegatingMarker marker : markers) {
+            if (marker.isVisible()) {
+                addMarker(marker);
+            }
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        // Drop scheduled and running builds
+        mainHandler.removeCallbacks(scheduledBuild);
+        buildScheduled = false;
+        buildRunning = false;
+        ++buildGeneration;
+        for (ClusterGroupIndex groupIndex : indexForClusterGroup.values()) {
+            for (GreedyClusterMarker cluster : groupIndex.renderedClusters.values()) {
+                cluster.cleanup();
+            }
+        }
+        indexForClusterGroup.clear();
+        dirtyClusterGroups.addAll(markersForClusterGroup.keySet());
+        refresher.cleanup();
+    }
+
+    @Override
+    public void resetAll() {
+        cleanup();
+        markersForClusterGroup.clear();
+        clusterGroupForMarker.clear();
+        dirtyClusterGroups.clear();
+    }
+
+    @Override
+    public void onCameraChange(CameraPosition cameraPosition) {
+        zoom = cameraPosition.zoom;
+        renderVisibleClusters();
+        refresher.refreshAll();
+    }
+
+    @Override
+    public void onClusterGroupChange(DelegatingMarker marker) {
+        if (clusterGroupForMarker.containsKey(marker)) {
+            removeMarker(marker);
+            addMarker(marker);
+        }
+    }
+
+    @Override
+    public void onAdd(DelegatingMarker marker) {
+        if (!marker.isVisible()) {
+            return;
+        }
+        addMarker(marker);
+    }
+
+    @Override
+    public void onBulkAdd(List<DelegatingMarker> markers) {
+        for (DelegatingMarker marker : markers) {
+            onAdd(marker);
+        }
+    }
+
+    @Override
+    public void onRemove(DelegatingMarker marker) {
+        removeMarker(marker);
+    }
+
+    @Override
+    public void onPositionChange(DelegatingMarker marker) {
+        Integer clusterGroup = clusterGroupForMarker.get(marker);
+        if (clusterGroup != null) {
+            dirtyClusterGroups.add(clusterGroup);
+            scheduleBuild();
+        }
+    }
+
+    @Override
+    public void onVisibilityChangeRequest(DelegatingMarker marker, boolean visible) {
+        if (visible) {
+            if (!clusterGroupForMarker.containsKey(marker)) {
+                addMarker(marker);
+            }
+        } else {
+            removeMarker(marker);
+            marker.changeVisible(false);
+        }
+    }
+
+    @Override
+    public void onShowInfoWindow(DelegatingMarker marker) {
+        marker.forceShowInfoWindow();
+    }
+
+    @Override
+    public Marker map(com.google.android.gms.maps.model.Marker original) {
+        for (ClusterGroupIndex groupIndex : indexForClusterGroup.values()) {
+            for (GreedyClusterMarker cluster : groupIndex.renderedClusters.values()) {
+                if (original.equals(cluster.getVirtual())) {
+                    return cluster;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Marker> getDisplayedMarkers() {
+        List<Marker> displayedMarkers = new ArrayList<Marker>();
+        for (ClusterGroupIndex groupIndex : indexForClusterGroup.values()) {
+            for (GreedyClusterMarker cluster : groupIndex.renderedClusters.values()) {
+                Marker displayedMarker = cluster.getDisplayedMarker();
+                if (displayedMarker != null) {
+                    displayedMarkers.add(displayedMarker);
+                }
+            }
+        }
+        return displayedMarkers;
+    }
+
+    @Override
+    public float getMinZoomLevelNotClustered(Marker marker) {
+        Integer clusterGroup = clusterGroupForMarker.get(marker);
+        if (clusterGroup == null) {
+            throw new UnsupportedOperationException("marker is not visible or is a cluster");
+        }
+        if (clusterGroup == ClusterGroup.NOT_CLUSTERED) {
+            return 0.0f;
+        }
+        ClusterGroupIndex groupIndex = indexForClusterGroup.get(clusterGroup);
+        Integer observation = groupIndex != null ? groupIndex.observationForMarker.get(marker) : null;
+        if (observation == null) {
+            // Added after the last build, its index is still being built. Every marker is a point of its own above MAX_ZOOM.
+            return MAX_ZOOM + 1;
+        }
+        return groupIndex.index.getMinLevelNotClustered(observation);
+    }
+
+    @Override
+    public void refreshAll() {
+        refresher.refreshAll();
+    }
+
+    @Override
+    public void declusterify(Marker marker) {
+    }
+
+    @Override
+    public void clusterify(boolean animate) {
+    }
+
+    private void addMarker(DelegatingMarker marker) {
+        int clusterGroup = marker.getClusterGroup();
+        Set<DelegatingMarker> markers = markersForClusterGroup.get(clusterGroup);
+        if (markers == null) {
+            markers = new LinkedHashSet<DelegatingMarker>();
+            markersForClusterGroup.put(clusterGroup, markers);
+        }
+        markers.add(marker);
+        clusterGroupForMarker.put(marker, clusterGroup);
+        dirtyClusterGroups.add(clusterGroup);
+        scheduleBuild();
+    }
+
+    private void removeMarker(DelegatingMarker marker) {
+        Integer clusterGroup = clusterGroupForMarker.remove(marker);
+        if (clusterGroup == null) {
+            return;
+        }
+        Set<DelegatingMarker> markers = markersForClusterGroup.get(clusterGroup);
+        markers.remove(marker);
+        if (markers.isEmpty()) {
+            markersForClusterGroup.remove(clusterGroup);
+        }
+        dirtyClusterGroups.add(clusterGroup);
+
+        // Take it out of the current index and its rendered cluster until the rebuilt index replaces them
+        ClusterGroupIndex groupIndex = indexForClusterGroup.get(clusterGroup);
+        Integer observation = groupIndex != null ? groupIndex.observationForMarker.remove(marker) : null;
+        if (observation != null) {
+            groupIndex.markers[observation] = null;
+            if (groupIndex.renderedLevel >= 0) {
+                GreedyClusterMarker cluster = groupIndex.renderedClusters.get(groupIndex.index.getPoint(groupIndex.renderedLevel, observation));
+                if (cluster != null) {
+                    cluster.remove(marker);
+                    refresher.refresh(cluster);
+                }
+            }
+        }
+        scheduleBuild();
+    }
+
+    private void scheduleBuild() {
+        // A running build misses this change, the group is still dirty when it is swapped in
+        if (!buildScheduled && !buildRunning) {
+            buildScheduled = true;
+            mainHandler.post(scheduledBuild);
+        }
+    }
+
+    private void startBuild() {
+        final int generation = buildGeneration;
+        buildRunning = true;
+        // Positions are read here on the UI thread, the build only gets copies.
+        // Groups changed from now on are dirty again for the next build.
+        final Map<Integer, DelegatingMarker[]> markersForBuild = new HashMap<Integer, DelegatingMarker[]>();
+        final Map<Integer, ObservationStore> observationsForBuild = new HashMap<Integer, ObservationStore>();
+        for (Integer clusterGroup : dirtyClusterGroups) {
+            Set<DelegatingMarker> markers = markersForClusterGroup.get(clusterGroup);
+            DelegatingMarker[] array = markers != null ? markers.toArray(new DelegatingMarker[markers.size()]) : new DelegatingMarker[0];
+            ObservationStore observations = new ObservationStore(array.length);
+            for (int i = 0; i < array.length; i++) {
+                LatLng position = array[i].getPosition();
+                observations.set(i, position.latitude, position.longitude, clusterGroup);
+            }
+            markersForBuild.put(clusterGroup, array);
+            observationsForBuild.put(clusterGroup, observations);
+        }
+        dirtyClusterGroups.clear();
+        getIndexExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Map<Integer, ClusterGroupIndex> built = new HashMap<Integer, ClusterGroupIndex>();
+                for (Map.Entry<Integer, DelegatingMarker[]> entry : markersForBuild.entrySet()) {
+                    if (generation != buildGeneration) {
+                        return;
+                    }
+                    int clusterGroup = entry.getKey();
+                    DelegatingMarker[] markers = entry.getValue();
+                    int[] all = new int[markers.length];
+                    for (int i = 0; i < all.length; i++) {
+                        all[i] = i;
+                    }
+                    GreedyClusterIndex index = GreedyClusterIndex.build(observationsForBuild.get(clusterGroup), all,
+                            clusterSize, MAX_ZOOM, clusterGroup != ClusterGroup.NOT_CLUSTERED);
+                    built.put(clusterGroup, new ClusterGroupIndex(index, markers));
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        swapIndexes(generation, built);
+                    }
+                });
+            }
+        });
+    }
+
+    // A build is swapped in even if markers changed while it ran, it is still newer than the current indexes
+    private void swapIndexes(int generation, Map<Integer, ClusterGroupIndex> built) {
+        if (generation != buildGeneration) {
+            return;
+        }
+        buildRunning = false;
+        for (Map.Entry<Integer, ClusterGroupIndex> entry : built.entrySet()) {
+            ClusterGroupIndex old = indexForClusterGroup.remove(entry.getKey());
+            if (old != null) {
+                hideRenderedClusters(old);
+            }
+            ClusterGroupIndex groupIndex = entry.getValue();
+            // Markers removed while it was built, or moved to another cluster group, are taken out like removeMarker() does
+            for (int i = 0; i < groupIndex.markers.length; i++) {
+                if (!entry.getKey().equals(clusterGroupForMarker.get(groupIndex.markers[i]))) {
+                    groupIndex.observationForMarker.remove(groupIndex.markers[i]);
+                    groupIndex.markers[i] = null;
+                }
+            }
+            if (groupIndex.markers.length > 0) {
+                indexForClusterGroup.put(entry.getKey(), groupIndex);
+            }
+        }
+        renderVisibleClusters();
+        refresher.refreshAll();
+        if (!dirtyClusterGroups.isEmpty()) {
+            scheduleBuild();
+        }
+    }
+
+    private void renderVisibleClusters() {
+        LatLngBounds bounds = map.getVisibleRegion().latLngBounds;
+        for (ClusterGroupIndex groupIndex : indexForClusterGroup.values()) {
+            renderVisibleClusters(groupIndex, bounds);
+        }
+    }
+
+    private void renderVisibleClusters(ClusterGroupIndex groupIndex, LatLngBounds bounds) {
+        GreedyClusterIndex index = groupIndex.index;
+        int level = index.getLevel(zoom);
+        if (level != groupIndex.renderedLevel) {
+            hideRenderedClusters(groupIndex);
+            groupIndex.renderedLevel = level;
+        }
+        List<Integer> points = index.getRange(level, bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude);
+
+        // Hide clusters which left the visible region first, their markers may be shown again by the new ones
+        Set<Integer> visiblePoints = new HashSet<Integer>(points);
+        Iterator<Map.Entry<Integer, GreedyClusterMarker>> iterator = groupIndex.renderedClusters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, GreedyClusterMarker> entry = iterator.next();
+            if (!visiblePoints.contains(entry.getKey())) {
+                entry.getValue().changeVisible(false);
+                iterator.remove();
+            }
+        }
+        for (Integer point : points) {
+            if (groupIndex.renderedClusters.containsKey(point)) {
+                continue;
+            }
+            LatLng position = new LatLng(index.getLatitude(level, point), index.getLongitude(level, point));
+            GreedyClusterMarker cluster = new GreedyClusterMarker(map, clusterOptionsProvider, position);
+            for (int observation : index.getObservations(level, point)) {
+                DelegatingMarker marker = groupIndex.markers[observation];
+                if (marker != null) {
+                    cluster.add(marker);
+                }
+            }
+            groupIndex.renderedClusters.put(point, cluster);
+            refresher.refresh(cluster);
+        }
+    }
+
+    private void hideRenderedClusters(ClusterGroupIndex groupIndex) {
+        for (GreedyClusterMarker cluster : groupIndex.renderedClusters.values()) {
+            cluster.changeVisible(false);
+        }
+        groupIndex.renderedClusters.clear();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import com.androidmapsextensions.Marker;
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Markers in one cell of GridClusteringStrategy's grid, drawn at their average position
+class GridClusterMarker extends ClusterMarker {
+
+    private final GridClusteringStrategy strategy;
+    private final Object key;
+    private final int x;
+    private final int y;
+
+    GridClusterMarker(GridClusteringStrategy strategy, Object key, int x, int y) {
+        this.strategy = strategy;
+        this.key = key;
+        this.x = x;
+        this.y = y;
+    }
+
+    Object getKey() {
+        return key;
+    }
+
+    int getX() {
+        return x;
+    }
+
+    int getY() {
+        return y;
+    }
+
+    @Override
+    LatLng calculatePosition() {
+        List<DelegatingMarker> markers = getMarkersInternal();
+        double latitude = 0.0;
+        double longitude = 0.0;
+        for (DelegatingMarker marker : markers) {
+            LatLng position = marker.getPosition();
+            latitude += position.latitude;
+            longitude += position.longitude;
+        }
+        return new LatLng(latitude / markers.size(), longitude / markers.size());
+    }
+
+    @Override
+    com.google.android.gms.maps.model.Marker createVirtual() {
+        return strategy.createClusterMarker(new ArrayList<Marker>(getMarkersInternal()), calculatePosition());
+    }
+
+    @Override
+    void refresh() {
+        // Markers which were shown on their own before they joined this cluster
+        List<DelegatingMarker> markers = getMarkersInternal();
+        if (markers.size() > 1) {
+            for (DelegatingMarker marker : markers) {
+                marker.changeVisible(false);
+            }
+        }
+        super.refresh();
+    }
+}
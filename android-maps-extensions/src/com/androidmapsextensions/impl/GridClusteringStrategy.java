@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import com.androidmapsextensions.ClusterGroup;
+import com.androidmapsextensions.ClusterOptionsProvider;
+import com.androidmapsextensions.ClusteringSettings;
+import com.androidmapsextensions.Marker;
+import com.androidmapsextensions.utils.SphericalMercator;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Markers of a cluster group in the same cell of a grid form a cluster. The grid's cells are clusterSize
+// degrees of scaled longitude and latitude (see SphericalMercator) on zoom level 0 and halve with every zoom level.
+// All work is linear in the number of markers, there is no hierarchy to build.
+// With addMarkersDynamically only clusters in the visible region are drawn, the others when they are panned into view.
+class GridClusteringStrategy implements ClusteringStrategy {
+
+    // Markers still in the same cell here are at the same position
+    private static final int MAX_ZOOM_LEVEL_NOT_CLUSTERED = 25;
+
+    private final IGoogleMap map;
+    private final ClusterRefresher refresher;
+    private final ClusterOptionsProvider clusterOptionsProvider;
+    private final boolean addMarkersDynamically;
+    private final double baseClusterSize;
+
+    private int zoom;
+    private double clusterSize;
+    // Cells minX, maxX, minY, maxY of the visible region, minX > maxX across the 180th meridian
+    private int[] visibleCells;
+
+    private Map<DelegatingMarker, GridClusterMarker> markers = new HashMap<DelegatingMarker, GridClusterMarker>();
+    // Keyed by cell, or by the marker itself for markers not clustered
+    private Map<Object, GridClusterMarker> clusters = new HashMap<Object, GridClusterMarker>();
+
+    private static final class CellKey {
+
+        private final int clusterGroup;
+        private final int x;
+        private final int y;
+
+        CellKey(int clusterGroup, int x, int y) {
+            this.clusterGroup = clusterGroup;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CellKey)) {
+                return false;
+            }
+            CellKey other = (CellKey) o;
+            return clusterGroup == other.clusterGroup && x == other.x && y == other.y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * clusterGroup + x) + y;
+        }
+    }
+
+    public GridClusteringStrategy(ClusteringSettings settings, IGoogleMap map, List<DelegatingMarker> markers, ClusterRefresher refresher) {
+        this.map = map;
+        this.refresher = refresher;
+        this.clusterOptionsProvider = settings.getClusterOptionsProvider();
+        this.addMarkersDynamically = settings.isAddMarkersDynamically();
+        this.baseClusterSize = settings.getClusterSize();
+        this.zoom = Math.round(map.getCameraPosition().zoom);
+        this.clusterSize = calculateClusterSize(zoom);
+        if (addMarkersDynamically) {
+            calculateVisibleCells();
+        }
+        for (DelegatingMarker marker : markers) {
+            if (marker.isVisible()) {
+                addMarker(marker);
+            }
+        }
+        refresher.refreshAll();
+    }
+
+    @Override
+    public void cleanup() {
+        for (GridClusterMarker cluster : clusters.values()) {
+            cluster.cleanup();
+        }
+        clusters.clear();
+        markers.clear();
+        refresher.cleanup();
+    }
+
+    @Override
+    public void resetAll() {
+        cleanup();
+    }
+
+    @Override
+    public void onCameraChange(CameraPosition cameraPosition) {
+        int newZoom = Math.round(cameraPosition.zoom);
+        if (zoom != newZoom) {
+            zoom = newZoom;
+            clusterSize = calculateClusterSize(zoom);
+            if (addMarkersDynamically) {
+                calculateVisibleCells();
+            }
+            recalculate();
+        } else if (addMarkersDynamically) {
+            int[] oldVisibleCells = visibleCells;
+            calculateVisibleCells();
+            for (GridClusterMarker cluster : clusters.values()) {
+                if (isInCells(visibleCells, cluster) && !isInCells(oldVisibleCells, cluster)) {
+                    refresher.refresh(cluster);
+                }
+            }
+        }
+        refresher.refreshAll();
+    }
+
+    @Override
+    public void onClusterGroupChange(DelegatingMarker marker) {
+        if (markers.containsKey(marker)) {
+            removeMarker(marker);
+            addMarker(marker);
+        }
+    }
+
+    @Override
+    public void onAdd(DelegatingMarker marker) {
+        if (!marker.isVisible()) {
+            return;
+        }
+        addMarker(marker);
+    }
+
+    @Override
+    public void onBulkAdd(List<DelegatingMarker> markers) {
+        for (DelegatingMarker marker : markers) {
+            onAdd(marker);
+        }
+    }
+
+    @Override
+    public void onRemove(DelegatingMarker marker) {
+        removeMarker(marker);
+    }
+
+    @Override
+    public void onPositionChange(DelegatingMarker marker) {
+        GridClusterMarker cluster = markers.get(marker);
+        if (cluster == null) {
+            return;
+        }
+        LatLng position = marker.getPosition();
+        if (cluster.getX() == cellX(position.longitude) && cluster.getY() == cellY(position.latitude)) {
+            // Moved within its cell, only the cluster's center changes
+            refresh(cluster);
+        } else {
+            removeMarker(marker);
+            addMarker(marker);
+        }
+    }
+
+    @Override
+    public void onVisibilityChangeRequest(DelegatingMarker marker, boolean visible) {
+        if (visible) {
+            if (!markers.containsKey(marker)) {
+                addMarker(marker);
+            }
+        } else {
+            removeMarker(marker);
+            marker.changeVisible(false);
+        }
+    }
+
+    @Override
+    public void onShowInfoWindow(DelegatingMarker marker) {
+        if (!marker.isVisible()) {
+            return;
+        }
+        GridClusterMarker cluster = markers.get(marker);
+        if (cluster == null) {
+            marker.forceShowInfoWindow();
+        } else if (cluster.getMarkerCount() == 1) {
+            cluster.refresh();
+            marker.forceShowInfoWindow();
+        }
+    }
+
+    @Override
+    public Marker map(com.google.android.gms.maps.model.Marker original) {
+        for (GridClusterMarker cluster : clusters.values()) {
+            if (original.equals(cluster.getVirtual())) {
+                return cluster;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Marker> getDisplayedMarkers() {
+        List<Marker> displayedMarkers = new ArrayList<Marker>();
+        for (GridClusterMarker cluster : clusters.values()) {
+            Marker displayedMarker = cluster.getDisplayedMarker();
+            if (displayedMarker != null) {
+                displayedMarkers.add(displayedMarker);
+            }
+        }
+        return displayedMarkers;
+    }
+
+    @Override
+    public float getMinZoomLevelNotClustered(Marker marker) {
+        if (!markers.containsKey(marker)) {
+            throw new UnsupportedOperationException("marker is not visible or is a cluster");
+        }
+        int clusterGroup = marker.getClusterGroup();
+        if (clusterGroup == ClusterGroup.NOT_CLUSTERED) {
+            return 0.0f;
+        }
+        LatLng position = marker.getPosition();
+        double x = SphericalMercator.scaleLongitude(position.longitude);
+        double y = SphericalMercator.scaleLatitude(position.latitude);
+        // The zoom level only grows, each marker is compared from the highest level found so far
+        int minZoom = 0;
+        for (DelegatingMarker other : markers.keySet()) {
+            if (other == marker || other.getClusterGroup() != clusterGroup) {
+                continue;
+            }
+            LatLng otherPosition = other.getPosition();
+            double otherX = SphericalMercator.scaleLongitude(otherPosition.longitude);
+            double otherY = SphericalMercator.scaleLatitude(otherPosition.latitude);
+            while (minZoom <= MAX_ZOOM_LEVEL_NOT_CLUSTERED && isInSameCell(x, y, otherX, otherY, calculateClusterSize(minZoom))) {
+                minZoom++;
+            }
+            if (minZoom > MAX_ZOOM_LEVEL_NOT_CLUSTERED) {
+                // Clustered with another marker at every zoom level, see GoogleMap.getMinZoomLevelNotClustered()
+                return Float.POSITIVE_INFINITY;
+            }
+        }
+        return minZoom;
+    }
+
+    @Override
+    public void refreshAll() {
+        refresher.refreshAll();
+    }
+
+    @Override
+    public void declusterify(Marker marker) {
+    }
+
+    @Override
+    public void clusterify(boolean animate) {
+    }
+
+    com.google.android.gms.maps.model.Marker createClusterMarker(List<Marker> markers, LatLng position) {
+        return ClusterMarker.addVirtual(map, clusterOptionsProvider, markers, position);
+    }
+
+    private void addMarker(DelegatingMarker marker) {
+        GridClusterMarker cluster = findOrCreateCluster(marker);
+        cluster.add(marker);
+        markers.put(marker, cluster);
+        refresh(cluster);
+    }
+
+    private void removeMarker(DelegatingMarker marker) {
+        GridClusterMarker cluster = markers.remove(marker);
+        if (cluster == null) {
+            return;
+        }
+        cluster.remove(marker);
+        if (cluster.getMarkerCount() == 0) {
+            clusters.remove(cluster.getKey());
+        }
+        refresh(cluster);
+    }
+
+    private GridClusterMarker findOrCreateCluster(DelegatingMarker marker) {
+        LatLng position = marker.getPosition();
+        int x = cellX(position.longitude);
+        int y = cellY(position.latitude);
+        int clusterGroup = marker.getClusterGroup();
+        Object key = clusterGroup == ClusterGroup.NOT_CLUSTERED ? marker : new CellKey(clusterGroup, x, y);
+        GridClusterMarker cluster = clusters.get(key);
+        if (cluster == null) {
+            cluster = new GridClusterMarker(this, key, x, y);
+            clusters.put(key, cluster);
+        }
+        return cluster;
+    }
+
+    // All markers into the cells of the new zoom level
+    private void recalculate() {
+        Map<Object, GridClusterMarker> oldClusters = clusters;
+        clusters = new HashMap<Object, GridClusterMarker>();
+        for (Map.Entry<DelegatingMarker, GridClusterMarker> entry : markers.entrySet()) {
+            GridClusterMarker cluster = findOrCreateCluster(entry.getKey());
+            cluster.add(entry.getKey());
+            entry.setValue(cluster);
+        }
+        // Pending refreshes are for the old clusters
+        refresher.cleanup();
+        for (GridClusterMarker cluster : oldClusters.values()) {
+            cluster.removeVirtual();
+        }
+        for (GridClusterMarker cluster : clusters.values()) {
+            refresh(cluster);
+        }
+    }
+
+    private void refresh(GridClusterMarker cluster) {
+        // An emptied cluster may still have its virtual marker drawn
+        if (!addMarkersDynamically || cluster.getMarkerCount() == 0 || isInCells(visibleCells, cluster)) {
+            refresher.refresh(cluster);
+        }
+    }
+
+    private void calculateVisibleCells() {
+        LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+        visibleCells = new int[]{
+                cellX(bounds.southwest.longitude), cellX(bounds.northeast.longitude),
+                cellY(bounds.southwest.latitude), cellY(bounds.northeast.latitude)};
+    }
+
+    private static boolean isInCells(int[] cells, GridClusterMarker cluster) {
+        int x = cluster.getX();
+        int y = cluster.getY();
+        boolean inX;
+        if (cells[0] <= cells[1]) {
+            inX = cells[0] <= x && x <= cells[1];
+        } else {
+            inX = cells[0] <= x || x <= cells[1];
+        }
+        return inX && cells[2] <= y && y <= cells[3];
+    }
+
+    private static boolean isInSameCell(double x, double y, double otherX, double otherY, double clusterSize) {
+        return (int) (x / clusterSize) == (int) (otherX / clusterSize) && (int) (y / clusterSize) == (int) (otherY / clusterSize);
+    }
+
+    private double calculateClusterSize(int zoom) {
+        return baseClusterSize / (1 << zoom);
+    }
+
+    private int cellX(double longitude) {
+        return (int) (SphericalMercator.scaleLongitude(longitude) / clusterSize);
+    }
+
+    private int cellY(double latitude) {
+        return (int) (SphericalMercator.scaleLatitude(latitude) / clusterSize);
+    }
+}
@@ -1,32 +1,42 @@
 package com.androidmapsextensions.impl;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.animation.AccelerateInterpolator;
 import android.view.animation.DecelerateInterpolator;
 
 import com.androidmapsextensions.AnimationSettings;
 import com.androidmapsextensions.ClusterGroup;
-import com.androidmapsextensions.ClusterOptions;
 import com.androidmapsextensions.ClusterOptionsProvider;
 import com.androidmapsextensions.ClusteringSettings;
 import com.androidmapsextensions.Marker;
 import com.androidmapsextensions.Marker.AnimationCallback;
+import com.androidmapsextensions.dendrogram.ClusterGroupBuilder;
 import com.androidmapsextensions.dendrogram.Dendrogram;
 import com.androidmapsextensions.dendrogram.DendrogramBuilder;
+import com.androidmapsextensions.dendrogram.DendrogramEditor;
+import com.androidmapsextensions.dendrogram.DendrogramFile;
 import com.androidmapsextensions.dendrogram.DendrogramNode;
 import com.androidmapsextensions.dendrogram.DissimilarityMeasure;
-import com.androidmapsextensions.dendrogram.Experiment;
+import com.androidmapsextensions.dendrogram.EquirectangularDissimilarityMeasure;
 import com.androidmapsextensions.dendrogram.HierarchicalAgglomerativeClusterer;
+import com.androidmapsextensions.dendrogram.LazyNode;
 import com.androidmapsextensions.dendrogram.MergeNode;
 import com.androidmapsextensions.dendrogram.ObservationNode;
-import com.androidmapsextensions.kdtree.KDTree;
+import com.androidmapsextensions.dendrogram.ObservationStore;
+import com.androidmapsextensions.dendrogram.RenderedNodeIndex;
+import com.androidmapsextensions.dendrogram.RenderedZoomLevels;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
-import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.VisibleRegion;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -35,14 +45,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 class HierarchicalClusteringStrategy implements ClusteringStrategy {
 
-    private static boolean GOOGLE_PLAY_SERVICES_4_0 = true;
-    
-    private final MarkerOptions markerOptions = new MarkerOptions();
-    
     private DelegatingGoogleMap factory;
     private Map<DelegatingMarker, ClusterMarker> markers;
     private float oldZoom, zoom;
@@ -50,10 +63,20 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     private ClusterRefresher refresher;
     private ClusterOptionsProvider clusterOptionsProvider;
     
+    // Observations are stable handles into fullMarkerList. Removed markers leave a null slot,
+    // which is reused by the next added marker, so indices of other markers never shift.
     private List<DelegatingMarker> fullMarkerList;
+    private List<ObservationNode> leafForObservation = new ArrayList<ObservationNode>();
+    private List<LazyNode> lazyNodeForObservation = new ArrayList<LazyNode>(); // Observations not clustered yet, see refineLazyNode() and refineLater()
+    private ObservationStore observations = new ObservationStore( 16 ); // Position and cluster group by observation
+    private Queue<Integer> freeObservations = new LinkedList<Integer>();
+    private Map<DelegatingMarker, Integer> observationForMarker = new HashMap<DelegatingMarker, Integer>();
     private Set<Integer> clusterGroupList = new HashSet<Integer>(); // List of all cluster groups existing on map
+    private Set<Integer> dirtyClusterGroups = new HashSet<Integer>(); // Cluster groups rebuilt by the next reComputeDendrograms
     private Map<Integer,Dendrogram> dendrogramForClusterGroup = new HashMap<Integer,Dendrogram>();
-    private Map<Integer,KDTree<DendrogramNode>> treeForClusterGroup = new HashMap<Integer,KDTree<DendrogramNode>>();
+    private Map<Integer,RenderedNodeIndex> indexForClusterGroup = new HashMap<Integer,RenderedNodeIndex>();
+    // Cluster currently drawn for a node, kept here so the dendrogram package does not depend on rendering
+    private Map<DendrogramNode, ClusterMarker> clusterMarkerForNode = new HashMap<DendrogramNode, ClusterMarker>();
     
     // This is used for quickly determining which markers have been drawn, so in onCameraChange we can
     // quickly remove unneeded ones.
@@ -61,108 +84,375 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     // These nodes will be displayed once animation completes.
     public Set<DendrogramNode> pendingRenderNodes = new HashSet<DendrogramNode>();
      
-    private void reComputeDendrograms() {
-    	Log.v("e","reComputingDendrogram with " + fullMarkerList.size() + " observations");
-    	// TODO - clusterGroup is ignored in this implementation
-    	cleanup();
-    	
-    	// First, Compute the Dendrogram. Recompute it every time a marker is added or removed (or it's visibility changed).
-    	Experiment experiment = new Experiment() {
-			@Override
-			public int getNumberOfObservations() {
-				return fullMarkerList.size();
-			}
-			@Override
-		    public double[] getPosition( int observation ) {
-		    	DelegatingMarker dm = fullMarkerList.get( observation );
-		    	LatLng ll = dm.getPosition();
-		    	return new double[]{ ll.latitude, ll.longitude };
-			}
+    private final DissimilarityMeasure dissimilarityMeasure = EquirectangularDissimilarityMeasure.INSTANCE;
+    private final boolean singleLinkage; // Full builds use the SingleLinkageClusterer, incremental changes are spliced in the same way for both
+    private final double approximation; // Of the agglomerative clusterer's nearest neighbors, see ClusteringSettings.approximation()
+    private final double collapseGrid; // See ClusteringSettings.collapseGrid()
+    private final File dendrogramCacheFile; // Dendrograms of the last full build, reused while the observations are unchanged
+    private final float refinementZoom; // See ClusteringSettings.lazyRefinementZoom(), 0 when complete dendrograms are built
+     
+    // Dendrograms are built on a background thread, while the previous ones are still rendered.
+    // Markers added or removed in the meantime are applied to the rendered dendrograms and replayed on the new ones once they are swapped in.
+    private static final int REMOVED_OBSERVATION = Integer.MIN_VALUE;
+    private static ExecutorService dendrogramExecutor;
+    private static ExecutorService clusterGroupExecutor; // Cluster groups are independent and built in parallel
+    private static final int CLUSTER_GROUP_THREADS = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), 4 ) );
+    // Larger cluster groups are split into spatial partitions which are clustered in parallel.
+    // Partitions merge only pairs closer than PARTITION_MAX_DISSIMILARITY (first rendered at zoom 13) on their own.
+    // Clusters near partition borders, and the larger clusters containing them, may differ from those of a sequential build.
+    private static final int PARALLEL_CLUSTERING_MIN_OBSERVATIONS = 20000;
+    private static final double PARTITION_MAX_DISSIMILARITY = 2500.0 / Math.pow( 2, 13 );
+    private final Executor buildExecutor; // Builds and refinements, the build thread unless given to the constructor
+    private final Executor mainExecutor; // Swaps their results in, posts to the UI thread unless given to the constructor
+    private volatile int buildGeneration;
+    private boolean buildPending;
+    private List<PendingOperation> pendingOperations = new ArrayList<PendingOperation>();
+    private List<Integer> releasedObservations = new ArrayList<Integer>(); // Not reused until the pending build is swapped in
+    // Lazy nodes being clustered on the build thread, see refineLater()
+    private Set<LazyNode> refiningNodes = new HashSet<LazyNode>();
+    private int refinementGeneration; // Changed by cleanup(), refinements requested before are dropped
+    
+    // Sub-dendrogram of a lazy node built on the build thread
+    private static final class Refinement {
+    	final int clusterGroup;
+    	final LazyNode node;
+    	ObservationStore observations; // Copied positions of the node's observations only
+    	DendrogramNode root;
+    	Refinement( int clusterGroup, LazyNode node ) {
+    		this.clusterGroup = clusterGroup;
+    		this.node = node;
+    	}
+    }
+    
+    private static final class PendingOperation {
+    	final boolean add;
+    	final int observation;
+    	final int clusterGroup;
+    	PendingOperation( boolean add, int observation, int clusterGroup ) {
+    		this.add = add;
+    		this.observation = observation;
+    		this.clusterGroup = clusterGroup;
+    	}
+    }
+    
+    // Immutable result of a background build, owned by the UI thread once posted
+    // Only the rebuilt cluster groups are in it, the others keep their current dendrograms.
+    private static final class Snapshot {
+    	final Set<Integer> clusterGroups;
+    	final Map<Integer,Dendrogram> dendrogramForClusterGroup = new HashMap<Integer,Dendrogram>();
+    	final Map<Integer,RenderedNodeIndex> indexForClusterGroup = new HashMap<Integer,RenderedNodeIndex>();
+    	ObservationNode[] leafForObservation;
+    	LazyNode[] lazyNodeForObservation;
+    	Snapshot( Set<Integer> clusterGroups ) {
+    		this.clusterGroups = clusterGroups;
+    	}
+    }
+    
+    private static synchronized ExecutorService getDendrogramExecutor() {
+    	if ( dendrogramExecutor == null ) {
+    		dendrogramExecutor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+				@Override
+				public Thread newThread( Runnable runnable ) {
+					Thread thread = new Thread( runnable, "HierarchicalClustering" );
+					thread.setDaemon( true );
+					thread.setPriority( Thread.MIN_PRIORITY );
+					return thread;
+				}
+			} );
+    	}
+    	return dendrogramExecutor;
+    }
+    
+    private static Executor getMainThreadExecutor() {
+    	final Handler handler = new Handler( Looper.getMainLooper() );
+    	return new Executor() {
 			@Override
-			public int getClusterGroup( int observation ) {
-				DelegatingMarker dm = fullMarkerList.get( observation );
-				return dm.getClusterGroup();
+			public void execute( Runnable runnable ) {
+				handler.post( runnable );
 			}
 		};
-		DissimilarityMeasure dissimilarityMeasure = new DissimilarityMeasure() {
-			private static final double EARTH_RADIUS_MILES = 3958.76;
-			// Approximation for small distances, but good enough for government work
-			@Override
-		    public double computeDissimilarity( Experiment experiment, int observation1, int observation2 ) {
-				/*
-				int clusterGroup1 = experiment.getClusterGroup( observation1 );
-				int clusterGroup2 = experiment.getClusterGroup( observation2 );
-				
-				if ( clusterGroup1 == ClusterGroup.NOT_CLUSTERED  ||  clusterGroup2 == ClusterGroup.NOT_CLUSTERED ) {
-					return Double.MAX_VALUE;
+    }
+    
+    private static synchronized ExecutorService getClusterGroupExecutor() {
+    	if ( clusterGroupExecutor == null ) {
+    		clusterGroupExecutor = Executors.newFixedThreadPool( CLUSTER_GROUP_THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread( Runnable runnable ) {
+					Thread thread = new Thread( runnable, "HierarchicalClusteringGroup" );
+					thread.setDaemon( true );
+					thread.setPriority( Thread.MIN_PRIORITY );
+					return thread;
 				}
-				*/
-				double [] pos1 = experiment.getPosition( observation1 );
-				double [] pos2 = experiment.getPosition( observation2 );
-				
-				return computeDissimilarity( experiment, pos1, pos2 );
-			}
-			@Override
-			public double computeDissimilarity( Experiment experiment, int observation1, double[] pos2 ) {
-				//int clusterGroup1 = experiment.getClusterGroup( observation1 );
-				//if ( clusterGroup1 == ClusterGroup.NOT_CLUSTERED ) {
-				//	return Double.MAX_VALUE;
-				//}
-				return computeDissimilarity( experiment, experiment.getPosition( observation1 ), pos2 );
-			}
+			} );
+    	}
+    	return clusterGroupExecutor;
+    }
+    
+    private void reComputeDendrograms() {
+    	Log.v("e","reComputingDendrogram with " + observationForMarker.size() + " observations");
+    	
+    	// A build which is still running becomes stale, everything it would have added is captured again here
+    	final int generation = ++buildGeneration;
+    	buildPending = true;
+    	pendingOperations.clear();
+    	freeObservations.addAll( releasedObservations );
+    	releasedObservations.clear();
+    	
+    	// The store is only modified on the UI thread, the build gets its own copy.
+    	// Groups stay dirty until the build is swapped in, so a restarted build rebuilds them too.
+    	final ObservationStore observations = this.observations.copy();
+    	final Set<Integer> groups = new HashSet<Integer>( dirtyClusterGroups );
+    	final boolean allGroups = groups.containsAll( clusterGroupList );
+    	
+    	buildExecutor.execute( new Runnable() {
 			@Override
-			public double computeDissimilarity( Experiment experiment, double[] pos1, double[] pos2 ) {				
-				double avgLat = Math.toRadians( (pos1[0] + pos2[0])/2 );
-				
-				double dx = Math.toRadians( pos2[1] - pos1[1] ) * Math.cos( avgLat );
-				double dy = Math.toRadians( pos2[0] - pos1[0] );
-				
-				double d = EARTH_RADIUS_MILES * Math.sqrt( dx*dx + dy*dy ); 
-				
-				return d;
+			public void run() {
+				final Snapshot snapshot = buildSnapshot( generation, observations, groups, allGroups );
+				if ( snapshot == null ) {
+					return;
+				}
+				mainExecutor.execute( new Runnable() {
+					@Override
+					public void run() {
+						swapSnapshot( generation, snapshot );
+					}
+				} );
 			}
-		};
+		} );
+    }
+    
+    // Runs on the background thread, must not touch markers or rendering state
+    private Snapshot buildSnapshot( final int generation, final ObservationStore experiment, Set<Integer> clusterGroups, boolean allGroups ) {
+		final Snapshot snapshot = new Snapshot( clusterGroups );
+		snapshot.leafForObservation = new ObservationNode[ experiment.getNumberOfObservations() ];
+		snapshot.lazyNodeForObservation = new LazyNode[ experiment.getNumberOfObservations() ];
 		
-		// Create dendrograms for all cluster groups
-		for ( Integer clusterGroup : clusterGroupList ) {
-			DendrogramBuilder dendrogramBuilder = new DendrogramBuilder( experiment );
-			HierarchicalAgglomerativeClusterer clusterer = new HierarchicalAgglomerativeClusterer( experiment, dissimilarityMeasure );
-			clusterer.cluster( dendrogramBuilder, clusterGroup );			
-			dendrogramForClusterGroup.put( clusterGroup, dendrogramBuilder.getDendrogram() );
+		long contentHash = 0;
+		Map<Integer, Dendrogram> cached = null;
+		if ( dendrogramCacheFile != null ) {
+			contentHash = DendrogramFile.contentHash( experiment, singleLinkage, approximation, collapseGrid );
+			cached = readDendrogramCache( contentHash, experiment.getNumberOfObservations() );
 		}
 		
-		// Create helper trees for all dendrograms, used for quickly adding and removing markers from visible area
-		for ( Integer clusterGroup : clusterGroupList ) {
-			// Add all nodes in the dendrogram to the tree
-			treeForClusterGroup.put( clusterGroup, new KDTree<DendrogramNode>(2) );
-			addToTree( treeForClusterGroup.get( clusterGroup ), dendrogramForClusterGroup.get( clusterGroup ).getRoot() );
+		// One pass over the observations instead of one per cluster group
+		Map<Integer, int[]> observationsForClusterGroup = experiment.partitionByClusterGroup( clusterGroups );
+		
+		boolean clustered = false;
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for ( final Map.Entry<Integer, int[]> entry : observationsForClusterGroup.entrySet() ) {
+			if ( cached != null  &&  cached.containsKey( entry.getKey() ) ) {
+				// Render zooms were stored too
+				addToSnapshot( entry.getKey(), cached.get( entry.getKey() ), snapshot, true );
+				continue;
+			}
+			clustered = true;
+			if ( ! singleLinkage  &&  CLUSTER_GROUP_THREADS > 1  &&  entry.getValue().length >= PARALLEL_CLUSTERING_MIN_OBSERVATIONS ) {
+				// One at a time on this thread, its partitions use all cluster group threads
+				if ( generation != buildGeneration ) {
+					return null;
+				}
+				buildClusterGroup( entry.getKey(), entry.getValue(), experiment, snapshot, true );
+				continue;
+			}
+			tasks.add( new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					if ( generation != buildGeneration ) {
+						// Stale, a newer build has been started
+						return false;
+					}
+					buildClusterGroup( entry.getKey(), entry.getValue(), experiment, snapshot, false );
+					return true;
+				}
+			} );
 		}
 		
-		// Compute the min and max zoom levels at which clusters and markers will be rendered		
-		for ( Integer clusterGroup : clusterGroupList ) {			
-			DendrogramNode rootNode = dendrogramForClusterGroup.get( clusterGroup ).getRoot();
-			if ( clusterGroup == ClusterGroup.NOT_CLUSTERED ) {
-				computeMinMaxZoomRenderedForNotClusteredMarkers( rootNode );
-			} 
+		try {
+			if ( tasks.size() <= 1 ) {
+				// Not worth handing over to another thread
+				if ( tasks.size() == 1  &&  ! tasks.get( 0 ).call() ) {
+					return null;
+				}
+			}
 			else {
-				computeMinMaxZoomRendered( rootNode );
+				for ( Future<Boolean> result : getClusterGroupExecutor().invokeAll( tasks ) ) {
+					if ( ! result.get() ) {
+						return null;
+					}
+				}
 			}
 		}
-        
-		cleanup();
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch ( ExecutionException e ) {
+			throw new RuntimeException( e.getCause() );
+		}
+		catch ( Exception e ) {
+			throw new RuntimeException( e );
+		}
+		if ( generation != buildGeneration ) {
+			return null;
+		}
+		if ( dendrogramCacheFile != null  &&  allGroups  &&  clustered ) {
+			writeDendrogramCache( contentHash, snapshot.dendrogramForClusterGroup );
+		}
+		return snapshot;
+    }
+    
+    private Map<Integer, Dendrogram> readDendrogramCache( long contentHash, int observationCount ) {
+    	try {
+    		return DendrogramFile.read( dendrogramCacheFile, contentHash, observationCount );
+    	}
+    	catch ( IOException e ) {
+    		Log.w( "e", "Cannot read dendrogram cache " + dendrogramCacheFile, e );
+    		return null;
+    	}
+    }
+    
+    private void writeDendrogramCache( long contentHash, Map<Integer, Dendrogram> dendrogramForClusterGroup ) {
+    	try {
+    		DendrogramFile.write( dendrogramCacheFile, contentHash, dendrogramForClusterGroup );
+    	}
+    	catch ( IOException e ) {
+    		Log.w( "e", "Cannot write dendrogram cache " + dendrogramCacheFile, e );
+    	}
+    }
+    
+    // Runs on a cluster group thread, groups write to disjoint parts of the snapshot.
+    // Partitioned groups run on the build thread, which must not be one of the cluster group threads.
+    private void buildClusterGroup( int clusterGroup, int[] observations, ObservationStore experiment, Snapshot snapshot, boolean partitioned ) {
+		ClusterGroupBuilder builder = new ClusterGroupBuilder( experiment, dissimilarityMeasure, singleLinkage, approximation, collapseGrid );
+		boolean clustered = clusterGroup != ClusterGroup.NOT_CLUSTERED;
+		Dendrogram dendrogram;
+		if ( clustered  &&  refinementZoom > 0 ) {
+			// Cheap enough without partitions
+			dendrogram = builder.buildCoarse( observations, refinementZoom );
+		}
+		else
+		if ( partitioned ) {
+			dendrogram = builder.buildParallel( observations, clustered, getClusterGroupExecutor(), 2 * CLUSTER_GROUP_THREADS, PARTITION_MAX_DISSIMILARITY );
+		}
+		else {
+			dendrogram = builder.build( observations, clustered );
+		}
+		addToSnapshot( clusterGroup, dendrogram, snapshot, partitioned );
+    }
+    
+    // onBuildThread: the index of a large dendrogram is loaded by the cluster group threads, only the build thread may wait for them
+    private void addToSnapshot( int clusterGroup, Dendrogram dendrogram, Snapshot snapshot, boolean onBuildThread ) {
+		ClusterGroupBuilder.addLeaves( dendrogram, snapshot.leafForObservation );
+		ClusterGroupBuilder.addLazyNodes( dendrogram, snapshot.lazyNodeForObservation );
+		RenderedNodeIndex index = onBuildThread
+				? RenderedNodeIndex.create( dendrogram, getClusterGroupExecutor(), CLUSTER_GROUP_THREADS )
+				: RenderedNodeIndex.create( dendrogram );
 		
+		synchronized ( snapshot ) {
+			snapshot.dendrogramForClusterGroup.put( clusterGroup, dendrogram );
+			snapshot.indexForClusterGroup.put( clusterGroup, index );
+		}
+    }
+    
+    private void swapSnapshot( int generation, Snapshot snapshot ) {
+    	if ( generation != buildGeneration ) {
+    		return;
+    	}
+    	cleanupClusters();
+    	renderedNodes.clear();
+    	pendingRenderNodes.clear();
+    	
+    	dendrogramForClusterGroup.putAll( snapshot.dendrogramForClusterGroup );
+    	indexForClusterGroup.putAll( snapshot.indexForClusterGroup );
+    	List<ObservationNode> currentLeaves = leafForObservation;
+    	leafForObservation = new ArrayList<ObservationNode>( Arrays.asList( snapshot.leafForObservation ) );
+    	while ( leafForObservation.size() < fullMarkerList.size() ) {
+    		leafForObservation.add( null );
+    	}
+    	List<LazyNode> currentLazyNodes = lazyNodeForObservation;
+    	lazyNodeForObservation = new ArrayList<LazyNode>( Arrays.asList( snapshot.lazyNodeForObservation ) );
+    	while ( lazyNodeForObservation.size() < fullMarkerList.size() ) {
+    		lazyNodeForObservation.add( null );
+    	}
+    	
+    	buildPending = false;
+    	dirtyClusterGroups.removeAll( snapshot.clusterGroups );
+    	freeObservations.addAll( releasedObservations );
+    	releasedObservations.clear();
+    	
+    	// Catch up with markers added or removed during the build.
+    	// Dendrograms which were not rebuilt already contain these changes.
+    	for ( PendingOperation operation : pendingOperations ) {
+    		if ( ! snapshot.clusterGroups.contains( operation.clusterGroup ) ) {
+    			continue;
+    		}
+    		if ( operation.add ) {
+    			insertObservation( operation.observation, operation.clusterGroup );
+    		}
+    		else {
+    			removeObservation( operation.observation, operation.clusterGroup );
+    		}
+    	}
+    	pendingOperations.clear();
+    	for ( int i = 0; i < currentLeaves.size(); ++i ) {
+    		if ( ! snapshot.clusterGroups.contains( observations.getClusterGroup( i ) ) ) {
+    			leafForObservation.set( i, currentLeaves.get( i ) );
+    			lazyNodeForObservation.set( i, currentLazyNodes.get( i ) );
+    		}
+    	}
+    	
 		addClustersNowInVisibleRegion();
         refresher.refreshAll();
         
 		Log.v("e","reComputingDendrogram DONE");
     }
     
-    private void addToTree( KDTree<DendrogramNode> tree, DendrogramNode node ) {
-    	if ( node == null )
-    		return;
-    	tree.add( node.getPosition(), node );
-    	addToTree( tree, node.getLeft() );
-    	addToTree( tree, node.getRight() );
+    private int appendObservation( DelegatingMarker marker ) {
+    	int observation = fullMarkerList.size();
+    	fullMarkerList.add( marker );
+    	leafForObservation.add( null );
+    	lazyNodeForObservation.add( null );
+    	setObservation( observation, marker );
+    	observationForMarker.put( marker, observation );
+    	return observation;
+    }
+    
+    private int allocateObservation( DelegatingMarker marker ) {
+    	Integer observation = freeObservations.poll();
+    	if ( observation == null ) {
+    		return appendObservation( marker );
+    	}
+    	fullMarkerList.set( observation, marker );
+    	setObservation( observation, marker );
+    	observationForMarker.put( marker, observation );
+    	return observation;
+    }
+    
+    private void setObservation( int observation, DelegatingMarker marker ) {
+    	LatLng position = marker.getPosition();
+    	observations.set( observation, position.latitude, position.longitude, marker.getClusterGroup() );
+    }
+    
+    private void releaseObservation( int observation ) {
+    	fullMarkerList.set( observation, null );
+    	observations.setClusterGroup( observation, REMOVED_OBSERVATION );
+    	if ( buildPending ) {
+    		releasedObservations.add( observation );
+    	}
+    	else {
+    		freeObservations.add( observation );
+    	}
+    }
+    
+    private void addLeaves( DendrogramNode node ) {
+    	if ( node instanceof ObservationNode ) {
+    		leafForObservation.set( ((ObservationNode) node).getObservation(), (ObservationNode) node );
+    	}
+    	else
+    	if ( node != null ) {
+    		addLeaves( node.getLeft() );
+    		addLeaves( node.getRight() );
+    	}
     }
     
     void addToCluster( ClusterMarker cm, DendrogramNode node ) {
@@ -179,69 +469,200 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     		cm.add( dm );
 			markers.put( dm, cm );
     	}
+    	else
+    	if ( node instanceof LazyNode ) {
+    		for ( int observation : ((LazyNode) node).getObservations() ) {
+    			DelegatingMarker dm = fullMarkerList.get( observation );
+    			cm.add( dm );
+    			markers.put( dm, cm );
+    		}
+    	}
     }
     
-    // Walk the dendrogram and compute minZoomRendered, maxZoomRendered for each node.
-    private void computeMinMaxZoomRenderedForNotClusteredMarkers( DendrogramNode node ) {
-    	if ( node == null ) {
-    		return;
+    // Refine the lazy node of an observation, if any, so the observation has its own leaf.
+    // Removing or moving a marker needs the leaf right away, this one node is clustered on the UI thread.
+    private void refineLazyNode( int observation, int clusterGroup ) {
+    	LazyNode node = lazyNodeForObservation.get( observation );
+    	if ( node != null ) {
+    		ClusterGroupBuilder builder = new ClusterGroupBuilder( observations, dissimilarityMeasure, false, approximation, collapseGrid );
+    		splice( clusterGroup, node, builder.buildRefinement( node ) );
     	}
-    	else {
-        	if ( node instanceof ObservationNode ) {
-        		// Always show final markers
-        		node.setMinZoomRendered( 0 );
-        		node.setMaxZoomRendered( Float.MAX_VALUE );
-        	}
-        	else
-        	if ( node instanceof MergeNode ) {
-        		// Never show clusters        	
-        		node.setMinZoomRendered( Float.MAX_VALUE );
-        		node.setMaxZoomRendered( Float.MAX_VALUE );
-        	
-        		computeMinMaxZoomRenderedForNotClusteredMarkers( node.getLeft() );
-        		computeMinMaxZoomRenderedForNotClusteredMarkers( node.getRight() );
-        	}
-    	}    	
     }
-    private void computeMinMaxZoomRendered( DendrogramNode node ) {
-    	if ( node == null ) {
+    
+    // Refine lazy nodes rendered at a zoom where their clusters split, they stay drawn until their sub-dendrograms are spliced in
+    private void refineVisibleLazyNodes( int clusterGroup, List<DendrogramNode> visibleNodes ) {
+    	List<Refinement> refinements = null;
+    	for ( DendrogramNode node : visibleNodes ) {
+    		if ( node instanceof LazyNode  &&  zoom >= ((LazyNode) node).getRefinementZoom()  &&  ! refiningNodes.contains( node ) ) {
+    			if ( refinements == null ) {
+    				refinements = new ArrayList<Refinement>();
+    			}
+    			refinements.add( new Refinement( clusterGroup, (LazyNode) node ) );
+    		}
+    	}
+    	if ( refinements != null ) {
+    		refineLater( refinements );
+    	}
+    }
+    
+    // Cluster the observations of lazy nodes on the build thread and splice them in on the UI thread, like a build's snapshot
+    private void refineLater( final List<Refinement> refinements ) {
+    	// The store is only modified on the UI thread, each refinement gets a copy of its node's observations
+    	for ( Refinement refinement : refinements ) {
+    		refiningNodes.add( refinement.node );
+    		refinement.observations = observations.copy( refinement.node.getObservations() );
+    	}
+    	final int generation = refinementGeneration;
+    	buildExecutor.execute( new Runnable() {
+			@Override
+			public void run() {
+				for ( Refinement refinement : refinements ) {
+					ClusterGroupBuilder builder = new ClusterGroupBuilder( refinement.observations, dissimilarityMeasure, false, approximation, collapseGrid );
+					refinement.root = builder.buildRefinementOfCopy( refinement.node );
+					refinement.observations = null;
+				}
+				mainExecutor.execute( new Runnable() {
+					@Override
+					public void run() {
+						spliceRefinements( generation, refinements );
+					}
+				} );
+			}
+		} );
+    }
+    
+    private void spliceRefinements( int generation, List<Refinement> refinements ) {
+    	if ( generation != refinementGeneration ) {
     		return;
     	}
-    	else {
-    		// The minimum zoom this node will be rendered is equal to the zoom when this node merges with it's sibling
-    		MergeNode parent = node.getParent();
-    		if ( parent == null ) {
-    			node.setMinZoomRendered( 0 );
+    	for ( Refinement refinement : refinements ) {
+    		refiningNodes.remove( refinement.node );
+    		// A node refined on the UI thread in the meantime, or replaced by a new build, has no lazy observations left
+    		if ( lazyNodeForObservation.get( refinement.node.getObservations()[ 0 ] ) == refinement.node ) {
+    			splice( refinement.clusterGroup, refinement.node, refinement.root );
     		}
-    		else {
-        		double parentDissimilarity = parent.getDissimilarity();
-        		node.setMinZoomRendered( thresholdToZoom( parentDissimilarity ) );        		
+    	}
+    	addClustersNowInVisibleRegion();
+    	refresher.refreshAll();
+    }
+    
+    // Splice the sub-dendrogram of a lazy node in its place.
+    // If the node was drawn, the sub-dendrogram's clusters visible at the current zoom slide out of it.
+    private void splice( int clusterGroup, LazyNode node, DendrogramNode root ) {
+    	RenderedNodeIndex index = indexForClusterGroup.get( clusterGroup );
+    	index.remove( node );
+    	ClusterMarker cm = getClusterMarker( node );
+    	if ( cm != null ) {
+    		cm.removeVirtual();
+    		setClusterMarker( node, null );
+    	}
+    	renderedNodes.remove( node );
+    	pendingRenderNodes.remove( node );
+    	
+    	ClusterGroupBuilder.splice( dendrogramForClusterGroup.get( clusterGroup ), node, root );
+    	for ( int observation : node.getObservations() ) {
+    		lazyNodeForObservation.set( observation, null );
+    	}
+    	addLeaves( root );
+    	List<DendrogramNode> stack = new ArrayList<DendrogramNode>();
+    	stack.add( root );
+    	while ( ! stack.isEmpty() ) {
+    		DendrogramNode added = stack.remove( stack.size() - 1 );
+    		index.add( added );
+    		if ( added instanceof MergeNode ) {
+    			stack.add( added.getLeft() );
+    			stack.add( added.getRight() );
     		}
-    		
-    		// The maximum zoom this node will be rendered is equal to the zoom which produces a threshold
-    		// equal to this dissimilarity
-        	if ( node instanceof ObservationNode ) {
-        		node.setMaxZoomRendered( Float.MAX_VALUE );
-        	}
-        	else
-            if ( node instanceof MergeNode ) {
-        		double dissimilarity = ((MergeNode) node).getDissimilarity();  
-        		node.setMaxZoomRendered( thresholdToZoom( dissimilarity ) );
-        		
-        		computeMinMaxZoomRendered( node.getLeft() );
-        		computeMinMaxZoomRendered( node.getRight() );
-            }
+    	}
+    	if ( cm != null ) {
+    		slideOutChildren( root, node );
     	}
     }
-
-    // TODO - parameterize with user selected cluster size
-    /*
-    private double zoomToThreshold( float zoom ) {
-    	return 2500.0 / Math.pow( 2, zoom );
+    
+    ClusterMarker getClusterMarker( DendrogramNode node ) {
+    	return clusterMarkerForNode.get( node );
     }
-    */
-    private float thresholdToZoom( double dissimilarity ) {
-    	return (float) (Math.log( 2500.0 / dissimilarity ) / Math.log( 2 )); 
+    
+    void setClusterMarker( DendrogramNode node, ClusterMarker cm ) {
+    	if ( cm == null ) {
+    		clusterMarkerForNode.remove( node );
+    	}
+    	else {
+    		clusterMarkerForNode.put( node, cm );
+    	}
+    }
+    
+    static LatLng positionOf( DendrogramNode node ) {
+    	double[] position = node.getPosition();
+    	return new LatLng( position[0], position[1] );
+    }
+    
+    private Dendrogram getOrCreateDendrogram( int clusterGroup ) {
+    	Dendrogram dendrogram = dendrogramForClusterGroup.get( clusterGroup );
+    	if ( dendrogram == null ) {
+    		dendrogram = new Dendrogram( null );
+    		dendrogramForClusterGroup.put( clusterGroup, dendrogram );
+    		indexForClusterGroup.put( clusterGroup, new RenderedNodeIndex() );
+    		clusterGroupList.add( clusterGroup );
+    	}
+    	return dendrogram;
+    }
+    
+    // Hide the cluster drawn for this node, it will be drawn again by addClustersNowInVisibleRegion if still visible
+    private void hideNode( DendrogramNode node ) {
+    	ClusterMarker cm = getClusterMarker( node );
+    	if ( cm != null ) {
+    		cm.changeVisible( false );
+    		setClusterMarker( node, null );
+    	}
+    	renderedNodes.remove( node );
+    	pendingRenderNodes.remove( node );
+    }
+    
+    // Keeps the node index, the zoom ranges and the rendered clusters of one cluster group
+    // in sync with the changes made by DendrogramEditor.
+    private class DendrogramUpdater implements DendrogramEditor.Listener {
+    	
+    	private final int clusterGroup;
+    	private final RenderedNodeIndex index;
+    	private final Set<DendrogramNode> touchedNodes = new HashSet<DendrogramNode>();
+    	
+    	DendrogramUpdater( int clusterGroup ) {
+    		this.clusterGroup = clusterGroup;
+    		this.index = indexForClusterGroup.get( clusterGroup );
+    	}
+    	
+    	@Override
+    	public void onNodeRemoved( DendrogramNode node ) {
+    		index.remove( node );
+    		hideNode( node );
+    		touchedNodes.remove( node );
+    	}
+    	
+    	@Override
+    	public void onNodeAdded( DendrogramNode node ) {
+    		// Indexed in finish(), once its zoom range is known
+    		touchedNodes.add( node );
+    	}
+    	
+    	// Zoom ranges depend on the node's and the parent's dissimilarity, so the children of modified nodes are updated too
+    	void finish() {
+    		for ( DendrogramNode node : touchedNodes ) {
+    			update( node );
+    			if ( node.getLeft() != null ) {
+    				update( node.getLeft() );
+    				update( node.getRight() );
+    			}
+    		}
+    		touchedNodes.clear();
+    	}
+    	
+    	private void update( DendrogramNode node ) {
+    		index.remove( node );
+    		RenderedZoomLevels.update( node, clusterGroup != ClusterGroup.NOT_CLUSTERED );
+    		index.add( node );
+    		hideNode( node );
+    	}
     }
     
     private void slideOutChildren( DendrogramNode node, DendrogramNode parentNode ) {
@@ -252,9 +673,9 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     	// If yes, it will have no more visible children, by definition.
     	if ( node.getMinZoomRendered() <= zoom  &&  zoom < node.getMaxZoomRendered() ) {
     		// Yes, slide it
-    		ClusterMarker cm = node.getClusterMarker();
+    		ClusterMarker cm = getClusterMarker( node );
     		if ( cm != null ) {
-        		cm.splitClusterPosition = parentNode.getLatLng();
+        		cm.splitClusterPosition = positionOf( parentNode );
         		cm.mergeNode = null;
         		renderedNodes.add( node );				
         		refresh(cm);				
@@ -262,8 +683,8 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     		else {
     			cm = new ClusterMarker( factory, this, node );    		
     			addToCluster(cm, node);	    				    				
-    			node.setClusterMarker( cm );    			
-    			cm.splitClusterPosition = parentNode.getLatLng();
+    			setClusterMarker( node, cm );    			
+    			cm.splitClusterPosition = positionOf( parentNode );
     			cm.mergeNode = null;
     			renderedNodes.add( node );				
     			refresh(cm);
@@ -275,7 +696,7 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     	slideOutChildren( node.getRight(), parentNode );
     }
     private void slideInToMerge( DendrogramNode node, MergeNode targetNode ) {
-    	ClusterMarker cm = node.getClusterMarker();
+    	ClusterMarker cm = getClusterMarker( node );
     	if ( cm != null ) {
     		cm.mergeNode = targetNode;
     		cm.splitClusterPosition = null;
@@ -299,7 +720,7 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     		if ( node.getMinZoomRendered() <= zoom  &&  zoom < node.getMaxZoomRendered() ) {
     			// Yes. Typically no-op.
     			// But if it's already animating, cancel the animation, and animate back to it's correct state.
-    			ClusterMarker cm = node.getClusterMarker();
+    			ClusterMarker cm = getClusterMarker( node );
     			if ( cm != null ) {
     				cm.animateToPlace();
     			}
@@ -307,10 +728,10 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     		else
     		if ( zoom >= node.getMaxZoomRendered() ) {
     			// No. This node needs to be nuked immediately and split up.
-    			ClusterMarker cm = node.getClusterMarker();
+    			ClusterMarker cm = getClusterMarker( node );
     			if ( cm != null ) {
     				cm.removeVirtual(); 			
-    				node.setClusterMarker( null );
+    				setClusterMarker( node, null );
     			}
     			renderedNodes.remove( node );
     			
@@ -332,8 +753,29 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     }
     
     public HierarchicalClusteringStrategy( ClusteringSettings settings, DelegatingGoogleMap factory, List<DelegatingMarker> fullMarkerList, ClusterRefresher refresher ) {
-    	this.fullMarkerList = fullMarkerList;
+    	this( settings, factory, fullMarkerList, refresher, getDendrogramExecutor(), getMainThreadExecutor() );
+    }
+    
+    // Off-device, e.g. in tests and benchmarks, builds may run and be swapped in synchronously or when the caller decides
+    HierarchicalClusteringStrategy( ClusteringSettings settings, DelegatingGoogleMap factory, List<DelegatingMarker> fullMarkerList, ClusterRefresher refresher,
+    		Executor buildExecutor, Executor mainExecutor ) {
+    	this.buildExecutor = buildExecutor;
+    	this.mainExecutor = mainExecutor;
+    	this.fullMarkerList = new ArrayList<DelegatingMarker>( fullMarkerList.size() );
+    	for ( DelegatingMarker dm : fullMarkerList ) {
+    		if ( dm.isVisible() ) {
+    			appendObservation( dm );
+    			clusterGroupList.add( dm.getClusterGroup() );
+    			dirtyClusterGroups.add( dm.getClusterGroup() );
+    		}
+    	}
         this.clusterOptionsProvider = settings.getClusterOptionsProvider();
+        this.singleLinkage = settings.isSingleLinkage();
+        this.approximation = settings.getApproximation();
+        this.collapseGrid = settings.getCollapseGrid();
+        this.dendrogramCacheFile = settings.getDendrogramCacheFile();
+        // Coarse dendrograms are neither single linkage nor stored
+        this.refinementZoom = singleLinkage  ||  dendrogramCacheFile != null ? 0 : settings.getLazyRefinementZoom();
         this.factory = factory;
         this.markers = new HashMap<DelegatingMarker, ClusterMarker>();
         this.refresher = refresher;
@@ -346,22 +788,35 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     	if ( node == null ) {
     		return;
     	}
-    	ClusterMarker cm = node.getClusterMarker();
+    	ClusterMarker cm = getClusterMarker( node );
     	if ( cm != null ) {
     		cm.removeVirtual();
     	}
-    	node.setClusterMarker( null );
+    	setClusterMarker( node, null );
     	cleanAllClusters( node.getLeft() );
     	cleanAllClusters( node.getRight() );
     }
     @Override
     public void cleanup() {
+    	// Drop the result of a running build and of running refinements
+    	++buildGeneration;
+    	++refinementGeneration;
+    	refiningNodes.clear();
+    	buildPending = false;
+    	pendingOperations.clear();
+    	freeObservations.addAll( releasedObservations );
+    	releasedObservations.clear();
+    	
+    	cleanupClusters();
+    }
+    private void cleanupClusters() {
     	for ( Integer clusterGroup : clusterGroupList ) {
     		Dendrogram dendrogram = dendrogramForClusterGroup.get( clusterGroup );    	
     		if ( dendrogram != null ) {
     			cleanAllClusters( dendrogram.getRoot() );
     		}
     	}
+    	clusterMarkerForNode.clear();
     	if ( markers != null ) {
     		markers.clear();	
     	}
@@ -372,12 +827,18 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     public void resetAll() {
     	cleanup();
     	fullMarkerList.clear();
+    	observations.clear();
+    	leafForObservation.clear();
+    	lazyNodeForObservation.clear();
+    	freeObservations.clear();
+    	observationForMarker.clear();
     	clusterGroupList.clear();
+    	dirtyClusterGroups.clear();
     	mDeclusterifiedClusters.clear();
     	renderedNodes.clear();
     	pendingRenderNodes.clear();
     	dendrogramForClusterGroup.clear();
-    	treeForClusterGroup.clear();
+    	indexForClusterGroup.clear();
     }
     @Override
     public void onCameraChange( CameraPosition cameraPosition ) {
@@ -414,25 +875,17 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
         if ( ! marker.isVisible() ) {
             return;
         }
-        ClusterMarker oldCluster = markers.get( marker );
-        if ( oldCluster != null ) {
-            oldCluster.remove( marker );
-            refresh(oldCluster);
+        Integer observation = observationForMarker.get( marker );
+        if ( observation == null ) {
+        	return;
         }
+        // Move the marker from the dendrogram of its old cluster group to the new one
+        removeObservation( observation, observations.getClusterGroup( observation ) );
+        observations.setClusterGroup( observation, marker.getClusterGroup() );
+        insertObservation( observation, marker.getClusterGroup() );
         
-        int clusterGroup = marker.getClusterGroup();
-        if ( clusterGroup < 0 ) {
-            markers.put(marker, null);
-            if ( factory.real.getCameraPosition().zoom >= marker.getMinZoomLevelVisible() ) {
-            	marker.changeVisible(true);
-            }
-            else {
-            	marker.changeVisible(false);
-            }
-        } else {
-        	marker.changeVisible(false);
-        	reComputeDendrograms();
-        }
+        addClustersNowInVisibleRegion();
+        refresher.refreshAll();
     }
     
     @Override
@@ -445,13 +898,43 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     
     @Override
     public void onBulkAdd( List<DelegatingMarker> marker ) {
+    	int from = fullMarkerList.size();
     	for ( DelegatingMarker m : marker ) {
     		if ( m.isVisible() ) {    	
-    			fullMarkerList.add( m );
+    			appendObservation( m );
     			clusterGroupList.add( m.getClusterGroup() );
     		}
     	}
-        reComputeDendrograms();
+    	int to = fullMarkerList.size();
+    	if ( buildPending  ||  to - from > observationForMarker.size() - ( to - from ) ) {
+    		// Mostly new markers, clustering everything at once is cheaper than merging.
+    		// A running build is restarted to include the new markers, only groups which got new markers are rebuilt.
+    		for ( int i = from; i < to; ++i ) {
+    			dirtyClusterGroups.add( observations.getClusterGroup( i ) );
+    		}
+    		reComputeDendrograms();
+    		return;
+    	}
+    	
+    	// Cluster only the new markers and merge the resulting sub-dendrograms into the existing ones
+    	for ( Integer clusterGroup : new ArrayList<Integer>( clusterGroupList ) ) {
+    		DendrogramBuilder dendrogramBuilder = new DendrogramBuilder( observations );
+    		HierarchicalAgglomerativeClusterer clusterer = new HierarchicalAgglomerativeClusterer( observations, dissimilarityMeasure, approximation );
+    		clusterer.setCollapseGrid( collapseGrid );
+    		clusterer.cluster( dendrogramBuilder, clusterGroup, from, to );
+    		Dendrogram added = dendrogramBuilder.getDendrogram();
+    		if ( added.getRoot() == null ) {
+    			continue;
+    		}
+    		addLeaves( added.getRoot() );
+    		Dendrogram dendrogram = getOrCreateDendrogram( clusterGroup );
+    		DendrogramUpdater updater = new DendrogramUpdater( clusterGroup );
+    		new DendrogramEditor( observations, dissimilarityMeasure, updater ).merge( dendrogram, added );
+    		updater.finish();
+    	}
+    	
+    	addClustersNowInVisibleRegion();
+        refresher.refreshAll();
     }
     /*
     @Override
@@ -463,10 +946,29 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     }
     */
     private void addMarker( DelegatingMarker marker ) {
-    	fullMarkerList.add( marker );
-    	clusterGroupList.add( marker.getClusterGroup() );
-    	// Recalculate everything
-    	reComputeDendrograms();
+    	int observation = allocateObservation( marker );
+    	insertObservation( observation, observations.getClusterGroup( observation ) );
+    	
+    	addClustersNowInVisibleRegion();
+        refresher.refreshAll();
+    }
+    
+    // Splice the observation into the existing dendrogram instead of recalculating everything
+    private void insertObservation( int observation, int clusterGroup ) {
+    	DelegatingMarker marker = fullMarkerList.get( observation );
+    	if ( marker == null ) {
+    		// Replayed after the marker was removed again
+    		return;
+    	}
+    	if ( buildPending ) {
+    		pendingOperations.add( new PendingOperation( true, observation, clusterGroup ) );
+    	}
+    	Dendrogram dendrogram = getOrCreateDendrogram( clusterGroup );
+    	ObservationNode node = new ObservationNode( observation, observations.getPosition( observation ) );
+    	leafForObservation.set( observation, node );
+    	DendrogramUpdater updater = new DendrogramUpdater( clusterGroup );
+    	new DendrogramEditor( observations, dissimilarityMeasure, updater ).insert( dendrogram, node );
+    	updater.finish();
     }
     
     @Override
@@ -478,9 +980,32 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     }
 
     private void removeMarker( DelegatingMarker marker ) {
-    	fullMarkerList.remove( marker );
-    	// Recalculate everything
-    	reComputeDendrograms();
+    	Integer observation = observationForMarker.remove( marker );
+    	if ( observation == null ) {
+    		return;
+    	}
+    	// The marker's cluster group may already be changed, use the one it was clustered with
+    	removeObservation( observation, observations.getClusterGroup( observation ) );
+    	releaseObservation( observation );
+    	
+    	addClustersNowInVisibleRegion();
+        refresher.refreshAll();
+    }
+    
+    // Detach the leaf and collapse its parent, only the ancestors are updated
+    private void removeObservation( int observation, int clusterGroup ) {
+    	if ( buildPending ) {
+    		pendingOperations.add( new PendingOperation( false, observation, clusterGroup ) );
+    	}
+    	refineLazyNode( observation, clusterGroup );
+    	ObservationNode node = leafForObservation.get( observation );
+    	if ( node == null ) {
+    		return;
+    	}
+    	leafForObservation.set( observation, null );
+    	DendrogramUpdater updater = new DendrogramUpdater( clusterGroup );
+    	new DendrogramEditor( observations, dissimilarityMeasure, updater ).remove( dendrogramForClusterGroup.get( clusterGroup ), node );
+    	updater.finish();
     }
     
     @Override
@@ -488,13 +1013,22 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
         if ( ! marker.isVisible() ) {
             return;
         }
-    	// Recalculate everything
-    	reComputeDendrograms();
+        Integer observation = observationForMarker.get( marker );
+        if ( observation == null ) {
+        	return;
+        }
+        int clusterGroup = observations.getClusterGroup( observation );
+        removeObservation( observation, clusterGroup );
+        setObservation( observation, marker );
+        insertObservation( observation, clusterGroup );
+        
+        addClustersNowInVisibleRegion();
+        refresher.refreshAll();
     }
     
     private ClusterMarker findOriginal( DendrogramNode node, com.google.android.gms.maps.model.Marker original, ClusterMarker ret ) {
-    	if ( node != null  &&  node.getClusterMarker() != null  &&  original.equals( node.getClusterMarker().getVirtual() ) ) {
-    		ret = node.getClusterMarker();
+    	if ( node != null  &&  getClusterMarker( node ) != null  &&  original.equals( getClusterMarker( node ).getVirtual() ) ) {
+    		ret = getClusterMarker( node );
     		return ret;
     	}
     	if ( node instanceof MergeNode ) {
@@ -511,9 +1045,11 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     public Marker map( com.google.android.gms.maps.model.Marker original ) {
     	for ( Integer clusterGroup : clusterGroupList ) {
     		Dendrogram dendrogram = dendrogramForClusterGroup.get( clusterGroup );    	
-    		ClusterMarker ret = findOriginal( dendrogram.getRoot(), original, null );
-    		if ( ret != null ) {
-    			return ret;
+    		if ( dendrogram != null ) {
+    			ClusterMarker ret = findOriginal( dendrogram.getRoot(), original, null );
+    			if ( ret != null ) {
+    				return ret;
+    			}
     		}
     	}
     	return null;
@@ -521,7 +1057,7 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     
     private void getDisplayedMarkers( DendrogramNode node, List<Marker> displayedMarkers ) {
     	if ( node != null ) {
-    		ClusterMarker cm = node.getClusterMarker();
+    		ClusterMarker cm = getClusterMarker( node );
     		if ( cm != null ) {
     			Marker displayedMarker = cm.getDisplayedMarker();
     			if ( displayedMarker != null ) {
@@ -548,13 +1084,26 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     
     @Override
     public float getMinZoomLevelNotClustered( Marker marker ) {
-        if ( ! fullMarkerList.contains( marker) ) {
+        Integer observation = observationForMarker.get( marker );
+        LazyNode lazyNode = observation != null ? lazyNodeForObservation.get( observation ) : null;
+        if ( lazyNode != null ) {
+            // Its own level is known once its cluster is refined, which is started here. Until then it may be clustered at any zoom.
+            if ( ! refiningNodes.contains( lazyNode ) ) {
+                refineLater( Collections.singletonList( new Refinement( observations.getClusterGroup( observation ), lazyNode ) ) );
+            }
+            return Float.POSITIVE_INFINITY;
+        }
+        ObservationNode node = observation != null ? leafForObservation.get( observation ) : null;
+        if ( node == null ) {
             throw new UnsupportedOperationException( "marker is not visible or is a cluster" );
         }
-        DelegatingMarker dm = (DelegatingMarker)marker;
-        double dissimilarity = dm.parentNode.getDissimilarity();
+        if ( node.getParent() == null ) {
+            // The only marker in its cluster group
+            return 0.0f;
+        }
+        double dissimilarity = node.getParent().getDissimilarity();
         
-        return thresholdToZoom( dissimilarity );        
+        return RenderedZoomLevels.thresholdToZoom( dissimilarity );        
     }
     
     @Override
@@ -610,12 +1159,12 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     		Iterator<DendrogramNode> it = renderedNodes.iterator();
     		while ( it.hasNext() ) {
     			DendrogramNode node = it.next();
-    			Log.e("e","Checking latlngbounds " + bounds + " vs point " + node.getLatLng() + " contains=" + bounds.contains( node.getLatLng() ) );
-    			if ( ! bounds.contains( node.getLatLng() ) ) {
-    				ClusterMarker cm = node.getClusterMarker();
+    			Log.e("e","Checking latlngbounds " + bounds + " vs point " + positionOf( node ) + " contains=" + bounds.contains( positionOf( node ) ) );
+    			if ( ! bounds.contains( positionOf( node ) ) ) {
+    				ClusterMarker cm = getClusterMarker( node );
     				if ( cm != null ) {
     					cm.changeVisible( false );
-    					node.setClusterMarker( null );
+    					setClusterMarker( node, null );
     				}
     				it.remove();
     			}
@@ -628,26 +1177,32 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
 	// Do we need to add any new clusters? No split/merge animation will happen here.
 	// We pre-computed at dendrogram construction time the zoom range at which each point will be rendered ...
     private void addClustersNowInVisibleRegion() {
-    	if ( fullMarkerList.size() > 0 ) {
+    	if ( observationForMarker.size() > 0 ) {
     		VisibleRegion visibleRegion = factory.real.getVisibleRegion();
     		LatLngBounds bounds = visibleRegion.latLngBounds;
     		double[] low  = new double[]{ bounds.southwest.latitude, bounds.southwest.longitude };
     		double[] high = new double[]{ bounds.northeast.latitude, bounds.northeast.longitude };
     		
-    		// Use the tree to perform a range search, return all nodes within the visible bounds
+    		// Range search in the index's band of the current zoom, return the nodes within the visible bounds rendered at this zoom
     		for ( Integer clusterGroup : clusterGroupList ) { 
-    			List<DendrogramNode> visibleNodes = treeForClusterGroup.get( clusterGroup ).getRange( low, high );
+    			RenderedNodeIndex index = indexForClusterGroup.get( clusterGroup );
+    			if ( index == null ) {
+    				// Not built yet
+    				continue;
+    			}
+    			List<DendrogramNode> visibleNodes = index.getRange( low, high, zoom );
+    			refineVisibleLazyNodes( clusterGroup, visibleNodes );
     			for ( DendrogramNode node : visibleNodes ) {
     				if ( ! renderedNodes.contains( node )  &&  ! pendingRenderNodes.contains( node ) ) {    	    			
     					if ( node.getMinZoomRendered() <= zoom  &&  zoom < node.getMaxZoomRendered() ) {
-    						if ( node.getClusterMarker() == null ) {
+    						if ( getClusterMarker( node ) == null ) {
     							// Draw the cluster
     							ClusterMarker cm = new ClusterMarker( factory, this, node );
     							addToCluster(cm, node);
     							cm.splitClusterPosition = null; // Not animating
     							cm.mergeNode = null;    						
-    							node.setClusterMarker( cm );
-    							Log.v("e","addVisibleClusters: Adding visible cluster marker with size " + cm.getMarkersInternal().size() + " node" + node + " has cluster " + node.getClusterMarker() + " min=" + node.getMinZoomRendered() + " max=" + node.getMaxZoomRendered() + " zoom=" + zoom);
+    							setClusterMarker( node, cm );
+    							Log.v("e","addVisibleClusters: Adding visible cluster marker with size " + cm.getMarkersInternal().size() + " node" + node + " has cluster " + getClusterMarker( node ) + " min=" + node.getMinZoomRendered() + " max=" + node.getMaxZoomRendered() + " zoom=" + zoom);
     							refresh(cm);
     							renderedNodes.add( node );
     						}
@@ -660,22 +1215,7 @@ class HierarchicalClusteringStrategy implements ClusteringStrategy {
     }
     
     com.google.android.gms.maps.model.Marker createClusterMarker( List<Marker> markers, LatLng position ) {
-        markerOptions.position(position);
-        ClusterOptions opts = clusterOptionsProvider.getClusterOptions( markers );
-        markerOptions.icon( opts.getIcon() );
-        if ( GOOGLE_PLAY_SERVICES_4_0 ) {
-            try {
-                markerOptions.alpha( opts.getAlpha() );
-            } catch ( NoSuchMethodError error ) {
-                // not the cutest way to handle backward compatibility
-                GOOGLE_PLAY_SERVICES_4_0 = false;
-            }
-        }
-        markerOptions.anchor( opts.getAnchorU(), opts.getAnchorV() );
-        markerOptions.flat( opts.isFlat() );
-        markerOptions.infoWindowAnchor( opts.getInfoWindowAnchorU(), opts.getInfoWindowAnchorV() );
-        markerOptions.rotation( opts.getRotation() );
-        return factory.real.addMarker( markerOptions );
+        return ClusterMarker.addVirtual( factory.real, clusterOptionsProvider, markers, position );
     }
     
 	@Override
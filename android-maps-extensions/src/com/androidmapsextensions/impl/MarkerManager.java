@@ -28,6 +28,7 @@ import com.google.android.gms.maps.model.LatLng;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -48,7 +49,8 @@ class MarkerManager implements OnMarkerCreateListener {
     
     public MarkerManager( DelegatingGoogleMap factory ) {
         this.factory = factory;
-        this.markers = new HashMap<LazyMarker, DelegatingMarker>();
+        // Insertion order, strategies number the markers in this order and the dendrogram cache file depends on it
+        this.markers = new LinkedHashMap<LazyMarker, DelegatingMarker>();
         this.createdMarkers = new HashMap<com.google.android.gms.maps.model.Marker, LazyMarker>();
         this.clusteringStrategy = new HierarchicalClusteringStrategy( clusteringSettings, factory, new ArrayList<DelegatingMarker>(), new ClusterRefresher() );
     }
@@ -218,7 +220,13 @@ class MarkerManager implements OnMarkerCreateListener {
             this.clusteringSettings = clusteringSettings;
             clusteringStrategy.cleanup();
             ArrayList<DelegatingMarker> list = new ArrayList<DelegatingMarker>(markers.values());
-            if (clusteringSettings.isEnabled()) {
+            if (clusteringSettings.isEnabled() && clusteringSettings.getAlgorithm() == ClusteringSettings.Algorithm.GRID) {
+                clusteringStrategy = new GridClusteringStrategy(clusteringSettings, factory.real, list, new ClusterRefresher());
+            } else if (clusteringSettings.isEnabled() && clusteringSettings.getAlgorithm() == ClusteringSettings.Algorithm.GREEDY) {
+                clusteringStrategy = new GreedyClusteringStrategy(clusteringSettings, factory.real, list, new ClusterRefresher());
+            } else if (clusteringSettings.isEnabled() && clusteringSettings.getAlgorithm() == ClusteringSettings.Algorithm.VIEWPORT_HIERARCHICAL) {
+                clusteringStrategy = new ViewportClusteringStrategy(clusteringSettings, factory.real, list, new ClusterRefresher());
+            } else if (clusteringSettings.isEnabled()) {
                 clusteringStrategy = new HierarchicalClusteringStrategy(clusteringSettings, factory, list, new ClusterRefresher());
             } else if (clusteringSettings.isAddMarkersDynamically()) {
                 clusteringStrategy = new DynamicNoClusteringStrategy(factory.real, list);
@@ -37,6 +37,11 @@ class ProjectionWrapper implements IProjection {
         return projection.fromScreenLocation(point);
     }
 
+    @Override
+    public VisibleRegion getVisibleRegion() {
+        return projection.getVisibleRegion();
+    }
+
     @Override
     public Point toScreenLocation(LatLng location) {
         return projection.toScreenLocation(location);
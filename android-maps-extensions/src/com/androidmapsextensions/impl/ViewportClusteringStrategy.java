@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.androidmapsextensions.ClusterGroup;
+import com.androidmapsextensions.ClusterOptionsProvider;
+import com.androidmapsextensions.ClusteringSettings;
+import com.androidmapsextensions.Marker;
+import com.androidmapsextensions.dendrogram.ClusteredTile;
+import com.androidmapsextensions.dendrogram.ObservationStore;
+import com.androidmapsextensions.kdtree.KDTree2D;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Hierarchical clustering of only the markers around the visible region, for marker sets far larger than what is ever on screen.
+// The visible region is covered with the tiles of the level floor(zoom) (see ClusteredTile), the markers of each tile
+// are clustered on a background thread and the tile's clusters at that level are drawn. Clusters never cross tile borders.
+// Clustered tiles are cached and reused when the camera comes back, a marker change drops the cached tiles containing it.
+// A cached tile holds its dendrogram in the array-backed form of CompactDendrogram, not as a graph of nodes.
+class ViewportClusteringStrategy implements ClusteringStrategy {
+
+    // Google Maps zooms in up to 21
+    private static final int MAX_LEVEL = 21;
+    // Least recently used tiles are dropped first, a screen shows a few dozen tiles per cluster group
+    private static final int MAX_CACHED_TILES = 256;
+
+    private static ExecutorService tileExecutor;
+
+    private final IGoogleMap map;
+    private final ClusterRefresher refresher;
+    private final ClusterOptionsProvider clusterOptionsProvider;
+    private final double approximation;
+    private final double collapseGrid;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private float zoom;
+    private int renderedLevel = -1;
+    // Tiles clustered before the last change of the markers or of the rendered level are dropped
+    private volatile int generation;
+    private boolean renderScheduled;
+
+    // Observations are stable handles, a removed marker leaves a slot which is reused by the next added one
+    private ObservationStore observations = new ObservationStore(16);
+    private List<DelegatingMarker> markerForObservation = new ArrayList<DelegatingMarker>();
+    private Queue<Integer> freeObservations = new LinkedList<Integer>();
+    private Map<DelegatingMarker, Integer> observationForMarker = new HashMap<DelegatingMarker, Integer>();
+    private Map<Integer, KDTree2D> treeForClusterGroup = new HashMap<Integer, KDTree2D>();
+
+    private Map<TileKey, Tile> cachedTiles = new LinkedHashMap<TileKey, Tile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TileKey, Tile> eldest) {
+            return size() > MAX_CACHED_TILES;
+        }
+    };
+    private Set<TileKey> requestedTiles = new HashSet<TileKey>();
+    private Set<TileKey> visibleTiles = new HashSet<TileKey>();
+    private Map<TileKey, List<GreedyClusterMarker>> renderedTiles = new HashMap<TileKey, List<GreedyClusterMarker>>();
+
+    private static final class TileKey {
+        final int clusterGroup;
+        final int level;
+        final int column;
+        final int row;
+
+        TileKey(int clusterGroup, int level, int column, int row) {
+            this.clusterGroup = clusterGroup;
+            this.level = level;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return clusterGroup == other.clusterGroup && level == other.level && column == other.column && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((clusterGroup * 31 + level) * 31 + column) * 31 + row;
+        }
+    }
+
+    // The clusters of a tile, their observations are indices into observations
+    private static final class Tile {
+        final int[] observations;
+        final ClusteredTile clusters;
+
+        Tile(int[] observations, ClusteredTile clusters) {
+            this.observations = observations;
+            this.clusters = clusters;
+        }
+    }
+
+    private final Runnable scheduledRender = new Runnable() {
+        @Override
+        public void run() {
+            renderScheduled = false;
+            renderVisibleTiles();
+            refresher.refreshAll();
+        }
+    };
+
+    private static synchronized ExecutorService getTileExecutor() {
+        if (tileExecutor == null) {
+            tileExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ViewportClustering");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return tileExecutor;
+    }
+
+    public ViewportClusteringStrategy(ClusteringSettings settings, IGoogleMap map, List<DelegatingMarker> markers, ClusterRefresher refresher) {
+        this.map = map;
+        this.refresher = refresher;
+        this.clusterOptionsProvider = settings.getClusterOptionsProvider();
+        this.approximation = settings.getApproximation();
+        this.collapseGrid = settings.getCollapseGrid();
+        this.zoom = map.getCameraPosition().zoom;
+        for (DelegatingMarker marker : markers) {
+            if (marker.isVisible()) {
+                addMarker(marker);
+            }
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        // Drop scheduled and running clustering
+        mainHandler.removeCallbacks(scheduledRender);
+        renderScheduled = false;
+        ++generation;
+        requestedTiles.clear();
+        for (List<GreedyClusterMarker> clusters : renderedTiles.values()) {
+            for (GreedyClusterMarker cluster : clusters) {
+                cluster.cleanup();
+            }
+        }
+        renderedTiles.clear();
+        visibleTiles.clear();
+        cachedTiles.clear();
+        renderedLevel = -1;
+        refresher.cleanup();
+    }
+
+    @Override
+    public void resetAll() {
+        cleanup();
+        observations.clear();
+        markerForObservation.clear();
+        freeObservations.clear();
+        observationForMarker.clear();
+        treeForClusterGroup.clear();
+    }
+
+    @Override
+    public void onCameraChange(CameraPosition cameraPosition) {
+        zoom = cameraPosition.zoom;
+        renderVisibleTiles();
+        refresher.refreshAll();
+    }
+
+    @Override
+    public void onClusterGroupChange(DelegatingMarker marker) {
+        if (observationForMarker.containsKey(marker)) {
+            removeMarker(marker);
+            addMarker(marker);
+        }
+    }
+
+    @Override
+    public void onAdd(DelegatingMarker marker) {
+        if (!marker.isVisible()) {
+            return;
+        }
+        addMarker(marker);
+    }
+
+    @Override
+    public void onBulkAdd(List<DelegatingMarker> markers) {
+        for (DelegatingMarker marker : markers) {
+            onAdd(marker);
+        }
+    }
+
+    @Override
+    public void onRemove(DelegatingMarker marker) {
+        removeMarker(marker);
+    }
+
+    @Override
+    public void onPositionChange(DelegatingMarker marker) {
+        Integer observation = observationForMarker.get(marker);
+        if (observation == null) {
+            return;
+        }
+        int clusterGroup = observations.getClusterGroup(observation);
+        KDTree2D tree = treeForClusterGroup.get(clusterGroup);
+        tree.delete(observations.getLatitude(observation), observations.getLongitude(observation), observation);
+        invalidate(clusterGroup, observations.getLatitude(observation), observations.getLongitude(observation));
+        LatLng position = marker.getPosition();
+        observations.set(observation, position.latitude, position.longitude, clusterGroup);
+        tree.add(position.latitude, position.longitude, observation);
+        invalidate(clusterGroup, position.latitude, position.longitude);
+    }
+
+    @Override
+    public void onVisibilityChangeRequest(DelegatingMarker marker, boolean visible) {
+        if (visible) {
+            if (!observationForMarker.containsKey(marker)) {
+                addMarker(marker);
+            }
+        } else {
+            removeMarker(marker);
+            marker.changeVisible(false);
+        }
+    }
+
+    @Override
+    public void onShowInfoWindow(DelegatingMarker marker) {
+        marker.forceShowInfoWindow();
+    }
+
+    @Override
+    public Marker map(com.google.android.gms.maps.model.Marker original) {
+        for (List<GreedyClusterMarker> clusters : renderedTiles.values()) {
+            for (GreedyClusterMarker cluster : clusters) {
+                if (original.equals(cluster.getVirtual())) {
+                    return cluster;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Marker> getDisplayedMarkers() {
+        List<Marker> displayedMarkers = new ArrayList<Marker>();
+        for (List<GreedyClusterMarker> clusters : renderedTiles.values()) {
+            for (GreedyClusterMarker cluster : clusters) {
+                Marker displayedMarker = cluster.getDisplayedMarker();
+                if (displayedMarker != null) {
+                    displayedMarkers.add(displayedMarker);
+                }
+            }
+        }
+        return displayedMarkers;
+    }
+
+    @Override
+    public float getMinZoomLevelNotClustered(Marker marker) {
+        Integer observation = observationForMarker.get(marker);
+        if (observation == null) {
+            throw new UnsupportedOperationException("marker is not visible or is a cluster");
+        }
+        // Only known within the tile of the current level, as far as it is clustered
+        int level = getLevel();
+        double latitude = observations.getLatitude(observation);
+        double longitude = observations.getLongitude(observation);
+        TileKey key = new TileKey(observations.getClusterGroup(observation), level,
+                ClusteredTile.getColumn(level, longitude), ClusteredTile.getRow(level, latitude));
+        Tile tile = cachedTiles.get(key);
+        if (tile == null) {
+            // Not clustered yet or outside the visible region, clustered here and cached for rendering
+            int[] selected = selectObservations(key);
+            tile = new Tile(selected, clusterTile(key, copyObservations(key, selected)));
+            addTile(key, tile);
+        }
+        for (int i = 0; i < tile.observations.length; i++) {
+            if (tile.observations[i] == observation) {
+                return tile.clusters.getMinZoomLevelNotClustered(i);
+            }
+        }
+        // A tile always holds the markers at its positions
+        throw new IllegalStateException("marker is not in its tile");
+    }
+
+    @Override
+    public void refreshAll() {
+        refresher.refreshAll();
+    }
+
+    @Override
+    public void declusterify(Marker marker) {
+    }
+
+    @Override
+    public void clusterify(boolean animate) {
+    }
+
+    private int getLevel() {
+        return Math.max(0, Math.min(MAX_LEVEL, (int) Math.floor(zoom)));
+    }
+
+    private void addMarker(DelegatingMarker marker) {
+        Integer observation = freeObservations.poll();
+        if (observation == null) {
+            observation = markerForObservation.size();
+            markerForObservation.add(marker);
+        } else {
+            markerForObservation.set(observation, marker);
+        }
+        observationForMarker.put(marker, observation);
+        LatLng position = marker.getPosition();
+        int clusterGroup = marker.getClusterGroup();
+        observations.set(observation, position.latitude, position.longitude, clusterGroup);
+        KDTree2D tree = treeForClusterGroup.get(clusterGroup);
+        if (tree == null) {
+            tree = new KDTree2D();
+            treeForClusterGroup.put(clusterGroup, tree);
+        }
+        tree.add(position.latitude, position.longitude, observation);
+        invalidate(clusterGroup, position.latitude, position.longitude);
+    }
+
+    private void removeMarker(DelegatingMarker marker) {
+        Integer observation = observationForMarker.remove(marker);
+        if (observation == null) {
+            return;
+        }
+        int clusterGroup = observations.getClusterGroup(observation);
+        double latitude = observations.getLatitude(observation);
+        double longitude = observations.getLongitude(observation);
+        KDTree2D tree = treeForClusterGroup.get(clusterGroup);
+        tree.delete(latitude, longitude, observation);
+        if (tree.size() == 0) {
+            treeForClusterGroup.remove(clusterGroup);
+        }
+        markerForObservation.set(observation, null);
+        freeObservations.add(observation);
+        invalidate(clusterGroup, latitude, longitude);
+    }
+
+    // Drop the cached and rendered tiles of every level containing the position, the visible ones are clustered again
+    private void invalidate(int clusterGroup, double latitude, double longitude) {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            TileKey key = new TileKey(clusterGroup, level, ClusteredTile.getColumn(level, longitude), ClusteredTile.getRow(level, latitude));
+            cachedTiles.remove(key);
+            List<GreedyClusterMarker> clusters = renderedTiles.remove(key);
+            if (clusters != null) {
+                hide(clusters);
+            }
+        }
+        // Running clustering may have missed this change
+        ++generation;
+        requestedTiles.clear();
+        if (!renderScheduled) {
+            renderScheduled = true;
+            mainHandler.post(scheduledRender);
+        }
+    }
+
+    private void renderVisibleTiles() {
+        int level = getLevel();
+        if (level != renderedLevel) {
+            for (List<GreedyClusterMarker> clusters : renderedTiles.values()) {
+                hide(clusters);
+            }
+            renderedTiles.clear();
+            renderedLevel = level;
+            // Batches of the previous level would only fill the cache, cancel them
+            ++generation;
+            requestedTiles.clear();
+        }
+        visibleTiles = getVisibleTiles(level);
+
+        // Hide tiles which left the visible region first, their markers may be shown again by the new ones
+        Iterator<Map.Entry<TileKey, List<GreedyClusterMarker>>> iterator = renderedTiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<TileKey, List<GreedyClusterMarker>> entry = iterator.next();
+            if (!visibleTiles.contains(entry.getKey())) {
+                hide(entry.getValue());
+                iterator.remove();
+            }
+        }
+        List<TileKey> missingTiles = new ArrayList<TileKey>();
+        for (TileKey key : visibleTiles) {
+            if (renderedTiles.containsKey(key)) {
+                continue;
+            }
+            Tile tile = cachedTiles.get(key);
+            if (tile != null) {
+                renderTile(key, tile);
+            } else if (requestedTiles.add(key)) {
+                missingTiles.add(key);
+            }
+        }
+        if (!missingTiles.isEmpty()) {
+            clusterTiles(missingTiles);
+        }
+    }
+
+    // The tiles covering the visible region, for every cluster group
+    private Set<TileKey> getVisibleTiles(int level) {
+        LatLngBounds bounds = map.getVisibleRegion().latLngBounds;
+        int firstRow = ClusteredTile.getRow(level, bounds.southwest.latitude);
+        int lastRow = ClusteredTile.getRow(level, bounds.northeast.latitude);
+        int firstColumn = ClusteredTile.getColumn(level, bounds.southwest.longitude);
+        int lastColumn = ClusteredTile.getColumn(level, bounds.northeast.longitude);
+        int columnCount = ClusteredTile.getColumnCount(level);
+        // Columns wrap around across the antimeridian
+        int columns = lastColumn >= firstColumn ? lastColumn - firstColumn + 1 : lastColumn + columnCount - firstColumn + 1;
+        Set<TileKey> tiles = new HashSet<TileKey>();
+        for (Integer clusterGroup : treeForClusterGroup.keySet()) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int i = 0; i < columns; i++) {
+                    tiles.add(new TileKey(clusterGroup, level, (firstColumn + i) % columnCount, row));
+                }
+            }
+        }
+        return tiles;
+    }
+
+    // Positions are read here on the UI thread, the clustering only gets copies of the tiles' markers
+    private void clusterTiles(List<TileKey> keys) {
+        final int clusteringGeneration = generation;
+        final List<TileKey> tileKeys = new ArrayList<TileKey>(keys);
+        final List<int[]> tileObservations = new ArrayList<int[]>(keys.size());
+        final List<ObservationStore> tileStores = new ArrayList<ObservationStore>(keys.size());
+        for (TileKey key : keys) {
+            int[] selected = selectObservations(key);
+            tileObservations.add(selected);
+            tileStores.add(copyObservations(key, selected));
+        }
+        getTileExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < tileKeys.size(); i++) {
+                    if (clusteringGeneration != generation) {
+                        return;
+                    }
+                    final TileKey key = tileKeys.get(i);
+                    final Tile tile = new Tile(tileObservations.get(i), clusterTile(key, tileStores.get(i)));
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onTileClustered(clusteringGeneration, key, tile);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private ObservationStore copyObservations(TileKey key, int[] selected) {
+        ObservationStore store = new ObservationStore(selected.length);
+        for (int i = 0; i < selected.length; i++) {
+            store.set(i, observations.getLatitude(selected[i]), observations.getLongitude(selected[i]), key.clusterGroup);
+        }
+        return store;
+    }
+
+    private ClusteredTile clusterTile(TileKey key, ObservationStore store) {
+        return ClusteredTile.build(store, key.level, key.clusterGroup != ClusterGroup.NOT_CLUSTERED, approximation, collapseGrid);
+    }
+
+    private int[] selectObservations(final TileKey key) {
+        KDTree2D tree = treeForClusterGroup.get(key.clusterGroup);
+        if (tree == null) {
+            return new int[0];
+        }
+        final List<Integer> selected = new ArrayList<Integer>();
+        double size = ClusteredTile.getTileSize(key.level);
+        double lowLatitude = -90.0 + key.row * size;
+        double lowLongitude = -180.0 + key.column * size;
+        tree.range(lowLatitude, lowLongitude, lowLatitude + size, lowLongitude + size, new KDTree2D.Visitor() {
+            @Override
+            public void visit(double latitude, double longitude, int observation) {
+                // Markers on a border belong to one tile only
+                if (ClusteredTile.getRow(key.level, latitude) == key.row && ClusteredTile.getColumn(key.level, longitude) == key.column) {
+                    selected.add(observation);
+                }
+            }
+        });
+        int[] array = new int[selected.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = selected.get(i);
+        }
+        return array;
+    }
+
+    private void onTileClustered(int clusteringGeneration, TileKey key, Tile tile) {
+        if (clusteringGeneration != generation) {
+            return;
+        }
+        addTile(key, tile);
+    }
+
+    private void addTile(TileKey key, Tile tile) {
+        requestedTiles.remove(key);
+        cachedTiles.put(key, tile);
+        if (key.level == renderedLevel && visibleTiles.contains(key) && !renderedTiles.containsKey(key)) {
+            renderTile(key, tile);
+            refresher.refreshAll();
+        }
+    }
+
+    private void renderTile(TileKey key, Tile tile) {
+        ClusteredTile clusters = tile.clusters;
+        List<GreedyClusterMarker> rendered = new ArrayList<GreedyClusterMarker>(clusters.getClusterCount());
+        for (int i = 0; i < clusters.getClusterCount(); i++) {
+            GreedyClusterMarker cluster = new GreedyClusterMarker(map, clusterOptionsProvider,
+                    new LatLng(clusters.getLatitude(i), clusters.getLongitude(i)));
+            for (int index : clusters.getObservations(i)) {
+                DelegatingMarker marker = markerForObservation.get(tile.observations[index]);
+                if (marker != null) {
+                    cluster.add(marker);
+                }
+            }
+            rendered.add(cluster);
+            refresher.refresh(cluster);
+        }
+        renderedTiles.put(key, rendered);
+    }
+
+    private void hide(List<GreedyClusterMarker> clusters) {
+        for (GreedyClusterMarker cluster : clusters) {
+            cluster.changeVisible(false);
+        }
+    }
+}
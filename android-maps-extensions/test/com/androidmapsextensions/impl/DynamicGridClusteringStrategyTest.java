@@ -15,12 +15,13 @@
  */
 package com.androidmapsextensions.impl;
 
+import com.androidmapsextensions.ClusterOptions;
+import com.androidmapsextensions.ClusterOptionsProvider;
 import com.androidmapsextensions.ClusteringSettings;
 import com.androidmapsextensions.Marker;
+import com.google.android.gms.maps.GoogleMap.OnCameraChangeListener;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.LatLngBounds;
-import com.google.android.gms.maps.model.VisibleRegion;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -28,7 +29,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -36,11 +39,10 @@ import java.util.List;
 @RunWith(MockitoJUnitRunner.class)
 public class DynamicGridClusteringStrategyTest {
 
-    @Mock
-    private IGoogleMap map;
+    // About 2 by 2 degrees around the camera target on zoom level 8
+    private static final int VIEWPORT_SIZE = 364;
 
-    @Mock
-    private IProjection projection;
+    private SimulatedGoogleMap map;
 
     @Mock
     private ClusterRefresher refresher;
@@ -58,9 +60,7 @@ public class DynamicGridClusteringStrategyTest {
 
     @Before
     public void init() {
-        Mockito.when(map.getCameraPosition()).thenReturn(new CameraPosition(new LatLng(0, 0), 8, 0, 0));
-        Mockito.when(map.getProjection()).thenReturn(projection);
-        Mockito.when(projection.getVisibleRegion()).thenReturn(new VisibleRegion(new LatLng(-1, -1), new LatLng(-1, 1), new LatLng(1, -1), new LatLng(1, 1), new LatLngBounds(new LatLng(-1, -1), new LatLng(1, 1))));
+        map = new SimulatedGoogleMap(VIEWPORT_SIZE, VIEWPORT_SIZE, new CameraPosition(new LatLng(0, 0), 8, 0, 0));
 
         Mockito.when(marker1.isVisible()).thenReturn(true);
         Mockito.when(marker1.getPosition()).thenReturn(new LatLng(0, 0));
@@ -71,8 +71,19 @@ public class DynamicGridClusteringStrategyTest {
         Mockito.when(marker3.isVisible()).thenReturn(true);
         Mockito.when(marker3.getPosition()).thenReturn(new LatLng(0.1, 0.1));
 
-        ClusteringSettings settings = new ClusteringSettings().addMarkersDynamically(true);
+        ClusteringSettings settings = new ClusteringSettings().addMarkersDynamically(true).clusterOptionsProvider(new ClusterOptionsProvider() {
+            @Override
+            public ClusterOptions getClusterOptions(List<Marker> markers) {
+                return new ClusterOptions();
+            }
+        });
         strategy = new GridClusteringStrategy(settings, map, new ArrayList<DelegatingMarker>(), refresher);
+        map.setOnCameraChangeListener(new OnCameraChangeListener() {
+            @Override
+            public void onCameraChange(CameraPosition cameraPosition) {
+                strategy.onCameraChange(cameraPosition);
+            }
+        });
     }
 
     @Test
@@ -120,7 +131,7 @@ public class DynamicGridClusteringStrategyTest {
         strategy.onAdd(marker1);
         strategy.onAdd(marker3);
 
-        strategy.onCameraChange(new CameraPosition(new LatLng(0, 0), 21, 0, 0));
+        map.moveCamera(new CameraPosition(new LatLng(0, 0), 21, 0, 0));
 
         List<Marker> markers = strategy.getDisplayedMarkers();
 
@@ -193,17 +204,17 @@ public class DynamicGridClusteringStrategyTest {
         strategy.onAdd(marker1);
         strategy.onAdd(marker2);
 
-        strategy.onCameraChange(new CameraPosition(new LatLng(0, 0), 21, 0, 0));
+        map.moveCamera(new CameraPosition(new LatLng(0, 0), 21, 0, 0));
 
         Mockito.when(marker2.getPosition()).thenReturn(new LatLng(0.1, 0.1));
         strategy.onPositionChange(marker2);
 
-        strategy.onCameraChange(new CameraPosition(new LatLng(0, 0), 8, 0, 0));
+        map.moveCamera(new CameraPosition(new LatLng(0, 0), 8, 0, 0));
 
         Mockito.when(marker2.getPosition()).thenReturn(new LatLng(50, 50));
         strategy.onPositionChange(marker2);
 
-        strategy.onCameraChange(new CameraPosition(new LatLng(0, 0), 21, 0, 0));
+        map.moveCamera(new CameraPosition(new LatLng(0, 0), 21, 0, 0));
     }
 
     @Test(expected = UnsupportedOperationException.class)
@@ -239,4 +250,58 @@ public class DynamicGridClusteringStrategyTest {
         Assert.assertEquals(11.0f, strategy.getMinZoomLevelNotClustered(marker1), 0.0001f);
         Assert.assertEquals(11.0f, strategy.getMinZoomLevelNotClustered(marker3), 0.0001f);
     }
+
+    @Test
+    public void whenCameraScriptedShouldAddAndRemoveOnlyVisibleClusterMarkers() {
+        refreshClustersOnMap();
+
+        strategy.onAdd(marker1);
+        strategy.onAdd(marker2);
+        strategy.onAdd(marker3);
+
+        // marker1 and marker3 clustered, marker2 out of view
+        Assert.assertEquals(1, map.getAddMarkerCount());
+        Assert.assertEquals(0, map.getRemoveMarkerCount());
+        Assert.assertEquals(1, map.getMarkerCount());
+
+        map.moveCamera(new CameraPosition(new LatLng(0, 0), 21, 0, 0));
+        Assert.assertEquals(1, map.getAddMarkerCount());
+        Assert.assertEquals(1, map.getRemoveMarkerCount());
+        Assert.assertEquals(0, map.getMarkerCount());
+
+        map.moveCamera(new CameraPosition(new LatLng(0, 0), 8, 0, 0));
+        Assert.assertEquals(2, map.getAddMarkerCount());
+        Assert.assertEquals(1, map.getMarkerCount());
+
+        // Panning to marker2 draws it on its own, the cluster stays and is only moved to its position on the way back
+        map.moveCamera(new CameraPosition(new LatLng(50, 50), 8, 0, 0));
+        map.moveCamera(new CameraPosition(new LatLng(0, 0), 8, 0, 0));
+        Assert.assertEquals(2, map.getAddMarkerCount());
+        Assert.assertEquals(1, map.getRemoveMarkerCount());
+        Assert.assertEquals(1, map.getUpdateMarkerCount());
+        Assert.assertEquals(4, map.getCameraChangeCount());
+
+        // Moved within the cluster's cell, only its virtual marker moves
+        Mockito.when(marker3.getPosition()).thenReturn(new LatLng(0.05, 0.05));
+        strategy.onPositionChange(marker3);
+        Assert.assertEquals(2, map.getAddMarkerCount());
+        Assert.assertEquals(1, map.getRemoveMarkerCount());
+        Assert.assertEquals(2, map.getUpdateMarkerCount());
+
+        strategy.onRemove(marker1);
+        strategy.onRemove(marker3);
+        Assert.assertEquals(2, map.getRemoveMarkerCount());
+        Assert.assertEquals(0, map.getMarkerCount());
+    }
+
+    // Clusters refreshed as soon as they change, instead of on the next message of ClusterRefresher's Handler
+    private void refreshClustersOnMap() {
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((ClusterMarker) invocation.getArguments()[0]).refresh();
+                return null;
+            }
+        }).when(refresher).refresh(Mockito.any(ClusterMarker.class));
+    }
 }
@@ -49,6 +49,9 @@ public class GridClusteringStrategyTest {
     @Mock
     private DelegatingMarker marker3;
 
+    @Mock
+    private DelegatingMarker marker4;
+
     private ClusteringStrategy strategy;
 
     @Before
@@ -64,6 +67,9 @@ public class GridClusteringStrategyTest {
         Mockito.when(marker3.isVisible()).thenReturn(true);
         Mockito.when(marker3.getPosition()).thenReturn(new LatLng(0.1, 0.1));
 
+        Mockito.when(marker4.isVisible()).thenReturn(true);
+        Mockito.when(marker4.getPosition()).thenReturn(new LatLng(0, 0));
+
         ClusteringSettings settings = new ClusteringSettings();
         strategy = new GridClusteringStrategy(settings, map, new ArrayList<DelegatingMarker>(), refresher);
     }
@@ -232,4 +238,14 @@ public class GridClusteringStrategyTest {
         Assert.assertEquals(11.0f, strategy.getMinZoomLevelNotClustered(marker1), 0.0001f);
         Assert.assertEquals(11.0f, strategy.getMinZoomLevelNotClustered(marker3), 0.0001f);
     }
+
+    @Test
+    public void whenAddedMarkersAreAtTheSamePositionShouldReturnInfinity() {
+
+        strategy.onAdd(marker1);
+        strategy.onAdd(marker4);
+
+        Assert.assertEquals(Float.POSITIVE_INFINITY, strategy.getMinZoomLevelNotClustered(marker1), 0.0f);
+        Assert.assertEquals(Float.POSITIVE_INFINITY, strategy.getMinZoomLevelNotClustered(marker4), 0.0f);
+    }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import com.androidmapsextensions.ClusterOptions;
+import com.androidmapsextensions.ClusterOptionsProvider;
+import com.androidmapsextensions.ClusteringSettings;
+import com.androidmapsextensions.Marker;
+import com.google.android.gms.maps.GoogleMap.OnCameraChangeListener;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+public class HierarchicalClusteringStrategyTest {
+
+    // About 2 by 2 degrees around the camera target on zoom level 8
+    private static final int VIEWPORT_SIZE = 364;
+    // All markers of the tests are one cluster at this zoom
+    private static final float WORLD_ZOOM = 3;
+
+    // Runs what the strategy posts only when the test says so, like a build thread and a main thread which are late
+    private static final class QueuedExecutor implements Executor {
+
+        private final Queue<Runnable> queue = new LinkedList<Runnable>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            queue.add(runnable);
+        }
+
+        int size() {
+            return queue.size();
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.poll().run();
+            }
+        }
+    }
+
+    private SimulatedGoogleMap map;
+    private SimulatedMarkerAnimator animator;
+    private DelegatingGoogleMap factory;
+    private QueuedExecutor buildExecutor;
+    private QueuedExecutor mainExecutor;
+    private HierarchicalClusteringStrategy strategy;
+
+    @Before
+    public void init() {
+        map = new SimulatedGoogleMap(VIEWPORT_SIZE, VIEWPORT_SIZE, new CameraPosition(new LatLng(0, 0), WORLD_ZOOM, 0, 0));
+        animator = new SimulatedMarkerAnimator();
+        factory = new DelegatingGoogleMap(map, 1.0f);
+        factory.markerAnimator = animator;
+        buildExecutor = new QueuedExecutor();
+        mainExecutor = new QueuedExecutor();
+    }
+
+    @Test
+    public void whenBuildIsRestartedBeforeItRunsShouldNotSwapItIn() {
+        List<SimulatedMarker> first = createMarkers(new LatLng(0, 0), 10);
+        createStrategy(first);
+        List<SimulatedMarker> second = createMarkers(new LatLng(0.5, 0.5), 20);
+        strategy.onBulkAdd(new ArrayList<DelegatingMarker>(second));
+        Assert.assertEquals(2, buildExecutor.size());
+
+        buildExecutor.runAll();
+
+        // Only the restarted build is swapped in
+        Assert.assertEquals(1, mainExecutor.size());
+        mainExecutor.runAll();
+        assertClustered(first);
+        assertClustered(second);
+        assertOneClusterOf(all(first, second));
+    }
+
+    @Test
+    public void whenBuildIsRestartedBeforeItIsSwappedInShouldDropIt() {
+        List<SimulatedMarker> first = createMarkers(new LatLng(0, 0), 10);
+        createStrategy(first);
+        buildExecutor.runAll();
+        Assert.assertEquals(1, mainExecutor.size());
+        List<SimulatedMarker> second = createMarkers(new LatLng(0.5, 0.5), 20);
+        strategy.onBulkAdd(new ArrayList<DelegatingMarker>(second));
+
+        // The snapshot of the first markers only is stale
+        mainExecutor.runAll();
+        assertNotClustered(first.get(0));
+        Assert.assertEquals(0, map.getMarkerCount());
+
+        buildExecutor.runAll();
+        mainExecutor.runAll();
+        assertClustered(first);
+        assertClustered(second);
+        assertOneClusterOf(all(first, second));
+    }
+
+    @Test
+    public void whenMarkersChangeDuringBuildShouldReplayTheChangesOntoTheSnapshot() {
+        List<SimulatedMarker> markers = createMarkers(new LatLng(0, 0), 10);
+        createStrategy(markers);
+        // The snapshot has the markers as they were when the build started
+        buildExecutor.runAll();
+
+        SimulatedMarker added = new SimulatedMarker(map, factory, new LatLng(0.2, 0.2), 0);
+        strategy.onAdd(added);
+        SimulatedMarker removed = markers.get(3);
+        strategy.onRemove(removed);
+        SimulatedMarker moved = markers.get(5);
+        moved.moveTo(new LatLng(-0.3, -0.3));
+        strategy.onPositionChange(moved);
+        mainExecutor.runAll();
+        Assert.assertEquals(0, buildExecutor.size());
+
+        List<SimulatedMarker> expected = new ArrayList<SimulatedMarker>(markers);
+        expected.remove(removed);
+        expected.add(added);
+        assertClustered(expected);
+        assertNotClustered(removed);
+        assertOneClusterOf(expected);
+
+        // Each of them alone, the moved marker only at its new position
+        moveCamera(new CameraPosition(new LatLng(-0.3, -0.3), 18, 0, 0));
+        Assert.assertTrue(moved.isShown());
+        moveCamera(new CameraPosition(new LatLng(0.2, 0.2), 18, 0, 0));
+        Assert.assertTrue(added.isShown());
+        Assert.assertFalse(moved.isShown());
+    }
+
+    private List<SimulatedMarker> createMarkers(LatLng first, int count) {
+        List<SimulatedMarker> markers = new ArrayList<SimulatedMarker>();
+        for (int i = 0; i < count; i++) {
+            markers.add(new SimulatedMarker(map, factory, new LatLng(first.latitude + 0.01 * i, first.longitude + 0.01 * i), 0));
+        }
+        return markers;
+    }
+
+    private void createStrategy(List<SimulatedMarker> markers) {
+        ClusteringSettings settings = new ClusteringSettings().clusterOptionsProvider(new ClusterOptionsProvider() {
+            @Override
+            public ClusterOptions getClusterOptions(List<Marker> markers) {
+                return new ClusterOptions();
+            }
+        });
+        strategy = new HierarchicalClusteringStrategy(settings, factory, new ArrayList<DelegatingMarker>(markers), new ClusterRefresher(),
+                buildExecutor, mainExecutor);
+        map.setOnCameraChangeListener(new OnCameraChangeListener() {
+            @Override
+            public void onCameraChange(CameraPosition cameraPosition) {
+                strategy.onCameraChange(cameraPosition);
+            }
+        });
+        Assert.assertEquals(1, buildExecutor.size());
+    }
+
+    private void moveCamera(CameraPosition cameraPosition) {
+        map.moveCamera(cameraPosition);
+        animator.finishAnimations();
+    }
+
+    private static List<SimulatedMarker> all(List<SimulatedMarker> first, List<SimulatedMarker> second) {
+        List<SimulatedMarker> all = new ArrayList<SimulatedMarker>(first);
+        all.addAll(second);
+        return all;
+    }
+
+    // Only markers of the dendrogram have a leaf, and so a zoom
+    private void assertClustered(List<SimulatedMarker> markers) {
+        for (SimulatedMarker marker : markers) {
+            float zoom = strategy.getMinZoomLevelNotClustered(marker);
+            Assert.assertTrue(zoom >= 0 && zoom < Float.POSITIVE_INFINITY);
+        }
+    }
+
+    private void assertNotClustered(SimulatedMarker marker) {
+        try {
+            strategy.getMinZoomLevelNotClustered(marker);
+            Assert.fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    // At the world zoom the dendrogram's root is drawn, at the centroid of the markers' current positions
+    private void assertOneClusterOf(List<SimulatedMarker> markers) {
+        moveCamera(new CameraPosition(new LatLng(0, 0), WORLD_ZOOM, 0, 0));
+        List<Marker> displayed = strategy.getDisplayedMarkers();
+        Assert.assertEquals(1, displayed.size());
+        ClusterMarker cluster = (ClusterMarker) displayed.get(0);
+        Assert.assertEquals(new HashSet<DelegatingMarker>(markers), new HashSet<DelegatingMarker>(cluster.getMarkersInternal()));
+        double latitude = 0;
+        double longitude = 0;
+        for (SimulatedMarker marker : markers) {
+            latitude += marker.getPosition().latitude;
+            longitude += marker.getPosition().longitude;
+        }
+        Assert.assertEquals(latitude / markers.size(), cluster.calculatePosition().latitude, 1e-9);
+        Assert.assertEquals(longitude / markers.size(), cluster.calculatePosition().longitude, 1e-9);
+    }
+}
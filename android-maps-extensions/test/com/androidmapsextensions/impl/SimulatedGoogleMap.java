@@ -0,0 +1,621 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.location.Location;
+import android.os.IBinder;
+
+import com.google.android.gms.dynamic.b;
+import com.google.android.gms.maps.CameraUpdate;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.GoogleMap.CancelableCallback;
+import com.google.android.gms.maps.GoogleMap.InfoWindowAdapter;
+import com.google.android.gms.maps.GoogleMap.OnCameraChangeListener;
+import com.google.android.gms.maps.GoogleMap.OnInfoWindowClickListener;
+import com.google.android.gms.maps.GoogleMap.OnMapClickListener;
+import com.google.android.gms.maps.GoogleMap.OnMapLongClickListener;
+import com.google.android.gms.maps.GoogleMap.OnMarkerClickListener;
+import com.google.android.gms.maps.GoogleMap.OnMarkerDragListener;
+import com.google.android.gms.maps.GoogleMap.OnMyLocationButtonClickListener;
+import com.google.android.gms.maps.GoogleMap.OnMyLocationChangeListener;
+import com.google.android.gms.maps.LocationSource;
+import com.google.android.gms.maps.Projection;
+import com.google.android.gms.maps.UiSettings;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.Circle;
+import com.google.android.gms.maps.model.CircleOptions;
+import com.google.android.gms.maps.model.GroundOverlay;
+import com.google.android.gms.maps.model.GroundOverlayOptions;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polygon;
+import com.google.android.gms.maps.model.PolygonOptions;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+import com.google.android.gms.maps.model.VisibleRegion;
+import com.google.android.gms.maps.model.internal.d;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * In-memory IGoogleMap for driving strategies off-device, e.g. through camera scripts in tests and benchmarks.
+ * The camera is projected with Web Mercator like the real map, rotated by its bearing. Tilt is kept in the
+ * camera position, but the map is projected as seen from straight above.
+ * Markers are real Marker objects backed by an in-memory delegate, calls on them are counted,
+ * so the cost of a camera change in map calls can be measured. Other overlays are not simulated.
+ *
+ * CameraUpdates cannot be interpreted without Play Services, move the camera with moveCamera(CameraPosition).
+ *
+ * Marker is final in Play Services and can only be created around its delegate interface, which is obfuscated,
+ * so this depends on the exact Play Services version and stays out of the library.
+ */
+class SimulatedGoogleMap implements IGoogleMap {
+
+    private static final int TILE_SIZE = 256;
+    private static final float MIN_ZOOM = 2.0f;
+    private static final float MAX_ZOOM = 21.0f;
+
+    private final int widthPixels;
+    private final int heightPixels;
+    private CameraPosition cameraPosition;
+    private OnCameraChangeListener onCameraChangeListener;
+
+    private final Set<SimulatedMarker> markers = new HashSet<SimulatedMarker>();
+    private int nextMarkerId;
+    private int addMarkerCount;
+    private int removeMarkerCount;
+    private int updateMarkerCount;
+    private int cameraChangeCount;
+
+    SimulatedGoogleMap(int widthPixels, int heightPixels, CameraPosition cameraPosition) {
+        this.widthPixels = widthPixels;
+        this.heightPixels = heightPixels;
+        this.cameraPosition = cameraPosition;
+    }
+
+    /**
+     * Moves the camera and notifies the OnCameraChangeListener, as the real map does after a camera change.
+     */
+    void moveCamera(CameraPosition position) {
+        float zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, position.zoom));
+        cameraPosition = new CameraPosition(position.target, zoom, position.tilt, position.bearing);
+        cameraChangeCount++;
+        if (onCameraChangeListener != null) {
+            onCameraChangeListener.onCameraChange(cameraPosition);
+        }
+    }
+
+    int getMarkerCount() {
+        return markers.size();
+    }
+
+    int getAddMarkerCount() {
+        return addMarkerCount;
+    }
+
+    int getRemoveMarkerCount() {
+        return removeMarkerCount;
+    }
+
+    // Calls changing a marker's position, icon, visibility or any other property
+    int getUpdateMarkerCount() {
+        return updateMarkerCount;
+    }
+
+    int getCameraChangeCount() {
+        return cameraChangeCount;
+    }
+
+    void resetCounts() {
+        addMarkerCount = 0;
+        removeMarkerCount = 0;
+        updateMarkerCount = 0;
+        cameraChangeCount = 0;
+    }
+
+    @Override
+    public Marker addMarker(MarkerOptions options) {
+        SimulatedMarker marker = new SimulatedMarker(options);
+        markers.add(marker);
+        addMarkerCount++;
+        return new Marker(marker);
+    }
+
+    @Override
+    public Circle addCircle(CircleOptions options) {
+        throw new UnsupportedOperationException("Only markers are simulated");
+    }
+
+    @Override
+    public GroundOverlay addGroundOverlay(GroundOverlayOptions options) {
+        throw new UnsupportedOperationException("Only markers are simulated");
+    }
+
+    @Override
+    public Polygon addPolygon(PolygonOptions options) {
+        throw new UnsupportedOperationException("Only markers are simulated");
+    }
+
+    @Override
+    public Polyline addPolyline(PolylineOptions options) {
+        throw new UnsupportedOperationException("Only markers are simulated");
+    }
+
+    @Override
+    public TileOverlay addTileOverlay(TileOverlayOptions options) {
+        throw new UnsupportedOperationException("Only markers are simulated");
+    }
+
+    @Override
+    public void animateCamera(CameraUpdate update, CancelableCallback callback) {
+        throw new UnsupportedOperationException("Use moveCamera(CameraPosition)");
+    }
+
+    @Override
+    public void animateCamera(CameraUpdate update, int durationMs, CancelableCallback callback) {
+        throw new UnsupportedOperationException("Use moveCamera(CameraPosition)");
+    }
+
+    @Override
+    public void animateCamera(CameraUpdate update) {
+        throw new UnsupportedOperationException("Use moveCamera(CameraPosition)");
+    }
+
+    @Override
+    public void moveCamera(CameraUpdate update) {
+        throw new UnsupportedOperationException("Use moveCamera(CameraPosition)");
+    }
+
+    @Override
+    public void clear() {
+        for (SimulatedMarker marker : new HashSet<SimulatedMarker>(markers)) {
+            marker.remove();
+        }
+    }
+
+    @Override
+    public CameraPosition getCameraPosition() {
+        return cameraPosition;
+    }
+
+    @Override
+    public int getMapType() {
+        return GoogleMap.MAP_TYPE_NORMAL;
+    }
+
+    @Override
+    public float getMaxZoomLevel() {
+        return MAX_ZOOM;
+    }
+
+    @Override
+    public float getMinZoomLevel() {
+        return MIN_ZOOM;
+    }
+
+    @Override
+    public Location getMyLocation() {
+        return null;
+    }
+
+    @Override
+    public SimulatedProjection getProjection() {
+        return new SimulatedProjection(cameraPosition);
+    }
+
+    @Override
+    public UiSettings getUiSettings() {
+        return null;
+    }
+
+    @Override
+    public boolean isBuildingsEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isIndoorEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isMyLocationEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isTrafficEnabled() {
+        return false;
+    }
+
+    @Override
+    public void setBuildingsEnabled(boolean enabled) {
+    }
+
+    @Override
+    public boolean setIndoorEnabled(boolean enabled) {
+        return false;
+    }
+
+    @Override
+    public void setInfoWindowAdapter(InfoWindowAdapter adapter) {
+    }
+
+    @Override
+    public void setLocationSource(LocationSource source) {
+    }
+
+    @Override
+    public void setMapType(int type) {
+    }
+
+    @Override
+    public void setMyLocationEnabled(boolean enabled) {
+    }
+
+    @Override
+    public void setOnCameraChangeListener(OnCameraChangeListener listener) {
+        onCameraChangeListener = listener;
+    }
+
+    @Override
+    public void setOnInfoWindowClickListener(OnInfoWindowClickListener listener) {
+    }
+
+    @Override
+    public void setOnMapClickListener(OnMapClickListener listener) {
+    }
+
+    @Override
+    public void setOnMapLoadedCallback(GoogleMap.OnMapLoadedCallback callback) {
+    }
+
+    @Override
+    public void setOnMapLongClickListener(OnMapLongClickListener listener) {
+    }
+
+    @Override
+    public void setOnMarkerClickListener(OnMarkerClickListener listener) {
+    }
+
+    @Override
+    public void setOnMarkerDragListener(OnMarkerDragListener listener) {
+    }
+
+    @Override
+    public void setOnMyLocationButtonClickListener(OnMyLocationButtonClickListener listener) {
+    }
+
+    @Override
+    public void setOnMyLocationChangeListener(OnMyLocationChangeListener listener) {
+    }
+
+    @Override
+    public void setPadding(int left, int top, int right, int bottom) {
+    }
+
+    @Override
+    public void setTrafficEnabled(boolean enabled) {
+    }
+
+    @Override
+    public void snapshot(GoogleMap.SnapshotReadyCallback callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void snapshot(GoogleMap.SnapshotReadyCallback callback, Bitmap bitmap) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void stopAnimation() {
+    }
+
+    @Override
+    public GoogleMap getMap() {
+        return null;
+    }
+
+    // Padded and whole world at low zoom, the same as GoogleMapWrapper
+    @Override
+    public VisibleRegion getVisibleRegion() {
+        if (cameraPosition.zoom <= 2.5) {
+            return new VisibleRegion(new LatLng(-90, -180), new LatLng(-90, 180), new LatLng(90, -180), new LatLng(90, 180), new LatLngBounds(new LatLng(-90, -180), new LatLng(90, 180 - 1e-9)));
+        }
+        double nPad = 0.3;
+        SimulatedProjection projection = getProjection();
+        LatLng nearLeft = projection.fromScreenLocation(-widthPixels * nPad, heightPixels * (nPad + 1));
+        LatLng nearRight = projection.fromScreenLocation(widthPixels * (nPad + 1), heightPixels * (nPad + 1));
+        LatLng farLeft = projection.fromScreenLocation(-widthPixels * nPad, -heightPixels * nPad);
+        LatLng farRight = projection.fromScreenLocation(widthPixels * (nPad + 1), -heightPixels * nPad);
+        LatLngBounds latLngBounds = new LatLngBounds.Builder()
+                .include(nearLeft)
+                .include(nearRight)
+                .include(farLeft)
+                .include(farRight)
+                .build();
+        return new VisibleRegion(nearLeft, nearRight, farLeft, farRight, latLngBounds);
+    }
+
+    // Web Mercator in pixels of the world at the camera's zoom, the camera target is in the center of the viewport
+    class SimulatedProjection implements IProjection {
+
+        private final double worldSize;
+        private final double targetX;
+        private final double targetY;
+        private final double cos;
+        private final double sin;
+
+        SimulatedProjection(CameraPosition cameraPosition) {
+            worldSize = TILE_SIZE * Math.pow(2, cameraPosition.zoom);
+            targetX = worldX(cameraPosition.target.longitude);
+            targetY = worldY(cameraPosition.target.latitude);
+            cos = Math.cos(Math.toRadians(cameraPosition.bearing));
+            sin = Math.sin(Math.toRadians(cameraPosition.bearing));
+        }
+
+        @Override
+        public LatLng fromScreenLocation(Point point) {
+            return fromScreenLocation(point.x, point.y);
+        }
+
+        LatLng fromScreenLocation(double x, double y) {
+            // Rotate back from the camera's bearing, which points up
+            double sx = x - widthPixels / 2.0;
+            double sy = y - heightPixels / 2.0;
+            double wx = targetX + sx * cos - sy * sin;
+            double wy = targetY + sx * sin + sy * cos;
+            double longitude = wx / worldSize * 360 - 180;
+            double n = Math.PI * (1 - 2 * wy / worldSize);
+            return new LatLng(Math.toDegrees(Math.atan(Math.sinh(n))), longitude);
+        }
+
+        // Not padded, unlike SimulatedGoogleMap.getVisibleRegion
+        @Override
+        public VisibleRegion getVisibleRegion() {
+            LatLng nearLeft = fromScreenLocation(0, heightPixels);
+            LatLng nearRight = fromScreenLocation(widthPixels, heightPixels);
+            LatLng farLeft = fromScreenLocation(0, 0);
+            LatLng farRight = fromScreenLocation(widthPixels, 0);
+            LatLngBounds latLngBounds = new LatLngBounds.Builder()
+                    .include(nearLeft)
+                    .include(nearRight)
+                    .include(farLeft)
+                    .include(farRight)
+                    .build();
+            return new VisibleRegion(nearLeft, nearRight, farLeft, farRight, latLngBounds);
+        }
+
+        @Override
+        public Point toScreenLocation(LatLng location) {
+            double dx = worldX(location.longitude) - targetX;
+            double dy = worldY(location.latitude) - targetY;
+            // The shorter way around the world
+            if (dx > worldSize / 2) {
+                dx -= worldSize;
+            } else if (dx < -worldSize / 2) {
+                dx += worldSize;
+            }
+            double sx = dx * cos + dy * sin;
+            double sy = -dx * sin + dy * cos;
+            return new Point((int) Math.round(sx + widthPixels / 2.0), (int) Math.round(sy + heightPixels / 2.0));
+        }
+
+        // No Play Services projection behind it
+        @Override
+        public Projection getProjection() {
+            return null;
+        }
+
+        private double worldX(double longitude) {
+            return (longitude + 180) / 360 * worldSize;
+        }
+
+        private double worldY(double latitude) {
+            double sin = Math.sin(Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, latitude))));
+            return (0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * worldSize;
+        }
+    }
+
+    // Delegate behind a Marker returned by addMarker
+    private class SimulatedMarker implements d {
+
+        private final String id;
+        private LatLng position;
+        private String title;
+        private String snippet;
+        private boolean draggable;
+        private boolean visible;
+        private boolean flat;
+        private boolean infoWindowShown;
+        private float rotation;
+        private float alpha;
+        private boolean removed;
+
+        SimulatedMarker(MarkerOptions options) {
+            id = "m" + nextMarkerId++;
+            position = options.getPosition();
+            title = options.getTitle();
+            snippet = options.getSnippet();
+            draggable = options.isDraggable();
+            visible = options.isVisible();
+            flat = options.isFlat();
+            rotation = options.getRotation();
+            alpha = options.getAlpha();
+        }
+
+        private void update() {
+            updateMarkerCount++;
+        }
+
+        @Override
+        public void remove() {
+            if (!removed) {
+                removed = true;
+                markers.remove(this);
+                removeMarkerCount++;
+            }
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public void setPosition(LatLng position) {
+            this.position = position;
+            update();
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return position;
+        }
+
+        @Override
+        public void setTitle(String title) {
+            this.title = title;
+            update();
+        }
+
+        @Override
+        public String getTitle() {
+            return title;
+        }
+
+        @Override
+        public void setSnippet(String snippet) {
+            this.snippet = snippet;
+            update();
+        }
+
+        @Override
+        public String getSnippet() {
+            return snippet;
+        }
+
+        @Override
+        public void setDraggable(boolean draggable) {
+            this.draggable = draggable;
+            update();
+        }
+
+        @Override
+        public boolean isDraggable() {
+            return draggable;
+        }
+
+        @Override
+        public void showInfoWindow() {
+            infoWindowShown = true;
+        }
+
+        @Override
+        public void hideInfoWindow() {
+            infoWindowShown = false;
+        }
+
+        @Override
+        public boolean isInfoWindowShown() {
+            return infoWindowShown;
+        }
+
+        @Override
+        public void setVisible(boolean visible) {
+            this.visible = visible;
+            update();
+        }
+
+        @Override
+        public boolean isVisible() {
+            return visible;
+        }
+
+        // equals
+        @Override
+        public boolean h(d other) {
+            return other == this;
+        }
+
+        @Override
+        public int hashCodeRemote() {
+            return System.identityHashCode(this);
+        }
+
+        // setIcon
+        @Override
+        public void i(b icon) {
+            update();
+        }
+
+        @Override
+        public void setAnchor(float anchorU, float anchorV) {
+            update();
+        }
+
+        @Override
+        public void setFlat(boolean flat) {
+            this.flat = flat;
+            update();
+        }
+
+        @Override
+        public boolean isFlat() {
+            return flat;
+        }
+
+        @Override
+        public void setRotation(float rotation) {
+            this.rotation = rotation;
+            update();
+        }
+
+        @Override
+        public float getRotation() {
+            return rotation;
+        }
+
+        @Override
+        public void setInfoWindowAnchor(float anchorU, float anchorV) {
+            update();
+        }
+
+        @Override
+        public void setAlpha(float alpha) {
+            this.alpha = alpha;
+            update();
+        }
+
+        @Override
+        public float getAlpha() {
+            return alpha;
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import com.androidmapsextensions.AnimationSettings;
+import com.androidmapsextensions.lazy.LazyMarker;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+/**
+ * A user's marker, drawn on a SimulatedGoogleMap when a strategy shows it for the first time, like LazyMarker does.
+ * There is no MarkerManager behind it, strategies are driven directly and the marker is moved with moveTo().
+ * Its LazyMarker is never created and only keeps the options, ClusterMarker reads and moves some markers through it.
+ */
+class SimulatedMarker extends DelegatingMarker {
+
+    private final SimulatedGoogleMap map;
+    private final DelegatingGoogleMap factory;
+    private final int clusterGroup;
+    private LatLng position;
+    private com.google.android.gms.maps.model.Marker marker;
+
+    SimulatedMarker(SimulatedGoogleMap map, DelegatingGoogleMap factory, LatLng position, int clusterGroup) {
+        super(new LazyMarker(null, new MarkerOptions().position(position).visible(false)), null);
+        this.map = map;
+        this.factory = factory;
+        this.position = position;
+        this.clusterGroup = clusterGroup;
+    }
+
+    // Call the strategy's onPositionChange() after it
+    void moveTo(LatLng position) {
+        this.position = position;
+        setVirtualPosition(position);
+    }
+
+    boolean isShown() {
+        return marker != null && marker.isVisible();
+    }
+
+    @Override
+    public LatLng getPosition() {
+        return position;
+    }
+
+    @Override
+    public int getClusterGroup() {
+        return clusterGroup;
+    }
+
+    @Override
+    public boolean isVisible() {
+        return true;
+    }
+
+    @Override
+    void changeVisible(boolean visible) {
+        if (marker != null) {
+            marker.setVisible(visible);
+        } else if (visible) {
+            marker = map.addMarker(new MarkerOptions().position(real.getPosition()));
+        }
+    }
+
+    @Override
+    void setVirtualPosition(LatLng position) {
+        real.setPosition(position);
+        if (marker != null) {
+            marker.setPosition(position);
+        }
+    }
+
+    @Override
+    public void setPositionDuringScreenAnimation(LatLng position) {
+        setVirtualPosition(position);
+    }
+
+    @Override
+    public void animateScreenPosition(LatLng from, LatLng to, AnimationSettings settings, AnimationCallback callback) {
+        factory.markerAnimator.cancelScreenAnimation(this, AnimationCallback.CancelReason.ANIMATE_POSITION);
+        factory.markerAnimator.animateScreen(this, from, to, 0, settings, callback);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2013 Maciej Górski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.androidmapsextensions.impl;
+
+import com.androidmapsextensions.AnimationSettings;
+import com.androidmapsextensions.Marker;
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Animations which only end when finishAnimations() is called, there are no frames off-device.
+ * A camera script finishes them between camera changes, as if the user waited for them.
+ */
+class SimulatedMarkerAnimator extends MarkerAnimator {
+
+    private final Map<Marker, Animation> animations = new LinkedHashMap<Marker, Animation>();
+
+    private static final class Animation {
+
+        private final LatLng to;
+        private final Marker.AnimationCallback callback;
+
+        Animation(LatLng to, Marker.AnimationCallback callback) {
+            this.to = to;
+            this.callback = callback;
+        }
+    }
+
+    @Override
+    public void animateScreen(Marker marker, LatLng from, LatLng to, long start, AnimationSettings settings, Marker.AnimationCallback callback) {
+        marker.setPositionDuringScreenAnimation(from);
+        animations.put(marker, new Animation(to, callback));
+    }
+
+    @Override
+    public void animate(DelegatingMarker marker, LatLng from, LatLng to, long start, AnimationSettings settings, Marker.AnimationCallback callback) {
+        animateScreen(marker, from, to, start, settings, callback);
+    }
+
+    @Override
+    public void cancelScreenAnimation(Marker marker, Marker.AnimationCallback.CancelReason reason) {
+        Animation animation = animations.remove(marker);
+        if (animation != null && animation.callback != null) {
+            animation.callback.onCancel(marker, reason);
+        }
+    }
+
+    @Override
+    public void cancelAnimation(DelegatingMarker marker, Marker.AnimationCallback.CancelReason reason) {
+        cancelScreenAnimation(marker, reason);
+    }
+
+    int getAnimationCount() {
+        return animations.size();
+    }
+
+    // Callbacks may start new animations, those are finished too
+    void finishAnimations() {
+        while (!animations.isEmpty()) {
+            List<Map.Entry<Marker, Animation>> finished = new ArrayList<Map.Entry<Marker, Animation>>(animations.entrySet());
+            animations.clear();
+            for (Map.Entry<Marker, Animation> entry : finished) {
+                entry.getKey().setPositionDuringScreenAnimation(entry.getValue().to);
+                if (entry.getValue().callback != null) {
+                    entry.getValue().callback.onFinish(entry.getKey());
+                }
+            }
+        }
+    }
+}